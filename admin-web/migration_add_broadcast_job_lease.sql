@@ -0,0 +1,10 @@
+-- ===========================================
+-- Migration: Add lease columns to broadcast_jobs
+-- Date: 2026-10-19
+-- Purpose: 多个管理后台实例通过数据库租约领取群发任务，避免重复投递
+-- ===========================================
+
+ALTER TABLE broadcast_jobs ADD COLUMN IF NOT EXISTS lease_owner VARCHAR(64);
+ALTER TABLE broadcast_jobs ADD COLUMN IF NOT EXISTS lease_heartbeat TIMESTAMP WITH TIME ZONE;
+
+SELECT '迁移完成：broadcast_jobs 已添加租约字段' AS status;
@@ -0,0 +1,37 @@
+-- ===========================================
+-- Migration: Add broadcast_jobs table
+-- Date: 2026-10-19
+-- Purpose: 群发改为后台任务，记录进度以便崩溃后续传
+-- ===========================================
+
+CREATE TABLE IF NOT EXISTS broadcast_jobs (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    sender VARCHAR(320) NOT NULL,
+    subject VARCHAR(998),
+    body TEXT,
+    raw_content TEXT NOT NULL,
+    target_domain VARCHAR(255),
+    admin_only BOOLEAN NOT NULL DEFAULT false,
+    explicit_recipients VARCHAR(320)[],
+    status VARCHAR(20) NOT NULL DEFAULT 'pending',
+    total_count INT NOT NULL DEFAULT 0,
+    sent_count INT NOT NULL DEFAULT 0,
+    last_recipient VARCHAR(320),
+    last_error TEXT,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    finished_at TIMESTAMP WITH TIME ZONE
+);
+
+CREATE INDEX IF NOT EXISTS idx_broadcast_jobs_status ON broadcast_jobs(status) WHERE status IN ('pending', 'running');
+CREATE INDEX IF NOT EXISTS idx_broadcast_jobs_created ON broadcast_jobs(created_at DESC);
+
+DROP TRIGGER IF EXISTS update_broadcast_jobs_updated_at ON broadcast_jobs;
+CREATE TRIGGER update_broadcast_jobs_updated_at
+    BEFORE UPDATE ON broadcast_jobs
+    FOR EACH ROW
+    EXECUTE FUNCTION update_updated_at_column();
+
+COMMENT ON TABLE broadcast_jobs IS '群发任务表，记录后台群发进度，支持崩溃后续传';
+
+SELECT '迁移完成：broadcast_jobs 表已创建' AS status;
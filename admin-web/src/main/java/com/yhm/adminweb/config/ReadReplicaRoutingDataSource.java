@@ -0,0 +1,100 @@
+package com.yhm.adminweb.config;
+
+import com.yhm.mail.core.replica.ReplicaRouter;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 按事务只读属性路由到主库或只读副本的数据源
+ *
+ * - @Transactional(readOnly = true) 中的查询在副本足够新时走副本（由 {@link ReplicaRouter} 判断延迟）
+ * - 其他连接走主库；读写事务提交后调用 {@link ReplicaRouter#markWritten()}，
+ *   之后的只读查询走主库直到副本追上，管理员刚做的修改在下一次页面刷新时就能看到
+ *
+ * 路由在第一次执行语句时才决定（{@link LazyConnectionDataSourceProxy}），
+ * 此时事务的只读属性已经设置好。
+ */
+public class ReadReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    // 在其他线程上执行的分片查询继承调用方事务的只读属性
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    private final ReplicaRouter router;
+
+    private ReadReplicaRoutingDataSource(ReplicaRouter router) {
+        this.router = router;
+        setTargetDataSources(Map.of(PRIMARY, router.primary(), REPLICA, router.replica()));
+        setDefaultTargetDataSource(router.primary());
+        afterPropertiesSet();
+    }
+
+    /**
+     * 创建延迟获取连接的路由数据源
+     */
+    public static DataSource create(ReplicaRouter router) {
+        return new LazyConnectionDataSourceProxy(new ReadReplicaRoutingDataSource(router));
+    }
+
+    /**
+     * 以指定的只读属性执行（用于把调用方事务的只读属性带到分片查询线程）
+     */
+    public static <T> T withReadOnly(boolean readOnly, Supplier<T> action) {
+        Boolean previous = READ_ONLY.get();
+        READ_ONLY.set(readOnly);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                READ_ONLY.remove();
+            } else {
+                READ_ONLY.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 当前线程是否处于只读上下文
+     */
+    public static boolean isReadOnly() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || Boolean.TRUE.equals(READ_ONLY.get());
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (isReadOnly()) {
+            return router.route() == ReplicaRouter.Route.REPLICA ? REPLICA : PRIMARY;
+        }
+        markWrittenAfterCommit();
+        return PRIMARY;
+    }
+
+    private void markWrittenAfterCommit() {
+        if (!router.hasReplica()
+                || !TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                router.markWritten();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(ReadReplicaRoutingDataSource.this);
+            }
+        });
+    }
+}
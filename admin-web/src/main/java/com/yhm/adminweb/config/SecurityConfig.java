@@ -1,5 +1,7 @@
 package com.yhm.adminweb.config;
 
+import com.yhm.mail.core.auth.CredentialVerifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -79,6 +81,19 @@ public class SecurityConfig {
         return new BCryptPasswordEncoder();
     }
 
+    /**
+     * 邮件客户端接口（/api/mail/*）的 HTTP Basic 密码校验
+     * 与 POP3、SMTP 共用 mail-core 的实现：成功结果短时间缓存，事件流重连时不必每次计算 BCrypt
+     */
+    @Bean(destroyMethod = "close")
+    public CredentialVerifier credentialVerifier(
+            @Value("${mail.auth.cache-ttl:300000}") long cacheTtl,
+            @Value("${mail.auth.cache-max-entries:100000}") int cacheMaxEntries,
+            @Value("${mail.auth.hash-threads:4}") int hashThreads,
+            @Value("${mail.auth.hash-queue-capacity:256}") int hashQueueCapacity) {
+        return new CredentialVerifier(cacheTtl, cacheMaxEntries, hashThreads, hashQueueCapacity);
+    }
+
     /**
      * 用户详情服务 - 内存存储管理员账户
      * 生产环境建议改为数据库存储
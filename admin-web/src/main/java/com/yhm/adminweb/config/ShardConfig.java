@@ -0,0 +1,196 @@
+package com.yhm.adminweb.config;
+
+import com.yhm.mail.core.metrics.LatencyHistogram;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.mail.core.replica.ReplicaRouter;
+import com.yhm.mail.core.shard.ShardRouter;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 邮箱分片与只读副本配置
+ *
+ * 0 号分片是 spring.datasource（JPA 使用的目录库，保存用户、域名、队列等全局数据），
+ * mail.shard.N.url 配置其他分片，每个分片一个独立的 Hikari 连接池。
+ * 分片数量、顺序和虚拟节点数必须与各服务器的 db.shards 配置一致。
+ *
+ * 每个分片可以配置一个流复制备库（mail.replica.url、mail.shard.N.replica.url），
+ * 分片的数据源是 {@link ReadReplicaRoutingDataSource}：只读事务中的查询在副本足够新时走副本。
+ * 两条路径的连接耗时、路由结果和副本延迟通过 /actuator/metrics 的 mail.db.* 指标查看。
+ */
+@Configuration
+@Slf4j
+public class ShardConfig {
+
+    private final List<HikariDataSource> ownedDataSources = new ArrayList<>();
+    // 按分片序号排列
+    private final List<ReplicaRouter> replicaRouters = new CopyOnWriteArrayList<>();
+
+    /**
+     * 目录库连接池（spring.datasource.*）
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource directoryDataSource(Environment env) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url(env, 0));
+        dataSource.setUsername(username(env, 0));
+        dataSource.setPassword(password(env, 0));
+        dataSource.setDriverClassName(env.getProperty("spring.datasource.driver-class-name", "org.postgresql.Driver"));
+        return dataSource;
+    }
+
+    /**
+     * JPA、JdbcTemplate 使用的数据源：目录库的主库/副本路由
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource directoryDataSource, Environment env) {
+        return ReadReplicaRoutingDataSource.create(replicaRouter(env, 0, directoryDataSource));
+    }
+
+    @Bean
+    public ShardRouter shardRouter(DataSource dataSource, Environment env) {
+        int count = env.getProperty("mail.shard.count", Integer.class, 1);
+
+        List<DataSource> shards = new ArrayList<>(count);
+        shards.add(dataSource);
+        for (int shard = 1; shard < count; shard++) {
+            HikariDataSource primary = createPool(env, url(env, shard), username(env, shard),
+                    password(env, shard), "MailAdminHikariPool-shard" + shard);
+            shards.add(ReadReplicaRoutingDataSource.create(replicaRouter(env, shard, primary)));
+            log.info("Mailbox shard {} configured: {}", shard, primary.getJdbcUrl());
+        }
+
+        return new ShardRouter(shards,
+                env.getProperty("mail.shard.virtual-nodes", Integer.class, ShardRouter.DEFAULT_VIRTUAL_NODES),
+                env.getProperty("mail.shard.override-ttl", Long.class, ShardRouter.DEFAULT_OVERRIDE_TTL_MILLIS));
+    }
+
+    /**
+     * 各分片的副本路由指标（依赖 shardRouter，保证所有分片都已创建）
+     */
+    @Bean
+    public MeterBinder replicaRoutingMetrics(ShardRouter shardRouter) {
+        return registry -> {
+            MetricsRegistry metrics = MetricsRegistry.global();
+            for (int shard = 0; shard < replicaRouters.size(); shard++) {
+                ReplicaRouter router = replicaRouters.get(shard);
+                String name = metricName(shard);
+                Tags tags = Tags.of("shard", String.valueOf(shard));
+
+                for (String route : router.hasReplica() ? List.of("primary", "replica") : List.of("primary")) {
+                    LatencyHistogram latency = metrics.histogram(name + "." + route + ".latency");
+                    Tags routeTags = tags.and("route", route);
+                    FunctionCounter.builder("mail.db.connections", latency, LatencyHistogram::getCount)
+                            .tags(routeTags)
+                            .register(registry);
+                    Gauge.builder("mail.db.connection.latency.mean", latency, LatencyHistogram::getMeanMicros)
+                            .tags(routeTags)
+                            .baseUnit("microseconds")
+                            .register(registry);
+                    Gauge.builder("mail.db.connection.latency.p99", latency, h -> h.getPercentileMicros(0.99))
+                            .tags(routeTags)
+                            .baseUnit("microseconds")
+                            .register(registry);
+                }
+
+                if (router.hasReplica()) {
+                    Gauge.builder("mail.db.replica.lag", router, ReplicaRouter::lagMillis)
+                            .tags(tags)
+                            .baseUnit("milliseconds")
+                            .register(registry);
+                    for (String decision : List.of("replica", "fallback.lag", "fallback.recentWrite")) {
+                        FunctionCounter.builder("mail.db.route", metrics.counter(name + ".route." + decision),
+                                        LongAdder::sum)
+                                .tags(tags.and("decision", decision))
+                                .register(registry);
+                    }
+                }
+            }
+        };
+    }
+
+    @PreDestroy
+    public void closeShards() {
+        replicaRouters.forEach(ReplicaRouter::stop);
+        ownedDataSources.forEach(HikariDataSource::close);
+    }
+
+    /**
+     * 创建分片的副本路由，配置了副本时同时创建副本连接池并启动进度监控
+     */
+    private ReplicaRouter replicaRouter(Environment env, int shard, DataSource primary) {
+        String prefix = shard == 0 ? "mail.replica." : "mail.shard." + shard + ".replica.";
+        String replicaUrl = env.getProperty(prefix + "url");
+
+        ReplicaRouter router;
+        if (replicaUrl == null) {
+            router = ReplicaRouter.primaryOnly(metricName(shard), primary);
+        } else {
+            HikariDataSource replica = createPool(env, replicaUrl,
+                    env.getProperty(prefix + "username", username(env, shard)),
+                    env.getProperty(prefix + "password", password(env, shard)),
+                    "MailAdminHikariPool-" + (shard == 0 ? "replica" : "shard" + shard + "-replica"));
+            router = new ReplicaRouter(metricName(shard), primary, replica,
+                    env.getProperty("mail.replica.max-lag", Long.class, ReplicaRouter.DEFAULT_MAX_LAG_MILLIS),
+                    env.getProperty("mail.replica.poll-interval", Long.class,
+                            ReplicaRouter.DEFAULT_POLL_INTERVAL_MILLIS));
+            router.start();
+            log.info("Read replica for shard {} configured: {}", shard, replicaUrl);
+        }
+        replicaRouters.add(router);
+        return router;
+    }
+
+    private HikariDataSource createPool(Environment env, String url, String username, String password,
+                                        String poolName) {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(url);
+        dataSource.setUsername(username);
+        dataSource.setPassword(password);
+        dataSource.setMaximumPoolSize(env.getProperty("mail.shard.pool-size", Integer.class, 10));
+        dataSource.setPoolName(poolName);
+        ownedDataSources.add(dataSource);
+        return dataSource;
+    }
+
+    private static String metricName(int shard) {
+        return shard == 0 ? "admin.db" : "admin.db.shard" + shard;
+    }
+
+    /**
+     * 分片的 JDBC URL（独立连接如 LISTEN 也使用）
+     */
+    public static String url(Environment env, int shard) {
+        return shard == 0
+                ? env.getRequiredProperty("spring.datasource.url")
+                : env.getRequiredProperty("mail.shard." + shard + ".url");
+    }
+
+    public static String username(Environment env, int shard) {
+        String value = env.getProperty("spring.datasource.username");
+        return shard == 0 ? value : env.getProperty("mail.shard." + shard + ".username", value);
+    }
+
+    public static String password(Environment env, int shard) {
+        String value = env.getProperty("spring.datasource.password");
+        return shard == 0 ? value : env.getProperty("mail.shard." + shard + ".password", value);
+    }
+}
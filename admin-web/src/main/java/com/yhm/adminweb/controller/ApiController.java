@@ -5,17 +5,25 @@ import com.yhm.adminweb.dto.UserForm;
 import com.yhm.adminweb.entity.MailDomain;
 import com.yhm.adminweb.entity.User;
 import com.yhm.adminweb.service.MailDomainService;
+import com.yhm.adminweb.service.MailEventService;
+import com.yhm.adminweb.service.MailSyncService;
 import com.yhm.adminweb.service.UserService;
+import com.yhm.mail.core.auth.CredentialVerifier;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * REST API 控制器
@@ -31,6 +39,9 @@ public class ApiController {
     private final UserService userService;
     private final MailDomainService domainService;
     private final PasswordEncoder passwordEncoder;
+    private final MailEventService mailEventService;
+    private final MailSyncService mailSyncService;
+    private final CredentialVerifier credentialVerifier;
 
     /**
      * 用户注册
@@ -250,4 +261,151 @@ public class ApiController {
             return ResponseEntity.ok(response);
         }
     }
+
+    /**
+     * 新邮件事件流（Server-Sent Events）
+     * 使用 HTTP Basic 认证（邮箱 / 密码）。连接建立后先发送 ready 事件，
+     * 之后邮箱有新邮件或邮件被删除时发送 mailbox 事件，客户端收到后再拉取邮件列表。
+     */
+    @GetMapping("/mail/events")
+    public ResponseEntity<?> mailEvents(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        Optional<User> userOpt = authenticate(authorization);
+        if (userOpt.isEmpty()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "认证失败");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"mail\"")
+                    .body(response);
+        }
+
+        Optional<SseEmitter> emitter = mailEventService.open(userOpt.get().getEmail());
+        if (emitter.isEmpty()) {
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", false);
+            response.put("message", "连接数已达上限，请稍后重试");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "30")
+                    .body(response);
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .header("X-Accel-Buffering", "no")
+                .body(emitter.get());
+    }
+
+    /**
+     * 邮箱增量同步
+     * 使用 HTTP Basic 认证。返回 modseq 大于 since 的变化（新邮件、标志变化、删除），
+     * 客户端保存返回的 cursor 作为下次的 since；more 为 true 时立即继续拉取下一页。
+     * resync 为 true 表示游标太旧（期间的删除记录已清理），客户端清空本地副本后从 since=0 重新同步。
+     */
+    @GetMapping("/mail/changes")
+    public ResponseEntity<Map<String, Object>> mailChanges(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization,
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(defaultValue = "" + MailSyncService.DEFAULT_PAGE_SIZE) int limit) {
+        Map<String, Object> response = new HashMap<>();
+
+        Optional<User> userOpt = authenticate(authorization);
+        if (userOpt.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "认证失败");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"mail\"")
+                    .body(response);
+        }
+        if (since < 0) {
+            response.put("success", false);
+            response.put("message", "无效的同步游标");
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        try {
+            return ResponseEntity.ok(mailSyncService.getChanges(userOpt.get().getEmail(), since, limit));
+        } catch (Exception e) {
+            log.error("Get mail changes failed", e);
+            response.put("success", false);
+            response.put("message", "同步失败: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+
+    /**
+     * 邮箱概况
+     * 使用 HTTP Basic 认证。返回邮件数、未读数、占用字节数和当前 modseq，
+     * 客户端可以先比较 modseq 与本地游标，不同时再调用 /api/mail/changes。
+     */
+    @GetMapping("/mail/summary")
+    public ResponseEntity<Map<String, Object>> mailSummary(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String authorization) {
+        Map<String, Object> response = new HashMap<>();
+
+        Optional<User> userOpt = authenticate(authorization);
+        if (userOpt.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "认证失败");
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header(HttpHeaders.WWW_AUTHENTICATE, "Basic realm=\"mail\"")
+                    .body(response);
+        }
+
+        String email = userOpt.get().getEmail();
+        response.put("success", true);
+        response.put("email", email);
+        response.putAll(mailSyncService.getSummary(email));
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 校验 HTTP Basic 认证头，规则与登录接口相同
+     * 通过 CredentialVerifier 校验，成功结果有缓存；校验排队已满时抛出 AuthBusyException（503）
+     */
+    private Optional<User> authenticate(String authorization) {
+        if (authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            return Optional.empty();
+        }
+
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(authorization.substring(6).trim()),
+                    StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        int colon = decoded.indexOf(':');
+        if (colon <= 0) {
+            return Optional.empty();
+        }
+        String email = decoded.substring(0, colon).toLowerCase();
+        String password = decoded.substring(colon + 1);
+
+        Optional<User> userOpt = userService.findByEmail(email).filter(User::getIsEnabled);
+        String storedHash = userOpt.map(User::getPasswordHash).orElse(null);
+        return switch (credentialVerifier.verify(email, password, storedHash)) {
+            case ACCEPTED -> userOpt;
+            case REJECTED -> Optional.empty();
+            case BUSY -> throw new AuthBusyException();
+        };
+    }
+
+    /**
+     * 密码校验排队已满
+     */
+    private static class AuthBusyException extends RuntimeException {
+        AuthBusyException() {
+            super("认证服务繁忙", null, false, false);
+        }
+    }
+
+    @ExceptionHandler(AuthBusyException.class)
+    public ResponseEntity<Map<String, Object>> handleAuthBusy(AuthBusyException e) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", "认证服务繁忙，请稍后重试");
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "5")
+                .body(response);
+    }
 }
@@ -1,12 +1,14 @@
 package com.yhm.adminweb.controller;
 
 import com.yhm.adminweb.dto.BroadcastEmailForm;
+import com.yhm.adminweb.entity.BroadcastJob;
 import com.yhm.adminweb.service.BroadcastEmailService;
 import com.yhm.adminweb.service.MailDomainService;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxRequest;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxTrigger;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -14,6 +16,9 @@ import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.Optional;
+import java.util.UUID;
+
 /**
  * 群发邮件控制器
  */
@@ -32,9 +37,43 @@ public class BroadcastController {
     public String index(Model model) {
         model.addAttribute("broadcastForm", new BroadcastEmailForm());
         model.addAttribute("domains", domainService.findEnabled());
+        model.addAttribute("jobs", broadcastService.findRecentJobs());
         return "broadcast/index";
     }
 
+    /**
+     * HTMX 群发任务列表（轮询进度）
+     */
+    @GetMapping("/jobs")
+    @HxRequest
+    public String jobs(Model model) {
+        model.addAttribute("jobs", broadcastService.findRecentJobs());
+        return "broadcast/fragments/jobs :: job-table";
+    }
+
+    /**
+     * 查询单个群发任务进度
+     */
+    @GetMapping("/jobs/{id}")
+    @ResponseBody
+    public ResponseEntity<BroadcastJobProgress> jobProgress(@PathVariable UUID id) {
+        return broadcastService.findJob(id)
+                .map(BroadcastJobProgress::of)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * 群发任务进度
+     */
+    public record BroadcastJobProgress(UUID id, String status, int sentCount, int totalCount,
+                                       int progressPercent, String lastError) {
+        static BroadcastJobProgress of(BroadcastJob job) {
+            return new BroadcastJobProgress(job.getId(), job.getStatus(), job.getSentCount(),
+                    job.getTotalCount(), job.getProgressPercent(), job.getLastError());
+        }
+    }
+
     /**
      * HTMX 群发表单模态框
      */
@@ -77,11 +116,11 @@ public class BroadcastController {
 
         try {
             String senderEmail = "system@localhost"; // 系统发送者
-            int sentCount = broadcastService.sendBroadcast(form, senderEmail);
+            Optional<BroadcastJob> job = broadcastService.submitBroadcast(form, senderEmail);
             
-            if (sentCount > 0) {
+            if (job.isPresent()) {
                 redirectAttributes.addFlashAttribute("success", 
-                    String.format("群发邮件成功！已发送给 %d 位用户", sentCount));
+                    String.format("群发任务已提交，将在后台发送给 %d 位用户", job.get().getTotalCount()));
             } else {
                 redirectAttributes.addFlashAttribute("warning", "没有找到符合条件的收件人");
             }
@@ -116,10 +155,11 @@ public class BroadcastController {
 
         try {
             String senderEmail = "system@localhost";
-            int sentCount = broadcastService.sendBroadcast(form, senderEmail);
+            Optional<BroadcastJob> job = broadcastService.submitBroadcast(form, senderEmail);
             
-            if (sentCount > 0) {
-                model.addAttribute("success", String.format("群发邮件成功！已发送给 %d 位用户", sentCount));
+            if (job.isPresent()) {
+                model.addAttribute("success", 
+                    String.format("群发任务已提交，将在后台发送给 %d 位用户", job.get().getTotalCount()));
                 return "common/fragments/success :: success-toast";
             } else {
                 model.addAttribute("warning", "没有找到符合条件的收件人");
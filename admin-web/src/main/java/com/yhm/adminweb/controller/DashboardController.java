@@ -8,6 +8,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 /**
  * 仪表板控制器
@@ -22,10 +23,11 @@ public class DashboardController {
 
     /**
      * 仪表板首页
+     * @param exact 计数是否全部精确统计（默认大表取估算值）
      */
     @GetMapping
-    public String dashboard(Model model) {
-        var stats = dashboardService.getDashboardStats();
+    public String dashboard(@RequestParam(defaultValue = "false") boolean exact, Model model) {
+        var stats = dashboardService.getDashboardStats(exact);
         var recentEmails = emailService.findRecentEmails(10);
         
         model.addAttribute("stats", stats);
@@ -39,8 +41,8 @@ public class DashboardController {
      */
     @GetMapping("/stats/refresh")
     @HxRequest
-    public String refreshStats(Model model) {
-        var stats = dashboardService.getDashboardStats();
+    public String refreshStats(@RequestParam(defaultValue = "false") boolean exact, Model model) {
+        var stats = dashboardService.getDashboardStats(exact);
         model.addAttribute("stats", stats);
         return "dashboard/index :: stats-cards";
     }
@@ -1,18 +1,18 @@
 package com.yhm.adminweb.controller;
 
+import com.yhm.adminweb.dto.KeysetPage;
 import com.yhm.adminweb.entity.Email;
 import com.yhm.adminweb.service.DeliveryLogService;
 import com.yhm.adminweb.service.EmailService;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxRequest;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxTrigger;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.OffsetDateTime;
 import java.util.UUID;
 
 /**
@@ -28,19 +28,18 @@ public class EmailController {
 
     /**
      * 邮件列表页面
+     * 有检索词时按相关度显示全文检索结果（可用 owner 限定邮箱），否则按接收时间倒序分页
      */
     @GetMapping
     public String list(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String search,
+            @RequestParam(required = false) String owner,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "receivedAt"));
-        Page<Email> emails = emailService.search(search, pageable);
-        
-        model.addAttribute("emails", emails);
-        model.addAttribute("search", search);
+        addEmails(model, after, before, size, search, owner);
         
         return "emails/list";
     }
@@ -51,26 +50,42 @@ public class EmailController {
     @GetMapping("/table")
     @HxRequest
     public String table(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String search,
+            @RequestParam(required = false) String owner,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "receivedAt"));
-        Page<Email> emails = emailService.search(search, pageable);
+        addEmails(model, after, before, size, search, owner);
         
+        return "emails/fragments/table :: email-table";
+    }
+
+    private void addEmails(Model model, String after, String before, int size, String search, String owner) {
+        boolean ranked = search != null && !search.isBlank();
+        KeysetPage<Email> emails = ranked
+                ? KeysetPage.single(emailService.search(search, owner, size))
+                : emailService.findAll(KeysetPage.Request.of(after, before, size));
+
         model.addAttribute("emails", emails);
         model.addAttribute("search", search);
-        
-        return "emails/fragments/table :: email-table";
+        model.addAttribute("owner", owner);
+        model.addAttribute("ranked", ranked);
     }
 
     /**
      * 邮件详情
+     *
+     * 参数 at 为邮件接收时间（emails 的分区键），列表页的链接会带上，用于只访问一个分区；
+     * 缺省时按 ID 查找
      */
     @GetMapping("/{id}")
-    public String detail(@PathVariable UUID id, Model model) {
-        var email = emailService.findById(id)
+    public String detail(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
+        var email = emailService.findById(id, at)
                 .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
         var logs = deliveryLogService.findByEmailId(id);
         
@@ -85,8 +100,11 @@ public class EmailController {
      */
     @GetMapping("/{id}/modal")
     @HxRequest
-    public String detailModal(@PathVariable UUID id, Model model) {
-        var email = emailService.findById(id)
+    public String detailModal(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
+        var email = emailService.findById(id, at)
                 .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
         var logs = deliveryLogService.findByEmailId(id);
         
@@ -102,8 +120,11 @@ public class EmailController {
     @PostMapping("/{id}/read")
     @HxRequest
     @HxTrigger("email-updated")
-    public String markAsRead(@PathVariable UUID id, Model model) {
-        var email = emailService.markAsRead(id);
+    public String markAsRead(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
+        var email = emailService.markAsRead(id, at);
         model.addAttribute("email", email);
         return "emails/fragments/table-row :: email-row";
     }
@@ -114,8 +135,11 @@ public class EmailController {
     @PostMapping("/{id}/unread")
     @HxRequest
     @HxTrigger("email-updated")
-    public String markAsUnread(@PathVariable UUID id, Model model) {
-        var email = emailService.markAsUnread(id);
+    public String markAsUnread(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
+        var email = emailService.markAsUnread(id, at);
         model.addAttribute("email", email);
         return "emails/fragments/table-row :: email-row";
     }
@@ -126,8 +150,11 @@ public class EmailController {
     @PostMapping("/{id}/delete")
     @HxRequest
     @HxTrigger("email-deleted")
-    public String softDelete(@PathVariable UUID id, Model model) {
-        emailService.softDelete(id);
+    public String softDelete(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
+        emailService.softDelete(id, at);
         return "common/fragments/empty :: empty";
     }
 
@@ -137,8 +164,11 @@ public class EmailController {
     @PostMapping("/{id}/restore")
     @HxRequest
     @HxTrigger("email-restored")
-    public String restore(@PathVariable UUID id, Model model) {
-        var email = emailService.restore(id);
+    public String restore(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
+        var email = emailService.restore(id, at);
         model.addAttribute("email", email);
         return "emails/fragments/table-row :: email-row";
     }
@@ -149,9 +179,12 @@ public class EmailController {
     @DeleteMapping("/{id}")
     @HxRequest
     @HxTrigger("email-deleted")
-    public String delete(@PathVariable UUID id, Model model) {
+    public String delete(
+            @PathVariable UUID id,
+            @RequestParam(name = "at", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime at,
+            Model model) {
         try {
-            emailService.delete(id);
+            emailService.delete(id, at);
             return "common/fragments/empty :: empty";
         } catch (IllegalArgumentException e) {
             model.addAttribute("error", e.getMessage());
@@ -1,16 +1,16 @@
 package com.yhm.adminweb.controller;
 
-import com.yhm.adminweb.entity.DeliveryLog;
+import com.yhm.adminweb.dto.DeliveryLogFilter;
+import com.yhm.adminweb.dto.KeysetPage;
 import com.yhm.adminweb.service.DeliveryLogService;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxRequest;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.OffsetDateTime;
 import java.util.UUID;
 
 /**
@@ -25,31 +25,30 @@ public class LogController {
 
     /**
      * 日志列表页面
+     * 状态、时间范围 [since, until)、收件人片段、对端主机和 SMTP 响应片段可以组合筛选
+     * @param exact 状态数量是否精确统计（默认大表取估算值）
      */
     @GetMapping
     public String list(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String status,
-            @RequestParam(required = false) String search,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime since,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime until,
+            @RequestParam(required = false) String recipient,
+            @RequestParam(required = false) String host,
+            @RequestParam(required = false) String response,
+            @RequestParam(defaultValue = "false") boolean exact,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        Page<DeliveryLog> logs;
-        
-        if (status != null && !status.isBlank()) {
-            logs = logService.findByStatus(status, pageable);
-        } else if (search != null && !search.isBlank()) {
-            logs = logService.search(search, pageable);
-        } else {
-            logs = logService.findAll(pageable);
-        }
-        
-        var statusCounts = logService.getStatusCounts();
+        var filter = new DeliveryLogFilter(status, since, until, recipient, host, response);
+        var logs = logService.find(filter, KeysetPage.Request.of(after, before, size));
+        var statusCounts = logService.getStatusCounts(exact);
         
         model.addAttribute("logs", logs);
-        model.addAttribute("selectedStatus", status);
-        model.addAttribute("search", search);
+        model.addAttribute("filter", filter);
+        model.addAttribute("selectedStatus", filter.status());
         model.addAttribute("statusCounts", statusCounts);
         
         return "logs/list";
@@ -61,26 +60,23 @@ public class LogController {
     @GetMapping("/table")
     @HxRequest
     public String table(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String status,
-            @RequestParam(required = false) String search,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime since,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime until,
+            @RequestParam(required = false) String recipient,
+            @RequestParam(required = false) String host,
+            @RequestParam(required = false) String response,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        Page<DeliveryLog> logs;
-        
-        if (status != null && !status.isBlank()) {
-            logs = logService.findByStatus(status, pageable);
-        } else if (search != null && !search.isBlank()) {
-            logs = logService.search(search, pageable);
-        } else {
-            logs = logService.findAll(pageable);
-        }
+        var filter = new DeliveryLogFilter(status, since, until, recipient, host, response);
+        var logs = logService.find(filter, KeysetPage.Request.of(after, before, size));
         
         model.addAttribute("logs", logs);
-        model.addAttribute("selectedStatus", status);
-        model.addAttribute("search", search);
+        model.addAttribute("filter", filter);
+        model.addAttribute("selectedStatus", filter.status());
         
         return "logs/fragments/table :: log-table";
     }
@@ -1,13 +1,11 @@
 package com.yhm.adminweb.controller;
 
+import com.yhm.adminweb.dto.KeysetPage;
 import com.yhm.adminweb.entity.MailQueue;
 import com.yhm.adminweb.service.MailQueueService;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxRequest;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxTrigger;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
@@ -26,24 +24,27 @@ public class QueueController {
 
     /**
      * 队列列表页面
+     * @param exact 状态数量是否精确统计（默认大表取估算值）
      */
     @GetMapping
     public String list(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String status,
+            @RequestParam(defaultValue = "false") boolean exact,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        Page<MailQueue> queue;
+        var request = KeysetPage.Request.of(after, before, size);
+        KeysetPage<MailQueue> queue;
         
         if (status != null && !status.isBlank()) {
-            queue = queueService.findByStatus(status, pageable);
+            queue = queueService.findByStatus(status, request);
         } else {
-            queue = queueService.findAll(pageable);
+            queue = queueService.findAll(request);
         }
         
-        var statusCounts = queueService.getStatusCounts();
+        var statusCounts = queueService.getStatusCounts(exact);
         
         model.addAttribute("queue", queue);
         model.addAttribute("selectedStatus", status);
@@ -58,18 +59,19 @@ public class QueueController {
     @GetMapping("/table")
     @HxRequest
     public String table(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "20") int size,
             @RequestParam(required = false) String status,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        Page<MailQueue> queue;
+        var request = KeysetPage.Request.of(after, before, size);
+        KeysetPage<MailQueue> queue;
         
         if (status != null && !status.isBlank()) {
-            queue = queueService.findByStatus(status, pageable);
+            queue = queueService.findByStatus(status, request);
         } else {
-            queue = queueService.findAll(pageable);
+            queue = queueService.findAll(request);
         }
         
         model.addAttribute("queue", queue);
@@ -83,8 +85,8 @@ public class QueueController {
      */
     @GetMapping("/stats")
     @HxRequest
-    public String stats(Model model) {
-        var statusCounts = queueService.getStatusCounts();
+    public String stats(@RequestParam(defaultValue = "false") boolean exact, Model model) {
+        var statusCounts = queueService.getStatusCounts(exact);
         model.addAttribute("statusCounts", statusCounts);
         return "queue/fragments/status-tabs :: status-tabs";
     }
@@ -1,5 +1,6 @@
 package com.yhm.adminweb.controller;
 
+import com.yhm.adminweb.dto.KeysetPage;
 import com.yhm.adminweb.dto.UserForm;
 import com.yhm.adminweb.entity.User;
 import com.yhm.adminweb.service.MailDomainService;
@@ -8,9 +9,6 @@ import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxRequest;
 import io.github.wimdeblauwe.htmx.spring.boot.mvc.HxTrigger;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
@@ -35,19 +33,20 @@ public class UserController {
      */
     @GetMapping
     public String list(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(required = false) String search,
             @RequestParam(required = false) String domain,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        Page<User> users;
+        var request = KeysetPage.Request.of(after, before, size);
+        KeysetPage<User> users;
         
         if (domain != null && !domain.isBlank()) {
-            users = userService.findByDomain(domain, pageable);
+            users = userService.findByDomain(domain, request);
         } else {
-            users = userService.search(search, pageable);
+            users = userService.search(search, request);
         }
         
         model.addAttribute("users", users);
@@ -64,19 +63,20 @@ public class UserController {
     @GetMapping("/table")
     @HxRequest
     public String table(
-            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
             @RequestParam(defaultValue = "10") int size,
             @RequestParam(required = false) String search,
             @RequestParam(required = false) String domain,
             Model model) {
         
-        var pageable = PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "createdAt"));
-        Page<User> users;
+        var request = KeysetPage.Request.of(after, before, size);
+        KeysetPage<User> users;
         
         if (domain != null && !domain.isBlank()) {
-            users = userService.findByDomain(domain, pageable);
+            users = userService.findByDomain(domain, request);
         } else {
-            users = userService.search(search, pageable);
+            users = userService.search(search, request);
         }
         
         model.addAttribute("users", users);
@@ -0,0 +1,31 @@
+package com.yhm.adminweb.dto;
+
+/**
+ * 计数结果：精确值或估算值
+ *
+ * 估算值来自 pg_class.reltuples 或查询计划的行数估计，页面上以 "≈" 前缀显示。
+ */
+public record CountEstimate(long value, boolean exact) {
+
+    public static final CountEstimate ZERO = new CountEstimate(0, true);
+
+    public static CountEstimate exact(long value) {
+        return new CountEstimate(value, true);
+    }
+
+    public static CountEstimate approximate(long value) {
+        return new CountEstimate(value, false);
+    }
+
+    /**
+     * 两个计数相加，任一个是估算值时结果也是估算值
+     */
+    public CountEstimate plus(CountEstimate other) {
+        return new CountEstimate(value + other.value, exact && other.exact);
+    }
+
+    @Override
+    public String toString() {
+        return exact ? String.valueOf(value) : "≈" + value;
+    }
+}
@@ -14,10 +14,10 @@ import java.util.Map;
 public class DashboardStats {
     
     // 概览数据
-    private long totalDomains;
-    private long enabledDomains;
-    private long totalUsers;
-    private long enabledUsers;
+    private CountEstimate totalDomains;
+    private CountEstimate enabledDomains;
+    private CountEstimate totalUsers;
+    private CountEstimate enabledUsers;
     private long totalEmails;
     private long unreadEmails;
     
@@ -29,17 +29,17 @@ public class DashboardStats {
     private double storageUsagePercent;
     
     // 队列统计
-    private long pendingQueue;
-    private long sentQueue;
-    private long failedQueue;
+    private CountEstimate pendingQueue;
+    private CountEstimate sentQueue;
+    private CountEstimate failedQueue;
     
     // 投递统计
-    private long deliveredCount;
-    private long bouncedCount;
-    private long deferredCount;
+    private CountEstimate deliveredCount;
+    private CountEstimate bouncedCount;
+    private CountEstimate deferredCount;
     
     // 今日统计
-    private long todayEmails;
+    private CountEstimate todayEmails;
     private long todayDelivered;
     private long todayBounced;
     
@@ -51,5 +51,8 @@ public class DashboardStats {
     private List<Map<String, Object>> topSenders;
     private List<Map<String, Object>> topReceivers;
     private List<Map<String, Object>> topStorageUsers;
+
+    // 是否有计数是估算值
+    private boolean approximate;
 }
 
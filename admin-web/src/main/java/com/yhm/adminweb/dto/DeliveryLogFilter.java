@@ -0,0 +1,33 @@
+package com.yhm.adminweb.dto;
+
+import java.time.OffsetDateTime;
+
+/**
+ * 发送日志筛选条件，各条件可任意组合，为 null 表示不限
+ *
+ * @param status 投递状态
+ * @param since 起始时间（含）
+ * @param until 结束时间（不含）
+ * @param recipient 收件人片段（不区分大小写，至少 3 个字符）
+ * @param remoteHost 对端主机名（完全匹配）
+ * @param response SMTP 响应片段（不区分大小写，至少 3 个字符）
+ */
+public record DeliveryLogFilter(String status, OffsetDateTime since, OffsetDateTime until,
+                                String recipient, String remoteHost, String response) {
+
+    public static final DeliveryLogFilter NONE = new DeliveryLogFilter(null, null, null, null, null, null);
+
+    /**
+     * 空白的文本条件视为不限
+     */
+    public DeliveryLogFilter {
+        status = normalize(status);
+        recipient = normalize(recipient);
+        remoteHost = normalize(remoteHost);
+        response = normalize(response);
+    }
+
+    private static String normalize(String value) {
+        return value == null || value.isBlank() ? null : value.strip();
+    }
+}
@@ -0,0 +1,126 @@
+package com.yhm.adminweb.dto;
+
+import org.springframework.data.domain.Pageable;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+/**
+ * keyset 分页结果
+ *
+ * 按 (时间, id) 倒序，从游标位置直接定位，不使用 OFFSET，也不统计总数：
+ * 无论翻到多深，每页只读取 size + 1 行。
+ * nextCursor / prevCursor 为 null 表示没有下一页 / 上一页。
+ */
+public record KeysetPage<T>(List<T> content, String nextCursor, String prevCursor) implements Iterable<T> {
+
+    @Override
+    public Iterator<T> iterator() {
+        return content.iterator();
+    }
+
+    public boolean isEmpty() {
+        return content.isEmpty();
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    public boolean hasPrevious() {
+        return prevCursor != null;
+    }
+
+    /**
+     * 不翻页的结果（如按相关度排序的检索结果），没有上一页和下一页
+     */
+    public static <T> KeysetPage<T> single(List<T> content) {
+        return new KeysetPage<>(content, null, null);
+    }
+
+    /**
+     * 由查询结果构造
+     * @param rows 按查询方向排列、最多 size + 1 行：往后翻（after）时为倒序，往前翻（before）时为正序
+     * @param key 行的游标
+     */
+    public static <T> KeysetPage<T> of(List<T> rows, Request request, Function<T, PageCursor> key) {
+        boolean more = rows.size() > request.size();
+        List<T> content = new ArrayList<>(rows.subList(0, Math.min(rows.size(), request.size())));
+        if (content.isEmpty()) {
+            return new KeysetPage<>(content, null, null);
+        }
+
+        String next;
+        String prev;
+        if (request.backward()) {
+            Collections.reverse(content);
+            next = key.apply(content.getLast()).encode();
+            prev = more ? key.apply(content.getFirst()).encode() : null;
+        } else {
+            next = more ? key.apply(content.getLast()).encode() : null;
+            prev = request.cursor() != null ? key.apply(content.getFirst()).encode() : null;
+        }
+        return new KeysetPage<>(content, next, prev);
+    }
+
+    /**
+     * 按请求方向执行 older 或 newer 查询并构造结果
+     * @param older 游标之后（更早）的行，按 (时间, id) 倒序
+     * @param newer 游标之前（更新）的行，按 (时间, id) 正序
+     */
+    public static <T> KeysetPage<T> fetch(Request request, Query<T> older, Query<T> newer,
+                                          Function<T, PageCursor> key) {
+        PageCursor position = request.position();
+        Pageable limit = Pageable.ofSize(request.limit());
+        List<T> rows = request.backward()
+                ? newer.find(position.at(), position.id(), limit)
+                : older.find(position.at(), position.id(), limit);
+        return of(rows, request, key);
+    }
+
+    /**
+     * 从 (at, id) 开始的一页查询
+     */
+    @FunctionalInterface
+    public interface Query<T> {
+        List<T> find(OffsetDateTime at, UUID id, Pageable limit);
+    }
+
+    /**
+     * 翻页请求
+     * @param cursor 边界行，为 null 表示第一页
+     * @param backward true 表示取游标之前（更新）的一页
+     */
+    public record Request(PageCursor cursor, boolean backward, int size) {
+
+        /**
+         * 由链接参数构造，before 优先
+         */
+        public static Request of(String after, String before, int size) {
+            PageCursor beforeCursor = PageCursor.parse(before);
+            if (beforeCursor != null) {
+                return new Request(beforeCursor, true, size);
+            }
+            return new Request(PageCursor.parse(after), false, size);
+        }
+
+        /**
+         * 查询的起点，第一页为 {@link PageCursor#FIRST}
+         */
+        public PageCursor position() {
+            return cursor != null ? cursor : PageCursor.FIRST;
+        }
+
+        /**
+         * 查询行数，多取一行判断是否还有更多
+         */
+        public int limit() {
+            return size + 1;
+        }
+    }
+}
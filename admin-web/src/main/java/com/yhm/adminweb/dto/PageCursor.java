@@ -0,0 +1,56 @@
+package com.yhm.adminweb.dto;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.UUID;
+
+/**
+ * keyset 分页游标：翻页边界行的 (时间, id)
+ *
+ * 列表按 (时间, id) 倒序排列，id 保证时间相同的行也有确定的顺序。
+ * 游标在链接参数中编码为 "时间_id"（时间为 UTC ISO-8601，保留微秒）。
+ */
+public record PageCursor(OffsetDateTime at, UUID id) {
+
+    /**
+     * 第一页的起点，排在所有行之前
+     */
+    public static final PageCursor FIRST =
+            new PageCursor(OffsetDateTime.parse("9999-12-31T00:00:00Z"), new UUID(-1L, -1L));
+
+    /**
+     * 与 PostgreSQL uuid 排序一致的比较器（按无符号字节比较，UUID.compareTo 是有符号的）
+     */
+    public static final Comparator<UUID> UUID_ORDER = Comparator
+            .comparing(UUID::getMostSignificantBits, Long::compareUnsigned)
+            .thenComparing(UUID::getLeastSignificantBits, Long::compareUnsigned);
+
+    public String encode() {
+        return at.toInstant() + "_" + id;
+    }
+
+    /**
+     * 解析链接参数中的游标
+     * @return 参数为空时返回 null
+     * @throws IllegalArgumentException 格式错误
+     */
+    public static PageCursor parse(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        int separator = value.lastIndexOf('_');
+        if (separator < 0) {
+            throw new IllegalArgumentException("无效的分页参数");
+        }
+        try {
+            return new PageCursor(
+                    OffsetDateTime.ofInstant(Instant.parse(value.substring(0, separator)), ZoneOffset.UTC),
+                    UUID.fromString(value.substring(separator + 1)));
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("无效的分页参数", e);
+        }
+    }
+}
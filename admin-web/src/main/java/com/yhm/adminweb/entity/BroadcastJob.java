@@ -0,0 +1,142 @@
+package com.yhm.adminweb.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.annotations.UpdateTimestamp;
+import org.hibernate.type.SqlTypes;
+
+import java.time.OffsetDateTime;
+import java.util.UUID;
+
+/**
+ * 群发任务实体类
+ * 映射 broadcast_jobs 表
+ *
+ * 收件人按邮箱地址升序分页投递，cursor 记录最后一个已投递的地址，
+ * 进程崩溃后从 cursor 之后继续，不会重复投递。
+ */
+@Entity
+@Table(name = "broadcast_jobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BroadcastJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @Column(nullable = false, length = 320)
+    private String sender;
+
+    @Column(length = 998)
+    private String subject;
+
+    @Column(columnDefinition = "TEXT")
+    private String body;
+
+    @Column(name = "raw_content", nullable = false, columnDefinition = "TEXT")
+    private String rawContent;
+
+    @Column(name = "target_domain", length = 255)
+    private String targetDomain;
+
+    @Column(name = "admin_only", nullable = false)
+    @Builder.Default
+    private Boolean adminOnly = false;
+
+    /**
+     * 指定的收件人列表（为空则按条件查询 users 表）
+     */
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(name = "explicit_recipients", columnDefinition = "VARCHAR(320)[]")
+    private String[] explicitRecipients;
+
+    @Column(nullable = false, length = 20)
+    @Builder.Default
+    private String status = "pending"; // pending, running, completed, failed
+
+    @Column(name = "total_count", nullable = false)
+    @Builder.Default
+    private Integer totalCount = 0;
+
+    @Column(name = "sent_count", nullable = false)
+    @Builder.Default
+    private Integer sentCount = 0;
+
+    /**
+     * 最后一个已投递的收件人地址（keyset 游标）
+     */
+    @Column(name = "last_recipient", length = 320)
+    private String cursor;
+
+    @Column(name = "last_error", columnDefinition = "TEXT")
+    private String lastError;
+
+    /**
+     * 正在执行任务的管理后台实例（租约），心跳过期后其他实例可以接管
+     */
+    @Column(name = "lease_owner", length = 64)
+    private String leaseOwner;
+
+    @Column(name = "lease_heartbeat")
+    private OffsetDateTime leaseHeartbeat;
+
+    @CreationTimestamp
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private OffsetDateTime createdAt;
+
+    @UpdateTimestamp
+    @Column(name = "updated_at", nullable = false)
+    private OffsetDateTime updatedAt;
+
+    @Column(name = "finished_at")
+    private OffsetDateTime finishedAt;
+
+    /**
+     * 是否已结束
+     */
+    public boolean isFinished() {
+        return "completed".equals(status) || "failed".equals(status);
+    }
+
+    /**
+     * 获取进度百分比
+     */
+    public int getProgressPercent() {
+        if (totalCount == null || totalCount == 0) {
+            return isFinished() ? 100 : 0;
+        }
+        return (int) Math.min(100, sentCount * 100L / totalCount);
+    }
+
+    /**
+     * 获取状态显示文本
+     */
+    public String getStatusText() {
+        return switch (status) {
+            case "pending" -> "等待执行";
+            case "running" -> "发送中";
+            case "completed" -> "已完成";
+            case "failed" -> "失败";
+            default -> status;
+        };
+    }
+
+    /**
+     * 获取状态样式类
+     */
+    public String getStatusClass() {
+        return switch (status) {
+            case "pending" -> "status-pending";
+            case "running" -> "status-sending";
+            case "completed" -> "status-sent";
+            case "failed" -> "status-failed";
+            default -> "";
+        };
+    }
+}
@@ -24,7 +24,8 @@ public class DeliveryLog {
     @GeneratedValue(strategy = GenerationType.UUID)
     private UUID id;
 
-    @Column(name = "email_id", nullable = false)
+    // RCPT 拒绝等没有保存邮件的尝试为 null
+    @Column(name = "email_id")
     private UUID emailId;
 
     @Column(nullable = false, length = 320)
@@ -50,7 +51,9 @@ public class DeliveryLog {
     private OffsetDateTime createdAt;
 
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "email_id", insertable = false, updatable = false)
+    // emails 为分区表（主键含 received_at），数据库中没有这个外键
+    @JoinColumn(name = "email_id", insertable = false, updatable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Email email;
 
     /**
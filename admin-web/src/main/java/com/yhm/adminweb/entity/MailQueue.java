@@ -58,7 +58,9 @@ public class MailQueue {
     private OffsetDateTime updatedAt;
 
     @ManyToOne(fetch = FetchType.LAZY)
-    @JoinColumn(name = "email_id", insertable = false, updatable = false)
+    // emails 为分区表（主键含 received_at），数据库中没有这个外键
+    @JoinColumn(name = "email_id", insertable = false, updatable = false,
+            foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
     private Email email;
 
     /**
@@ -41,7 +41,8 @@ public class User {
     @Builder.Default
     private Long quotaBytes = 1073741824L; // 默认 1GB
 
-    @Column(name = "used_bytes", nullable = false)
+    // 由邮箱汇总触发器维护，实体不写入；不在 0 号分片的邮箱以 mailbox_summary.total_bytes 为准
+    @Column(name = "used_bytes", nullable = false, insertable = false, updatable = false)
     @Builder.Default
     private Long usedBytes = 0L;
 
@@ -0,0 +1,17 @@
+package com.yhm.adminweb.repository;
+
+import com.yhm.adminweb.entity.BroadcastJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 群发任务数据访问接口
+ */
+@Repository
+public interface BroadcastJobRepository extends JpaRepository<BroadcastJob, UUID> {
+
+    List<BroadcastJob> findTop10ByOrderByCreatedAtDesc();
+}
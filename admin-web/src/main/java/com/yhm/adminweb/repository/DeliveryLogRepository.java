@@ -20,16 +20,6 @@ public interface DeliveryLogRepository extends JpaRepository<DeliveryLog, UUID>
 
     Page<DeliveryLog> findByEmailId(UUID emailId, Pageable pageable);
 
-    Page<DeliveryLog> findByStatus(String status, Pageable pageable);
-
-    Page<DeliveryLog> findByRecipientContainingIgnoreCase(String recipient, Pageable pageable);
-
-    @Query("SELECT COUNT(l) FROM DeliveryLog l WHERE l.status = :status")
-    long countByStatus(@Param("status") String status);
-
-    @Query("SELECT l.status, COUNT(l) FROM DeliveryLog l GROUP BY l.status")
-    List<Object[]> getDeliveryStatusCounts();
-
     @Query("SELECT l.status, COUNT(l) FROM DeliveryLog l WHERE l.createdAt >= :since GROUP BY l.status")
     List<Object[]> getDeliveryStatusCountsSince(@Param("since") OffsetDateTime since);
 
@@ -38,4 +28,3 @@ public interface DeliveryLogRepository extends JpaRepository<DeliveryLog, UUID>
 
     List<DeliveryLog> findByEmailIdOrderByCreatedAtDesc(UUID emailId);
 }
-
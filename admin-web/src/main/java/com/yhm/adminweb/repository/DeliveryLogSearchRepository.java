@@ -0,0 +1,118 @@
+package com.yhm.adminweb.repository;
+
+import com.yhm.adminweb.dto.DeliveryLogFilter;
+import com.yhm.adminweb.entity.DeliveryLog;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 发送日志的组合筛选
+ *
+ * 状态、时间范围、收件人片段、对端主机和 SMTP 响应片段任意组合，按 (created_at, id) keyset 分页（见 KeysetPage），
+ * 只拼接实际使用的条件，由 PostgreSQL 按选择度挑选索引：
+ * - 收件人、响应片段（ILIKE '%x%'）走 pg_trgm 的 GIN 索引（idx_delivery_logs_recipient_trgm、
+ *   idx_delivery_logs_response_trgm，见 migrations/add_delivery_log_search_indexes.sql）；
+ *   少于 3 个字符的片段用不上三元组，ILIKE 只能沿 idx_delivery_logs_created_id 逐行过滤，
+ *   匹配很少时会扫描整张表，直接拒绝
+ * - 状态、对端主机走 (列, created_at, id) 索引，从游标位置开始扫描
+ * - 常见片段匹配大量行时，按 idx_delivery_logs_created_id 的顺序扫描，取满一页即停止
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeliveryLogSearchRepository {
+
+    private static final String COLUMNS =
+            "id, email_id, recipient, remote_host, remote_ip, status, smtp_code, smtp_response, created_at";
+
+    private static final RowMapper<DeliveryLog> LOG_MAPPER = DeliveryLogSearchRepository::mapLog;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 游标之后（更早）的一页，按 (created_at, id) 倒序
+     */
+    public List<DeliveryLog> findOlderThan(DeliveryLogFilter filter, OffsetDateTime at, UUID id, Pageable limit) {
+        return find(filter, at, id, limit, false);
+    }
+
+    /**
+     * 游标之前（更新）的一页，按 (created_at, id) 正序
+     */
+    public List<DeliveryLog> findNewerThan(DeliveryLogFilter filter, OffsetDateTime at, UUID id, Pageable limit) {
+        return find(filter, at, id, limit, true);
+    }
+
+    private List<DeliveryLog> find(DeliveryLogFilter filter, OffsetDateTime at, UUID id, Pageable limit,
+                                   boolean newer) {
+        StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM delivery_logs WHERE ");
+        List<Object> args = new ArrayList<>();
+
+        if (filter.status() != null) {
+            sql.append("status = ? AND ");
+            args.add(filter.status());
+        }
+        if (filter.since() != null) {
+            sql.append("created_at >= ? AND ");
+            args.add(filter.since());
+        }
+        if (filter.until() != null) {
+            sql.append("created_at < ? AND ");
+            args.add(filter.until());
+        }
+        if (filter.recipient() != null) {
+            sql.append("recipient ILIKE ? AND ");
+            args.add(LikePattern.contains(indexedFragment(filter.recipient(), "收件人")));
+        }
+        if (filter.remoteHost() != null) {
+            sql.append("remote_host = ? AND ");
+            args.add(filter.remoteHost());
+        }
+        if (filter.response() != null) {
+            sql.append("smtp_response ILIKE ? AND ");
+            args.add(LikePattern.contains(indexedFragment(filter.response(), "SMTP 响应")));
+        }
+
+        sql.append(newer
+                ? "(created_at, id) > (?, ?) ORDER BY created_at, id LIMIT ?"
+                : "(created_at, id) < (?, ?) ORDER BY created_at DESC, id DESC LIMIT ?");
+        args.add(at);
+        args.add(id);
+        args.add(limit.getPageSize());
+
+        return jdbcTemplate.query(sql.toString(), LOG_MAPPER, args.toArray());
+    }
+
+    /**
+     * @throws IllegalArgumentException 片段少于 {@link LikePattern#MIN_INDEXED_LENGTH} 个字符
+     */
+    private static String indexedFragment(String fragment, String name) {
+        if (fragment.codePointCount(0, fragment.length()) < LikePattern.MIN_INDEXED_LENGTH) {
+            throw new IllegalArgumentException(name + "至少需要输入 " + LikePattern.MIN_INDEXED_LENGTH + " 个字符");
+        }
+        return fragment;
+    }
+
+    private static DeliveryLog mapLog(ResultSet rs, int rowNum) throws SQLException {
+        return DeliveryLog.builder()
+                .id(rs.getObject("id", UUID.class))
+                .emailId(rs.getObject("email_id", UUID.class))
+                .recipient(rs.getString("recipient"))
+                .remoteHost(rs.getString("remote_host"))
+                .remoteIp(rs.getString("remote_ip"))
+                .status(rs.getString("status"))
+                .smtpCode(rs.getObject("smtp_code", Integer.class))
+                .smtpResponse(rs.getString("smtp_response"))
+                .createdAt(rs.getObject("created_at", OffsetDateTime.class))
+                .build();
+    }
+}
@@ -1,52 +1,342 @@
 package com.yhm.adminweb.repository;
 
+import com.yhm.adminweb.dto.CountEstimate;
+import com.yhm.adminweb.dto.KeysetPage;
+import com.yhm.adminweb.dto.PageCursor;
 import com.yhm.adminweb.entity.Email;
+import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
- * 邮件数据访问接口
+ * 邮件数据访问
+ *
+ * emails 按所有者分布在多个分片上（见 {@link ShardJdbcTemplates}），不再通过 JPA 访问：
+ * - 按邮箱的查询只访问所在分片
+ * - 列表、搜索和统计在所有分片上并行执行后合并；列表按 (received_at, id) keyset 分页，
+ *   每个分片从游标位置取 size + 1 行，不使用 OFFSET，也不统计总数；
+ *   搜索走 search_vector 全文索引（中日韩文字走三元组索引），各分片按相关度取前 N 条后合并
+ * - 按 ID 的查找在所有分片上执行，修改和删除路由到邮件所有者所在分片
  */
 @Repository
-public interface EmailRepository extends JpaRepository<Email, UUID> {
+@RequiredArgsConstructor
+public class EmailRepository {
 
-    Page<Email> findByOwner(String owner, Pageable pageable);
+    // 列表不读取正文和原始内容
+    private static final String LIST_COLUMNS =
+            "id, sender, recipients, subject, NULL AS body, NULL AS raw_content, size, received_at, is_read, is_deleted, owner";
 
-    Page<Email> findByOwnerAndIsDeletedFalse(String owner, Pageable pageable);
+    private static final String ALL_COLUMNS =
+            "id, sender, recipients, subject, body, raw_content, size, received_at, is_read, is_deleted, owner";
 
-    Page<Email> findBySenderContainingIgnoreCaseOrSubjectContainingIgnoreCase(
-            String sender, String subject, Pageable pageable);
+    // 与 ORDER BY received_at, id 一致
+    private static final Comparator<Email> OLDEST_FIRST =
+            Comparator.comparing((Email email) -> email.getReceivedAt().toInstant())
+                    .thenComparing(Email::getId, PageCursor.UUID_ORDER);
 
-    @Query("SELECT COUNT(e) FROM Email e WHERE e.isDeleted = false")
-    long countActiveEmails();
+    private static final Comparator<Email> NEWEST_FIRST = OLDEST_FIRST.reversed();
 
-    @Query("SELECT COUNT(e) FROM Email e WHERE e.isRead = false AND e.isDeleted = false")
-    long countUnreadEmails();
+    // 主题、发件人和正文，与 idx_emails_text_trgm 的表达式一致
+    private static final String SEARCH_TEXT =
+            "(coalesce(subject, '') || ' ' || sender || ' ' || coalesce(body, ''))";
 
-    @Query("SELECT SUM(e.size) FROM Email e WHERE e.isDeleted = false")
-    Long getTotalEmailSize();
+    // 'simple' 分词不切分的文字：汉字、日文假名、韩文
+    private static final Pattern CJK_PATTERN =
+            Pattern.compile("[\\p{IsHan}\\p{IsHiragana}\\p{IsKatakana}\\p{IsHangul}]");
 
-    @Query("SELECT COUNT(e) FROM Email e WHERE e.receivedAt >= :since")
-    long countEmailsSince(@Param("since") OffsetDateTime since);
+    private static final RowMapper<Email> EMAIL_MAPPER = EmailRepository::mapEmail;
 
-    @Query("SELECT e.sender, COUNT(e) as cnt FROM Email e WHERE e.isDeleted = false GROUP BY e.sender ORDER BY cnt DESC")
-    List<Object[]> getTopSenders(Pageable pageable);
+    private static final RowMapper<SearchHit> SEARCH_HIT_MAPPER =
+            (rs, rowNum) -> new SearchHit(mapEmail(rs, rowNum), rs.getDouble("rank"));
 
-    @Query("SELECT e.owner, COUNT(e) as cnt FROM Email e WHERE e.isDeleted = false GROUP BY e.owner ORDER BY cnt DESC")
-    List<Object[]> getTopReceivers(Pageable pageable);
+    private final ShardJdbcTemplates shards;
+    private final RowCountEstimator countEstimator;
 
-    @Query("SELECT DATE(e.receivedAt), COUNT(e) FROM Email e WHERE e.receivedAt >= :since GROUP BY DATE(e.receivedAt) ORDER BY DATE(e.receivedAt)")
-    List<Object[]> getEmailCountByDate(@Param("since") OffsetDateTime since);
+    // ==================== 列表与搜索 ====================
 
-    @Query("SELECT e FROM Email e WHERE e.isDeleted = false ORDER BY e.receivedAt DESC")
-    List<Email> findRecentEmails(Pageable pageable);
-}
+    /**
+     * 分页获取邮件（包括已删除的），按接收时间倒序
+     */
+    public KeysetPage<Email> findAll(KeysetPage.Request request) {
+        return findPage("", List.of(), request);
+    }
+
+    /**
+     * 全文检索，按相关度排序
+     *
+     * 关键词按空白和标点拆成词，所有词都要出现：
+     * - 一般的词在 search_vector（主题、发件人、MIME 解码后的正文，见 idx_emails_search）上按前缀匹配，
+     *   主题中命中的排在发件人、正文之前（ts_rank_cd 按 setweight 的权重计分）
+     * - 含中日韩文字的词：'simple' 分词不切分这些文字，一整段连续的汉字是一个词，按词检索找不到其中的片段，
+     *   改为在主题、发件人和正文上 ILIKE '%词%'（与 IMAP SEARCH TEXT 相同的表达式，走 idx_emails_text_trgm），
+     *   只有这类词时按接收时间排序。少于 3 个字的片段提取不出三元组、用不上索引，
+     *   不指定邮箱时会扫描所有邮件，这时不接受
+     * 指定 owner 时只访问邮箱所在分片，否则各分片取前 limit 条后合并。
+     *
+     * @param owner 限定的邮箱，为 null 时检索所有邮箱
+     * @return 最相关的 limit 封邮件，相关度相同时新邮件在前
+     * @throws IllegalArgumentException 不指定邮箱时含中日韩文字的词少于 3 个字
+     */
+    public List<Email> search(String keyword, String owner, int limit) {
+        List<String> terms = terms(keyword);
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+        List<String> cjkTerms = terms.stream().filter(term -> CJK_PATTERN.matcher(term).find()).toList();
+        if (owner == null && cjkTerms.stream()
+                .anyMatch(term -> term.codePointCount(0, term.length()) < LikePattern.MIN_INDEXED_LENGTH)) {
+            throw new IllegalArgumentException("不指定邮箱时，中日韩文关键词至少需要 "
+                    + LikePattern.MIN_INDEXED_LENGTH + " 个字");
+        }
+        String query = terms.stream()
+                .filter(term -> !cjkTerms.contains(term))
+                .map(term -> term + ":*")
+                .collect(Collectors.joining(" & "));
+
+        List<String> conditions = new ArrayList<>();
+        List<Object> args = new ArrayList<>();
+        if (!query.isEmpty()) {
+            conditions.add("search_vector @@ query");
+            args.add(query);
+        }
+        for (String term : cjkTerms) {
+            conditions.add(SEARCH_TEXT + " ILIKE ?");
+            args.add(LikePattern.contains(term));
+        }
+        if (owner != null) {
+            conditions.add("owner = ?");
+            args.add(owner);
+        }
+        args.add(limit);
+
+        String sql = "SELECT " + LIST_COLUMNS + ", "
+                + (query.isEmpty() ? "0 AS rank FROM emails" : "ts_rank_cd(search_vector, query) AS rank "
+                        + "FROM emails, to_tsquery('simple', ?) AS query")
+                + " WHERE " + String.join(" AND ", conditions)
+                + " ORDER BY rank DESC, received_at DESC, id DESC LIMIT ?";
+        Object[] params = args.toArray();
+
+        List<List<SearchHit>> perShard = owner != null
+                ? List.of(shards.forOwner(owner).query(sql, SEARCH_HIT_MAPPER, params))
+                : shards.fanOut(jdbc -> jdbc.query(sql, SEARCH_HIT_MAPPER, params));
+        return perShard.stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparingDouble(SearchHit::rank).reversed()
+                        .thenComparing(SearchHit::email, NEWEST_FIRST))
+                .limit(limit)
+                .map(SearchHit::email)
+                .toList();
+    }
+
+    /**
+     * 关键词拆成词：只保留字母、数字组成的词，转为小写，去掉重复的
+     */
+    private static List<String> terms(String keyword) {
+        if (keyword == null) {
+            return List.of();
+        }
+        return Arrays.stream(keyword.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}_]+"))
+                .filter(term -> !term.isEmpty())
+                .distinct()
+                .toList();
+    }
+
+    private record SearchHit(Email email, double rank) {
+    }
+
+    /**
+     * 获取用户未删除的邮件，只访问邮箱所在分片
+     */
+    public Page<Email> findByOwnerAndIsDeletedFalse(String owner, Pageable pageable) {
+        JdbcTemplate jdbc = shards.forOwner(owner);
+        List<Email> content = jdbc.query(
+                "SELECT " + LIST_COLUMNS + " FROM emails WHERE owner = ? AND is_deleted = false "
+                        + "ORDER BY received_at DESC, id DESC LIMIT ? OFFSET ?",
+                EMAIL_MAPPER, owner, pageable.getPageSize(), pageable.getOffset());
+        Long total = jdbc.queryForObject(
+                "SELECT COUNT(*) FROM emails WHERE owner = ? AND is_deleted = false", Long.class, owner);
+        return new PageImpl<>(content, pageable, total != null ? total : 0);
+    }
+
+    /**
+     * 最近的未删除邮件
+     */
+    public List<Email> findRecentEmails(int limit) {
+        String sql = "SELECT " + LIST_COLUMNS + " FROM emails WHERE is_deleted = false "
+                + "ORDER BY received_at DESC, id DESC LIMIT ?";
+        return merge(shards.fanOut(jdbc -> jdbc.query(sql, EMAIL_MAPPER, limit)), 0, limit);
+    }
+
+    /**
+     * 从游标位置取一页，按 idx_emails_received_id 的顺序扫描，每个分片最多读取 size + 1 行
+     * @param condition 额外条件，以 " AND " 结尾
+     */
+    private KeysetPage<Email> findPage(String condition, List<Object> params, KeysetPage.Request request) {
+        String sql = "SELECT " + LIST_COLUMNS + " FROM emails WHERE " + condition
+                + (request.backward()
+                        ? "(received_at, id) > (?, ?) ORDER BY received_at, id LIMIT ?"
+                        : "(received_at, id) < (?, ?) ORDER BY received_at DESC, id DESC LIMIT ?");
+        PageCursor position = request.position();
+        Object[] args = Stream.concat(params.stream(),
+                Stream.of(position.at(), position.id(), request.limit())).toArray();
+
+        List<Email> rows = shards.fanOut(jdbc -> jdbc.query(sql, EMAIL_MAPPER, args)).stream()
+                .flatMap(List::stream)
+                .sorted(request.backward() ? OLDEST_FIRST : NEWEST_FIRST)
+                .limit(request.limit())
+                .toList();
+        return KeysetPage.of(rows, request, email -> new PageCursor(email.getReceivedAt(), email.getId()));
+    }
+
+    /**
+     * 合并各分片已排序的结果，跳过 offset 行后取 limit 行
+     */
+    private static List<Email> merge(List<List<Email>> perShard, long offset, int limit) {
+        return perShard.stream()
+                .flatMap(List::stream)
+                .sorted(NEWEST_FIRST)
+                .skip(offset)
+                .limit(limit)
+                .toList();
+    }
+
+    // ==================== 单封邮件 ====================
 
+    /**
+     * 按 ID 查找（所有分片、所有分区）
+     */
+    public Optional<Email> findById(UUID id) {
+        String sql = "SELECT " + ALL_COLUMNS + " FROM emails WHERE id = ?";
+        return first(shards.fanOut(jdbc -> jdbc.query(sql, EMAIL_MAPPER, id)));
+    }
+
+    /**
+     * 按主键（id + 分区键 received_at）查找，每个分片只访问一个分区
+     */
+    public Optional<Email> findByIdAndReceivedAt(UUID id, OffsetDateTime receivedAt) {
+        String sql = "SELECT " + ALL_COLUMNS + " FROM emails WHERE id = ? AND received_at = ?";
+        return first(shards.fanOut(jdbc -> jdbc.query(sql, EMAIL_MAPPER, id, receivedAt)));
+    }
+
+    public int updateRead(Email email, boolean read) {
+        return shards.forOwnerWrite(email.getOwner()).update(
+                "UPDATE emails SET is_read = ? WHERE id = ? AND received_at = ?",
+                read, email.getId(), email.getReceivedAt());
+    }
+
+    /**
+     * 软删除或恢复邮件
+     *
+     * 与 POP3 DELE、IMAP EXPUNGE 一致，用量在软删除时释放：
+     * users.used_bytes 由邮箱汇总触发器随 total_bytes 同步调整
+     */
+    public int updateDeleted(Email email, boolean deleted) {
+        return shards.forOwnerWrite(email.getOwner()).update(
+                "UPDATE emails SET is_deleted = ? WHERE id = ? AND received_at = ? AND is_deleted = ?",
+                deleted, email.getId(), email.getReceivedAt(), !deleted);
+    }
+
+    /**
+     * 物理删除邮件，未软删除的邮件由邮箱汇总触发器释放用量
+     */
+    public int delete(Email email) {
+        return shards.forOwnerWrite(email.getOwner()).update(
+                "DELETE FROM emails WHERE id = ? AND received_at = ?",
+                email.getId(), email.getReceivedAt());
+    }
+
+    private static Optional<Email> first(List<List<Email>> perShard) {
+        return perShard.stream().flatMap(List::stream).findFirst();
+    }
+
+    // ==================== 统计 ====================
+
+    /**
+     * 某时间之后接收的邮件数，各分片按 {@link RowCountEstimator} 的规则分别估算或精确统计后相加
+     * @param exact 是否要求精确值
+     */
+    public CountEstimate countEmailsSince(OffsetDateTime since, boolean exact) {
+        return shards.fanOut(jdbc -> countEstimator.count(jdbc, "emails WHERE received_at >= ?", exact, since))
+                .stream()
+                .reduce(CountEstimate.ZERO, CountEstimate::plus);
+    }
+
+    /**
+     * 按日期统计某时间之后接收的邮件数
+     * @return 按日期升序的 [LocalDate, Long]
+     */
+    public List<Object[]> getEmailCountByDate(OffsetDateTime since) {
+        String sql = """
+                SELECT CAST(received_at AS DATE) AS day, COUNT(*) AS cnt
+                FROM emails WHERE received_at >= ?
+                GROUP BY day
+                """;
+        SortedMap<LocalDate, Long> counts = new TreeMap<>();
+        shards.fanOut(jdbc -> jdbc.query(sql,
+                        (rs, rowNum) -> Map.entry(rs.getObject("day", LocalDate.class), rs.getLong("cnt")),
+                        since))
+                .forEach(rows -> rows.forEach(e -> counts.merge(e.getKey(), e.getValue(), Long::sum)));
+        return toRows(counts.entrySet().stream());
+    }
+
+    /**
+     * 发件最多的发件人
+     *
+     * 同一发件人的邮件分布在多个分片上，每个分片取前 limit * 4 名再合并，
+     * 分片较多且排名接近时结果是近似的
+     * @return 按邮件数降序的 [sender, Long]
+     */
+    public List<Object[]> getTopSenders(int limit) {
+        String sql = """
+                SELECT sender, COUNT(*) AS cnt FROM emails
+                WHERE is_deleted = false
+                GROUP BY sender ORDER BY cnt DESC LIMIT ?
+                """;
+        int perShard = shards.shardCount() > 1 ? limit * 4 : limit;
+        Map<String, Long> counts = new HashMap<>();
+        shards.fanOut(jdbc -> jdbc.query(sql,
+                        (rs, rowNum) -> Map.entry(rs.getString("sender"), rs.getLong("cnt")),
+                        perShard))
+                .forEach(rows -> rows.forEach(e -> counts.merge(e.getKey(), e.getValue(), Long::sum)));
+        return toRows(counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit));
+    }
+
+    static List<Object[]> toRows(Stream<? extends Map.Entry<?, Long>> entries) {
+        return entries.map(e -> new Object[]{e.getKey(), e.getValue()}).toList();
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static Email mapEmail(ResultSet rs, int rowNum) throws SQLException {
+        Array recipients = rs.getArray("recipients");
+        return Email.builder()
+                .id(rs.getObject("id", UUID.class))
+                .sender(rs.getString("sender"))
+                .recipients(recipients != null ? (String[]) recipients.getArray() : new String[0])
+                .subject(rs.getString("subject"))
+                .body(rs.getString("body"))
+                .rawContent(rs.getString("raw_content"))
+                .size(rs.getLong("size"))
+                .receivedAt(rs.getObject("received_at", OffsetDateTime.class))
+                .isRead(rs.getBoolean("is_read"))
+                .isDeleted(rs.getBoolean("is_deleted"))
+                .owner(rs.getString("owner"))
+                .build();
+    }
+}
@@ -0,0 +1,28 @@
+package com.yhm.adminweb.repository;
+
+/**
+ * LIKE / ILIKE 模式
+ *
+ * 用户输入中的 %、_ 和 \ 按字面匹配（PostgreSQL 默认转义字符为 \）
+ */
+public final class LikePattern {
+
+    /**
+     * pg_trgm 从 '%x%' 中提取三元组所需的最少字符数，更短的片段用不上 gin_trgm_ops 索引
+     */
+    public static final int MIN_INDEXED_LENGTH = 3;
+
+    private LikePattern() {
+    }
+
+    /**
+     * 包含 keyword 的模式
+     */
+    public static String contains(String keyword) {
+        return "%" + escape(keyword) + "%";
+    }
+
+    public static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
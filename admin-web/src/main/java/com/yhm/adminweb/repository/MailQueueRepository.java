@@ -1,7 +1,6 @@
 package com.yhm.adminweb.repository;
 
 import com.yhm.adminweb.entity.MailQueue;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -19,16 +18,8 @@ import java.util.UUID;
 @Repository
 public interface MailQueueRepository extends JpaRepository<MailQueue, UUID> {
 
-    Page<MailQueue> findByStatus(String status, Pageable pageable);
-
     List<MailQueue> findByStatusAndNextRetryAtBefore(String status, OffsetDateTime time);
 
-    @Query("SELECT COUNT(q) FROM MailQueue q WHERE q.status = :status")
-    long countByStatus(@Param("status") String status);
-
-    @Query("SELECT q.status, COUNT(q) FROM MailQueue q GROUP BY q.status")
-    List<Object[]> getQueueStatusCounts();
-
     @Modifying
     @Query("UPDATE MailQueue q SET q.status = :newStatus WHERE q.status = :oldStatus AND q.nextRetryAt <= :now")
     int updateStatusForRetry(@Param("oldStatus") String oldStatus, 
@@ -38,5 +29,22 @@ public interface MailQueueRepository extends JpaRepository<MailQueue, UUID> {
     @Modifying
     @Query("DELETE FROM MailQueue q WHERE q.status = 'sent' AND q.updatedAt < :before")
     int deleteOldSentItems(@Param("before") OffsetDateTime before);
-}
 
+    // ==================== 列表 keyset 分页 ====================
+    // 按 (created_at, id) 倒序，OlderThan 取游标之后的一页（倒序），NewerThan 取游标之前的一页（正序），
+    // 见 KeysetPage。created_at <= :at 是索引范围条件，扫描从游标位置开始
+
+    @Query("SELECT q FROM MailQueue q WHERE q.createdAt <= :at AND (q.createdAt < :at OR q.id < :id) ORDER BY q.createdAt DESC, q.id DESC")
+    List<MailQueue> findOlderThan(@Param("at") OffsetDateTime at, @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT q FROM MailQueue q WHERE q.createdAt >= :at AND (q.createdAt > :at OR q.id > :id) ORDER BY q.createdAt ASC, q.id ASC")
+    List<MailQueue> findNewerThan(@Param("at") OffsetDateTime at, @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT q FROM MailQueue q WHERE q.status = :status AND q.createdAt <= :at AND (q.createdAt < :at OR q.id < :id) ORDER BY q.createdAt DESC, q.id DESC")
+    List<MailQueue> findByStatusOlderThan(@Param("status") String status, @Param("at") OffsetDateTime at,
+                                          @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT q FROM MailQueue q WHERE q.status = :status AND q.createdAt >= :at AND (q.createdAt > :at OR q.id > :id) ORDER BY q.createdAt ASC, q.id ASC")
+    List<MailQueue> findByStatusNewerThan(@Param("status") String status, @Param("at") OffsetDateTime at,
+                                          @Param("id") UUID id, Pageable limit);
+}
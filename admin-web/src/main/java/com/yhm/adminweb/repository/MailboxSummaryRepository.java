@@ -0,0 +1,88 @@
+package com.yhm.adminweb.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮箱汇总数据访问
+ *
+ * mailbox_summary 由 emails 表上的触发器维护，和邮件在同一分片上，这里只读：
+ * 汇总值在各分片上分别求和后相加，每个邮箱只在一个分片上，排行合并后不需要再聚合。
+ * 邮箱用量以 total_bytes 为准：目录库中不在 0 号分片的邮箱的 users.used_bytes 不随投递更新。
+ */
+@Repository
+@RequiredArgsConstructor
+public class MailboxSummaryRepository {
+
+    private final ShardJdbcTemplates shards;
+
+    public long sumTotalCount() {
+        return sum("SELECT COALESCE(SUM(total_count), 0) FROM mailbox_summary");
+    }
+
+    public long sumUnreadCount() {
+        return sum("SELECT COALESCE(SUM(unread_count), 0) FROM mailbox_summary");
+    }
+
+    public long sumTotalBytes() {
+        return sum("SELECT COALESCE(SUM(total_bytes), 0) FROM mailbox_summary");
+    }
+
+    /**
+     * 邮件最多的邮箱
+     * @return 按邮件数降序的 [owner, Long]
+     */
+    public List<Object[]> getTopReceivers(int limit) {
+        return top("total_count", limit);
+    }
+
+    /**
+     * 占用空间最多的邮箱
+     * @return 按字节数降序的 [owner, Long]
+     */
+    public List<Object[]> getTopStorage(int limit) {
+        return top("total_bytes", limit);
+    }
+
+    /**
+     * 各邮箱的已用字节数，没有汇总行的邮箱不在结果中
+     */
+    public Map<String, Long> getTotalBytes(Collection<String> owners) {
+        Map<String, Long> bytes = new HashMap<>();
+        if (owners.isEmpty()) {
+            return bytes;
+        }
+        String[] array = owners.toArray(String[]::new);
+        shards.fanOut(jdbc -> jdbc.query("SELECT owner, total_bytes FROM mailbox_summary WHERE owner = ANY(?)",
+                        (rs, rowNum) -> Map.entry(rs.getString("owner"), rs.getLong("total_bytes")),
+                        (Object) array))
+                .forEach(rows -> rows.forEach(row -> bytes.put(row.getKey(), row.getValue())));
+        return bytes;
+    }
+
+    private List<Object[]> top(String column, int limit) {
+        String sql = "SELECT owner, " + column + " FROM mailbox_summary WHERE " + column + " > 0 "
+                + "ORDER BY " + column + " DESC LIMIT ?";
+        return shards.fanOut(jdbc -> jdbc.query(sql,
+                        (rs, rowNum) -> new Object[]{rs.getString("owner"), rs.getLong(column)},
+                        limit))
+                .stream()
+                .flatMap(List::stream)
+                .sorted(Comparator.comparing((Object[] row) -> (Long) row[1]).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    private long sum(String sql) {
+        return shards.fanOut(jdbc -> jdbc.queryForObject(sql, Long.class))
+                .stream()
+                .mapToLong(value -> value != null ? value : 0)
+                .sum();
+    }
+}
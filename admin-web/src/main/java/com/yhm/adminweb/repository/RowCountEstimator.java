@@ -0,0 +1,96 @@
+package com.yhm.adminweb.repository;
+
+import com.yhm.adminweb.dto.CountEstimate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 行数估算
+ *
+ * 大表上的 COUNT(*) 需要扫描全部匹配行，仪表板和状态统计每次加载都执行代价很高。这里先取估算值：
+ * - 整表行数：pg_class.reltuples（分区表为各分区之和），由 VACUUM / ANALYZE 更新
+ * - 带条件的行数：EXPLAIN 的 "Plan Rows"，按列统计信息（如 status 的高频值）估计
+ * 估算值不超过 mail.count.exact-threshold 时改为执行 COUNT(*)，小表和小结果集仍然显示精确值；
+ * 调用方要求精确时直接执行 COUNT(*)。
+ *
+ * 不带 JdbcTemplate 参数的方法访问目录库（0 号分片），邮件表的计数由调用方在各分片上分别估算后相加。
+ */
+@Repository
+@RequiredArgsConstructor
+public class RowCountEstimator {
+
+    private static final Pattern PLAN_ROWS = Pattern.compile("\"Plan Rows\":\\s*(\\d+)");
+
+    // 表及其分区的 reltuples 之和；从未 ANALYZE 过的表 reltuples 为 -1
+    private static final String RELTUPLES_SQL = """
+            SELECT COALESCE(SUM(c.reltuples), -1)::bigint, COALESCE(MIN(c.reltuples), -1) < 0
+            FROM pg_class c
+            WHERE c.relkind = 'r'
+              AND (c.oid = to_regclass(?)
+                   OR c.oid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = to_regclass(?)))
+            """;
+
+    private final ShardJdbcTemplates shards;
+
+    @Value("${mail.count.exact-threshold:10000}")
+    private long exactThreshold;
+
+    /**
+     * 目录库上整表的行数
+     */
+    public CountEstimate countRows(String table, boolean exact) {
+        return countRows(shards.shard(0), table, exact);
+    }
+
+    /**
+     * 目录库上满足条件的行数
+     * @param from FROM 之后的部分，如 "delivery_logs WHERE status = ?"
+     */
+    public CountEstimate count(String from, boolean exact, Object... args) {
+        return count(shards.shard(0), from, exact, args);
+    }
+
+    /**
+     * 整表的行数，表从未 ANALYZE 过时按查询计划估算
+     */
+    public CountEstimate countRows(JdbcTemplate jdbc, String table, boolean exact) {
+        if (exact) {
+            return exactCount(jdbc, table);
+        }
+        Long estimate = jdbc.queryForObject(RELTUPLES_SQL,
+                (rs, rowNum) -> rs.getBoolean(2) ? null : rs.getLong(1), table, table);
+        if (estimate == null) {
+            return count(jdbc, table, false);
+        }
+        return estimate <= exactThreshold ? exactCount(jdbc, table) : CountEstimate.approximate(estimate);
+    }
+
+    /**
+     * 满足条件的行数
+     * @param from FROM 之后的部分，如 "emails WHERE received_at >= ?"
+     */
+    public CountEstimate count(JdbcTemplate jdbc, String from, boolean exact, Object... args) {
+        if (exact) {
+            return exactCount(jdbc, from, args);
+        }
+        long estimate = planRows(jdbc, from, args);
+        return estimate <= exactThreshold ? exactCount(jdbc, from, args) : CountEstimate.approximate(estimate);
+    }
+
+    private long planRows(JdbcTemplate jdbc, String from, Object... args) {
+        String plan = jdbc.queryForObject("EXPLAIN (FORMAT JSON) SELECT 1 FROM " + from, String.class, args);
+        // 第一个 Plan Rows 是最外层节点，即整个查询返回的行数
+        Matcher matcher = PLAN_ROWS.matcher(plan != null ? plan : "");
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private static CountEstimate exactCount(JdbcTemplate jdbc, String from, Object... args) {
+        Long count = jdbc.queryForObject("SELECT COUNT(*) FROM " + from, Long.class, args);
+        return CountEstimate.exact(count != null ? count : 0);
+    }
+}
@@ -0,0 +1,121 @@
+package com.yhm.adminweb.repository;
+
+import com.yhm.adminweb.config.ReadReplicaRoutingDataSource;
+import com.yhm.mail.core.shard.MailboxMovingException;
+import com.yhm.mail.core.shard.ShardRouter;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 按分片访问邮件数据的 JdbcTemplate
+ *
+ * 包装 mail-core 的 {@link ShardRouter}：按邮箱路由到所在分片，或在所有分片上并行执行，
+ * 并把路由过程中的 SQLException 转换为 Spring 的 DataAccessException。
+ */
+@Component
+public class ShardJdbcTemplates {
+
+    private final ShardRouter router;
+    private final List<JdbcTemplate> templates;
+
+    public ShardJdbcTemplates(ShardRouter router) {
+        this.router = router;
+        this.templates = new ArrayList<>(router.shardCount());
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            templates.add(new JdbcTemplate(router.shard(shard)));
+        }
+    }
+
+    public ShardRouter router() {
+        return router;
+    }
+
+    public int shardCount() {
+        return templates.size();
+    }
+
+    public JdbcTemplate shard(int shard) {
+        return templates.get(shard);
+    }
+
+    /**
+     * 邮箱所在分片（读）
+     */
+    public JdbcTemplate forOwner(String owner) {
+        try {
+            return templates.get(router.shardOf(owner));
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * 邮箱所在分片（写），迁移中的邮箱抛出 TransientDataAccessResourceException
+     */
+    public JdbcTemplate forOwnerWrite(String owner) {
+        return templates.get(writableShardOf(owner));
+    }
+
+    /**
+     * 邮箱所在分片序号（写），迁移中的邮箱抛出 TransientDataAccessResourceException
+     */
+    public int writableShardOf(String owner) {
+        try {
+            return router.writableShardOf(owner);
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * 把目录库中用户的修改同步到邮箱所在分片，见 {@link ShardRouter#syncMailboxOwner(String)}
+     */
+    public void syncMailboxOwner(String owner) {
+        try {
+            router.syncMailboxOwner(owner);
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * 删除邮箱在所在分片上的全部数据，见 {@link ShardRouter#purgeMailbox(String)}
+     */
+    public void purgeMailbox(String owner) {
+        try {
+            router.purgeMailbox(owner);
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    /**
+     * 在所有分片上并行执行
+     * 查询线程继承调用方事务的只读属性，只读事务中的分片查询同样可以走副本
+     * @return 按分片序号排列的结果
+     */
+    public <T> List<T> fanOut(Function<JdbcTemplate, T> query) {
+        boolean readOnly = ReadReplicaRoutingDataSource.isReadOnly();
+        try {
+            return router.fanOut((shard, dataSource) -> ReadReplicaRoutingDataSource.withReadOnly(
+                    readOnly, () -> query.apply(templates.get(shard))));
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+    private static DataAccessException translate(SQLException e) {
+        if (e instanceof MailboxMovingException) {
+            return new TransientDataAccessResourceException(e.getMessage(), e);
+        }
+        return new DataAccessResourceFailureException(e.getMessage(), e);
+    }
+}
@@ -1,7 +1,6 @@
 package com.yhm.adminweb.repository;
 
 import com.yhm.adminweb.entity.User;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
@@ -10,6 +9,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -26,22 +26,14 @@ public interface UserRepository extends JpaRepository<User, UUID> {
 
     List<User> findByDomain(String domain);
 
-    Page<User> findByDomain(String domain, Pageable pageable);
-
     List<User> findByIsEnabledTrue();
 
-    Page<User> findByEmailContainingIgnoreCaseOrUsernameContainingIgnoreCase(
-            String email, String username, Pageable pageable);
-
     @Query("SELECT COUNT(u) FROM User u WHERE u.isEnabled = true")
     long countEnabledUsers();
 
     @Query("SELECT COUNT(u) FROM User u WHERE u.domain = :domain")
     long countByDomain(@Param("domain") String domain);
 
-    @Query("SELECT SUM(u.usedBytes) FROM User u")
-    Long getTotalUsedBytes();
-
     @Query("SELECT SUM(u.quotaBytes) FROM User u")
     Long getTotalQuotaBytes();
 
@@ -49,12 +41,55 @@ public interface UserRepository extends JpaRepository<User, UUID> {
     @Query("UPDATE User u SET u.lastLoginAt = :loginTime WHERE u.email = :email")
     void updateLastLoginTime(@Param("email") String email, @Param("loginTime") OffsetDateTime loginTime);
 
-    @Query("SELECT u FROM User u ORDER BY u.usedBytes DESC")
-    List<User> findTopUsersByStorage(Pageable pageable);
+    List<User> findByEmailIn(Collection<String> emails);
 
     List<User> findByIsAdminTrue();
 
     @Query("SELECT COUNT(u) FROM User u WHERE u.isAdmin = true")
     long countAdmins();
-}
 
+    // ==================== 群发收件人 keyset 分页 ====================
+
+    @Query("SELECT u.email FROM User u WHERE u.isEnabled = true AND u.email > :after ORDER BY u.email")
+    List<String> findEnabledEmailsAfter(@Param("after") String after, Pageable pageable);
+
+    @Query("SELECT u.email FROM User u WHERE u.isEnabled = true AND u.domain = :domain AND u.email > :after ORDER BY u.email")
+    List<String> findEnabledEmailsByDomainAfter(@Param("domain") String domain, @Param("after") String after, Pageable pageable);
+
+    @Query("SELECT u.email FROM User u WHERE u.isEnabled = true AND u.isAdmin = true AND u.email > :after ORDER BY u.email")
+    List<String> findEnabledAdminEmailsAfter(@Param("after") String after, Pageable pageable);
+
+    @Query("SELECT COUNT(u) FROM User u WHERE u.isEnabled = true AND u.domain = :domain")
+    long countEnabledByDomain(@Param("domain") String domain);
+
+    @Query("SELECT COUNT(u) FROM User u WHERE u.isEnabled = true AND u.isAdmin = true")
+    long countEnabledAdmins();
+
+    long countByEmailIn(Collection<String> emails);
+
+    // ==================== 列表 keyset 分页 ====================
+    // 按 (created_at, id) 倒序，OlderThan 取游标之后的一页（倒序），NewerThan 取游标之前的一页（正序），
+    // 见 KeysetPage。created_at <= :at 是索引范围条件，扫描从游标位置开始
+
+    @Query("SELECT u FROM User u WHERE u.createdAt <= :at AND (u.createdAt < :at OR u.id < :id) ORDER BY u.createdAt DESC, u.id DESC")
+    List<User> findOlderThan(@Param("at") OffsetDateTime at, @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT u FROM User u WHERE u.createdAt >= :at AND (u.createdAt > :at OR u.id > :id) ORDER BY u.createdAt ASC, u.id ASC")
+    List<User> findNewerThan(@Param("at") OffsetDateTime at, @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT u FROM User u WHERE u.domain = :domain AND u.createdAt <= :at AND (u.createdAt < :at OR u.id < :id) ORDER BY u.createdAt DESC, u.id DESC")
+    List<User> findByDomainOlderThan(@Param("domain") String domain, @Param("at") OffsetDateTime at,
+                                     @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT u FROM User u WHERE u.domain = :domain AND u.createdAt >= :at AND (u.createdAt > :at OR u.id > :id) ORDER BY u.createdAt ASC, u.id ASC")
+    List<User> findByDomainNewerThan(@Param("domain") String domain, @Param("at") OffsetDateTime at,
+                                     @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT u FROM User u WHERE (LOWER(u.email) LIKE :pattern OR LOWER(u.username) LIKE :pattern) AND u.createdAt <= :at AND (u.createdAt < :at OR u.id < :id) ORDER BY u.createdAt DESC, u.id DESC")
+    List<User> findByEmailOrUsernameLikeOlderThan(@Param("pattern") String pattern, @Param("at") OffsetDateTime at,
+                                                  @Param("id") UUID id, Pageable limit);
+
+    @Query("SELECT u FROM User u WHERE (LOWER(u.email) LIKE :pattern OR LOWER(u.username) LIKE :pattern) AND u.createdAt >= :at AND (u.createdAt > :at OR u.id > :id) ORDER BY u.createdAt ASC, u.id ASC")
+    List<User> findByEmailOrUsernameLikeNewerThan(@Param("pattern") String pattern, @Param("at") OffsetDateTime at,
+                                                  @Param("id") UUID id, Pageable limit);
+}
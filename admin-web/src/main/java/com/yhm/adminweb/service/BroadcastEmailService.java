@@ -1,104 +1,430 @@
 package com.yhm.adminweb.service;
 
 import com.yhm.adminweb.dto.BroadcastEmailForm;
-import com.yhm.adminweb.entity.Email;
+import com.yhm.adminweb.entity.BroadcastJob;
 import com.yhm.adminweb.entity.User;
-import com.yhm.adminweb.repository.EmailRepository;
+import com.yhm.adminweb.repository.BroadcastJobRepository;
+import com.yhm.adminweb.repository.ShardJdbcTemplates;
 import com.yhm.adminweb.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.OffsetDateTime;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
 
 /**
  * 群发邮件服务
+ *
+ * 群发以后台任务方式执行：提交时只创建 broadcast_jobs 记录并立即返回，
+ * 后台线程按邮箱地址 keyset 分页读取收件人，每页用一条 INSERT ... SELECT
+ * 写入 emails，并在同一事务中推进任务游标，崩溃重启后从游标处继续。
+ *
+ * 邮箱分布在多个分片上时，每页收件人按所在分片分组：
+ * 目录库上的邮箱与推进游标在同一事务中写入；其他分片先写入（分片不参与目录库事务），
+ * 写入前跳过已经收到本任务邮件（同一发件人、同一接收时间）的邮箱，
+ * 崩溃后重做这一页不会重复投递。页中有正在迁移的邮箱时等待迁移完成后重试整页。
+ *
+ * 多个管理后台实例共享 broadcast_jobs：执行任务前先在数据库中原子地领取租约
+ * （lease_owner 为空或心跳已过期才能领取），每页推进游标时续约，
+ * 续约失败（租约已被其他实例接管）时立即停止。租约过期的任务由定期扫描重新领取。
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class BroadcastEmailService {
 
+    private static final String INSERT_PAGE_SQL = """
+            INSERT INTO emails (sender, recipients, subject, body, raw_content, size, received_at, is_read, is_deleted, owner)
+            SELECT ?, ARRAY[u.email]::VARCHAR(320)[], ?, ?, ?, ?, ?, false, false, u.email
+            FROM unnest(?::VARCHAR(320)[]) AS r(email)
+            JOIN users u ON u.email = r.email
+            """;
+
+    // 其他分片上的写入不在推进游标的事务中，重做时跳过已投递的邮箱
+    private static final String INSERT_SHARD_PAGE_SQL = INSERT_PAGE_SQL + """
+            WHERE NOT EXISTS (
+                SELECT 1 FROM emails e
+                WHERE e.owner = u.email AND e.received_at = ? AND e.sender = ?
+            )
+            """;
+
+    private static final String ADVANCE_JOB_SQL = """
+            UPDATE broadcast_jobs
+            SET sent_count = sent_count + ?, last_recipient = ?,
+                lease_heartbeat = CURRENT_TIMESTAMP, updated_at = CURRENT_TIMESTAMP
+            WHERE id = ? AND lease_owner = ?
+            """;
+
+    // 未完成、且没有租约或租约已过期（持有实例崩溃）的任务才能领取
+    private static final String CLAIM_JOB_SQL = """
+            UPDATE broadcast_jobs
+            SET lease_owner = ?, lease_heartbeat = CURRENT_TIMESTAMP,
+                status = 'running', updated_at = CURRENT_TIMESTAMP
+            WHERE id = ? AND status IN ('pending', 'running')
+              AND (lease_owner IS NULL OR lease_heartbeat < CURRENT_TIMESTAMP - make_interval(secs => ?))
+            """;
+
+    private static final String RENEW_LEASE_SQL = """
+            UPDATE broadcast_jobs SET lease_heartbeat = CURRENT_TIMESTAMP
+            WHERE id = ? AND lease_owner = ?
+            """;
+
+    private static final String FIND_CLAIMABLE_SQL = """
+            SELECT id FROM broadcast_jobs
+            WHERE status IN ('pending', 'running')
+              AND (lease_owner IS NULL OR lease_heartbeat < CURRENT_TIMESTAMP - make_interval(secs => ?))
+            ORDER BY created_at
+            """;
+
     private final UserRepository userRepository;
-    private final EmailRepository emailRepository;
+    private final BroadcastJobRepository jobRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final ShardJdbcTemplates shards;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${broadcast.batch-size:500}")
+    private int batchSize;
+
+    @Value("${broadcast.lease-timeout:60000}")
+    private long leaseTimeoutMillis;
+
+    private final ExecutorService jobExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("broadcast-job-", 0).factory());
+
+    private final ScheduledExecutorService leaseScanner = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("broadcast-lease-scanner").daemon(true).factory());
+
+    // 本实例的租约标识
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // 当前进程中正在执行的任务，避免本实例重复领取
+    private final Set<UUID> activeJobs = ConcurrentHashMap.newKeySet();
 
     /**
-     * 群发邮件
+     * 提交群发任务
      * @param form 群发邮件表单
      * @param senderEmail 发送者邮箱
-     * @return 成功发送的邮件数量
+     * @return 已创建的任务；没有收件人时返回 empty
      */
-    @Transactional
-    public int sendBroadcast(BroadcastEmailForm form, String senderEmail) {
-        List<String> targetEmails = getTargetEmails(form);
-        
-        if (targetEmails.isEmpty()) {
+    public Optional<BroadcastJob> submitBroadcast(BroadcastEmailForm form, String senderEmail) {
+        String[] explicit = normalizeRecipients(form.getRecipients());
+        int total = (int) countTargets(form, explicit);
+
+        if (total == 0) {
             log.warn("No recipients found for broadcast email");
-            return 0;
+            return Optional.empty();
         }
 
-        int successCount = 0;
-        String rawContent = buildRawContent(senderEmail, form.getSubject(), form.getBody());
+        BroadcastJob job = jobRepository.save(BroadcastJob.builder()
+                .sender(senderEmail)
+                .subject(form.getSubject())
+                .body(form.getBody())
+                .rawContent(buildRawContent(senderEmail, form.getSubject(), form.getBody()))
+                .targetDomain(blankToNull(form.getTargetDomain()))
+                .adminOnly(Boolean.TRUE.equals(form.getAdminOnly()))
+                .explicitRecipients(explicit)
+                .totalCount(total)
+                .build());
+
+        log.info("Broadcast job {} submitted for {} recipients", job.getId(), total);
+        dispatch(job.getId());
+        return Optional.of(job);
+    }
 
-        for (String recipientEmail : targetEmails) {
+    /**
+     * 应用启动后恢复未完成的任务，之后定期接管租约过期的任务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedJobs() {
+        log.info("Broadcast lease owner {}, lease timeout {}ms", instanceId, leaseTimeoutMillis);
+        leaseScanner.scheduleWithFixedDelay(this::dispatchClaimableJobs,
+                0, leaseTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatchClaimableJobs() {
+        try {
+            List<UUID> claimable = jdbcTemplate.queryForList(FIND_CLAIMABLE_SQL, UUID.class, leaseTimeoutSeconds());
+            claimable.forEach(this::dispatch);
+        } catch (Exception e) {
+            log.warn("Failed to scan for unfinished broadcast jobs: {}", e.getMessage());
+        }
+    }
+
+    private void dispatch(UUID jobId) {
+        if (!activeJobs.add(jobId)) {
+            return;
+        }
+        jobExecutor.submit(() -> {
             try {
-                Email email = Email.builder()
-                        .sender(senderEmail)
-                        .recipients(new String[]{recipientEmail})
-                        .subject(form.getSubject())
-                        .body(form.getBody())
-                        .rawContent(rawContent)
-                        .size((long) rawContent.length())
-                        .receivedAt(OffsetDateTime.now())
-                        .isRead(false)
-                        .isDeleted(false)
-                        .owner(recipientEmail)
-                        .build();
-                
-                emailRepository.save(email);
-                successCount++;
-                log.debug("Broadcast email sent to: {}", recipientEmail);
-            } catch (Exception e) {
-                log.error("Failed to send broadcast email to: {}", recipientEmail, e);
+                if (claim(jobId)) {
+                    runJob(jobId);
+                }
+            } finally {
+                activeJobs.remove(jobId);
             }
+        });
+    }
+
+    /**
+     * 原子地领取任务租约，其他实例持有未过期的租约时返回 false
+     */
+    private boolean claim(UUID jobId) {
+        return jdbcTemplate.update(CLAIM_JOB_SQL, instanceId, jobId, leaseTimeoutSeconds()) == 1;
+    }
+
+    /**
+     * 续约，租约已被其他实例接管时返回 false
+     */
+    private boolean renewLease(UUID jobId) {
+        return jdbcTemplate.update(RENEW_LEASE_SQL, jobId, instanceId) == 1;
+    }
+
+    private double leaseTimeoutSeconds() {
+        return leaseTimeoutMillis / 1000.0;
+    }
+
+    /**
+     * 执行任务：逐页投递直到没有更多收件人
+     */
+    private void runJob(UUID jobId) {
+        BroadcastJob job = jobRepository.findById(jobId).orElse(null);
+        if (job == null || job.isFinished()) {
+            return;
         }
 
-        log.info("Broadcast email sent successfully to {} recipients", successCount);
-        return successCount;
+        log.info("Running broadcast job {} from cursor {} ({}/{})",
+                jobId, job.getCursor(), job.getSentCount(), job.getTotalCount());
+
+        try {
+            String cursor = job.getCursor() != null ? job.getCursor() : "";
+            Timestamp receivedAt = Timestamp.from(job.getCreatedAt() != null
+                    ? job.getCreatedAt().toInstant() : OffsetDateTime.now().toInstant());
+            long size = job.getRawContent().length();
+
+            while (true) {
+                // 其他分片上的写入不在推进游标的事务中，写入前确认租约仍归本实例
+                if (!renewLease(jobId)) {
+                    log.warn("Broadcast job {} lease taken over by another instance, stopping", jobId);
+                    return;
+                }
+
+                List<String> page = nextRecipients(job, cursor);
+                if (page.isEmpty()) {
+                    break;
+                }
+
+                String last = page.getLast();
+                Map<Integer, List<String>> byShard;
+                try {
+                    byShard = groupByShard(page);
+                } catch (TransientDataAccessResourceException e) {
+                    // 有邮箱正在迁移，等路由切换后重试这一页
+                    log.debug("Broadcast job {} waiting for mailbox move: {}", jobId, e.getMessage());
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(shards.router().overrideTtlMillis() * 2));
+                    if (Thread.currentThread().isInterrupted()) {
+                        // 正在关闭，任务保持 running 状态，下次启动时从游标继续
+                        return;
+                    }
+                    continue;
+                }
+
+                int remote = 0;
+                for (Map.Entry<Integer, List<String>> group : byShard.entrySet()) {
+                    if (group.getKey() != 0) {
+                        remote += insertPage(shards.shard(group.getKey()), true,
+                                job, size, receivedAt, group.getValue());
+                    }
+                }
+
+                List<String> local = byShard.getOrDefault(0, List.of());
+                int remoteRows = remote;
+                Integer inserted = transactionTemplate.execute(status -> {
+                    int rows = remoteRows + (local.isEmpty() ? 0
+                            : insertPage(jdbcTemplate, false, job, size, receivedAt, local));
+                    if (jdbcTemplate.update(ADVANCE_JOB_SQL, rows, last, jobId, instanceId) == 0) {
+                        // 租约已失去，回滚本页在目录库上的写入
+                        status.setRollbackOnly();
+                        return null;
+                    }
+                    return rows;
+                });
+                if (inserted == null) {
+                    log.warn("Broadcast job {} lease lost while delivering, stopping", jobId);
+                    return;
+                }
+
+                cursor = last;
+                log.debug("Broadcast job {} delivered {} emails, cursor={}", jobId, inserted, cursor);
+            }
+
+            updateStatus(jobId, "completed", null);
+            log.info("Broadcast job {} completed", jobId);
+
+        } catch (Exception e) {
+            log.error("Broadcast job {} failed", jobId, e);
+            updateStatus(jobId, "failed", e.getMessage());
+        }
     }
 
     /**
-     * 获取目标收件人列表
+     * 按邮箱所在分片分组，并确保其他分片上有收件人的 users 行
+     * @throws TransientDataAccessResourceException 有邮箱正在迁移
      */
-    private List<String> getTargetEmails(BroadcastEmailForm form) {
-        // 如果指定了收件人列表，直接使用
-        if (form.getRecipients() != null && !form.getRecipients().isEmpty()) {
-            return form.getRecipients();
+    private Map<Integer, List<String>> groupByShard(List<String> page) {
+        if (shards.shardCount() == 1) {
+            return Map.of(0, page);
+        }
+        Map<Integer, List<String>> byShard = page.stream()
+                .collect(Collectors.groupingBy(shards::writableShardOf));
+        byShard.forEach((shard, owners) -> {
+            if (shard != 0) {
+                owners.forEach(this::ensureMailbox);
+            }
+        });
+        return byShard;
+    }
+
+    private void ensureMailbox(String owner) {
+        try {
+            shards.router().ensureMailbox(owner);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to prepare mailbox " + owner + ": " + e.getMessage(), e);
         }
+    }
+
+    /**
+     * 向一组邮箱写入任务邮件
+     * @param skipDelivered 跳过已经收到本任务邮件的邮箱（其他分片上重做时）
+     */
+    private static int insertPage(JdbcTemplate template, boolean skipDelivered, BroadcastJob job,
+                                  long size, Timestamp receivedAt, List<String> owners) {
+        return template.update(con -> {
+            PreparedStatement ps = con.prepareStatement(skipDelivered ? INSERT_SHARD_PAGE_SQL : INSERT_PAGE_SQL);
+            Array recipients = con.createArrayOf("varchar", owners.toArray());
+            ps.setString(1, job.getSender());
+            ps.setString(2, job.getSubject());
+            ps.setString(3, job.getBody());
+            ps.setString(4, job.getRawContent());
+            ps.setLong(5, size);
+            ps.setTimestamp(6, receivedAt);
+            ps.setArray(7, recipients);
+            if (skipDelivered) {
+                ps.setTimestamp(8, receivedAt);
+                ps.setString(9, job.getSender());
+            }
+            return ps;
+        });
+    }
 
-        List<User> users;
-        
+    /**
+     * 读取游标之后的一页收件人
+     */
+    private List<String> nextRecipients(BroadcastJob job, String after) {
+        PageRequest page = PageRequest.ofSize(batchSize);
+
+        if (job.getExplicitRecipients() != null && job.getExplicitRecipients().length > 0) {
+            return Arrays.stream(job.getExplicitRecipients())
+                    .filter(r -> r.compareTo(after) > 0)
+                    .limit(batchSize)
+                    .toList();
+        }
+        if (Boolean.TRUE.equals(job.getAdminOnly())) {
+            return userRepository.findEnabledAdminEmailsAfter(after, page);
+        }
+        if (job.getTargetDomain() != null) {
+            return userRepository.findEnabledEmailsByDomainAfter(job.getTargetDomain(), after, page);
+        }
+        return userRepository.findEnabledEmailsAfter(after, page);
+    }
+
+    /**
+     * 结束任务并释放租约（只在仍持有租约时）
+     */
+    private void updateStatus(UUID jobId, String status, String error) {
+        jdbcTemplate.update("""
+                UPDATE broadcast_jobs
+                SET status = ?, last_error = ?, lease_owner = NULL, updated_at = CURRENT_TIMESTAMP,
+                    finished_at = CURRENT_TIMESTAMP
+                WHERE id = ? AND lease_owner = ?
+                """, status, error, jobId, instanceId);
+    }
+
+    /**
+     * 查询任务
+     */
+    public Optional<BroadcastJob> findJob(UUID id) {
+        return jobRepository.findById(id);
+    }
+
+    /**
+     * 最近的任务列表
+     */
+    public List<BroadcastJob> findRecentJobs() {
+        return jobRepository.findTop10ByOrderByCreatedAtDesc();
+    }
+
+    /**
+     * 统计目标收件人数量
+     */
+    private long countTargets(BroadcastEmailForm form, String[] explicit) {
+        // 如果指定了收件人列表，只统计存在的用户
+        if (explicit != null) {
+            return userRepository.countByEmailIn(Arrays.asList(explicit));
+        }
         // 只发送给管理员
         if (Boolean.TRUE.equals(form.getAdminOnly())) {
-            users = userRepository.findByIsAdminTrue();
+            return userRepository.countEnabledAdmins();
         }
         // 按域名筛选
-        else if (form.getTargetDomain() != null && !form.getTargetDomain().isBlank()) {
-            users = userRepository.findByDomain(form.getTargetDomain());
+        if (form.getTargetDomain() != null && !form.getTargetDomain().isBlank()) {
+            return userRepository.countEnabledByDomain(form.getTargetDomain());
         }
         // 发送给所有启用的用户
-        else {
-            users = userRepository.findByIsEnabledTrue();
+        return userRepository.countEnabledUsers();
+    }
+
+    /**
+     * 去重并排序指定收件人，使其可以按游标分页
+     */
+    private String[] normalizeRecipients(List<String> recipients) {
+        if (recipients == null || recipients.isEmpty()) {
+            return null;
         }
+        return recipients.stream()
+                .filter(r -> r != null && !r.isBlank())
+                .map(String::trim)
+                .distinct()
+                .sorted()
+                .toArray(String[]::new);
+    }
 
-        return users.stream()
-                .filter(User::getIsEnabled)
-                .map(User::getEmail)
-                .toList();
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value;
     }
 
     /**
@@ -111,7 +437,7 @@ public class BroadcastEmailService {
                 Date: %s
                 MIME-Version: 1.0
                 Content-Type: text/plain; charset=utf-8
-                
+
                 %s
                 """, from, subject, OffsetDateTime.now(), body);
     }
@@ -120,7 +446,7 @@ public class BroadcastEmailService {
      * 获取可用的收件人数量预览
      */
     public int getRecipientCount(BroadcastEmailForm form) {
-        return getTargetEmails(form).size();
+        return (int) countTargets(form, normalizeRecipients(form.getRecipients()));
     }
 
     /**
@@ -133,4 +459,11 @@ public class BroadcastEmailService {
                 .distinct()
                 .toList();
     }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未完成的任务保持 running 状态，租约过期后由其他实例或下次启动时从游标继续
+        leaseScanner.shutdownNow();
+        jobExecutor.shutdownNow();
+    }
 }
@@ -1,9 +1,10 @@
 package com.yhm.adminweb.service;
 
+import com.yhm.adminweb.dto.CountEstimate;
 import com.yhm.adminweb.dto.DashboardStats;
+import com.yhm.adminweb.entity.User;
 import com.yhm.adminweb.repository.*;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -11,6 +12,7 @@ import java.time.LocalDate;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * 仪表板服务
@@ -20,43 +22,50 @@ import java.util.*;
 @Transactional(readOnly = true)
 public class DashboardService {
 
-    private final MailDomainRepository domainRepository;
+    private static final String QUEUE_BY_STATUS = "mail_queue WHERE status = ?";
+    private static final String LOGS_BY_STATUS = "delivery_logs WHERE status = ?";
+
     private final UserRepository userRepository;
     private final EmailRepository emailRepository;
-    private final MailQueueRepository queueRepository;
+    private final MailboxSummaryRepository mailboxSummaryRepository;
     private final DeliveryLogRepository deliveryLogRepository;
+    private final RowCountEstimator countEstimator;
 
     /**
      * 获取仪表板统计数据
+     * 用户、域名、队列和投递的计数默认取估算值（较小时仍为精确值，见 {@link RowCountEstimator}），
+     * 邮件数和未读数来自 mailbox_summary，始终精确
+     * @param exact 是否对所有计数执行 COUNT(*)
      */
-    public DashboardStats getDashboardStats() {
+    public DashboardStats getDashboardStats(boolean exact) {
         OffsetDateTime today = LocalDate.now().atStartOfDay().atOffset(ZoneOffset.UTC);
         OffsetDateTime last7Days = today.minusDays(7);
 
         // 基础统计
-        long totalDomains = domainRepository.count();
-        long enabledDomains = domainRepository.countEnabledDomains();
-        long totalUsers = userRepository.count();
-        long enabledUsers = userRepository.countEnabledUsers();
-        long totalEmails = emailRepository.countActiveEmails();
-        long unreadEmails = emailRepository.countUnreadEmails();
-
-        // 存储统计
-        Long totalUsedBytes = Optional.ofNullable(userRepository.getTotalUsedBytes()).orElse(0L);
+        CountEstimate totalDomains = countEstimator.countRows("mail_domains", exact);
+        CountEstimate enabledDomains = countEstimator.count("mail_domains WHERE is_enabled = true", exact);
+        CountEstimate totalUsers = countEstimator.countRows("users", exact);
+        CountEstimate enabledUsers = countEstimator.count("users WHERE is_enabled = true", exact);
+        // 邮件数和未读数从各分片的 mailbox_summary 汇总，不扫描 emails
+        long totalEmails = mailboxSummaryRepository.sumTotalCount();
+        long unreadEmails = mailboxSummaryRepository.sumUnreadCount();
+
+        // 存储统计：已用空间同样来自 mailbox_summary
+        Long totalUsedBytes = mailboxSummaryRepository.sumTotalBytes();
         Long totalQuotaBytes = Optional.ofNullable(userRepository.getTotalQuotaBytes()).orElse(0L);
 
         // 队列统计
-        long pendingQueue = queueRepository.countByStatus("pending");
-        long sentQueue = queueRepository.countByStatus("sent");
-        long failedQueue = queueRepository.countByStatus("failed");
+        CountEstimate pendingQueue = countEstimator.count(QUEUE_BY_STATUS, exact, "pending");
+        CountEstimate sentQueue = countEstimator.count(QUEUE_BY_STATUS, exact, "sent");
+        CountEstimate failedQueue = countEstimator.count(QUEUE_BY_STATUS, exact, "failed");
 
         // 投递统计
-        long deliveredCount = deliveryLogRepository.countByStatus("delivered");
-        long bouncedCount = deliveryLogRepository.countByStatus("bounced");
-        long deferredCount = deliveryLogRepository.countByStatus("deferred");
+        CountEstimate deliveredCount = countEstimator.count(LOGS_BY_STATUS, exact, "delivered");
+        CountEstimate bouncedCount = countEstimator.count(LOGS_BY_STATUS, exact, "bounced");
+        CountEstimate deferredCount = countEstimator.count(LOGS_BY_STATUS, exact, "deferred");
 
         // 今日统计
-        long todayEmails = emailRepository.countEmailsSince(today);
+        CountEstimate todayEmails = emailRepository.countEmailsSince(today, exact);
         Map<String, Long> todayDeliveryStats = getTodayDeliveryStats(today);
 
         // 趋势数据
@@ -87,6 +96,10 @@ public class DashboardService {
                 .bouncedCount(bouncedCount)
                 .deferredCount(deferredCount)
                 .todayEmails(todayEmails)
+                .approximate(Stream.of(totalDomains, enabledDomains, totalUsers, enabledUsers,
+                                pendingQueue, sentQueue, failedQueue,
+                                deliveredCount, bouncedCount, deferredCount, todayEmails)
+                        .anyMatch(count -> !count.exact()))
                 .todayDelivered(todayDeliveryStats.getOrDefault("delivered", 0L))
                 .todayBounced(todayDeliveryStats.getOrDefault("bounced", 0L))
                 .emailTrend(emailTrend)
@@ -141,7 +154,7 @@ public class DashboardService {
     }
 
     private List<Map<String, Object>> getTopSenders() {
-        List<Object[]> data = emailRepository.getTopSenders(PageRequest.of(0, 5));
+        List<Object[]> data = emailRepository.getTopSenders(5);
         List<Map<String, Object>> result = new ArrayList<>();
         for (Object[] row : data) {
             Map<String, Object> item = new HashMap<>();
@@ -153,7 +166,7 @@ public class DashboardService {
     }
 
     private List<Map<String, Object>> getTopReceivers() {
-        List<Object[]> data = emailRepository.getTopReceivers(PageRequest.of(0, 5));
+        List<Object[]> data = mailboxSummaryRepository.getTopReceivers(5);
         List<Map<String, Object>> result = new ArrayList<>();
         for (Object[] row : data) {
             Map<String, Object> item = new HashMap<>();
@@ -165,9 +178,18 @@ public class DashboardService {
     }
 
     private List<Map<String, Object>> getTopStorageUsers() {
-        var users = userRepository.findTopUsersByStorage(PageRequest.of(0, 5));
+        List<Object[]> top = mailboxSummaryRepository.getTopStorage(5);
+        Map<String, User> users = new HashMap<>();
+        userRepository.findByEmailIn(top.stream().map(row -> (String) row[0]).toList())
+                .forEach(user -> users.put(user.getEmail(), user));
+
         List<Map<String, Object>> result = new ArrayList<>();
-        for (var user : users) {
+        for (Object[] row : top) {
+            User user = users.get((String) row[0]);
+            if (user == null) {
+                continue;
+            }
+            user.setUsedBytes((Long) row[1]);
             Map<String, Object> item = new HashMap<>();
             item.put("email", user.getEmail());
             item.put("used", user.getFormattedUsed());
@@ -1,14 +1,18 @@
 package com.yhm.adminweb.service;
 
+import com.yhm.adminweb.dto.CountEstimate;
+import com.yhm.adminweb.dto.DeliveryLogFilter;
+import com.yhm.adminweb.dto.KeysetPage;
+import com.yhm.adminweb.dto.PageCursor;
 import com.yhm.adminweb.entity.DeliveryLog;
 import com.yhm.adminweb.repository.DeliveryLogRepository;
+import com.yhm.adminweb.repository.DeliveryLogSearchRepository;
+import com.yhm.adminweb.repository.RowCountEstimator;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -22,30 +26,24 @@ import java.util.UUID;
 @Transactional(readOnly = true)
 public class DeliveryLogService {
 
-    private final DeliveryLogRepository logRepository;
+    private static final List<String> STATUSES = List.of("delivered", "bounced", "deferred");
 
-    /**
-     * 分页获取日志
-     */
-    public Page<DeliveryLog> findAll(Pageable pageable) {
-        return logRepository.findAll(pageable);
-    }
+    private final DeliveryLogRepository logRepository;
+    private final DeliveryLogSearchRepository searchRepository;
+    private final RowCountEstimator countEstimator;
 
     /**
-     * 按状态获取日志
+     * 按组合条件分页获取日志
      */
-    public Page<DeliveryLog> findByStatus(String status, Pageable pageable) {
-        return logRepository.findByStatus(status, pageable);
+    public KeysetPage<DeliveryLog> find(DeliveryLogFilter filter, KeysetPage.Request request) {
+        return KeysetPage.fetch(request,
+                (at, id, limit) -> searchRepository.findOlderThan(filter, at, id, limit),
+                (at, id, limit) -> searchRepository.findNewerThan(filter, at, id, limit),
+                DeliveryLogService::cursorOf);
     }
 
-    /**
-     * 搜索日志
-     */
-    public Page<DeliveryLog> search(String keyword, Pageable pageable) {
-        if (keyword == null || keyword.isBlank()) {
-            return logRepository.findAll(pageable);
-        }
-        return logRepository.findByRecipientContainingIgnoreCase(keyword, pageable);
+    private static PageCursor cursorOf(DeliveryLog log) {
+        return new PageCursor(log.getCreatedAt(), log.getId());
     }
 
     /**
@@ -63,17 +61,13 @@ public class DeliveryLogService {
     }
 
     /**
-     * 获取状态统计
+     * 各状态的数量，默认取估算值（较小时仍为精确值，见 {@link RowCountEstimator}）
+     * @param exact 是否执行 COUNT(*)
      */
-    public Map<String, Long> getStatusCounts() {
-        Map<String, Long> counts = new HashMap<>();
-        counts.put("delivered", 0L);
-        counts.put("bounced", 0L);
-        counts.put("deferred", 0L);
-        
-        List<Object[]> data = logRepository.getDeliveryStatusCounts();
-        for (Object[] row : data) {
-            counts.put((String) row[0], (Long) row[1]);
+    public Map<String, CountEstimate> getStatusCounts(boolean exact) {
+        Map<String, CountEstimate> counts = new LinkedHashMap<>();
+        for (String status : STATUSES) {
+            counts.put(status, countEstimator.count("delivery_logs WHERE status = ?", exact, status));
         }
         return counts;
     }
@@ -1,5 +1,6 @@
 package com.yhm.adminweb.service;
 
+import com.yhm.adminweb.dto.KeysetPage;
 import com.yhm.adminweb.entity.Email;
 import com.yhm.adminweb.repository.EmailRepository;
 import lombok.RequiredArgsConstructor;
@@ -8,36 +9,46 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * 邮件服务
+ *
+ * emails 按 received_at 分区，主键为 (id, received_at)。
+ * 调用方知道接收时间时（列表页链接会带上）按主键定位，只访问一个分区；
+ * 不知道时按 id 查找所有分区。修改和删除语句总是带上接收时间。
+ *
+ * 邮件按所有者分布在多个分片上，查找在所有分片上执行，修改和删除路由到所有者所在分片。
+ * 分片不参与 Spring 事务，这里的 @Transactional 只覆盖目录库。
  */
 @Service
 @RequiredArgsConstructor
 @Transactional(readOnly = true)
 public class EmailService {
 
+    // 检索结果按相关度排序，不翻页，只返回最相关的一批
+    public static final int MAX_SEARCH_RESULTS = 100;
+
     private final EmailRepository emailRepository;
 
     /**
      * 分页获取邮件
      */
-    public Page<Email> findAll(Pageable pageable) {
-        return emailRepository.findAll(pageable);
+    public KeysetPage<Email> findAll(KeysetPage.Request request) {
+        return emailRepository.findAll(request);
     }
 
     /**
-     * 搜索邮件
+     * 全文检索邮件（主题、发件人、正文），按相关度排序
+     * @param owner 限定的邮箱，为空时检索所有邮箱
+     * @param limit 返回的最大数量，不超过 {@link #MAX_SEARCH_RESULTS}
      */
-    public Page<Email> search(String keyword, Pageable pageable) {
-        if (keyword == null || keyword.isBlank()) {
-            return emailRepository.findAll(pageable);
-        }
-        return emailRepository.findBySenderContainingIgnoreCaseOrSubjectContainingIgnoreCase(
-                keyword, keyword, pageable);
+    public List<Email> search(String keyword, String owner, int limit) {
+        return emailRepository.search(keyword, owner == null || owner.isBlank() ? null : owner.strip(),
+                Math.min(limit, MAX_SEARCH_RESULTS));
     }
 
     /**
@@ -51,7 +62,18 @@ public class EmailService {
      * 根据ID获取邮件
      */
     public Optional<Email> findById(UUID id) {
-        return emailRepository.findById(id);
+        return findById(id, null);
+    }
+
+    /**
+     * 根据ID和接收时间获取邮件
+     * @param receivedAt 接收时间，为 null 时按 ID 查找所有分区
+     */
+    public Optional<Email> findById(UUID id, OffsetDateTime receivedAt) {
+        if (receivedAt == null) {
+            return emailRepository.findById(id);
+        }
+        return emailRepository.findByIdAndReceivedAt(id, receivedAt);
     }
 
     /**
@@ -59,10 +81,15 @@ public class EmailService {
      */
     @Transactional
     public Email markAsRead(UUID id) {
-        Email email = emailRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
+        return markAsRead(id, null);
+    }
+
+    @Transactional
+    public Email markAsRead(UUID id, OffsetDateTime receivedAt) {
+        Email email = load(id, receivedAt);
+        emailRepository.updateRead(email, true);
         email.setIsRead(true);
-        return emailRepository.save(email);
+        return email;
     }
 
     /**
@@ -70,10 +97,15 @@ public class EmailService {
      */
     @Transactional
     public Email markAsUnread(UUID id) {
-        Email email = emailRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
+        return markAsUnread(id, null);
+    }
+
+    @Transactional
+    public Email markAsUnread(UUID id, OffsetDateTime receivedAt) {
+        Email email = load(id, receivedAt);
+        emailRepository.updateRead(email, false);
         email.setIsRead(false);
-        return emailRepository.save(email);
+        return email;
     }
 
     /**
@@ -81,10 +113,15 @@ public class EmailService {
      */
     @Transactional
     public Email softDelete(UUID id) {
-        Email email = emailRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
+        return softDelete(id, null);
+    }
+
+    @Transactional
+    public Email softDelete(UUID id, OffsetDateTime receivedAt) {
+        Email email = load(id, receivedAt);
+        emailRepository.updateDeleted(email, true);
         email.setIsDeleted(true);
-        return emailRepository.save(email);
+        return email;
     }
 
     /**
@@ -92,10 +129,15 @@ public class EmailService {
      */
     @Transactional
     public Email restore(UUID id) {
-        Email email = emailRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
+        return restore(id, null);
+    }
+
+    @Transactional
+    public Email restore(UUID id, OffsetDateTime receivedAt) {
+        Email email = load(id, receivedAt);
+        emailRepository.updateDeleted(email, false);
         email.setIsDeleted(false);
-        return emailRepository.save(email);
+        return email;
     }
 
     /**
@@ -103,16 +145,26 @@ public class EmailService {
      */
     @Transactional
     public void delete(UUID id) {
-        Email email = emailRepository.findById(id)
-                .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
+        delete(id, null);
+    }
+
+    @Transactional
+    public void delete(UUID id, OffsetDateTime receivedAt) {
+        Email email = load(id, receivedAt);
         emailRepository.delete(email);
     }
 
+    // 返回的对象不受持久化上下文管理，修改由显式的 UPDATE 完成
+    private Email load(UUID id, OffsetDateTime receivedAt) {
+        return findById(id, receivedAt)
+                .orElseThrow(() -> new IllegalArgumentException("邮件不存在"));
+    }
+
     /**
      * 获取最近邮件
      */
     public List<Email> findRecentEmails(int limit) {
-        return emailRepository.findRecentEmails(Pageable.ofSize(limit));
+        return emailRepository.findRecentEmails(limit);
     }
 }
 
@@ -0,0 +1,158 @@
+package com.yhm.adminweb.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 新邮件事件推送服务（Server-Sent Events）
+ *
+ * 每个等待中的客户端对应一个 SseEmitter（异步 Servlet 请求，等待期间不占用线程），
+ * 并在 MailboxEventHub 上订阅自己的邮箱。收到变更通知时在虚拟线程中发送 "mailbox" 事件，
+ * 同一连接上短时间内的多次通知合并为一次发送。
+ * 连接到达超时时间后由服务器关闭，客户端（EventSource）按 retry 间隔自动重连。
+ * 没有事件时定期发送 SSE 注释行作为心跳，防止代理和负载均衡器按空闲超时断开连接，
+ * 也让服务器及时发现已断开的客户端。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class MailEventService {
+
+    private final MailboxEventHub eventHub;
+
+    @Value("${mail.events.timeout:300000}")
+    private long timeoutMillis;
+
+    @Value("${mail.events.max-clients:50000}")
+    private int maxClients;
+
+    @Value("${mail.events.retry:5000}")
+    private long retryMillis;
+
+    @Value("${mail.events.keepalive:30000}")
+    private long keepaliveMillis;
+
+    private final AtomicInteger activeClients = new AtomicInteger();
+
+    // 等待中的事件流，心跳逐个发送
+    private final Set<SseEmitter> emitters = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService sendExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("mail-events-", 0).factory());
+
+    private final ScheduledExecutorService keepaliveScheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("mail-events-keepalive").daemon(true).factory());
+
+    @PostConstruct
+    public void start() {
+        if (keepaliveMillis > 0) {
+            keepaliveScheduler.scheduleWithFixedDelay(this::sendKeepalives,
+                    keepaliveMillis, keepaliveMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 为用户打开事件流
+     * @param email 已认证用户的邮箱
+     * @return 事件流；等待中的客户端已达上限时返回 empty
+     */
+    public Optional<SseEmitter> open(String email) {
+        if (activeClients.incrementAndGet() > maxClients) {
+            activeClients.decrementAndGet();
+            return Optional.empty();
+        }
+
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        AtomicBoolean pending = new AtomicBoolean();
+        AtomicBoolean closed = new AtomicBoolean();
+
+        Runnable listener = () -> {
+            // 已有发送在排队时合并
+            if (pending.compareAndSet(false, true)) {
+                sendExecutor.execute(() -> {
+                    pending.set(false);
+                    send(emitter, "mailbox", Map.of("email", email));
+                });
+            }
+        };
+
+        Runnable cleanup = () -> {
+            if (closed.compareAndSet(false, true)) {
+                emitters.remove(emitter);
+                eventHub.unsubscribe(email, listener);
+                activeClients.decrementAndGet();
+            }
+        };
+        emitter.onCompletion(cleanup);
+        emitter.onTimeout(cleanup);
+        emitter.onError(e -> cleanup.run());
+
+        // 先订阅再发送 ready：客户端收到 ready 后拉取一次，之后的变更都会收到事件
+        eventHub.subscribe(email, listener);
+        emitters.add(emitter);
+        try {
+            emitter.send(SseEmitter.event()
+                    .name("ready")
+                    .reconnectTime(retryMillis)
+                    .data(Map.of("email", email), MediaType.APPLICATION_JSON));
+        } catch (IOException e) {
+            cleanup.run();
+            emitter.completeWithError(e);
+        }
+        return Optional.of(emitter);
+    }
+
+    private void send(SseEmitter emitter, String name, Object data) {
+        send(emitter, SseEmitter.event().name(name).data(data, MediaType.APPLICATION_JSON));
+    }
+
+    /**
+     * 向所有等待中的客户端发送心跳注释（": keepalive"，EventSource 会忽略）
+     */
+    private void sendKeepalives() {
+        for (SseEmitter emitter : emitters) {
+            sendExecutor.execute(() -> send(emitter, SseEmitter.event().comment("keepalive")));
+        }
+    }
+
+    private void send(SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开，onError / onCompletion 负责清理
+            log.debug("Failed to send mail event: {}", e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * 当前等待中的客户端数
+     */
+    public int getActiveClients() {
+        return activeClients.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        keepaliveScheduler.shutdownNow();
+        sendExecutor.shutdownNow();
+    }
+}
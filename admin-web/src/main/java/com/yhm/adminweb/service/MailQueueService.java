@@ -1,15 +1,17 @@
 package com.yhm.adminweb.service;
 
+import com.yhm.adminweb.dto.CountEstimate;
+import com.yhm.adminweb.dto.KeysetPage;
+import com.yhm.adminweb.dto.PageCursor;
 import com.yhm.adminweb.entity.MailQueue;
 import com.yhm.adminweb.repository.MailQueueRepository;
+import com.yhm.adminweb.repository.RowCountEstimator;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.OffsetDateTime;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -23,20 +25,31 @@ import java.util.UUID;
 @Transactional(readOnly = true)
 public class MailQueueService {
 
+    private static final List<String> STATUSES = List.of("pending", "sending", "sent", "failed");
+
     private final MailQueueRepository queueRepository;
+    private final RowCountEstimator countEstimator;
 
     /**
      * 分页获取队列
      */
-    public Page<MailQueue> findAll(Pageable pageable) {
-        return queueRepository.findAll(pageable);
+    public KeysetPage<MailQueue> findAll(KeysetPage.Request request) {
+        return KeysetPage.fetch(request, queueRepository::findOlderThan, queueRepository::findNewerThan,
+                MailQueueService::cursorOf);
     }
 
     /**
      * 按状态获取队列
      */
-    public Page<MailQueue> findByStatus(String status, Pageable pageable) {
-        return queueRepository.findByStatus(status, pageable);
+    public KeysetPage<MailQueue> findByStatus(String status, KeysetPage.Request request) {
+        return KeysetPage.fetch(request,
+                (at, id, limit) -> queueRepository.findByStatusOlderThan(status, at, id, limit),
+                (at, id, limit) -> queueRepository.findByStatusNewerThan(status, at, id, limit),
+                MailQueueService::cursorOf);
+    }
+
+    private static PageCursor cursorOf(MailQueue item) {
+        return new PageCursor(item.getCreatedAt(), item.getId());
     }
 
     /**
@@ -47,18 +60,13 @@ public class MailQueueService {
     }
 
     /**
-     * 获取队列状态统计
+     * 各状态的数量，默认取估算值（较小时仍为精确值，见 {@link RowCountEstimator}）
+     * @param exact 是否执行 COUNT(*)
      */
-    public Map<String, Long> getStatusCounts() {
-        Map<String, Long> counts = new HashMap<>();
-        counts.put("pending", 0L);
-        counts.put("sending", 0L);
-        counts.put("sent", 0L);
-        counts.put("failed", 0L);
-        
-        List<Object[]> data = queueRepository.getQueueStatusCounts();
-        for (Object[] row : data) {
-            counts.put((String) row[0], (Long) row[1]);
+    public Map<String, CountEstimate> getStatusCounts(boolean exact) {
+        Map<String, CountEstimate> counts = new LinkedHashMap<>();
+        for (String status : STATUSES) {
+            counts.put(status, countEstimator.count("mail_queue WHERE status = ?", exact, status));
         }
         return counts;
     }
@@ -0,0 +1,158 @@
+package com.yhm.adminweb.service;
+
+import com.yhm.adminweb.repository.ShardJdbcTemplates;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 邮箱增量同步服务
+ *
+ * emails.modseq 在投递、标志变化和删除时由触发器更新，物理删除的邮件记录在 email_tombstones 中。
+ * 客户端保存上次同步返回的游标，下次只读取 modseq 大于游标的行，
+ * 同步开销与变化量成正比，与邮箱大小无关。游标为 0 时相当于全量同步（同样分页）。
+ *
+ * 墓碑保留有期限（SMTP 服务器的 smtp.tombstone.retentionDays），清理时在 email_tombstone_floors
+ * 记录每个邮箱已清理的最大 modseq。游标小于该值时中间的删除可能已经丢失，
+ * 返回 resync=true，客户端丢弃本地副本后从游标 0 重新同步。
+ *
+ * 查询只访问邮箱所在分片。迁移邮箱时目标分片的 modseq 序列先推进到不小于原分片，
+ * 迁移后的邮件获得更大的 modseq，客户端按原游标继续同步会把它们作为 upserts 重新收到一次。
+ */
+@Service
+@RequiredArgsConstructor
+public class MailSyncService {
+
+    /** 每页默认和最大行数 */
+    public static final int DEFAULT_PAGE_SIZE = 500;
+    public static final int MAX_PAGE_SIZE = 2000;
+
+    /** upserts 中每个数组元素的含义 */
+    public static final List<String> COLUMNS =
+            List.of("id", "sender", "subject", "size", "receivedAt", "read", "flags");
+
+    private static final String CHANGES_SQL = """
+            SELECT modseq, id, is_deleted, sender, subject, size, received_at, is_read, imap_flags
+            FROM emails
+            WHERE owner = ? AND modseq > ?
+            UNION ALL
+            SELECT modseq, email_id, true, NULL, NULL, NULL, NULL, NULL, NULL
+            FROM email_tombstones
+            WHERE owner = ? AND modseq > ?
+            ORDER BY modseq
+            LIMIT ?
+            """;
+
+    private static final String SUMMARY_SQL = """
+            SELECT total_count, unread_count, total_bytes, max_modseq
+            FROM mailbox_summary
+            WHERE owner = ?
+            """;
+
+    private static final String FLOOR_SQL = """
+            SELECT modseq FROM email_tombstone_floors WHERE owner = ?
+            """;
+
+    private final ShardJdbcTemplates shards;
+
+    /**
+     * 读取游标之后的变化
+     * @param owner 邮箱地址
+     * @param since 上次同步返回的游标
+     * @param pageSize 本页最多返回的变化数
+     * @return 紧凑格式的变化：cursor、more、columns、upserts（数组的数组）、deletes（邮件 ID）；
+     *         游标早于已清理的墓碑时 resync 为 true、cursor 为 0，其他字段为空
+     */
+    public Map<String, Object> getChanges(String owner, long since, int pageSize) {
+        int limit = Math.clamp(pageSize, 1, MAX_PAGE_SIZE);
+
+        List<List<Object>> upserts = new ArrayList<>();
+        List<String> deletes = new ArrayList<>();
+        long[] cursor = {since};
+        int[] rows = {0};
+
+        // 游标已是邮箱的最大 modseq 时没有变化，不必查询 emails 和墓碑
+        if (since > 0 && since >= getMaxModseq(owner)) {
+            return toResult(since, false, upserts, deletes);
+        }
+
+        if (since > 0 && since < getTombstoneFloor(owner)) {
+            Map<String, Object> result = toResult(0, true, upserts, deletes);
+            result.put("resync", true);
+            return result;
+        }
+
+        shards.forOwner(owner).query(CHANGES_SQL, rs -> {
+            // 多读一行只用于判断是否还有下一页
+            if (++rows[0] > limit) {
+                return;
+            }
+            cursor[0] = rs.getLong("modseq");
+            String id = rs.getString("id");
+            if (rs.getBoolean("is_deleted")) {
+                deletes.add(id);
+                return;
+            }
+            Timestamp receivedAt = rs.getTimestamp("received_at");
+            List<Object> row = new ArrayList<>(COLUMNS.size());
+            row.add(id);
+            row.add(rs.getString("sender"));
+            row.add(rs.getString("subject"));
+            row.add(rs.getLong("size"));
+            row.add(receivedAt != null ? receivedAt.getTime() : null);
+            row.add(rs.getBoolean("is_read") ? 1 : 0);
+            row.add(rs.getInt("imap_flags"));
+            upserts.add(row);
+        }, owner, since, owner, since, limit + 1);
+
+        return toResult(cursor[0], rows[0] > limit, upserts, deletes);
+    }
+
+    /**
+     * 邮箱概况（读取触发器维护的 mailbox_summary，单行主键查询）
+     * @return total、unread、bytes、modseq；邮箱还没有邮件时全为 0
+     */
+    public Map<String, Object> getSummary(String owner) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("total", 0L);
+        summary.put("unread", 0L);
+        summary.put("bytes", 0L);
+        summary.put("modseq", 0L);
+        shards.forOwner(owner).query(SUMMARY_SQL, rs -> {
+            summary.put("total", rs.getLong("total_count"));
+            summary.put("unread", rs.getLong("unread_count"));
+            summary.put("bytes", rs.getLong("total_bytes"));
+            summary.put("modseq", rs.getLong("max_modseq"));
+        }, owner);
+        return summary;
+    }
+
+    private long getMaxModseq(String owner) {
+        return (Long) getSummary(owner).get("modseq");
+    }
+
+    /**
+     * 已清理墓碑的最大 modseq，没有清理过时为 0
+     */
+    private long getTombstoneFloor(String owner) {
+        List<Long> floor = shards.forOwner(owner).queryForList(FLOOR_SQL, Long.class, owner);
+        return floor.isEmpty() ? 0 : floor.getFirst();
+    }
+
+    private static Map<String, Object> toResult(long cursor, boolean more,
+                                                List<List<Object>> upserts, List<String> deletes) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("cursor", cursor);
+        result.put("resync", false);
+        result.put("more", more);
+        result.put("columns", COLUMNS);
+        result.put("upserts", upserts);
+        result.put("deletes", deletes);
+        return result;
+    }
+}
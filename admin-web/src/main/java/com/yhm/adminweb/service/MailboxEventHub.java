@@ -0,0 +1,185 @@
+package com.yhm.adminweb.service;
+
+import com.yhm.adminweb.config.ShardConfig;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 邮箱变更事件分发
+ *
+ * 每个邮箱分片一条独立连接 LISTEN mailbox_changed（emails 表触发器在投递、删除邮件时发出，
+ * 内容为邮箱所有者），收到通知后回调订阅了该邮箱的监听器。
+ * 监听连接不占用 Hikari 连接池；某个分片断开重连后通知全部订阅者，断开期间错过的变更由客户端重新拉取。
+ *
+ * 回调在通知线程上执行，必须立即返回。
+ */
+@Service
+@Slf4j
+public class MailboxEventHub {
+
+    public static final String CHANNEL = "mailbox_changed";
+
+    private static final int POLL_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    // 邮箱所有者（小写）-> 监听器
+    private final Map<String, Set<Runnable>> subscribers = new ConcurrentHashMap<>();
+
+    private final Environment env;
+    private final int shardCount;
+    private final AtomicReferenceArray<Connection> connections;
+    private final List<Thread> threads = new ArrayList<>();
+
+    private volatile boolean running;
+
+    public MailboxEventHub(Environment env) {
+        this.env = env;
+        this.shardCount = env.getProperty("mail.shard.count", Integer.class, 1);
+        this.connections = new AtomicReferenceArray<>(shardCount);
+    }
+
+    /**
+     * 订阅邮箱变更
+     */
+    public void subscribe(String owner, Runnable listener) {
+        subscribers.compute(owner.toLowerCase(), (key, listeners) -> {
+            if (listeners == null) {
+                listeners = ConcurrentHashMap.newKeySet();
+            }
+            listeners.add(listener);
+            return listeners;
+        });
+    }
+
+    /**
+     * 取消订阅
+     */
+    public void unsubscribe(String owner, Runnable listener) {
+        subscribers.computeIfPresent(owner.toLowerCase(), (key, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /**
+     * 当前有订阅者的邮箱数
+     */
+    public int getSubscribedMailboxCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * 应用启动后开始监听
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int shard = 0; shard < shardCount; shard++) {
+            int current = shard;
+            threads.add(Thread.ofPlatform()
+                    .name(shardCount == 1 ? "mailbox-events" : "mailbox-events-shard" + shard)
+                    .daemon(true)
+                    .start(() -> loop(current)));
+        }
+    }
+
+    private void loop(int shard) {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection conn = DriverManager.getConnection(ShardConfig.url(env, shard),
+                    ShardConfig.username(env, shard), ShardConfig.password(env, shard))) {
+                connections.set(shard, conn);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                log.info("Listening for mailbox change notifications on shard {}", shard);
+
+                // 断开期间的变更无法得知，通知所有订阅者
+                if (reconnect) {
+                    subscribers.values().forEach(listeners -> listeners.forEach(MailboxEventHub::fire));
+                }
+
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        dispatch(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Mailbox notification connection to shard {} lost, reconnecting in {} ms: {}",
+                            shard, RECONNECT_DELAY_MILLIS, e.getMessage());
+                }
+            } finally {
+                connections.set(shard, null);
+            }
+
+            reconnect = true;
+            if (running) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MILLIS));
+            }
+        }
+    }
+
+    private void dispatch(String owner) {
+        if (owner == null) {
+            return;
+        }
+        Set<Runnable> listeners = subscribers.get(owner.toLowerCase());
+        if (listeners != null) {
+            listeners.forEach(MailboxEventHub::fire);
+        }
+    }
+
+    private static void fire(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException e) {
+            log.warn("Mailbox change listener failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        running = false;
+        for (int shard = 0; shard < shardCount; shard++) {
+            Connection conn = connections.get(shard);
+            if (conn != null) {
+                try {
+                    // 关闭连接使阻塞中的 getNotifications 立即返回
+                    conn.close();
+                } catch (SQLException ignored) {
+                    // 监听线程会自行退出
+                }
+            }
+        }
+        threads.forEach(LockSupport::unpark);
+        subscribers.clear();
+    }
+}
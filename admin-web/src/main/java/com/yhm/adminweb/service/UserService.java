@@ -1,23 +1,36 @@
 package com.yhm.adminweb.service;
 
+import com.yhm.adminweb.dto.KeysetPage;
+import com.yhm.adminweb.dto.PageCursor;
 import com.yhm.adminweb.dto.UserForm;
 import com.yhm.adminweb.entity.User;
+import com.yhm.adminweb.repository.LikePattern;
+import com.yhm.adminweb.repository.MailboxSummaryRepository;
+import com.yhm.adminweb.repository.ShardJdbcTemplates;
 import com.yhm.adminweb.repository.UserRepository;
 import com.yhm.adminweb.repository.MailDomainRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.Pageable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * 用户服务
+ *
+ * 用户只在目录库中维护；分片部署时，邮箱所在分片上的 users 副本在修改提交后同步，
+ * 删除用户时先删除邮箱在所在分片上的数据。
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 @Transactional(readOnly = true)
@@ -25,31 +38,76 @@ public class UserService {
 
     private final UserRepository userRepository;
     private final MailDomainRepository domainRepository;
+    private final MailboxSummaryRepository mailboxSummaryRepository;
+    private final ShardJdbcTemplates shards;
     private final PasswordEncoder passwordEncoder;
 
     /**
      * 分页获取用户
      */
-    public Page<User> findAll(Pageable pageable) {
-        return userRepository.findAll(pageable);
+    public KeysetPage<User> findAll(KeysetPage.Request request) {
+        return withUsage(KeysetPage.fetch(request, userRepository::findOlderThan, userRepository::findNewerThan,
+                UserService::cursorOf));
     }
 
     /**
-     * 搜索用户
+     * 按邮箱或用户名搜索用户（不区分大小写）
      */
-    public Page<User> search(String keyword, Pageable pageable) {
+    public KeysetPage<User> search(String keyword, KeysetPage.Request request) {
         if (keyword == null || keyword.isBlank()) {
-            return userRepository.findAll(pageable);
+            return findAll(request);
         }
-        return userRepository.findByEmailContainingIgnoreCaseOrUsernameContainingIgnoreCase(
-                keyword, keyword, pageable);
+        String pattern = LikePattern.contains(keyword.toLowerCase());
+        return withUsage(KeysetPage.fetch(request,
+                (at, id, limit) -> userRepository.findByEmailOrUsernameLikeOlderThan(pattern, at, id, limit),
+                (at, id, limit) -> userRepository.findByEmailOrUsernameLikeNewerThan(pattern, at, id, limit),
+                UserService::cursorOf));
     }
 
     /**
      * 按域名获取用户
      */
-    public Page<User> findByDomain(String domain, Pageable pageable) {
-        return userRepository.findByDomain(domain, pageable);
+    public KeysetPage<User> findByDomain(String domain, KeysetPage.Request request) {
+        return withUsage(KeysetPage.fetch(request,
+                (at, id, limit) -> userRepository.findByDomainOlderThan(domain, at, id, limit),
+                (at, id, limit) -> userRepository.findByDomainNewerThan(domain, at, id, limit),
+                UserService::cursorOf));
+    }
+
+    private static PageCursor cursorOf(User user) {
+        return new PageCursor(user.getCreatedAt(), user.getId());
+    }
+
+    /**
+     * 保存用户，分片上的 users 副本在事务提交后同步
+     */
+    private User save(User user) {
+        User saved = userRepository.save(user);
+        if (shards.shardCount() > 1) {
+            String email = saved.getEmail();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        shards.syncMailboxOwner(email);
+                    } catch (DataAccessException e) {
+                        log.warn("Failed to sync user {} to its mailbox shard: {}", email, e.getMessage());
+                    }
+                }
+            });
+        }
+        return saved;
+    }
+
+    /**
+     * 已用空间换成各分片 mailbox_summary 中的值
+     * 目录库的 users.used_bytes 只对 0 号分片上的邮箱准确；used_bytes 不可更新，修改实体不会写回
+     */
+    private KeysetPage<User> withUsage(KeysetPage<User> page) {
+        Map<String, Long> bytes = mailboxSummaryRepository.getTotalBytes(
+                page.content().stream().map(User::getEmail).toList());
+        page.content().forEach(user -> user.setUsedBytes(bytes.getOrDefault(user.getEmail(), 0L)));
+        return page;
     }
 
     /**
@@ -127,7 +185,7 @@ public class UserService {
             user.setIsAdmin(form.getIsAdmin());
         }
 
-        return userRepository.save(user);
+        return save(user);
     }
 
     /**
@@ -137,6 +195,7 @@ public class UserService {
     public void delete(UUID id) {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
+        shards.purgeMailbox(user.getEmail());
         userRepository.delete(user);
     }
 
@@ -148,7 +207,7 @@ public class UserService {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
         user.setIsEnabled(!user.getIsEnabled());
-        return userRepository.save(user);
+        return save(user);
     }
 
     /**
@@ -159,7 +218,7 @@ public class UserService {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
         user.setPasswordHash(passwordEncoder.encode(newPassword));
-        userRepository.save(user);
+        save(user);
     }
 
     /**
@@ -187,7 +246,7 @@ public class UserService {
         
         // 更新密码
         user.setPasswordHash(passwordEncoder.encode(newPassword));
-        userRepository.save(user);
+        save(user);
         return true;
     }
 
@@ -199,14 +258,25 @@ public class UserService {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
         user.setQuotaBytes(quotaBytes);
-        return userRepository.save(user);
+        return save(user);
     }
 
     /**
      * 获取存储使用最多的用户
      */
     public List<User> findTopByStorage(int limit) {
-        return userRepository.findTopUsersByStorage(Pageable.ofSize(limit));
+        List<Object[]> top = mailboxSummaryRepository.getTopStorage(limit);
+        Map<String, User> users = new HashMap<>();
+        userRepository.findByEmailIn(top.stream().map(row -> (String) row[0]).toList())
+                .forEach(user -> users.put(user.getEmail(), user));
+        return top.stream()
+                .filter(row -> users.containsKey((String) row[0]))
+                .map(row -> {
+                    User user = users.get((String) row[0]);
+                    user.setUsedBytes((Long) row[1]);
+                    return user;
+                })
+                .toList();
     }
 
     /**
@@ -217,7 +287,7 @@ public class UserService {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
         user.setIsAdmin(true);
-        return userRepository.save(user);
+        return save(user);
     }
 
     /**
@@ -228,7 +298,7 @@ public class UserService {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
         user.setIsAdmin(false);
-        return userRepository.save(user);
+        return save(user);
     }
 
     /**
@@ -239,7 +309,7 @@ public class UserService {
         User user = userRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("用户不存在"));
         user.setIsAdmin(!user.getIsAdmin());
-        return userRepository.save(user);
+        return save(user);
     }
 
     /**
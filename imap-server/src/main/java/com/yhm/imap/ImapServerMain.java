@@ -0,0 +1,92 @@
+package com.yhm.imap;
+
+import com.yhm.imap.config.ImapServerConfig;
+import com.yhm.imap.server.ImapServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ScopedValue;
+
+/**
+ * IMAP 服务器启动入口
+ *
+ * 使用 Java 25 特性：
+ * - 虚拟线程（Virtual Threads）- 每个连接一个虚拟线程，IDLE 中的连接只占一个挂起的虚拟线程
+ * - ScopedValue（作用域值）- 比 ThreadLocal 更轻量，适合虚拟线程
+ *
+ * IMAP 协议实现遵循 RFC 3501（IMAP4rev1）与 RFC 2177（IDLE）
+ */
+public class ImapServerMain {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapServerMain.class);
+
+    /**
+     * 使用 ScopedValue 传递服务器配置
+     */
+    public static final ScopedValue<ImapServerConfig> SERVER_CONFIG = ScopedValue.newInstance();
+
+    public static void main(String[] args) {
+        printBanner();
+
+        log.info("==========================================");
+        log.info("       IMAP Server - Java 25 Edition     ");
+        log.info("==========================================");
+        log.info("Java 版本: {}", System.getProperty("java.version"));
+        log.info("虚拟线程支持: 已启用");
+        log.info("预览特性: 已启用");
+
+        // 加载配置
+        ImapServerConfig config = ImapServerConfig.load();
+
+        // 使用 ScopedValue 运行服务器
+        ScopedValue.where(SERVER_CONFIG, config).run(() -> {
+            startServer(config);
+        });
+    }
+
+    private static void printBanner() {
+        String banner = """
+
+            ╔═══════════════════════════════════════════════════════════╗
+            ║                                                           ║
+            ║   ██╗███╗   ███╗ █████╗ ██████╗                           ║
+            ║   ██║████╗ ████║██╔══██╗██╔══██╗                          ║
+            ║   ██║██╔████╔██║███████║██████╔╝                          ║
+            ║   ██║██║╚██╔╝██║██╔══██║██╔═══╝                           ║
+            ║   ██║██║ ╚═╝ ██║██║  ██║██║                               ║
+            ║   ╚═╝╚═╝     ╚═╝╚═╝  ╚═╝╚═╝                               ║
+            ║                                                           ║
+            ║   IMAP Mail Server - Powered by Java 25                   ║
+            ║   Virtual Threads | IDLE Push | RFC 3501                  ║
+            ║                                                           ║
+            ╚═══════════════════════════════════════════════════════════╝
+            """;
+        System.out.println(banner);
+    }
+
+    private static void startServer(ImapServerConfig config) {
+        ImapServer server = new ImapServer(config);
+
+        // 注册关闭钩子，确保优雅关闭
+        Runtime.getRuntime().addShutdownHook(Thread.ofVirtual().unstarted(() -> {
+            log.info("收到关闭信号，正在停止 IMAP 服务器...");
+            server.stop();
+        }));
+
+        try {
+            // 启动服务器
+            server.start();
+        } catch (IOException e) {
+            log.error("启动 IMAP 服务器失败: {}", e.getMessage(), e);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 获取当前配置（从 ScopedValue 中）
+     */
+    public static ImapServerConfig getCurrentConfig() {
+        return SERVER_CONFIG.orElse(ImapServerConfig.defaults());
+    }
+}
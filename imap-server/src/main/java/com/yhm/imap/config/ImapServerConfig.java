@@ -0,0 +1,223 @@
+package com.yhm.imap.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * IMAP 服务器配置
+ *
+ * 支持从配置文件加载或使用默认值
+ */
+public class ImapServerConfig {
+
+    private final String domain;
+    private final int port;
+    private final int maxConnections;
+    private final int connectionTimeout;
+    private final int readTimeout;
+    private final int authFailedMaxAttempts;
+    private final long metricsReportInterval;
+    private final long authCacheTtl;
+    private final int authCacheMaxEntries;
+    private final int authHashThreads;
+    private final int authHashQueueCapacity;
+
+    private ImapServerConfig(Builder builder) {
+        this.domain = builder.domain;
+        this.port = builder.port;
+        this.maxConnections = builder.maxConnections;
+        this.connectionTimeout = builder.connectionTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.authFailedMaxAttempts = builder.authFailedMaxAttempts;
+        this.metricsReportInterval = builder.metricsReportInterval;
+        this.authCacheTtl = builder.authCacheTtl;
+        this.authCacheMaxEntries = builder.authCacheMaxEntries;
+        this.authHashThreads = builder.authHashThreads;
+        this.authHashQueueCapacity = builder.authHashQueueCapacity;
+    }
+
+    // ==================== Getters ====================
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public int getAuthFailedMaxAttempts() {
+        return authFailedMaxAttempts;
+    }
+
+    public long getMetricsReportInterval() {
+        return metricsReportInterval;
+    }
+
+    public long getAuthCacheTtl() {
+        return authCacheTtl;
+    }
+
+    public int getAuthCacheMaxEntries() {
+        return authCacheMaxEntries;
+    }
+
+    public int getAuthHashThreads() {
+        return authHashThreads;
+    }
+
+    public int getAuthHashQueueCapacity() {
+        return authHashQueueCapacity;
+    }
+
+    // ==================== 工厂方法 ====================
+
+    /**
+     * 从配置文件加载配置
+     */
+    public static ImapServerConfig load() {
+        Properties props = new Properties();
+
+        try (InputStream is = ImapServerConfig.class.getClassLoader()
+                .getResourceAsStream("application.properties")) {
+            if (is != null) {
+                props.load(is);
+            }
+        } catch (IOException e) {
+            // 使用默认配置
+        }
+
+        return new Builder()
+                .domain(props.getProperty("imap.domain", "localhost"))
+                .port(Integer.parseInt(props.getProperty("imap.port", "143")))
+                .maxConnections(Integer.parseInt(props.getProperty("imap.maxConnections", "5000")))
+                .connectionTimeout(Integer.parseInt(props.getProperty("imap.connectionTimeout", "60000")))
+                .readTimeout(Integer.parseInt(props.getProperty("imap.readTimeout", "1860000")))
+                .authFailedMaxAttempts(Integer.parseInt(props.getProperty("imap.authFailedMaxAttempts", "3")))
+                .metricsReportInterval(Long.parseLong(props.getProperty("imap.metrics.reportInterval", "60000")))
+                .authCacheTtl(Long.parseLong(props.getProperty("imap.auth.cacheTtl", "300000")))
+                .authCacheMaxEntries(Integer.parseInt(props.getProperty("imap.auth.cacheMaxEntries", "100000")))
+                .authHashThreads(Integer.parseInt(props.getProperty("imap.auth.hashThreads", "4")))
+                .authHashQueueCapacity(Integer.parseInt(props.getProperty("imap.auth.hashQueueCapacity", "256")))
+                .build();
+    }
+
+    /**
+     * 创建默认配置
+     */
+    public static ImapServerConfig defaults() {
+        return new Builder().build();
+    }
+
+    /**
+     * 创建构建器
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    // ==================== Builder ====================
+
+    public static class Builder {
+        private String domain = "localhost";
+        private int port = 143;                          // IMAP 标准端口
+        private int maxConnections = 5000;               // IDLE 客户端长期保持连接
+        private int connectionTimeout = 60000;           // 60 秒
+        private int readTimeout = 1860000;               // 31 分钟 (RFC 3501 要求至少 30 分钟)
+        private int authFailedMaxAttempts = 3;
+        private long metricsReportInterval = 60000;      // 1 分钟，0 表示不输出
+        private long authCacheTtl = 300000;              // 5 分钟，0 表示不缓存
+        private int authCacheMaxEntries = 100000;
+        private int authHashThreads = 4;                 // BCrypt 计算线程数
+        private int authHashQueueCapacity = 256;
+
+        public Builder domain(String domain) {
+            this.domain = domain;
+            return this;
+        }
+
+        public Builder port(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder maxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder connectionTimeout(int connectionTimeout) {
+            this.connectionTimeout = connectionTimeout;
+            return this;
+        }
+
+        public Builder readTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder authFailedMaxAttempts(int authFailedMaxAttempts) {
+            this.authFailedMaxAttempts = authFailedMaxAttempts;
+            return this;
+        }
+
+        public Builder metricsReportInterval(long metricsReportInterval) {
+            this.metricsReportInterval = metricsReportInterval;
+            return this;
+        }
+
+        public Builder authCacheTtl(long authCacheTtl) {
+            this.authCacheTtl = authCacheTtl;
+            return this;
+        }
+
+        public Builder authCacheMaxEntries(int authCacheMaxEntries) {
+            this.authCacheMaxEntries = authCacheMaxEntries;
+            return this;
+        }
+
+        public Builder authHashThreads(int authHashThreads) {
+            this.authHashThreads = authHashThreads;
+            return this;
+        }
+
+        public Builder authHashQueueCapacity(int authHashQueueCapacity) {
+            this.authHashQueueCapacity = authHashQueueCapacity;
+            return this;
+        }
+
+        public ImapServerConfig build() {
+            return new ImapServerConfig(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImapServerConfig{" +
+                "domain='" + domain + '\'' +
+                ", port=" + port +
+                ", maxConnections=" + maxConnections +
+                ", connectionTimeout=" + connectionTimeout +
+                ", readTimeout=" + readTimeout +
+                ", authFailedMaxAttempts=" + authFailedMaxAttempts +
+                ", metricsReportInterval=" + metricsReportInterval +
+                ", authCacheTtl=" + authCacheTtl +
+                ", authCacheMaxEntries=" + authCacheMaxEntries +
+                ", authHashThreads=" + authHashThreads +
+                ", authHashQueueCapacity=" + authHashQueueCapacity +
+                '}';
+    }
+}
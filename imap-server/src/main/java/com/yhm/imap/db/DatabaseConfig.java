@@ -0,0 +1,105 @@
+package com.yhm.imap.db;
+
+import com.yhm.mail.core.data.MailDatabase;
+import com.yhm.mail.core.shard.ShardRouter;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 数据库配置管理类
+ * IMAP 服务器的 {@link MailDatabase}（连接池、分片路由），按 application.properties 的 db.* 配置创建
+ *
+ * 邮箱相关的读写通过 {@link #getConnection(String)} 路由，见 {@link ShardRouter}。
+ */
+public final class DatabaseConfig {
+    
+    private static volatile MailDatabase database;
+    private static final Object LOCK = new Object();
+    
+    private DatabaseConfig() {
+        // 工具类，禁止实例化
+    }
+    
+    /**
+     * 获取数据库（第一次调用时创建连接池）
+     */
+    public static MailDatabase getDatabase() {
+        if (database == null) {
+            synchronized (LOCK) {
+                if (database == null) {
+                    database = MailDatabase.open("imap.db", "ImapMailPool", false);
+                }
+            }
+        }
+        return database;
+    }
+    
+    /**
+     * 获取数据源（目录库）
+     */
+    public static DataSource getDataSource() {
+        return getDatabase().directory();
+    }
+    
+    /**
+     * 获取分片路由
+     */
+    public static ShardRouter getRouter() {
+        return getDatabase().router();
+    }
+    
+    /**
+     * 获取目录库连接（用户、域名等全局数据）
+     */
+    public static Connection getConnection() throws SQLException {
+        return getDatabase().getConnection();
+    }
+    
+    /**
+     * 获取邮箱所在分片的连接，用于读取
+     */
+    public static Connection getConnection(String owner) throws SQLException {
+        return getDatabase().getConnection(owner);
+    }
+    
+    /**
+     * 获取邮箱所在分片的连接，用于写入；邮箱迁移期间抛出 MailboxMovingException
+     */
+    public static Connection getWriteConnection(String owner) throws SQLException {
+        return getDatabase().getWriteConnection(owner);
+    }
+    
+    /**
+     * 打开一个不经过连接池的独立连接（目录库）
+     * 用于需要长期持有会话级状态（如 advisory lock）的场景，调用方负责关闭
+     */
+    public static Connection openDedicatedConnection() throws SQLException {
+        return openDedicatedConnection(0);
+    }
+    
+    /**
+     * 打开指定分片上不经过连接池的独立连接，用于 LISTEN，调用方负责关闭
+     */
+    public static Connection openDedicatedConnection(int shard) throws SQLException {
+        return getDatabase().openDedicatedConnection(shard);
+    }
+    
+    /**
+     * 分片数量
+     */
+    public static int getShardCount() {
+        return getDatabase().shardCount();
+    }
+    
+    /**
+     * 关闭数据源
+     */
+    public static void shutdown() {
+        MailDatabase current = database;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
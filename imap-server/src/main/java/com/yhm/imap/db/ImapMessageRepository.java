@@ -0,0 +1,451 @@
+package com.yhm.imap.db;
+
+import com.yhm.imap.protocol.ImapFlags;
+import com.yhm.mail.core.util.MessageLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * IMAP 邮件数据访问对象
+ *
+ * 邮件以 uid 定位，所有语句都带 owner 条件，只能访问当前登录用户的邮箱。
+ * \Seen 对应 is_read（与 POP3 和管理后台共用），其他标志保存在 imap_flags。
+ */
+public class ImapMessageRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapMessageRepository.class);
+
+    /**
+     * 文本搜索的索引表达式，必须与 idx_emails_text_trgm 的定义完全一致才能用上索引
+     */
+    private static final String SEARCH_TEXT =
+            "(coalesce(subject, '') || ' ' || sender || ' ' || coalesce(body, ''))";
+
+    /**
+     * STORE 的标志修改方式
+     */
+    public enum FlagUpdate {
+        /** +FLAGS */
+        ADD,
+        /** -FLAGS */
+        REMOVE,
+        /** FLAGS */
+        REPLACE
+    }
+
+    /**
+     * SEARCH 中需要查询数据库的文本条件
+     */
+    public enum TextField {
+        FROM, TO, SUBJECT, BODY, TEXT, HEADER
+    }
+
+    /**
+     * STATUS 所需的计数
+     */
+    public record MailboxStatus(int messages, int unseen) {
+    }
+
+    /**
+     * 获取用户存储的密码（BCrypt 哈希，或旧数据中的明文）
+     * 用户不存在或已禁用时返回 null
+     */
+    public String getUserPassword(String email) throws SQLException {
+        String sql = "SELECT password_hash FROM users WHERE email = ? AND is_enabled = true";
+
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, email.toLowerCase());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getString(1);
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 获取邮箱的 UIDVALIDITY
+     *
+     * UID 来自从不回退的序列，只有账号被删除后重建时才需要让客户端丢弃缓存，
+     * 所以取账号创建时间（秒）作为 UIDVALIDITY
+     */
+    public long getUidValidity(String owner) throws SQLException {
+        String sql = "SELECT (extract(epoch FROM created_at)::bigint % 4294967295) + 1 FROM users WHERE email = ?";
+
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            }
+        }
+
+        return 1;
+    }
+
+    /**
+     * 获取 UIDNEXT：包括已删除邮件在内的最大 UID + 1，新邮件的 UID 一定不小于该值
+     */
+    public long getUidNext(String owner) throws SQLException {
+        String sql = "SELECT COALESCE(MAX(uid), 0) + 1 FROM emails WHERE owner = ?";
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 1;
+            }
+        }
+    }
+
+    /**
+     * 查询邮箱中的全部邮件（按 UID 升序），SELECT 和 IDLE 同步时调用
+     */
+    public List<MessageRecord> findMessages(String owner) throws SQLException {
+        String sql = """
+            SELECT uid, id, size, received_at, is_read, imap_flags FROM emails
+            WHERE owner = ? AND is_deleted = false AND uid IS NOT NULL
+            ORDER BY uid
+            """;
+
+        List<MessageRecord> messages = new ArrayList<>();
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    messages.add(new MessageRecord(
+                            rs.getLong(1),
+                            rs.getObject(2, UUID.class),
+                            rs.getLong(3),
+                            rs.getTimestamp(4).toInstant(),
+                            toFlags(rs.getBoolean(5), rs.getInt(6))));
+                }
+            }
+        }
+
+        log.debug("为用户 {} 加载了 {} 封邮件", owner, messages.size());
+        return messages;
+    }
+
+    /**
+     * 查询 STATUS 所需的邮件数和未读数
+     *
+     * 读取触发器维护的 mailbox_summary，不扫描邮箱；邮箱还没有邮件时没有汇总行
+     */
+    public MailboxStatus getStatus(String owner) throws SQLException {
+        String sql = "SELECT total_count, unread_count FROM mailbox_summary WHERE owner = ?";
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new MailboxStatus(rs.getInt(1), rs.getInt(2));
+                }
+            }
+        }
+
+        return new MailboxStatus(0, 0);
+    }
+
+    /**
+     * 批量读取邮件头部（包括头部后的空行）
+     *
+     * 有接收时计算的 header_length 时只取头部字节；旧数据取整封后在本地切分。
+     * header_length 按 UTF-8 字节计算，每个字符至少一个字节，先在文本上截取同样多的字符再转换，
+     * 不必读取和转换整封邮件
+     *
+     * @return uid -> 头部字节
+     */
+    public Map<Long, byte[]> findHeaders(String owner, long[] uids) throws SQLException {
+        String sql = """
+            SELECT uid, header_length IS NOT NULL,
+                   CASE WHEN header_length IS NOT NULL
+                        THEN substring(convert_to(substring(raw_content FROM 1 FOR header_length), 'UTF8')
+                                       FROM 1 FOR header_length)
+                        ELSE convert_to(raw_content, 'UTF8')
+                   END
+            FROM emails
+            WHERE owner = ? AND uid = ANY(?) AND is_deleted = false
+            """;
+
+        Map<Long, byte[]> headers = new HashMap<>();
+        if (uids.length == 0) {
+            return headers;
+        }
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+            stmt.setArray(2, conn.createArrayOf("bigint", boxed(uids)));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    byte[] bytes = rs.getBytes(3);
+                    if (bytes == null) {
+                        bytes = new byte[0];
+                    }
+                    if (!rs.getBoolean(2)) {
+                        MessageLayout layout = MessageLayout.compute(bytes);
+                        if (layout != null) {
+                            bytes = Arrays.copyOf(bytes, layout.headerLength());
+                        }
+                    }
+                    headers.put(rs.getLong(1), bytes);
+                }
+            }
+        }
+
+        return headers;
+    }
+
+    /**
+     * 读取整封邮件（UTF-8 字节）
+     *
+     * @param internalDate 接收时间，即 emails 的分区键，带上它只访问一个分区
+     */
+    public Optional<byte[]> findContent(String owner, long uid, Instant internalDate) throws SQLException {
+        String sql = """
+            SELECT convert_to(raw_content, 'UTF8') FROM emails
+            WHERE owner = ? AND uid = ? AND received_at = ? AND is_deleted = false
+            """;
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+            stmt.setLong(2, uid);
+            stmt.setTimestamp(3, Timestamp.from(internalDate));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.ofNullable(rs.getBytes(1));
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * 读取邮件的一段字节（BODY[]&lt;offset.length&gt;），只传输请求的部分
+     *
+     * 字节范围 [offset, offset + length) 一定在前 offset + length 个字符内，
+     * 先在文本上截取这些字符再转换，只读取/转换到范围末尾
+     *
+     * @param offset 起始字节偏移（从 0 开始）
+     */
+    public Optional<byte[]> findContentRange(String owner, long uid, Instant internalDate, long offset, long length)
+            throws SQLException {
+        String sql = """
+            SELECT substring(convert_to(substring(raw_content FROM 1 FOR ?), 'UTF8') FROM ? FOR ?) FROM emails
+            WHERE owner = ? AND uid = ? AND received_at = ? AND is_deleted = false
+            """;
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, (int) Math.min(offset + length, Integer.MAX_VALUE));
+            stmt.setInt(2, (int) Math.min(offset + 1, Integer.MAX_VALUE));
+            stmt.setInt(3, (int) Math.min(length, Integer.MAX_VALUE));
+            stmt.setString(4, owner.toLowerCase());
+            stmt.setLong(5, uid);
+            stmt.setTimestamp(6, Timestamp.from(internalDate));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.ofNullable(rs.getBytes(1));
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * 修改标志（STORE）
+     *
+     * @param flags 要设置、添加或去除的标志位
+     * @return uid -> 修改后的标志位（已被删除的邮件不在结果中）
+     */
+    public Map<Long, Integer> updateFlags(String owner, long[] uids, FlagUpdate update, int flags)
+            throws SQLException {
+        String assignments = switch (update) {
+            case ADD -> "is_read = is_read OR ?, imap_flags = imap_flags | ?::smallint";
+            case REMOVE -> "is_read = is_read AND NOT ?, imap_flags = imap_flags & ~?::smallint";
+            case REPLACE -> "is_read = ?, imap_flags = ?::smallint";
+        };
+        String sql = "UPDATE emails SET " + assignments + """
+             WHERE owner = ? AND uid = ANY(?) AND is_deleted = false
+            RETURNING uid, is_read, imap_flags
+            """;
+
+        Map<Long, Integer> updated = new HashMap<>();
+        if (uids.length == 0) {
+            return updated;
+        }
+
+        try (Connection conn = DatabaseConfig.getWriteConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setBoolean(1, (flags & ImapFlags.SEEN) != 0);
+            stmt.setInt(2, flags & ImapFlags.STORED_MASK);
+            stmt.setString(3, owner.toLowerCase());
+            stmt.setArray(4, conn.createArrayOf("bigint", boxed(uids)));
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    updated.put(rs.getLong(1), toFlags(rs.getBoolean(2), rs.getInt(3)));
+                }
+            }
+        }
+
+        log.debug("用户 {} 修改了 {} 封邮件的标志", owner, updated.size());
+        return updated;
+    }
+
+    /**
+     * 永久删除带 \Deleted 标志的邮件（EXPUNGE / CLOSE）
+     *
+     * 与 POP3 一样只标记 is_deleted，users.used_bytes 由邮箱汇总触发器在同一事务中扣减。
+     * 只处理 UID 不超过 maxUid 的邮件，会话尚未得知的新邮件不受影响。
+     *
+     * @return 被删除邮件的 UID
+     */
+    public long[] expunge(String owner, long maxUid) throws SQLException {
+        String sql = """
+            WITH expunged AS (
+                UPDATE emails SET is_deleted = true
+                WHERE owner = ? AND uid <= ? AND is_deleted = false AND (imap_flags & ?) <> 0
+                RETURNING uid
+            )
+            SELECT uid FROM expunged ORDER BY uid
+            """;
+
+        List<Long> uids = new ArrayList<>();
+
+        try (Connection conn = DatabaseConfig.getWriteConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+            stmt.setLong(2, maxUid);
+            stmt.setInt(3, ImapFlags.DELETED);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    uids.add(rs.getLong(1));
+                }
+            }
+        }
+
+        log.debug("用户 {} 永久删除 {} 封邮件", owner, uids.size());
+        return uids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * 按文本条件搜索（SEARCH FROM/TO/SUBJECT/BODY/TEXT/HEADER），不区分大小写
+     *
+     * BODY 和 TEXT 先用 idx_emails_text_trgm（主题、发件人和 MIME 解码后正文上的 pg_trgm 索引，
+     * 见 migrations/add_email_text_trgm_index.sql）筛选候选，BODY 再对 body 复核；
+     * TEXT 只匹配这三部分，不再逐封扫描原始内容。
+     *
+     * @param headerName 仅 HEADER 使用，其他条件传 null
+     * @return 匹配邮件的 UID
+     */
+    public Set<Long> searchText(String owner, TextField field, String headerName, String value)
+            throws SQLException {
+        String condition = switch (field) {
+            case FROM -> "sender ILIKE ?";
+            case TO -> "array_to_string(recipients, ',') ILIKE ?";
+            case SUBJECT -> "subject ILIKE ?";
+            case BODY -> SEARCH_TEXT + " ILIKE ? AND body ILIKE ?";
+            case TEXT -> SEARCH_TEXT + " ILIKE ?";
+            case HEADER -> "split_part(raw_content, E'\\r\\n\\r\\n', 1) ~* ?";
+        };
+        String sql = "SELECT uid FROM emails WHERE owner = ? AND is_deleted = false AND uid IS NOT NULL AND "
+                + condition;
+
+        String pattern = field == TextField.HEADER
+                ? headerPattern(headerName, value)
+                : "%" + escapeLike(value) + "%";
+
+        Set<Long> uids = new HashSet<>();
+
+        try (Connection conn = DatabaseConfig.getConnection(owner);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, owner.toLowerCase());
+            stmt.setString(2, pattern);
+            if (field == TextField.BODY) {
+                stmt.setString(3, pattern);
+            }
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    uids.add(rs.getLong(1));
+                }
+            }
+        }
+
+        return uids;
+    }
+
+    // ==================== 辅助方法 ====================
+
+    private static int toFlags(boolean read, int storedFlags) {
+        return (storedFlags & ImapFlags.STORED_MASK) | (read ? ImapFlags.SEEN : 0);
+    }
+
+    private static Long[] boxed(long[] values) {
+        Long[] result = new Long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /**
+     * 匹配 "名称: ...值..." 头部行（允许折行）的正则表达式
+     */
+    private static String headerPattern(String name, String value) {
+        return "(^|\\n)" + escapeRegex(name) + ":([^\\n]|\\n[ \\t])*" + escapeRegex(value);
+    }
+
+    private static String escapeRegex(String value) {
+        StringBuilder sb = new StringBuilder(value.length() * 2);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
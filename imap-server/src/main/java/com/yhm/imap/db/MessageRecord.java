@@ -0,0 +1,22 @@
+package com.yhm.imap.db;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * 选中邮箱中的一封邮件
+ *
+ * 只包含 SELECT 时加载的元数据，邮件内容在 FETCH 时按需读取
+ *
+ * @param uid          IMAP UID
+ * @param id           邮件 ID
+ * @param size         邮件大小（RFC822.SIZE）
+ * @param internalDate 接收时间（INTERNALDATE）
+ * @param flags        标志位，见 {@link com.yhm.imap.protocol.ImapFlags}
+ */
+public record MessageRecord(long uid, UUID id, long size, Instant internalDate, int flags) {
+
+    public MessageRecord withFlags(int newFlags) {
+        return new MessageRecord(uid, id, size, internalDate, newFlags);
+    }
+}
@@ -0,0 +1,177 @@
+package com.yhm.imap.notify;
+
+import com.yhm.imap.db.DatabaseConfig;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 邮箱变更事件分发
+ *
+ * 整个节点每个分片只用一条独立连接 LISTEN mailbox_changed（通知内容为邮箱所有者，
+ * 由 emails 表触发器在投递、删除时发出），收到通知后回调订阅了该邮箱的会话。
+ * 邮箱迁移到其他分片后通知改由新分片发出，订阅按邮箱地址匹配，不受影响。
+ * 会话在选中邮箱时订阅，IDLE 中的会话由回调唤醒推送，不需要任何定时轮询。
+ *
+ * 回调在通知线程上执行，必须立即返回。任一监听连接断开重连后通知全部订阅者，
+ * 断开期间错过的变更由各会话重新同步。
+ */
+public class MailboxEventHub {
+
+    private static final Logger log = LoggerFactory.getLogger(MailboxEventHub.class);
+
+    public static final String CHANNEL = "mailbox_changed";
+
+    private static final int POLL_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    // 邮箱所有者（小写）-> 订阅的会话回调
+    private final Map<String, Set<Runnable>> subscribers = new ConcurrentHashMap<>();
+
+    private final LongAdder received;
+
+    private final int shards;
+    private final AtomicReferenceArray<Connection> connections;
+    private final Thread[] threads;
+
+    private volatile boolean running;
+
+    public MailboxEventHub() {
+        this.shards = DatabaseConfig.getShardCount();
+        this.connections = new AtomicReferenceArray<>(shards);
+        this.threads = new Thread[shards];
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.received = metrics.counter("imap.notify.received");
+        metrics.gauge("imap.notify.mailboxes", subscribers::size);
+    }
+
+    /**
+     * 订阅邮箱变更
+     */
+    public void subscribe(String owner, Runnable listener) {
+        subscribers.compute(owner.toLowerCase(), (key, listeners) -> {
+            if (listeners == null) {
+                listeners = ConcurrentHashMap.newKeySet();
+            }
+            listeners.add(listener);
+            return listeners;
+        });
+    }
+
+    /**
+     * 取消订阅
+     */
+    public void unsubscribe(String owner, Runnable listener) {
+        subscribers.computeIfPresent(owner.toLowerCase(), (key, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < shards; i++) {
+            int shard = i;
+            threads[i] = Thread.ofPlatform()
+                    .name(shards == 1 ? "imap-mailbox-events" : "imap-mailbox-events-" + shard)
+                    .daemon(true)
+                    .start(() -> loop(shard));
+        }
+    }
+
+    private void loop(int shard) {
+        boolean reconnect = false;
+        while (running) {
+            try (Connection conn = DatabaseConfig.openDedicatedConnection(shard)) {
+                connections.set(shard, conn);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                log.info("已开始监听分片 {} 的邮箱变更通知", shard);
+
+                // 断开期间的变更无法得知，让所有会话重新同步
+                if (reconnect) {
+                    subscribers.values().forEach(listeners -> listeners.forEach(MailboxEventHub::fire));
+                }
+
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        received.increment();
+                        dispatch(notification.getParameter());
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("分片 {} 邮箱变更监听连接断开，{} 毫秒后重连: {}",
+                            shard, RECONNECT_DELAY_MILLIS, e.getMessage());
+                }
+            } finally {
+                connections.set(shard, null);
+            }
+
+            reconnect = true;
+            if (running) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MILLIS));
+            }
+        }
+    }
+
+    private void dispatch(String owner) {
+        if (owner == null) {
+            return;
+        }
+        Set<Runnable> listeners = subscribers.get(owner.toLowerCase());
+        if (listeners != null) {
+            listeners.forEach(MailboxEventHub::fire);
+        }
+    }
+
+    private static void fire(Runnable listener) {
+        try {
+            listener.run();
+        } catch (RuntimeException e) {
+            log.warn("邮箱变更回调出错: {}", e.getMessage());
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (int i = 0; i < shards; i++) {
+            Connection conn = connections.get(i);
+            if (conn != null) {
+                try {
+                    // 关闭连接使阻塞中的 getNotifications 立即返回
+                    conn.close();
+                } catch (SQLException ignored) {
+                    // 监听线程会自行退出
+                }
+            }
+            if (threads[i] != null) {
+                LockSupport.unpark(threads[i]);
+            }
+        }
+        subscribers.clear();
+    }
+}
@@ -0,0 +1,200 @@
+package com.yhm.imap.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * FETCH 数据项
+ *
+ * 支持 UID、FLAGS、INTERNALDATE、RFC822.SIZE、ENVELOPE、RFC822[.HEADER|.TEXT]，
+ * 以及 BODY[section]&lt;partial&gt; / BODY.PEEK[...]，section 为空、HEADER、TEXT、
+ * HEADER.FIELDS (...)、HEADER.FIELDS.NOT (...)，单体邮件的 "1" 等同 TEXT。
+ * 不支持 BODYSTRUCTURE（需要完整解析 MIME 结构）。
+ *
+ * @param kind          数据项类型
+ * @param section       BODY 的 section 类型（"" / HEADER / TEXT / 1 / HEADER.FIELDS / HEADER.FIELDS.NOT）
+ * @param fields        HEADER.FIELDS 的字段名（大写）
+ * @param peek          BODY.PEEK，不设置 \Seen
+ * @param partialOffset 部分读取的起始字节，-1 表示读取全部
+ * @param partialLength 部分读取的最大字节数
+ */
+public record FetchItem(Kind kind, String section, List<String> fields, boolean peek,
+                        long partialOffset, long partialLength) {
+
+    public enum Kind {
+        UID, FLAGS, INTERNALDATE, RFC822_SIZE, ENVELOPE, RFC822, RFC822_HEADER, RFC822_TEXT, BODY_SECTION
+    }
+
+    private static FetchItem simple(Kind kind) {
+        return new FetchItem(kind, null, List.of(), true, -1, 0);
+    }
+
+    /**
+     * 解析 FETCH 的数据项参数：宏（ALL / FAST / FULL）、单个数据项或括号列表
+     */
+    public static List<FetchItem> parseList(ImapParser parser) throws ImapParseException {
+        List<FetchItem> items = new ArrayList<>();
+        if (parser.peek() == '(') {
+            parser.expect('(');
+            while (parser.peek() != ')') {
+                if (!items.isEmpty()) {
+                    parser.space();
+                }
+                items.add(parseItem(parser));
+            }
+            parser.expect(')');
+            return items;
+        }
+
+        String name = parser.name().toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "FAST" -> {
+                items.add(simple(Kind.FLAGS));
+                items.add(simple(Kind.INTERNALDATE));
+                items.add(simple(Kind.RFC822_SIZE));
+            }
+            case "ALL" -> {
+                items.add(simple(Kind.FLAGS));
+                items.add(simple(Kind.INTERNALDATE));
+                items.add(simple(Kind.RFC822_SIZE));
+                items.add(simple(Kind.ENVELOPE));
+            }
+            case "FULL" -> throw new ImapParseException("不支持 FULL（需要 BODYSTRUCTURE）");
+            default -> items.add(parseItem(name, parser));
+        }
+        return items;
+    }
+
+    private static FetchItem parseItem(ImapParser parser) throws ImapParseException {
+        return parseItem(parser.name().toUpperCase(Locale.ROOT), parser);
+    }
+
+    private static FetchItem parseItem(String name, ImapParser parser) throws ImapParseException {
+        return switch (name) {
+            case "UID" -> simple(Kind.UID);
+            case "FLAGS" -> simple(Kind.FLAGS);
+            case "INTERNALDATE" -> simple(Kind.INTERNALDATE);
+            case "RFC822.SIZE" -> simple(Kind.RFC822_SIZE);
+            case "ENVELOPE" -> simple(Kind.ENVELOPE);
+            case "RFC822" -> new FetchItem(Kind.RFC822, "", List.of(), false, -1, 0);
+            case "RFC822.HEADER" -> new FetchItem(Kind.RFC822_HEADER, "HEADER", List.of(), true, -1, 0);
+            case "RFC822.TEXT" -> new FetchItem(Kind.RFC822_TEXT, "TEXT", List.of(), false, -1, 0);
+            case "BODY", "BODY.PEEK" -> {
+                if (parser.peek() != '[') {
+                    throw new ImapParseException("不支持 BODYSTRUCTURE");
+                }
+                yield parseSection(parser, name.equals("BODY.PEEK"));
+            }
+            default -> throw new ImapParseException("不支持的 FETCH 数据项: " + name);
+        };
+    }
+
+    private static FetchItem parseSection(ImapParser parser, boolean peek) throws ImapParseException {
+        parser.expect('[');
+        String section = parser.until(']').trim().toUpperCase(Locale.ROOT);
+
+        String type;
+        List<String> fields = List.of();
+        if (section.startsWith("HEADER.FIELDS")) {
+            int open = section.indexOf('(');
+            int close = section.lastIndexOf(')');
+            if (open < 0 || close < open) {
+                throw new ImapParseException("HEADER.FIELDS 缺少字段列表");
+            }
+            type = section.substring(0, open).trim();
+            if (!type.equals("HEADER.FIELDS") && !type.equals("HEADER.FIELDS.NOT")) {
+                throw new ImapParseException("不支持的 section: " + section);
+            }
+            fields = new ImapParser(section.substring(open, close + 1)).list();
+        } else {
+            type = switch (section) {
+                case "", "HEADER", "TEXT", "1" -> section;
+                default -> throw new ImapParseException("不支持的 section: " + section);
+            };
+        }
+
+        long offset = -1;
+        long length = 0;
+        if (parser.peek() == '<') {
+            parser.expect('<');
+            String partial = parser.until('>');
+            int dot = partial.indexOf('.');
+            try {
+                if (dot < 0) {
+                    throw new NumberFormatException();
+                }
+                offset = Long.parseLong(partial.substring(0, dot));
+                length = Long.parseLong(partial.substring(dot + 1));
+                if (offset < 0 || length <= 0) {
+                    throw new NumberFormatException();
+                }
+            } catch (NumberFormatException e) {
+                throw new ImapParseException("无效的部分读取范围: <" + partial + ">");
+            }
+        }
+
+        return new FetchItem(Kind.BODY_SECTION, type, fields, peek, offset, length);
+    }
+
+    // ==================== 属性 ====================
+
+    /**
+     * 是否需要邮件头部
+     */
+    public boolean needsHeader() {
+        return kind == Kind.ENVELOPE || (section != null && section.startsWith("HEADER"));
+    }
+
+    /**
+     * 是否需要邮件正文或整封邮件
+     */
+    public boolean needsContent() {
+        return section != null && (section.isEmpty() || isText());
+    }
+
+    /**
+     * 是否只取正文（TEXT，或单体邮件的第 1 部分）
+     */
+    public boolean isText() {
+        return "TEXT".equals(section) || "1".equals(section);
+    }
+
+    /**
+     * 读取后是否设置 \Seen
+     */
+    public boolean setsSeen() {
+        return (kind == Kind.BODY_SECTION || kind == Kind.RFC822 || kind == Kind.RFC822_TEXT) && !peek;
+    }
+
+    public boolean isPartial() {
+        return partialOffset >= 0;
+    }
+
+    /**
+     * 响应中的数据项名称，如 "BODY[HEADER.FIELDS (FROM TO)]<0>"
+     */
+    public String responseName() {
+        return switch (kind) {
+            case UID -> "UID";
+            case FLAGS -> "FLAGS";
+            case INTERNALDATE -> "INTERNALDATE";
+            case RFC822_SIZE -> "RFC822.SIZE";
+            case ENVELOPE -> "ENVELOPE";
+            case RFC822 -> "RFC822";
+            case RFC822_HEADER -> "RFC822.HEADER";
+            case RFC822_TEXT -> "RFC822.TEXT";
+            case BODY_SECTION -> {
+                StringBuilder sb = new StringBuilder("BODY[").append(section);
+                if (!fields.isEmpty()) {
+                    sb.append(" (").append(String.join(" ", fields)).append(')');
+                }
+                sb.append(']');
+                if (isPartial()) {
+                    sb.append('<').append(partialOffset).append('>');
+                }
+                yield sb.toString();
+            }
+        };
+    }
+}
@@ -0,0 +1,191 @@
+package com.yhm.imap.protocol;
+
+/**
+ * IMAP 命令枚举
+ *
+ * 根据 RFC 3501 定义的 IMAP4rev1 命令（本服务器实现的子集）与 RFC 2177 IDLE
+ *
+ * IMAP 会话状态：
+ * - NOT_AUTHENTICATED: 未认证，等待 LOGIN
+ * - AUTHENTICATED: 已认证，等待 SELECT
+ * - SELECTED: 已选中邮箱，可以操作邮件
+ * - LOGOUT: 会话结束
+ */
+public enum ImapCommand {
+
+    // ==================== 任意状态命令 ====================
+
+    /**
+     * CAPABILITY 命令 - 列出服务器能力
+     * 语法: tag CAPABILITY
+     */
+    CAPABILITY,
+
+    /**
+     * NOOP 命令 - 空操作，选中状态下同时报告邮箱变化
+     * 语法: tag NOOP
+     */
+    NOOP,
+
+    /**
+     * LOGOUT 命令 - 结束会话
+     * 语法: tag LOGOUT
+     */
+    LOGOUT,
+
+    // ==================== 未认证状态命令 ====================
+
+    /**
+     * LOGIN 命令 - 用户名密码认证
+     * 语法: tag LOGIN userid password
+     */
+    LOGIN,
+
+    // ==================== 已认证状态命令 ====================
+
+    /**
+     * SELECT 命令 - 以读写方式选中邮箱
+     * 语法: tag SELECT mailbox
+     * 只支持 INBOX
+     */
+    SELECT,
+
+    /**
+     * EXAMINE 命令 - 以只读方式选中邮箱
+     * 语法: tag EXAMINE mailbox
+     */
+    EXAMINE,
+
+    /**
+     * LIST 命令 - 列出邮箱
+     * 语法: tag LIST reference mailbox
+     */
+    LIST,
+
+    /**
+     * LSUB 命令 - 列出订阅的邮箱（INBOX 始终视为已订阅）
+     * 语法: tag LSUB reference mailbox
+     */
+    LSUB,
+
+    /**
+     * STATUS 命令 - 查询邮箱状态，不改变选中的邮箱
+     * 语法: tag STATUS mailbox (items)
+     */
+    STATUS,
+
+    /**
+     * IDLE 命令 - 等待服务器推送邮箱变化，直到客户端发送 DONE（RFC 2177）
+     * 语法: tag IDLE
+     */
+    IDLE,
+
+    // ==================== 选中状态命令 ====================
+
+    /**
+     * CHECK 命令 - 检查点，本实现等同于 NOOP
+     * 语法: tag CHECK
+     */
+    CHECK,
+
+    /**
+     * CLOSE 命令 - 删除带 \Deleted 标志的邮件并回到已认证状态（不发送 EXPUNGE 响应）
+     * 语法: tag CLOSE
+     */
+    CLOSE,
+
+    /**
+     * EXPUNGE 命令 - 删除带 \Deleted 标志的邮件
+     * 语法: tag EXPUNGE
+     */
+    EXPUNGE,
+
+    /**
+     * SEARCH 命令 - 按条件搜索邮件
+     * 语法: tag SEARCH [CHARSET charset] criteria
+     */
+    SEARCH,
+
+    /**
+     * FETCH 命令 - 获取邮件数据
+     * 语法: tag FETCH sequence-set items
+     */
+    FETCH,
+
+    /**
+     * STORE 命令 - 修改邮件标志
+     * 语法: tag STORE sequence-set (+|-)FLAGS[.SILENT] flags
+     */
+    STORE,
+
+    /**
+     * UID 命令 - 以 UID 代替序号执行 FETCH / STORE / SEARCH
+     * 语法: tag UID FETCH|STORE|SEARCH ...
+     */
+    UID,
+
+    /**
+     * 未知命令
+     */
+    UNKNOWN;
+
+    /**
+     * 解析命令名
+     *
+     * @param name 命令名（不含标签）
+     * @return 对应的 ImapCommand 枚举
+     */
+    public static ImapCommand parse(String name) {
+        if (name == null || name.isBlank()) {
+            return UNKNOWN;
+        }
+
+        return switch (name.toUpperCase()) {
+            case "CAPABILITY" -> CAPABILITY;
+            case "NOOP" -> NOOP;
+            case "LOGOUT" -> LOGOUT;
+            case "LOGIN" -> LOGIN;
+            case "SELECT" -> SELECT;
+            case "EXAMINE" -> EXAMINE;
+            case "LIST" -> LIST;
+            case "LSUB" -> LSUB;
+            case "STATUS" -> STATUS;
+            case "IDLE" -> IDLE;
+            case "CHECK" -> CHECK;
+            case "CLOSE" -> CLOSE;
+            case "EXPUNGE" -> EXPUNGE;
+            case "SEARCH" -> SEARCH;
+            case "FETCH" -> FETCH;
+            case "STORE" -> STORE;
+            case "UID" -> UID;
+            default -> UNKNOWN;
+        };
+    }
+
+    /**
+     * 检查命令是否在未认证状态有效
+     */
+    public boolean isValidInNotAuthenticatedState() {
+        return switch (this) {
+            case CAPABILITY, NOOP, LOGOUT, LOGIN -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * 检查命令是否在已认证状态有效
+     */
+    public boolean isValidInAuthenticatedState() {
+        return switch (this) {
+            case CAPABILITY, NOOP, LOGOUT, SELECT, EXAMINE, LIST, LSUB, STATUS, IDLE -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * 检查命令是否在选中状态有效
+     */
+    public boolean isValidInSelectedState() {
+        return this != LOGIN && this != UNKNOWN;
+    }
+}
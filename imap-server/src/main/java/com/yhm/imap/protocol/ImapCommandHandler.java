@@ -0,0 +1,787 @@
+package com.yhm.imap.protocol;
+
+import com.yhm.imap.config.ImapServerConfig;
+import com.yhm.imap.db.ImapMessageRepository;
+import com.yhm.imap.db.ImapMessageRepository.FlagUpdate;
+import com.yhm.imap.db.ImapMessageRepository.MailboxStatus;
+import com.yhm.imap.db.MessageRecord;
+import com.yhm.imap.notify.MailboxEventHub;
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.mail.core.util.MessageLayout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * IMAP 命令处理器
+ *
+ * 处理 IMAP4rev1 命令并把响应写入输出缓冲，调用方负责 flush。
+ * 只有一个邮箱 INBOX，对应 emails 表中属于当前用户且未删除的邮件。
+ *
+ * 实现 RFC 3501 的子集：LOGIN、SELECT / EXAMINE、LIST / LSUB、STATUS、
+ * FETCH（含部分读取 BODY[]&lt;offset.length&gt;）、SEARCH、STORE、EXPUNGE、CLOSE 及其 UID 形式，
+ * 以及 RFC 2177 IDLE。
+ */
+public class ImapCommandHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapCommandHandler.class);
+
+    private static final String INBOX = "INBOX";
+
+    private static final DateTimeFormatter INTERNAL_DATE =
+            DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss Z", Locale.US).withZone(ZoneOffset.UTC);
+
+    // FETCH 时每批读取头部的邮件数
+    private static final int HEADER_BATCH_SIZE = 200;
+
+    private final ImapServerConfig config;
+    private final ImapMessageRepository repository;
+    private final MailboxEventHub eventHub;
+    private final CredentialVerifier credentialVerifier;
+
+    private final LongAdder idleStarted;
+    private final LongAdder idlePushes;
+
+    public ImapCommandHandler(ImapServerConfig config, MailboxEventHub eventHub,
+                              CredentialVerifier credentialVerifier) {
+        this.config = config;
+        this.repository = new ImapMessageRepository();
+        this.eventHub = eventHub;
+        this.credentialVerifier = credentialVerifier;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.idleStarted = metrics.counter("imap.idle.started");
+        this.idlePushes = metrics.counter("imap.idle.pushes");
+    }
+
+    /**
+     * 处理一条 IMAP 命令，响应写入输出缓冲
+     *
+     * @param line 命令行（客户端发送的 literal 已转换为 quoted string）
+     */
+    public void handleCommand(String line, ImapSession session, ImapResponseWriter out) throws IOException {
+        session.lock().lock();
+        try {
+            dispatch(line, session, out);
+        } finally {
+            session.lock().unlock();
+        }
+    }
+
+    private void dispatch(String line, ImapSession session, ImapResponseWriter out) throws IOException {
+        ImapParser parser = new ImapParser(line);
+
+        String tag;
+        try {
+            tag = parser.atom();
+            parser.space();
+        } catch (ImapParseException e) {
+            out.writeLine("* BAD Missing tag or command");
+            return;
+        }
+
+        try {
+            String name = parser.atom();
+            ImapCommand command = ImapCommand.parse(name);
+
+            boolean byUid = false;
+            if (command == ImapCommand.UID) {
+                parser.space();
+                command = ImapCommand.parse(parser.atom());
+                if (command != ImapCommand.FETCH && command != ImapCommand.STORE
+                        && command != ImapCommand.SEARCH) {
+                    out.writeLine(ImapResponse.bad(tag, "Unsupported UID command"));
+                    return;
+                }
+                byUid = true;
+            }
+
+            if (command == ImapCommand.UNKNOWN) {
+                out.writeLine(ImapResponse.bad(tag, "Unknown command"));
+                return;
+            }
+
+            // 检查命令在当前状态是否有效
+            boolean valid = switch (session.getState()) {
+                case NOT_AUTHENTICATED -> command.isValidInNotAuthenticatedState();
+                case AUTHENTICATED -> command.isValidInAuthenticatedState();
+                case SELECTED -> command.isValidInSelectedState();
+                case LOGOUT -> false;
+            };
+            if (!valid) {
+                out.writeLine(ImapResponse.bad(tag, "Command not valid in this state"));
+                return;
+            }
+
+            if (!parser.atEnd()) {
+                parser.space();
+            }
+
+            switch (command) {
+                case CAPABILITY -> handleCapability(tag, parser, out);
+                case NOOP, CHECK -> handleNoop(tag, command, parser, session, out);
+                case LOGOUT -> handleLogout(tag, parser, session, out);
+                case LOGIN -> handleLogin(tag, parser, session, out);
+                case SELECT, EXAMINE -> handleSelect(tag, command, parser, session, out);
+                case LIST, LSUB -> handleList(tag, command, parser, out);
+                case STATUS -> handleStatus(tag, parser, session, out);
+                case IDLE -> handleIdle(tag, parser, session, out);
+                case CLOSE -> handleClose(tag, parser, session, out);
+                case EXPUNGE -> handleExpunge(tag, parser, session, out);
+                case SEARCH -> handleSearch(tag, byUid, parser, session, out);
+                case FETCH -> handleFetch(tag, byUid, parser, session, out);
+                case STORE -> handleStore(tag, byUid, parser, session, out);
+                case UID, UNKNOWN -> out.writeLine(ImapResponse.bad(tag, "Unknown command"));
+            }
+        } catch (ImapParseException e) {
+            log.debug("命令参数错误: {} - {}", session.getRemoteAddress(), e.getMessage());
+            out.writeLine(ImapResponse.bad(tag, "Syntax error in arguments"));
+        } catch (SQLException e) {
+            log.error("处理 IMAP 命令时数据库错误: {}", e.getMessage(), e);
+            out.writeLine(ImapResponse.no(tag, "[SERVERBUG] Internal server error, try again later"));
+        }
+    }
+
+    // ==================== 任意状态命令 ====================
+
+    private void handleCapability(String tag, ImapParser parser, ImapResponseWriter out)
+            throws IOException, ImapParseException {
+        parser.end();
+        out.writeLine(ImapResponse.capability());
+        out.writeLine(ImapResponse.ok(tag, "CAPABILITY completed"));
+    }
+
+    /**
+     * NOOP / CHECK：选中状态下报告通知标记以来的邮箱变化
+     */
+    private void handleNoop(String tag, ImapCommand command, ImapParser parser, ImapSession session,
+                            ImapResponseWriter out) throws IOException, ImapParseException, SQLException {
+        parser.end();
+        if (session.isSelected() && session.takeChanged()) {
+            synchronize(session, out);
+        }
+        out.writeLine(ImapResponse.ok(tag, command.name() + " completed"));
+    }
+
+    private void handleLogout(String tag, ImapParser parser, ImapSession session, ImapResponseWriter out)
+            throws IOException, ImapParseException {
+        parser.end();
+        close(session);
+        session.setState(ImapSession.State.LOGOUT);
+        out.writeLine(ImapResponse.bye(config.getDomain() + " IMAP4rev1 server logging out"));
+        out.writeLine(ImapResponse.ok(tag, "LOGOUT completed"));
+    }
+
+    // ==================== 认证 ====================
+
+    private void handleLogin(String tag, ImapParser parser, ImapSession session, ImapResponseWriter out)
+            throws IOException, ImapParseException, SQLException {
+        String username = parser.astring();
+        parser.space();
+        String password = parser.astring();
+        parser.end();
+
+        String storedHash = repository.getUserPassword(username);
+        switch (credentialVerifier.verify(username, password, storedHash)) {
+            case ACCEPTED -> {
+                session.setUsername(username.toLowerCase());
+                session.setState(ImapSession.State.AUTHENTICATED);
+                log.info("IMAP 用户登录成功: {} ({})", username, session.getRemoteAddress());
+                out.writeLine(ImapResponse.ok(tag, "[CAPABILITY " + ImapResponse.CAPABILITIES + "] LOGIN completed"));
+            }
+            case REJECTED -> {
+                session.incrementAuthFailedAttempts();
+                log.warn("IMAP 用户认证失败: {} ({})", username, session.getRemoteAddress());
+                out.writeLine(ImapResponse.no(tag, "[AUTHENTICATIONFAILED] Invalid credentials"));
+            }
+            case BUSY -> out.writeLine(ImapResponse.authBusy(tag));
+        }
+    }
+
+    // ==================== 邮箱 ====================
+
+    private void handleSelect(String tag, ImapCommand command, ImapParser parser, ImapSession session,
+                              ImapResponseWriter out) throws IOException, ImapParseException, SQLException {
+        String mailbox = parser.astring();
+        parser.end();
+
+        // 重新 SELECT 时先取消原来的选中（不删除 \Deleted 邮件）
+        if (session.isSelected()) {
+            close(session);
+            session.unselect();
+        }
+
+        if (!INBOX.equalsIgnoreCase(mailbox)) {
+            out.writeLine(ImapResponse.no(tag, "[NONEXISTENT] Mailbox does not exist"));
+            return;
+        }
+
+        boolean readOnly = command == ImapCommand.EXAMINE;
+        String owner = session.getUsername();
+
+        // 先订阅再加载，加载期间到达的通知不会丢失
+        Runnable listener = () -> onMailboxChanged(session, out);
+        session.setChangeListener(listener);
+        eventHub.subscribe(owner, listener);
+        session.takeChanged();
+
+        List<MessageRecord> messages = repository.findMessages(owner);
+        long uidValidity = repository.getUidValidity(owner);
+        long uidNext = repository.getUidNext(owner);
+        session.select(messages, uidValidity, readOnly);
+
+        int firstUnseen = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            if ((messages.get(i).flags() & ImapFlags.SEEN) == 0) {
+                firstUnseen = i + 1;
+                break;
+            }
+        }
+
+        out.writeLine("* FLAGS " + ImapFlags.SUPPORTED);
+        out.writeLine("* OK [PERMANENTFLAGS " + (readOnly ? "()" : ImapFlags.SUPPORTED) + "] Flags permitted");
+        out.writeLine(ImapResponse.exists(messages.size()));
+        out.writeLine("* 0 RECENT");
+        if (firstUnseen > 0) {
+            out.writeLine("* OK [UNSEEN " + firstUnseen + "] First unseen message");
+        }
+        out.writeLine("* OK [UIDVALIDITY " + uidValidity + "] UIDs valid");
+        out.writeLine("* OK [UIDNEXT " + uidNext + "] Predicted next UID");
+        out.writeLine(ImapResponse.ok(tag, readOnly
+                ? "[READ-ONLY] EXAMINE completed"
+                : "[READ-WRITE] SELECT completed"));
+    }
+
+    private void handleList(String tag, ImapCommand command, ImapParser parser, ImapResponseWriter out)
+            throws IOException, ImapParseException {
+        parser.astring();
+        parser.space();
+        String pattern = parser.astring();
+        parser.end();
+
+        if (pattern.isEmpty() && command == ImapCommand.LIST) {
+            // 只询问层级分隔符
+            out.writeLine("* LIST (\\Noselect) \"/\" \"\"");
+        } else if (matchesInbox(pattern)) {
+            out.writeLine(command == ImapCommand.LIST
+                    ? "* LIST (\\HasNoChildren) \"/\" INBOX"
+                    : "* LSUB () \"/\" INBOX");
+        }
+        out.writeLine(ImapResponse.ok(tag, command.name() + " completed"));
+    }
+
+    /**
+     * LIST 模式是否匹配 INBOX（'*' 和 '%' 为通配符，不区分大小写）
+     */
+    private static boolean matchesInbox(String pattern) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : pattern.toCharArray()) {
+            switch (c) {
+                case '*' -> regex.append(".*");
+                case '%' -> regex.append("[^/]*");
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE).matcher(INBOX).matches();
+    }
+
+    private void handleStatus(String tag, ImapParser parser, ImapSession session, ImapResponseWriter out)
+            throws IOException, ImapParseException, SQLException {
+        String mailbox = parser.astring();
+        parser.space();
+        List<String> items = parser.list();
+        parser.end();
+
+        if (!INBOX.equalsIgnoreCase(mailbox)) {
+            out.writeLine(ImapResponse.no(tag, "[NONEXISTENT] Mailbox does not exist"));
+            return;
+        }
+
+        String owner = session.getUsername();
+        MailboxStatus status = repository.getStatus(owner);
+
+        StringBuilder sb = new StringBuilder("* STATUS INBOX (");
+        for (String item : items) {
+            String name = item.toUpperCase(Locale.ROOT);
+            long value = switch (name) {
+                case "MESSAGES" -> status.messages();
+                case "RECENT" -> 0;
+                case "UNSEEN" -> status.unseen();
+                case "UIDNEXT" -> repository.getUidNext(owner);
+                case "UIDVALIDITY" -> repository.getUidValidity(owner);
+                default -> throw new ImapParseException("不支持的 STATUS 数据项: " + item);
+            };
+            if (sb.charAt(sb.length() - 1) != '(') {
+                sb.append(' ');
+            }
+            sb.append(name).append(' ').append(value);
+        }
+        out.writeLine(sb.append(')').toString());
+        out.writeLine(ImapResponse.ok(tag, "STATUS completed"));
+    }
+
+    // ==================== IDLE ====================
+
+    /**
+     * 进入 IDLE：发送继续请求后由连接层等待 DONE，期间的邮箱变化由通知回调推送
+     */
+    private void handleIdle(String tag, ImapParser parser, ImapSession session, ImapResponseWriter out)
+            throws IOException, ImapParseException, SQLException {
+        parser.end();
+        session.setIdleTag(tag);
+        idleStarted.increment();
+        out.writeLine(ImapResponse.continuation("idling"));
+
+        // 上一条命令之后已经发生的变化立即报告
+        if (session.isSelected() && session.takeChanged()) {
+            synchronize(session, out);
+        }
+    }
+
+    /**
+     * 结束 IDLE
+     *
+     * @param line 客户端在 IDLE 期间发送的行，应为 DONE
+     */
+    public void finishIdle(String line, ImapSession session, ImapResponseWriter out) throws IOException {
+        session.lock().lock();
+        try {
+            String tag = session.getIdleTag();
+            session.setIdleTag(null);
+            if ("DONE".equalsIgnoreCase(line.trim())) {
+                out.writeLine(ImapResponse.ok(tag, "IDLE terminated"));
+            } else {
+                out.writeLine(ImapResponse.bad(tag, "Expected DONE"));
+            }
+        } finally {
+            session.lock().unlock();
+        }
+    }
+
+    /**
+     * 邮箱变更通知回调（在通知线程上执行，必须立即返回）
+     */
+    private void onMailboxChanged(ImapSession session, ImapResponseWriter out) {
+        session.markChanged();
+        if (session.isIdling() && session.schedulePush()) {
+            Thread.ofVirtual().name("imap-idle-push").start(() -> push(session, out));
+        }
+    }
+
+    /**
+     * 向 IDLE 中的客户端推送邮箱变化
+     */
+    private void push(ImapSession session, ImapResponseWriter out) {
+        session.lock().lock();
+        try {
+            // 之后到达的通知会重新安排推送
+            session.pushStarted();
+            if (!session.isIdling() || !session.isSelected() || !session.takeChanged()) {
+                return;
+            }
+            synchronize(session, out);
+            out.flush();
+            idlePushes.increment();
+        } catch (SQLException e) {
+            log.warn("IDLE 推送时查询邮箱失败: {} - {}", session.getUsername(), e.getMessage());
+            session.markChanged();
+        } catch (IOException e) {
+            log.debug("IDLE 推送失败，连接可能已关闭: {}", e.getMessage());
+        } finally {
+            session.lock().unlock();
+        }
+    }
+
+    /**
+     * 重新加载邮箱并报告与会话视图的差异：EXPUNGE、标志变化、EXISTS
+     */
+    private void synchronize(ImapSession session, ImapResponseWriter out) throws SQLException, IOException {
+        List<MessageRecord> fresh = repository.findMessages(session.getUsername());
+        List<MessageRecord> known = new ArrayList<>(session.getMessages());
+        long knownMaxUid = session.getMaxUid();
+
+        // 两个列表都按 UID 升序，找出仍然存在的邮件
+        int[] freshIndex = new int[known.size()];
+        int j = 0;
+        for (int i = 0; i < known.size(); i++) {
+            long uid = known.get(i).uid();
+            while (j < fresh.size() && fresh.get(j).uid() < uid) {
+                j++;
+            }
+            freshIndex[i] = j < fresh.size() && fresh.get(j).uid() == uid ? j : -1;
+        }
+
+        // 从后往前报告，前面邮件的序号不受影响
+        for (int i = known.size() - 1; i >= 0; i--) {
+            if (freshIndex[i] < 0) {
+                session.remove(i + 1);
+                out.writeLine(ImapResponse.expunge(i + 1));
+            }
+        }
+
+        int sequence = 0;
+        for (int i = 0; i < known.size(); i++) {
+            if (freshIndex[i] < 0) {
+                continue;
+            }
+            sequence++;
+            int flags = fresh.get(freshIndex[i]).flags();
+            if (flags != known.get(i).flags()) {
+                session.setFlags(sequence, flags);
+                out.writeLine(ImapResponse.flagsUpdate(sequence, flags));
+            }
+        }
+
+        int added = 0;
+        for (MessageRecord message : fresh) {
+            if (message.uid() > knownMaxUid) {
+                session.append(message);
+                added++;
+            }
+        }
+        if (added > 0) {
+            out.writeLine(ImapResponse.exists(session.getMessageCount()));
+        }
+    }
+
+    // ==================== 选中状态命令 ====================
+
+    private void handleClose(String tag, ImapParser parser, ImapSession session, ImapResponseWriter out)
+            throws IOException, ImapParseException, SQLException {
+        parser.end();
+        if (!session.isReadOnly()) {
+            repository.expunge(session.getUsername(), session.getMaxUid());
+        }
+        close(session);
+        session.unselect();
+        out.writeLine(ImapResponse.ok(tag, "CLOSE completed"));
+    }
+
+    private void handleExpunge(String tag, ImapParser parser, ImapSession session, ImapResponseWriter out)
+            throws IOException, ImapParseException, SQLException {
+        parser.end();
+        if (session.isReadOnly()) {
+            out.writeLine(ImapResponse.no(tag, "[READ-ONLY] Mailbox is read-only"));
+            return;
+        }
+
+        long[] expunged = repository.expunge(session.getUsername(), session.getMaxUid());
+        for (int i = expunged.length - 1; i >= 0; i--) {
+            int sequence = session.findSequence(expunged[i]);
+            if (sequence > 0) {
+                session.remove(sequence);
+                out.writeLine(ImapResponse.expunge(sequence));
+            }
+        }
+        out.writeLine(ImapResponse.ok(tag, "EXPUNGE completed"));
+    }
+
+    private void handleSearch(String tag, boolean byUid, ImapParser parser, ImapSession session,
+                              ImapResponseWriter out) throws IOException, ImapParseException, SQLException {
+        if (parser.tryKeyword("CHARSET")) {
+            String charset = parser.astring();
+            if (!charset.equalsIgnoreCase("UTF-8") && !charset.equalsIgnoreCase("US-ASCII")) {
+                out.writeLine(ImapResponse.no(tag, "[BADCHARSET (UTF-8 US-ASCII)] Unsupported charset"));
+                return;
+            }
+            parser.space();
+        }
+
+        SearchQuery query = SearchQuery.parse(parser);
+        for (SearchQuery.TextCondition condition : query.textConditions()) {
+            condition.resolve(repository.searchText(session.getUsername(),
+                    condition.field(), condition.headerName(), condition.value()));
+        }
+
+        SearchQuery.Context context = new SearchQuery.Context(session.getMessageCount(), session.getMaxUid());
+        StringBuilder sb = new StringBuilder("* SEARCH");
+        List<MessageRecord> messages = session.getMessages();
+        for (int i = 0; i < messages.size(); i++) {
+            MessageRecord message = messages.get(i);
+            if (query.matches(i + 1, message, context)) {
+                sb.append(' ').append(byUid ? message.uid() : i + 1);
+            }
+        }
+        out.writeLine(sb.toString());
+        out.writeLine(ImapResponse.ok(tag, (byUid ? "UID SEARCH" : "SEARCH") + " completed"));
+    }
+
+    private void handleStore(String tag, boolean byUid, ImapParser parser, ImapSession session,
+                             ImapResponseWriter out) throws IOException, ImapParseException, SQLException {
+        SequenceSet set = SequenceSet.parse(parser.atom());
+        parser.space();
+        String operation = parser.atom().toUpperCase(Locale.ROOT);
+        parser.space();
+
+        List<String> flagNames;
+        if (parser.peek() == '(') {
+            flagNames = parser.list();
+        } else {
+            flagNames = new ArrayList<>();
+            flagNames.add(parser.atom());
+            while (parser.trySpace()) {
+                flagNames.add(parser.atom());
+            }
+        }
+        parser.end();
+
+        boolean silent = operation.endsWith(".SILENT");
+        FlagUpdate update = switch (silent ? operation.substring(0, operation.length() - 7) : operation) {
+            case "FLAGS" -> FlagUpdate.REPLACE;
+            case "+FLAGS" -> FlagUpdate.ADD;
+            case "-FLAGS" -> FlagUpdate.REMOVE;
+            default -> throw new ImapParseException("无效的 STORE 操作: " + operation);
+        };
+
+        if (session.isReadOnly()) {
+            out.writeLine(ImapResponse.no(tag, "[READ-ONLY] Mailbox is read-only"));
+            return;
+        }
+
+        int flags = 0;
+        for (String name : flagNames) {
+            flags |= ImapFlags.parse(name);
+        }
+
+        int[] sequences = resolve(set, byUid, session);
+        if (sequences == null) {
+            out.writeLine(ImapResponse.bad(tag, "Invalid message sequence number"));
+            return;
+        }
+
+        long[] uids = new long[sequences.length];
+        for (int i = 0; i < sequences.length; i++) {
+            uids[i] = session.getMessage(sequences[i]).uid();
+        }
+
+        Map<Long, Integer> updated = repository.updateFlags(session.getUsername(), uids, update, flags);
+        for (int sequence : sequences) {
+            MessageRecord message = session.getMessage(sequence);
+            Integer newFlags = updated.get(message.uid());
+            if (newFlags == null) {
+                continue;
+            }
+            session.setFlags(sequence, newFlags);
+            if (!silent) {
+                out.writeLine(byUid
+                        ? ImapResponse.flagsUpdate(sequence, message.uid(), newFlags)
+                        : ImapResponse.flagsUpdate(sequence, newFlags));
+            }
+        }
+        out.writeLine(ImapResponse.ok(tag, (byUid ? "UID STORE" : "STORE") + " completed"));
+    }
+
+    // ==================== FETCH ====================
+
+    private void handleFetch(String tag, boolean byUid, ImapParser parser, ImapSession session,
+                             ImapResponseWriter out) throws IOException, ImapParseException, SQLException {
+        SequenceSet set = SequenceSet.parse(parser.atom());
+        parser.space();
+        List<FetchItem> items = new ArrayList<>(FetchItem.parseList(parser));
+        parser.end();
+
+        // UID FETCH 的响应必须包含 UID
+        if (byUid && items.stream().noneMatch(item -> item.kind() == FetchItem.Kind.UID)) {
+            items.addFirst(new FetchItem(FetchItem.Kind.UID, null, List.of(), true, -1, 0));
+        }
+
+        int[] sequences = resolve(set, byUid, session);
+        if (sequences == null) {
+            out.writeLine(ImapResponse.bad(tag, "Invalid message sequence number"));
+            return;
+        }
+
+        // 非 PEEK 读取正文时先批量设置 \Seen，并在响应中带上新的 FLAGS
+        Set<Integer> flagsChanged = markSeen(items, sequences, session);
+        boolean hasFlagsItem = items.stream().anyMatch(item -> item.kind() == FetchItem.Kind.FLAGS);
+        boolean needsHeader = items.stream().anyMatch(FetchItem::needsHeader);
+
+        for (int start = 0; start < sequences.length; start += HEADER_BATCH_SIZE) {
+            int end = Math.min(start + HEADER_BATCH_SIZE, sequences.length);
+
+            Map<Long, byte[]> headers = Map.of();
+            if (needsHeader) {
+                long[] uids = new long[end - start];
+                for (int i = start; i < end; i++) {
+                    uids[i - start] = session.getMessage(sequences[i]).uid();
+                }
+                headers = repository.findHeaders(session.getUsername(), uids);
+            }
+
+            for (int i = start; i < end; i++) {
+                int sequence = sequences[i];
+                MessageRecord message = session.getMessage(sequence);
+                boolean includeFlags = !hasFlagsItem && flagsChanged.contains(sequence);
+                writeFetchResponse(sequence, message, items, includeFlags,
+                        headers.get(message.uid()), session, out);
+            }
+        }
+        out.writeLine(ImapResponse.ok(tag, (byUid ? "UID FETCH" : "FETCH") + " completed"));
+    }
+
+    /**
+     * 为读取正文的邮件设置 \Seen
+     *
+     * @return 标志发生变化的序号
+     */
+    private Set<Integer> markSeen(List<FetchItem> items, int[] sequences, ImapSession session) throws SQLException {
+        if (session.isReadOnly() || items.stream().noneMatch(FetchItem::setsSeen)) {
+            return Set.of();
+        }
+
+        List<Integer> unseen = new ArrayList<>();
+        for (int sequence : sequences) {
+            if ((session.getMessage(sequence).flags() & ImapFlags.SEEN) == 0) {
+                unseen.add(sequence);
+            }
+        }
+        if (unseen.isEmpty()) {
+            return Set.of();
+        }
+
+        long[] uids = new long[unseen.size()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = session.getMessage(unseen.get(i)).uid();
+        }
+
+        Map<Long, Integer> updated = repository.updateFlags(session.getUsername(), uids, FlagUpdate.ADD, ImapFlags.SEEN);
+        Set<Integer> changed = new HashSet<>();
+        for (int sequence : unseen) {
+            Integer flags = updated.get(session.getMessage(sequence).uid());
+            if (flags != null) {
+                session.setFlags(sequence, flags);
+                changed.add(sequence);
+            }
+        }
+        return changed;
+    }
+
+    private void writeFetchResponse(int sequence, MessageRecord message, List<FetchItem> items,
+                                    boolean includeFlags, byte[] header, ImapSession session,
+                                    ImapResponseWriter out) throws IOException, SQLException {
+        out.write("* " + sequence + " FETCH (");
+
+        boolean first = true;
+        byte[] content = null;
+        for (FetchItem item : items) {
+            if (!first) {
+                out.write(" ");
+            }
+            first = false;
+            out.write(item.responseName() + " ");
+
+            switch (item.kind()) {
+                case UID -> out.write(Long.toString(message.uid()));
+                case FLAGS -> out.write(ImapFlags.format(message.flags()));
+                case INTERNALDATE -> out.write("\"" + INTERNAL_DATE.format(message.internalDate()) + "\"");
+                case RFC822_SIZE -> out.write(Long.toString(message.size()));
+                case ENVELOPE -> out.write(header != null ? MessageHeaders.envelope(header) : "NIL");
+                default -> {
+                    byte[] data;
+                    if (item.needsHeader()) {
+                        data = header == null ? null : switch (item.section()) {
+                            case "HEADER.FIELDS" -> MessageHeaders.filter(header, item.fields(), false);
+                            case "HEADER.FIELDS.NOT" -> MessageHeaders.filter(header, item.fields(), true);
+                            default -> header;
+                        };
+                    } else if (item.section().isEmpty() && item.isPartial()) {
+                        // 只从数据库取请求的字节范围
+                        data = repository.findContentRange(session.getUsername(), message.uid(),
+                                message.internalDate(), item.partialOffset(), item.partialLength()).orElse(null);
+                        writeSection(data, 0, data == null ? 0 : data.length, out);
+                        continue;
+                    } else {
+                        if (content == null) {
+                            content = repository.findContent(session.getUsername(), message.uid(), message.internalDate())
+                                    .orElse(null);
+                        }
+                        data = content == null || !item.isText() ? content : bodyOf(content);
+                    }
+                    writePartial(data, item, out);
+                }
+            }
+        }
+
+        if (includeFlags) {
+            out.write(" FLAGS " + ImapFlags.format(message.flags()));
+        }
+        out.writeLine(")");
+    }
+
+    /**
+     * 写出 section 内容，有 &lt;offset.length&gt; 时只写出对应范围
+     */
+    private static void writePartial(byte[] data, FetchItem item, ImapResponseWriter out) throws IOException {
+        if (data == null || !item.isPartial()) {
+            writeSection(data, 0, data == null ? 0 : data.length, out);
+            return;
+        }
+        int offset = (int) Math.min(item.partialOffset(), data.length);
+        int length = (int) Math.min(item.partialLength(), data.length - offset);
+        writeSection(data, offset, length, out);
+    }
+
+    private static void writeSection(byte[] data, int offset, int length, ImapResponseWriter out) throws IOException {
+        if (data == null) {
+            // 邮件已被其他会话删除
+            out.write("NIL");
+        } else {
+            out.writeLiteral(data, offset, length);
+        }
+    }
+
+    /**
+     * 取正文部分（头部之后）
+     */
+    private static byte[] bodyOf(byte[] content) {
+        MessageLayout layout = MessageLayout.compute(content);
+        int headerLength = layout != null ? layout.headerLength() : content.length;
+        return Arrays.copyOfRange(content, headerLength, content.length);
+    }
+
+    // ==================== 辅助方法 ====================
+
+    /**
+     * 把序号集合或 UID 集合解析为会话中的序号（升序）
+     *
+     * @return 序号数组；序号越界时返回 null（UID 集合中不存在的 UID 直接忽略）
+     */
+    private static int[] resolve(SequenceSet set, boolean byUid, ImapSession session) {
+        int count = session.getMessageCount();
+        if (!byUid && set.maxExplicit() > count) {
+            return null;
+        }
+
+        long maxUid = session.getMaxUid();
+        int[] result = new int[count];
+        int size = 0;
+        for (int sequence = 1; sequence <= count; sequence++) {
+            boolean matched = byUid
+                    ? set.contains(session.getMessage(sequence).uid(), maxUid)
+                    : set.contains(sequence, count);
+            if (matched) {
+                result[size++] = sequence;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * 会话结束或取消选中时取消订阅
+     */
+    public void close(ImapSession session) {
+        Runnable listener = session.getChangeListener();
+        if (listener != null && session.getUsername() != null) {
+            eventHub.unsubscribe(session.getUsername(), listener);
+            session.setChangeListener(null);
+        }
+    }
+}
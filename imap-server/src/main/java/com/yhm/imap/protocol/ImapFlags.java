@@ -0,0 +1,66 @@
+package com.yhm.imap.protocol;
+
+/**
+ * IMAP 系统标志位
+ *
+ * 低 4 位与 emails.imap_flags 列一致；\Seen 保存在 is_read 列，只在内存中占用 SEEN 位。
+ * 不支持自定义关键字（PERMANENTFLAGS 中没有 \*），STORE 中的关键字被忽略。
+ */
+public final class ImapFlags {
+
+    public static final int ANSWERED = 1;
+    public static final int FLAGGED = 2;
+    public static final int DELETED = 4;
+    public static final int DRAFT = 8;
+    public static final int SEEN = 16;
+
+    /**
+     * 保存在 imap_flags 列中的标志
+     */
+    public static final int STORED_MASK = ANSWERED | FLAGGED | DELETED | DRAFT;
+
+    /**
+     * FLAGS / PERMANENTFLAGS 响应中的标志列表
+     */
+    public static final String SUPPORTED = "(\\Answered \\Flagged \\Deleted \\Seen \\Draft)";
+
+    private ImapFlags() {
+        // 工具类，禁止实例化
+    }
+
+    /**
+     * 解析单个标志，不支持的标志和关键字返回 0
+     */
+    public static int parse(String flag) {
+        return switch (flag.toUpperCase()) {
+            case "\\ANSWERED" -> ANSWERED;
+            case "\\FLAGGED" -> FLAGGED;
+            case "\\DELETED" -> DELETED;
+            case "\\DRAFT" -> DRAFT;
+            case "\\SEEN" -> SEEN;
+            default -> 0;
+        };
+    }
+
+    /**
+     * 格式化为带括号的标志列表，如 "(\Seen \Flagged)"
+     */
+    public static String format(int flags) {
+        StringBuilder sb = new StringBuilder("(");
+        append(sb, flags, ANSWERED, "\\Answered");
+        append(sb, flags, FLAGGED, "\\Flagged");
+        append(sb, flags, DELETED, "\\Deleted");
+        append(sb, flags, SEEN, "\\Seen");
+        append(sb, flags, DRAFT, "\\Draft");
+        return sb.append(')').toString();
+    }
+
+    private static void append(StringBuilder sb, int flags, int bit, String name) {
+        if ((flags & bit) != 0) {
+            if (sb.length() > 1) {
+                sb.append(' ');
+            }
+            sb.append(name);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.yhm.imap.protocol;
+
+/**
+ * 命令参数语法错误，处理器据此返回 tagged BAD
+ */
+public class ImapParseException extends Exception {
+
+    public ImapParseException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,186 @@
+package com.yhm.imap.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * IMAP 命令参数解析器
+ *
+ * 在一行命令文本上顺序读取 atom、quoted string 和括号列表。
+ * 客户端发送的 literal（{n}）已由连接层读入并转换为 quoted string，这里不再处理。
+ */
+public class ImapParser {
+
+    private final String input;
+    private int pos;
+
+    public ImapParser(String input) {
+        this.input = input;
+    }
+
+    public boolean atEnd() {
+        return pos >= input.length();
+    }
+
+    /**
+     * 查看下一个字符，已到结尾时返回 0
+     */
+    public char peek() {
+        return atEnd() ? 0 : input.charAt(pos);
+    }
+
+    /**
+     * 读取一个必需的空格
+     */
+    public void space() throws ImapParseException {
+        expect(' ');
+    }
+
+    /**
+     * 下一个字符是空格时读取并返回 true
+     */
+    public boolean trySpace() {
+        if (peek() == ' ') {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 下一个 atom 是指定关键字（不区分大小写）且后跟空格时读取并返回 true
+     */
+    public boolean tryKeyword(String keyword) {
+        int end = pos + keyword.length();
+        if (end < input.length() && input.charAt(end) == ' '
+                && input.regionMatches(true, pos, keyword, 0, keyword.length())) {
+            pos = end + 1;
+            return true;
+        }
+        return false;
+    }
+
+    public void expect(char c) throws ImapParseException {
+        if (peek() != c) {
+            throw new ImapParseException("期望 '" + c + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * 读取 atom：到空格、括号、引号或行尾为止
+     * 与 RFC 3501 相比放宽了 '*' '%' '\' ']' 的限制，以便直接读取序号集合、LIST 模式和标志
+     */
+    public String atom() throws ImapParseException {
+        int start = pos;
+        while (!atEnd()) {
+            char c = input.charAt(pos);
+            if (c == ' ' || c == '(' || c == ')' || c == '"' || c < 0x20 || c == 0x7F) {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw new ImapParseException("缺少参数");
+        }
+        return input.substring(start, pos);
+    }
+
+    /**
+     * 读取 atom 或 quoted string
+     */
+    public String astring() throws ImapParseException {
+        return peek() == '"' ? quoted() : atom();
+    }
+
+    /**
+     * 读取 quoted string，处理 \" 和 \\ 转义
+     */
+    public String quoted() throws ImapParseException {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (!atEnd()) {
+            char c = input.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\' && !atEnd()) {
+                c = input.charAt(pos++);
+            }
+            sb.append(c);
+        }
+        throw new ImapParseException("字符串缺少结束引号");
+    }
+
+    /**
+     * 读取括号列表 "(a b c)"，元素为 atom 或 quoted string
+     */
+    public List<String> list() throws ImapParseException {
+        expect('(');
+        List<String> items = new ArrayList<>();
+        while (peek() != ')') {
+            if (!items.isEmpty()) {
+                space();
+            }
+            items.add(astring());
+        }
+        expect(')');
+        return items;
+    }
+
+    /**
+     * 读取由字母、数字和 '.' 组成的名称（FETCH 数据项名）
+     */
+    public String name() throws ImapParseException {
+        int start = pos;
+        while (!atEnd()) {
+            char c = input.charAt(pos);
+            if (!Character.isLetterOrDigit(c) && c != '.') {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw new ImapParseException("缺少数据项名称");
+        }
+        return input.substring(start, pos);
+    }
+
+    /**
+     * 读取直到指定字符（不含）为止的原始文本，并跳过该字符
+     */
+    public String until(char end) throws ImapParseException {
+        int index = input.indexOf(end, pos);
+        if (index < 0) {
+            throw new ImapParseException("缺少 '" + end + "'");
+        }
+        String text = input.substring(pos, index);
+        pos = index + 1;
+        return text;
+    }
+
+    /**
+     * 读取一个非负整数
+     */
+    public long number() throws ImapParseException {
+        String text = atom();
+        try {
+            long value = Long.parseLong(text);
+            if (value < 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new ImapParseException("无效的数字: " + text);
+        }
+    }
+
+    /**
+     * 确认参数已全部读取
+     */
+    public void end() throws ImapParseException {
+        if (!atEnd()) {
+            throw new ImapParseException("多余的参数");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.yhm.imap.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * IMAP 响应生成器
+ *
+ * 根据 RFC 3501，IMAP 响应格式：
+ * - 标签响应: tag OK|NO|BAD [code] text，表示命令完成
+ * - 非标签响应: * ...，服务器数据或状态
+ * - 继续请求: + text，等待客户端发送 literal 或 DONE
+ */
+public final class ImapResponse {
+
+    public static final String CAPABILITIES = "IMAP4rev1 LITERAL+ IDLE";
+
+    private ImapResponse() {
+        // 工具类，禁止实例化
+    }
+
+    // ==================== 标签响应 ====================
+
+    public static String ok(String tag, String text) {
+        return tag + " OK " + text;
+    }
+
+    public static String no(String tag, String text) {
+        return tag + " NO " + text;
+    }
+
+    public static String bad(String tag, String text) {
+        return tag + " BAD " + text;
+    }
+
+    /**
+     * 认证排队已满，客户端稍后重试（RFC 5530 UNAVAILABLE）
+     */
+    public static String authBusy(String tag) {
+        return tag + " NO [UNAVAILABLE] Authentication service busy, try again later";
+    }
+
+    // ==================== 非标签响应 ====================
+
+    /**
+     * 服务就绪响应（欢迎消息）
+     */
+    public static String greeting(String domain) {
+        return "* OK [CAPABILITY " + CAPABILITIES + "] " + domain + " IMAP4rev1 server ready";
+    }
+
+    public static String capability() {
+        return "* CAPABILITY " + CAPABILITIES;
+    }
+
+    public static String bye(String text) {
+        return "* BYE " + text;
+    }
+
+    public static String exists(int count) {
+        return "* " + count + " EXISTS";
+    }
+
+    public static String expunge(int sequence) {
+        return "* " + sequence + " EXPUNGE";
+    }
+
+    public static String flagsUpdate(int sequence, int flags) {
+        return "* " + sequence + " FETCH (FLAGS " + ImapFlags.format(flags) + ")";
+    }
+
+    public static String flagsUpdate(int sequence, long uid, int flags) {
+        return "* " + sequence + " FETCH (UID " + uid + " FLAGS " + ImapFlags.format(flags) + ")";
+    }
+
+    /**
+     * 继续请求（IDLE 开始或等待 literal）
+     */
+    public static String continuation(String text) {
+        return "+ " + text;
+    }
+
+    // ==================== 字符串 ====================
+
+    /**
+     * 追加 nstring：null 为 NIL；可打印 ASCII 用 quoted string；含换行或非 ASCII 字符时用 literal
+     */
+    public static void appendNString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("NIL");
+            return;
+        }
+        appendString(sb, value);
+    }
+
+    /**
+     * 追加 string（quoted string 或 literal）
+     */
+    public static void appendString(StringBuilder sb, String value) {
+        boolean quotable = true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x20 || c >= 0x7F) {
+                quotable = false;
+                break;
+            }
+        }
+
+        if (quotable) {
+            sb.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    sb.append('\\');
+                }
+                sb.append(c);
+            }
+            sb.append('"');
+        } else {
+            sb.append('{').append(value.getBytes(StandardCharsets.UTF_8).length).append("}\r\n").append(value);
+        }
+    }
+
+    /**
+     * 格式化为 quoted string
+     */
+    public static String quote(String value) {
+        StringBuilder sb = new StringBuilder();
+        appendString(sb, value);
+        return sb.toString();
+    }
+}
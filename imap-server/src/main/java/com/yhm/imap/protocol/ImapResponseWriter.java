@@ -0,0 +1,95 @@
+package com.yhm.imap.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * IMAP 响应输出缓冲
+ *
+ * 与 POP3 相同，每个连接持有一个固定大小的字节缓冲区，缓冲区满或调用 {@link #flush()} 时才写入 socket。
+ * 邮件内容以 literal（{n}CRLF + n 个字节）原样写出，不需要字节填充。
+ *
+ * IDLE 期间推送线程与连接线程会先后写同一个实例，调用方通过会话锁保证同一时刻只有一个线程写入。
+ */
+public class ImapResponseWriter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+
+    public ImapResponseWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ImapResponseWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    /**
+     * 写入一行响应，并追加结尾的 CRLF
+     */
+    public void writeLine(String line) throws IOException {
+        write(line);
+        writeBytes(CRLF, 0, CRLF.length);
+    }
+
+    /**
+     * 写入文本（不追加换行）
+     */
+    public void write(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * 写入 literal：{length}CRLF 后跟原始字节
+     */
+    public void writeLiteral(byte[] data, int offset, int length) throws IOException {
+        write("{" + length + "}");
+        writeBytes(CRLF, 0, CRLF.length);
+        writeBytes(data, offset, length);
+    }
+
+    /**
+     * 把缓冲区中的数据写入 socket
+     */
+    public void flush() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+        out.flush();
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        // 大块数据直接写出，不经过缓冲区复制
+        if (length >= buffer.length) {
+            drain();
+            out.write(bytes, offset, length);
+            return;
+        }
+        int end = offset + length;
+        while (offset < end) {
+            if (count == buffer.length) {
+                drain();
+            }
+            int len = Math.min(end - offset, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, len);
+            count += len;
+            offset += len;
+        }
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
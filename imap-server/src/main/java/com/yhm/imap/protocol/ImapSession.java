@@ -0,0 +1,242 @@
+package com.yhm.imap.protocol;
+
+import com.yhm.imap.db.MessageRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * IMAP 会话状态
+ *
+ * 选中邮箱后保存邮件元数据列表（按 UID 升序，下标 + 1 即序号）。
+ * 列表只在持有 {@link #lock()} 时读写：连接线程处理命令时持有，
+ * IDLE 期间由推送线程持有，两者不会同时修改列表或写出响应。
+ */
+public class ImapSession {
+
+    /**
+     * IMAP 会话状态
+     */
+    public enum State {
+        /** 未认证状态 */
+        NOT_AUTHENTICATED,
+        /** 已认证状态 */
+        AUTHENTICATED,
+        /** 已选中邮箱 */
+        SELECTED,
+        /** 会话结束 */
+        LOGOUT
+    }
+
+    private final String remoteAddress;
+    private final long connectionTime;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private State state = State.NOT_AUTHENTICATED;
+    private String username;
+    private int authFailedAttempts;
+
+    // 选中的邮箱
+    private boolean readOnly;
+    private long uidValidity;
+    private List<MessageRecord> messages = new ArrayList<>();
+
+    // IDLE
+    private Runnable changeListener;
+    private volatile String idleTag;
+    private final AtomicBoolean changed = new AtomicBoolean();
+    private final AtomicBoolean pushScheduled = new AtomicBoolean();
+
+    public ImapSession(String remoteAddress) {
+        this.remoteAddress = remoteAddress;
+        this.connectionTime = System.currentTimeMillis();
+    }
+
+    // ==================== 状态管理 ====================
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public boolean isSelected() {
+        return state == State.SELECTED;
+    }
+
+    public boolean isLogout() {
+        return state == State.LOGOUT;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public long getConnectionTime() {
+        return connectionTime;
+    }
+
+    /**
+     * 会话锁：处理命令和 IDLE 推送时持有
+     */
+    public ReentrantLock lock() {
+        return lock;
+    }
+
+    // ==================== 认证 ====================
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public int getAuthFailedAttempts() {
+        return authFailedAttempts;
+    }
+
+    public void incrementAuthFailedAttempts() {
+        authFailedAttempts++;
+    }
+
+    // ==================== 选中的邮箱 ====================
+
+    /**
+     * 选中邮箱
+     */
+    public void select(List<MessageRecord> loaded, long uidValidity, boolean readOnly) {
+        this.messages = new ArrayList<>(loaded);
+        this.uidValidity = uidValidity;
+        this.readOnly = readOnly;
+        this.state = State.SELECTED;
+    }
+
+    /**
+     * 取消选中，回到已认证状态
+     */
+    public void unselect() {
+        this.messages = new ArrayList<>();
+        this.state = State.AUTHENTICATED;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public long getUidValidity() {
+        return uidValidity;
+    }
+
+    public int getMessageCount() {
+        return messages.size();
+    }
+
+    /**
+     * 按序号（从 1 开始）获取邮件
+     */
+    public MessageRecord getMessage(int sequence) {
+        return messages.get(sequence - 1);
+    }
+
+    public List<MessageRecord> getMessages() {
+        return messages;
+    }
+
+    /**
+     * 按 UID 查找序号，不存在时返回 0
+     */
+    public int findSequence(long uid) {
+        int low = 0;
+        int high = messages.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midUid = messages.get(mid).uid();
+            if (midUid < uid) {
+                low = mid + 1;
+            } else if (midUid > uid) {
+                high = mid - 1;
+            } else {
+                return mid + 1;
+            }
+        }
+        return 0;
+    }
+
+    public long getMaxUid() {
+        return messages.isEmpty() ? 0 : messages.getLast().uid();
+    }
+
+    public void setFlags(int sequence, int flags) {
+        messages.set(sequence - 1, messages.get(sequence - 1).withFlags(flags));
+    }
+
+    /**
+     * 移除邮件，之后的序号依次减一
+     */
+    public void remove(int sequence) {
+        messages.remove(sequence - 1);
+    }
+
+    /**
+     * 追加新邮件（UID 必须大于当前最大 UID）
+     */
+    public void append(MessageRecord message) {
+        messages.add(message);
+    }
+
+    // ==================== IDLE ====================
+
+    /**
+     * 选中邮箱时向 MailboxEventHub 注册的回调，取消订阅时使用
+     */
+    public Runnable getChangeListener() {
+        return changeListener;
+    }
+
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    public boolean isIdling() {
+        return idleTag != null;
+    }
+
+    public String getIdleTag() {
+        return idleTag;
+    }
+
+    public void setIdleTag(String idleTag) {
+        this.idleTag = idleTag;
+    }
+
+    /**
+     * 标记邮箱有变化（由通知线程调用），下次 NOOP / IDLE 时同步
+     */
+    public void markChanged() {
+        changed.set(true);
+    }
+
+    /**
+     * 取出并清除变化标记
+     */
+    public boolean takeChanged() {
+        return changed.getAndSet(false);
+    }
+
+    /**
+     * 尝试安排一次推送，已有推送在排队时返回 false（合并短时间内的多次通知）
+     */
+    public boolean schedulePush() {
+        return pushScheduled.compareAndSet(false, true);
+    }
+
+    public void pushStarted() {
+        pushScheduled.set(false);
+    }
+}
@@ -0,0 +1,206 @@
+package com.yhm.imap.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 邮件头部处理：ENVELOPE 与 HEADER.FIELDS
+ *
+ * 头部按原样保存在 raw_content 中，这里只做字段切分和地址列表的简单解析，
+ * 编码词（=?UTF-8?B?...?=）原样返回，由客户端解码。
+ */
+public final class MessageHeaders {
+
+    /**
+     * 一个头部字段
+     *
+     * @param name  字段名
+     * @param value 展开折行后的值
+     * @param raw   原始文本（含折行和结尾换行）
+     */
+    private record Field(String name, String value, String raw) {
+    }
+
+    private MessageHeaders() {
+        // 工具类，禁止实例化
+    }
+
+    /**
+     * 按字段名筛选头部（HEADER.FIELDS / HEADER.FIELDS.NOT），结果以空行结尾
+     */
+    public static byte[] filter(byte[] header, List<String> names, boolean exclude) {
+        Set<String> wanted = Set.copyOf(names);
+        StringBuilder sb = new StringBuilder();
+        for (Field field : parse(header)) {
+            boolean matched = wanted.contains(field.name().toUpperCase(Locale.ROOT));
+            if (matched != exclude) {
+                sb.append(field.raw());
+            }
+        }
+        sb.append("\r\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 生成 ENVELOPE：(date subject from sender reply-to to cc bcc in-reply-to message-id)
+     */
+    public static String envelope(byte[] header) {
+        List<Field> fields = parse(header);
+
+        String from = first(fields, "From");
+        String sender = first(fields, "Sender");
+        String replyTo = first(fields, "Reply-To");
+
+        StringBuilder sb = new StringBuilder("(");
+        ImapResponse.appendNString(sb, first(fields, "Date"));
+        sb.append(' ');
+        ImapResponse.appendNString(sb, first(fields, "Subject"));
+        sb.append(' ');
+        appendAddresses(sb, from);
+        sb.append(' ');
+        appendAddresses(sb, sender != null ? sender : from);
+        sb.append(' ');
+        appendAddresses(sb, replyTo != null ? replyTo : from);
+        sb.append(' ');
+        appendAddresses(sb, first(fields, "To"));
+        sb.append(' ');
+        appendAddresses(sb, first(fields, "Cc"));
+        sb.append(' ');
+        appendAddresses(sb, first(fields, "Bcc"));
+        sb.append(' ');
+        ImapResponse.appendNString(sb, first(fields, "In-Reply-To"));
+        sb.append(' ');
+        ImapResponse.appendNString(sb, first(fields, "Message-ID"));
+        return sb.append(')').toString();
+    }
+
+    // ==================== 解析 ====================
+
+    private static List<Field> parse(byte[] header) {
+        String text = new String(header, StandardCharsets.UTF_8);
+        List<Field> fields = new ArrayList<>();
+
+        int pos = 0;
+        while (pos < text.length()) {
+            int end = lineEnd(text, pos);
+            // 续行（以空白开头）并入同一个字段
+            while (end < text.length() && (text.charAt(end) == ' ' || text.charAt(end) == '\t')) {
+                end = lineEnd(text, end);
+            }
+
+            String raw = text.substring(pos, end);
+            int colon = raw.indexOf(':');
+            if (colon > 0) {
+                String value = raw.substring(colon + 1).replaceAll("\r?\n", "").trim();
+                fields.add(new Field(raw.substring(0, colon).trim(), value, raw));
+            }
+            pos = end;
+        }
+        return fields;
+    }
+
+    /**
+     * 返回下一行的起始位置
+     */
+    private static int lineEnd(String text, int pos) {
+        int lf = text.indexOf('\n', pos);
+        return lf < 0 ? text.length() : lf + 1;
+    }
+
+    private static String first(List<Field> fields, String name) {
+        for (Field field : fields) {
+            if (field.name().equalsIgnoreCase(name)) {
+                return field.value();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 追加地址列表 ((name adl mailbox host) ...)，没有地址时为 NIL
+     */
+    private static void appendAddresses(StringBuilder sb, String value) {
+        List<String> addresses = value == null ? List.of() : splitAddresses(value);
+        if (addresses.isEmpty()) {
+            sb.append("NIL");
+            return;
+        }
+
+        sb.append('(');
+        for (String address : addresses) {
+            String name = null;
+            String spec = address;
+            int lt = address.lastIndexOf('<');
+            int gt = address.lastIndexOf('>');
+            if (lt >= 0 && gt > lt) {
+                name = unquote(address.substring(0, lt).trim());
+                spec = address.substring(lt + 1, gt).trim();
+                if (name.isEmpty()) {
+                    name = null;
+                }
+            }
+
+            int at = spec.lastIndexOf('@');
+            String mailbox = at >= 0 ? spec.substring(0, at) : spec;
+            String host = at >= 0 ? spec.substring(at + 1) : "";
+
+            sb.append('(');
+            ImapResponse.appendNString(sb, name);
+            sb.append(" NIL ");
+            ImapResponse.appendString(sb, mailbox);
+            sb.append(' ');
+            ImapResponse.appendString(sb, host);
+            sb.append(')');
+        }
+        sb.append(')');
+    }
+
+    /**
+     * 按逗号拆分地址列表，忽略引号和尖括号内的逗号；组语法（"组名: ...;"）只保留成员
+     */
+    private static List<String> splitAddresses(String value) {
+        List<String> result = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        int angle = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' && (i == 0 || value.charAt(i - 1) != '\\')) {
+                quoted = !quoted;
+            } else if (!quoted && c == '<') {
+                angle++;
+            } else if (!quoted && c == '>') {
+                angle = Math.max(0, angle - 1);
+            } else if (!quoted && angle == 0 && (c == ',' || c == ';')) {
+                addAddress(result, current);
+                continue;
+            } else if (!quoted && angle == 0 && c == ':') {
+                // 组名
+                current.setLength(0);
+                continue;
+            }
+            current.append(c);
+        }
+        addAddress(result, current);
+        return result;
+    }
+
+    private static void addAddress(List<String> result, StringBuilder current) {
+        String address = current.toString().trim();
+        if (!address.isEmpty()) {
+            result.add(address);
+        }
+        current.setLength(0);
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            return value.substring(1, value.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+        }
+        return value;
+    }
+}
@@ -0,0 +1,250 @@
+package com.yhm.imap.protocol;
+
+import com.yhm.imap.db.ImapMessageRepository.TextField;
+import com.yhm.imap.db.MessageRecord;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * SEARCH 条件
+ *
+ * 标志、大小、日期、序号和 UID 条件在会话已加载的元数据上判断；
+ * 文本条件（FROM / TO / CC / BCC / SUBJECT / BODY / TEXT / HEADER）先由数据库各查询一次匹配的 UID，
+ * 再参与逻辑运算，整个 SEARCH 的查询次数只与文本条件个数有关。
+ * 不支持关键字和 \Recent：KEYWORD、NEW、RECENT 不匹配任何邮件。
+ */
+public final class SearchQuery {
+
+    private static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .appendPattern("d-MMM-yyyy")
+            .toFormatter(Locale.US);
+
+    /**
+     * 判断时的上下文：'*' 代表的最大序号和最大 UID
+     */
+    public record Context(int messageCount, long maxUid) {
+    }
+
+    @FunctionalInterface
+    private interface Node {
+        boolean matches(int sequence, MessageRecord message, Context context);
+    }
+
+    /**
+     * 需要查询数据库的文本条件
+     */
+    public static final class TextCondition {
+        private final TextField field;
+        private final String headerName;
+        private final String value;
+        private Set<Long> uids = Set.of();
+
+        private TextCondition(TextField field, String headerName, String value) {
+            this.field = field;
+            this.headerName = headerName;
+            this.value = value;
+        }
+
+        public TextField field() {
+            return field;
+        }
+
+        public String headerName() {
+            return headerName;
+        }
+
+        public String value() {
+            return value;
+        }
+
+        /**
+         * 设置数据库查询到的匹配 UID
+         */
+        public void resolve(Set<Long> matchedUids) {
+            this.uids = matchedUids;
+        }
+    }
+
+    private final Node root;
+    private final List<TextCondition> textConditions;
+
+    private SearchQuery(Node root, List<TextCondition> textConditions) {
+        this.root = root;
+        this.textConditions = textConditions;
+    }
+
+    public List<TextCondition> textConditions() {
+        return textConditions;
+    }
+
+    public boolean matches(int sequence, MessageRecord message, Context context) {
+        return root.matches(sequence, message, context);
+    }
+
+    // ==================== 解析 ====================
+
+    /**
+     * 解析搜索条件（CHARSET 由调用方处理），多个条件之间为 AND
+     */
+    public static SearchQuery parse(ImapParser parser) throws ImapParseException {
+        List<TextCondition> textConditions = new ArrayList<>();
+        Node root = parseAll(parser, textConditions, false);
+        return new SearchQuery(root, textConditions);
+    }
+
+    private static Node parseAll(ImapParser parser, List<TextCondition> texts, boolean nested)
+            throws ImapParseException {
+        List<Node> nodes = new ArrayList<>();
+        while (!parser.atEnd() && !(nested && parser.peek() == ')')) {
+            if (!nodes.isEmpty()) {
+                parser.space();
+            }
+            nodes.add(parseKey(parser, texts));
+        }
+        if (nodes.isEmpty()) {
+            throw new ImapParseException("缺少搜索条件");
+        }
+        if (nodes.size() == 1) {
+            return nodes.getFirst();
+        }
+        return (seq, m, ctx) -> {
+            for (Node node : nodes) {
+                if (!node.matches(seq, m, ctx)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    private static Node parseKey(ImapParser parser, List<TextCondition> texts) throws ImapParseException {
+        if (parser.peek() == '(') {
+            parser.expect('(');
+            Node group = parseAll(parser, texts, true);
+            parser.expect(')');
+            return group;
+        }
+
+        String key = parser.atom();
+        char first = key.charAt(0);
+        if (Character.isDigit(first) || first == '*') {
+            SequenceSet set = SequenceSet.parse(key);
+            return (seq, m, ctx) -> set.contains(seq, ctx.messageCount());
+        }
+
+        return switch (key.toUpperCase(Locale.ROOT)) {
+            case "ALL", "OLD", "UNKEYWORD" -> {
+                if (key.equalsIgnoreCase("UNKEYWORD")) {
+                    parser.space();
+                    parser.astring();
+                }
+                yield (seq, m, ctx) -> true;
+            }
+            case "NEW", "RECENT", "KEYWORD" -> {
+                if (key.equalsIgnoreCase("KEYWORD")) {
+                    parser.space();
+                    parser.astring();
+                }
+                yield (seq, m, ctx) -> false;
+            }
+            case "ANSWERED" -> flag(ImapFlags.ANSWERED, true);
+            case "DELETED" -> flag(ImapFlags.DELETED, true);
+            case "DRAFT" -> flag(ImapFlags.DRAFT, true);
+            case "FLAGGED" -> flag(ImapFlags.FLAGGED, true);
+            case "SEEN" -> flag(ImapFlags.SEEN, true);
+            case "UNANSWERED" -> flag(ImapFlags.ANSWERED, false);
+            case "UNDELETED" -> flag(ImapFlags.DELETED, false);
+            case "UNDRAFT" -> flag(ImapFlags.DRAFT, false);
+            case "UNFLAGGED" -> flag(ImapFlags.FLAGGED, false);
+            case "UNSEEN" -> flag(ImapFlags.SEEN, false);
+            case "LARGER" -> {
+                parser.space();
+                long size = parser.number();
+                yield (seq, m, ctx) -> m.size() > size;
+            }
+            case "SMALLER" -> {
+                parser.space();
+                long size = parser.number();
+                yield (seq, m, ctx) -> m.size() < size;
+            }
+            // 发信日期按接收日期近似
+            case "BEFORE", "SENTBEFORE" -> {
+                LocalDate date = date(parser);
+                yield (seq, m, ctx) -> receivedDate(m).isBefore(date);
+            }
+            case "ON", "SENTON" -> {
+                LocalDate date = date(parser);
+                yield (seq, m, ctx) -> receivedDate(m).isEqual(date);
+            }
+            case "SINCE", "SENTSINCE" -> {
+                LocalDate date = date(parser);
+                yield (seq, m, ctx) -> !receivedDate(m).isBefore(date);
+            }
+            case "UID" -> {
+                parser.space();
+                SequenceSet set = SequenceSet.parse(parser.atom());
+                yield (seq, m, ctx) -> set.contains(m.uid(), ctx.maxUid());
+            }
+            case "NOT" -> {
+                parser.space();
+                Node node = parseKey(parser, texts);
+                yield (seq, m, ctx) -> !node.matches(seq, m, ctx);
+            }
+            case "OR" -> {
+                parser.space();
+                Node left = parseKey(parser, texts);
+                parser.space();
+                Node right = parseKey(parser, texts);
+                yield (seq, m, ctx) -> left.matches(seq, m, ctx) || right.matches(seq, m, ctx);
+            }
+            case "FROM" -> text(parser, texts, TextField.FROM, null);
+            case "TO" -> text(parser, texts, TextField.TO, null);
+            case "SUBJECT" -> text(parser, texts, TextField.SUBJECT, null);
+            case "BODY" -> text(parser, texts, TextField.BODY, null);
+            case "TEXT" -> text(parser, texts, TextField.TEXT, null);
+            case "CC" -> text(parser, texts, TextField.HEADER, "Cc");
+            case "BCC" -> text(parser, texts, TextField.HEADER, "Bcc");
+            case "HEADER" -> {
+                parser.space();
+                String name = parser.astring();
+                yield text(parser, texts, TextField.HEADER, name);
+            }
+            default -> throw new ImapParseException("不支持的搜索条件: " + key);
+        };
+    }
+
+    private static Node flag(int bit, boolean set) {
+        return (seq, m, ctx) -> ((m.flags() & bit) != 0) == set;
+    }
+
+    private static Node text(ImapParser parser, List<TextCondition> texts, TextField field, String headerName)
+            throws ImapParseException {
+        parser.space();
+        TextCondition condition = new TextCondition(field, headerName, parser.astring());
+        texts.add(condition);
+        return (seq, m, ctx) -> condition.uids.contains(m.uid());
+    }
+
+    private static LocalDate date(ImapParser parser) throws ImapParseException {
+        parser.space();
+        String text = parser.astring();
+        try {
+            return LocalDate.parse(text, DATE_FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new ImapParseException("无效的日期: " + text);
+        }
+    }
+
+    private static LocalDate receivedDate(MessageRecord message) {
+        return LocalDate.ofInstant(message.internalDate(), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,84 @@
+package com.yhm.imap.protocol;
+
+/**
+ * 序号集合 / UID 集合，如 "1:3,5,7:*"
+ *
+ * '*' 表示最大的序号或 UID，在判断时才代入；范围两端的顺序不限（"5:2" 等同 "2:5"）
+ */
+public final class SequenceSet {
+
+    private static final long STAR = -1;
+
+    private final long[] lows;
+    private final long[] highs;
+
+    private SequenceSet(long[] lows, long[] highs) {
+        this.lows = lows;
+        this.highs = highs;
+    }
+
+    public static SequenceSet parse(String text) throws ImapParseException {
+        String[] parts = text.split(",", -1);
+        long[] lows = new long[parts.length];
+        long[] highs = new long[parts.length];
+
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            int colon = part.indexOf(':');
+            if (colon < 0) {
+                lows[i] = highs[i] = parseNumber(part);
+            } else {
+                lows[i] = parseNumber(part.substring(0, colon));
+                highs[i] = parseNumber(part.substring(colon + 1));
+            }
+        }
+        return new SequenceSet(lows, highs);
+    }
+
+    private static long parseNumber(String text) throws ImapParseException {
+        if (text.equals("*")) {
+            return STAR;
+        }
+        try {
+            long value = Long.parseLong(text);
+            if (value <= 0) {
+                throw new NumberFormatException();
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new ImapParseException("无效的序号集合: " + text);
+        }
+    }
+
+    /**
+     * 判断 value 是否在集合中
+     *
+     * @param max '*' 代表的值（最大序号或最大 UID）
+     */
+    public boolean contains(long value, long max) {
+        for (int i = 0; i < lows.length; i++) {
+            long low = lows[i] == STAR ? max : lows[i];
+            long high = highs[i] == STAR ? max : highs[i];
+            if (low > high) {
+                long tmp = low;
+                low = high;
+                high = tmp;
+            }
+            if (value >= low && value <= high) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 集合中不含 '*' 时的最大值，用于检查序号是否越界
+     */
+    public long maxExplicit() {
+        long max = 0;
+        for (int i = 0; i < lows.length; i++) {
+            max = Math.max(max, Math.max(lows[i], highs[i]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,163 @@
+package com.yhm.imap.server;
+
+import com.yhm.imap.config.ImapServerConfig;
+import com.yhm.imap.notify.MailboxEventHub;
+import com.yhm.imap.protocol.ImapCommandHandler;
+import com.yhm.imap.protocol.ImapResponse;
+import com.yhm.imap.protocol.ImapResponseWriter;
+import com.yhm.imap.protocol.ImapSession;
+import com.yhm.mail.core.auth.CredentialVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+
+/**
+ * IMAP 连接处理器
+ *
+ * 处理单个客户端连接的 IMAP 会话，设计为在虚拟线程中运行。
+ * IDLE 期间连接线程阻塞在读取 DONE 上，邮箱变化由通知回调在另一个虚拟线程中推送，
+ * 两者通过会话锁串行写出响应。
+ */
+public class ImapConnectionHandler implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapConnectionHandler.class);
+
+    private final Socket socket;
+    private final ImapServerConfig config;
+    private final ImapCommandHandler commandHandler;
+    private final ImapSession session;
+
+    public ImapConnectionHandler(Socket socket, ImapServerConfig config,
+                                 MailboxEventHub eventHub, CredentialVerifier credentialVerifier) {
+        this.socket = socket;
+        this.config = config;
+        this.commandHandler = new ImapCommandHandler(config, eventHub, credentialVerifier);
+        this.session = new ImapSession(socket.getRemoteSocketAddress().toString());
+    }
+
+    @Override
+    public void run() {
+        Thread currentThread = Thread.currentThread();
+        log.info("新 IMAP 连接: {} (虚拟线程: {}, 线程名: {})",
+                session.getRemoteAddress(),
+                currentThread.isVirtual(),
+                currentThread.getName());
+
+        ImapResponseWriter writer = null;
+        try {
+            socket.setSoTimeout(config.getReadTimeout());
+
+            try (BufferedInputStream input = new BufferedInputStream(socket.getInputStream());
+                 OutputStream output = socket.getOutputStream()) {
+
+                writer = new ImapResponseWriter(output);
+                ImapResponseWriter out = writer;
+                ImapLineReader reader = new ImapLineReader(input, line -> {
+                    out.writeLine(line);
+                    out.flush();
+                });
+
+                // 发送欢迎消息
+                writer.writeLine(ImapResponse.greeting(config.getDomain()));
+                writer.flush();
+
+                // 主循环：读取并处理命令
+                // 流水线发送的命令响应累积在输出缓冲中，读完已到达的命令后才 flush
+                String line;
+                while ((line = reader.readCommand()) != null) {
+                    log.debug("收到: {}", maskPassword(line));
+
+                    commandHandler.handleCommand(line, session, writer);
+
+                    // IDLE：先发送继续请求，等待客户端的 DONE
+                    if (session.isIdling()) {
+                        flush(writer);
+                        String done = reader.readLine();
+                        if (done == null) {
+                            break;
+                        }
+                        commandHandler.finishIdle(done, session, writer);
+                    }
+
+                    // 检查是否应该断开连接
+                    if (session.isLogout()) {
+                        flush(writer);
+                        break;
+                    }
+
+                    // 检查认证失败次数
+                    if (session.getAuthFailedAttempts() >= config.getAuthFailedMaxAttempts()) {
+                        writer.writeLine(ImapResponse.bye("Too many authentication failures"));
+                        flush(writer);
+                        log.warn("认证失败次数过多，断开连接: {}", session.getRemoteAddress());
+                        break;
+                    }
+
+                    // 客户端没有更多已到达的命令时才发送
+                    if (!reader.hasBufferedInput()) {
+                        flush(writer);
+                    }
+                }
+            }
+
+        } catch (SocketTimeoutException e) {
+            log.warn("IMAP 连接超时: {}", session.getRemoteAddress());
+            if (writer != null) {
+                try {
+                    writer.writeLine(ImapResponse.bye("Autologout; idle for too long"));
+                    flush(writer);
+                } catch (IOException ignored) {
+                    // 忽略关闭时的错误
+                }
+            }
+        } catch (IOException e) {
+            log.error("IMAP 连接错误: {} - {}", session.getRemoteAddress(), e.getMessage());
+        } finally {
+            commandHandler.close(session);
+            closeSocket();
+            log.info("IMAP 连接关闭: {}", session.getRemoteAddress());
+        }
+    }
+
+    /**
+     * 持有会话锁 flush，避免与 IDLE 推送交错
+     */
+    private void flush(ImapResponseWriter writer) throws IOException {
+        session.lock().lock();
+        try {
+            writer.flush();
+        } finally {
+            session.lock().unlock();
+        }
+    }
+
+    /**
+     * 掩码密码（用于日志）
+     */
+    private String maskPassword(String line) {
+        int space = line.indexOf(' ');
+        if (space > 0 && line.substring(space + 1).toUpperCase(Locale.ROOT).startsWith("LOGIN ")) {
+            return line.substring(0, space) + " LOGIN ********";
+        }
+        return line;
+    }
+
+    /**
+     * 关闭 Socket
+     */
+    private void closeSocket() {
+        try {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            log.debug("关闭 socket 时出错: {}", e.getMessage());
+        }
+    }
+}
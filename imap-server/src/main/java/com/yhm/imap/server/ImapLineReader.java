@@ -0,0 +1,142 @@
+package com.yhm.imap.server;
+
+import com.yhm.imap.protocol.ImapResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * IMAP 命令行读取器
+ *
+ * 按字节读取 CRLF 结尾的命令行。行尾的 literal 声明（{n} 或 LITERAL+ 的 {n+}）
+ * 会继续读取 n 字节内容和后续的行，literal 内容转换为 quoted string 拼回命令行，
+ * 命令解析器因此只需处理单行文本。同步 literal 在读取前发送继续请求。
+ */
+public class ImapLineReader {
+
+    // 单行和单个 literal 的长度上限，防止内存耗尽
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_LITERAL_LENGTH = 64 * 1024;
+
+    /**
+     * 需要发送继续请求时的回调
+     */
+    @FunctionalInterface
+    public interface ContinuationSender {
+        void send(String line) throws IOException;
+    }
+
+    private final InputStream in;
+    private final ContinuationSender continuationSender;
+
+    public ImapLineReader(InputStream in, ContinuationSender continuationSender) {
+        this.in = in;
+        this.continuationSender = continuationSender;
+    }
+
+    /**
+     * 读取一条完整命令（literal 已展开），连接关闭时返回 null
+     */
+    public String readCommand() throws IOException {
+        String line = readLine();
+        if (line == null) {
+            return null;
+        }
+
+        StringBuilder command = new StringBuilder();
+        while (true) {
+            int length = literalLength(line);
+            if (length < 0) {
+                return command.append(line).toString();
+            }
+
+            command.append(line, 0, line.lastIndexOf('{'));
+            if (!line.endsWith("+}")) {
+                continuationSender.send(ImapResponse.continuation("Ready for literal data"));
+            }
+
+            byte[] literal = in.readNBytes(length);
+            if (literal.length < length) {
+                return null;
+            }
+            appendQuoted(command, new String(literal, StandardCharsets.UTF_8));
+
+            line = readLine();
+            if (line == null) {
+                return null;
+            }
+            if (command.length() + line.length() > MAX_LINE_LENGTH) {
+                throw new IOException("命令过长");
+            }
+        }
+    }
+
+    /**
+     * 读取一行（不含 CRLF），连接关闭时返回 null
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                byte[] bytes = buffer.toByteArray();
+                int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+                return new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            if (buffer.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("命令行过长");
+            }
+            buffer.write(b);
+        }
+        return null;
+    }
+
+    /**
+     * 输入缓冲中是否还有已到达的数据（流水线命令）
+     */
+    public boolean hasBufferedInput() throws IOException {
+        return in.available() > 0;
+    }
+
+    /**
+     * 追加 quoted string（只转义引号和反斜杠，内容可以含任意字符）
+     */
+    private static void appendQuoted(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * 解析行尾的 literal 声明 {n} / {n+}，没有时返回 -1
+     */
+    private static int literalLength(String line) throws IOException {
+        if (!line.endsWith("}")) {
+            return -1;
+        }
+        int open = line.lastIndexOf('{');
+        if (open < 0) {
+            return -1;
+        }
+        String text = line.substring(open + 1, line.length() - 1);
+        if (text.endsWith("+")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        if (text.isEmpty() || !text.chars().allMatch(Character::isDigit) || text.length() > 9) {
+            return -1;
+        }
+        int length = Integer.parseInt(text);
+        if (length > MAX_LITERAL_LENGTH) {
+            throw new IOException("literal 过长: " + length);
+        }
+        return length;
+    }
+}
@@ -0,0 +1,229 @@
+package com.yhm.imap.server;
+
+import com.yhm.imap.config.ImapServerConfig;
+import com.yhm.imap.db.DatabaseConfig;
+import com.yhm.imap.notify.MailboxEventHub;
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.mail.core.data.SchemaInitializer;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.mail.core.metrics.MetricsReporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IMAP 服务器
+ *
+ * 使用 Java 25 虚拟线程处理并发连接
+ *
+ * 主要特性：
+ * - 使用虚拟线程（Virtual Threads）处理每个连接，IDLE 连接只占用一个阻塞的虚拟线程
+ * - 整个节点共用一条 LISTEN 连接接收新邮件通知，IDLE 推送不依赖定时轮询
+ * - 优雅关闭
+ * - 自动超时断开
+ */
+public class ImapServer {
+
+    private static final Logger log = LoggerFactory.getLogger(ImapServer.class);
+
+    private final ImapServerConfig config;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicInteger activeConnections = new AtomicInteger(0);
+
+    private ServerSocket serverSocket;
+    private ExecutorService virtualThreadExecutor;
+    private MailboxEventHub eventHub;
+    private CredentialVerifier credentialVerifier;
+    private MetricsReporter metricsReporter;
+
+    public ImapServer(ImapServerConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 启动 IMAP 服务器
+     */
+    public void start() throws IOException {
+        if (running.get()) {
+            log.warn("服务器已在运行中");
+            return;
+        }
+
+        log.info("正在启动 IMAP 服务器...");
+        log.info("配置: {}", config);
+
+        // 初始化数据库
+        SchemaInitializer.initialize(DatabaseConfig.getRouter());
+
+        // 邮箱变更通知（IDLE 推送）
+        eventHub = new MailboxEventHub();
+        eventHub.start();
+
+        // 密码校验（BCrypt 线程池 + 成功结果缓存）
+        credentialVerifier = new CredentialVerifier(
+                config.getAuthCacheTtl(),
+                config.getAuthCacheMaxEntries(),
+                config.getAuthHashThreads(),
+                config.getAuthHashQueueCapacity());
+
+        // 定期输出运行指标
+        MetricsRegistry.global().gauge("imap.connections.active", activeConnections::get);
+        metricsReporter = new MetricsReporter(MetricsRegistry.global(), config.getMetricsReportInterval());
+        metricsReporter.start();
+
+        // 创建虚拟线程执行器
+        ThreadFactory virtualThreadFactory = Thread.ofVirtual()
+                .name("imap-handler-", 0)
+                .factory();
+
+        virtualThreadExecutor = Executors.newThreadPerTaskExecutor(virtualThreadFactory);
+
+        // 创建服务器 Socket
+        serverSocket = new ServerSocket(config.getPort());
+        running.set(true);
+
+        log.info("IMAP 服务器已启动，监听端口: {}", config.getPort());
+
+        // 主循环：接受连接
+        acceptConnections();
+    }
+
+    /**
+     * 接受客户端连接
+     */
+    private void acceptConnections() {
+        while (running.get()) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+
+                // 检查连接数限制
+                if (activeConnections.get() >= config.getMaxConnections()) {
+                    log.warn("连接数已达上限 ({}), 拒绝新连接: {}",
+                            config.getMaxConnections(),
+                            clientSocket.getRemoteSocketAddress());
+                    sendRejectResponse(clientSocket);
+                    clientSocket.close();
+                    continue;
+                }
+
+                // 设置连接超时
+                clientSocket.setSoTimeout(config.getConnectionTimeout());
+
+                // 增加活跃连接计数
+                activeConnections.incrementAndGet();
+
+                // 使用虚拟线程处理连接
+                virtualThreadExecutor.submit(() -> {
+                    try {
+                        new ImapConnectionHandler(clientSocket, config, eventHub, credentialVerifier).run();
+                    } finally {
+                        activeConnections.decrementAndGet();
+                    }
+                });
+
+            } catch (SocketException e) {
+                if (running.get()) {
+                    log.error("接受连接时出错: {}", e.getMessage());
+                }
+                // 如果服务器正在关闭，这是预期的异常
+            } catch (IOException e) {
+                if (running.get()) {
+                    log.error("接受连接时出错: {}", e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送拒绝响应
+     */
+    private void sendRejectResponse(Socket socket) {
+        try {
+            socket.getOutputStream().write(
+                    "* BYE server too busy, try again later\r\n".getBytes());
+            socket.getOutputStream().flush();
+        } catch (IOException e) {
+            log.debug("发送拒绝响应失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 停止 IMAP 服务器
+     */
+    public void stop() {
+        if (!running.get()) {
+            return;
+        }
+
+        log.info("正在停止 IMAP 服务器...");
+        running.set(false);
+
+        // 关闭服务器 Socket
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            log.error("关闭服务器 Socket 时出错: {}", e.getMessage());
+        }
+
+        // 关闭虚拟线程执行器
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+            try {
+                if (!virtualThreadExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    virtualThreadExecutor.shutdownNow();
+                    log.warn("强制关闭虚拟线程执行器");
+                }
+            } catch (InterruptedException e) {
+                virtualThreadExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (eventHub != null) {
+            eventHub.stop();
+        }
+
+        if (credentialVerifier != null) {
+            credentialVerifier.close();
+        }
+
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+        }
+
+        // 关闭数据库连接池
+        DatabaseConfig.shutdown();
+
+        log.info("IMAP 服务器已停止");
+    }
+
+    /**
+     * 检查服务器是否正在运行
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 获取当前活跃连接数
+     */
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * 获取服务器配置
+     */
+    public ImapServerConfig getConfig() {
+        return config;
+    }
+}
@@ -0,0 +1,251 @@
+-- ===========================================
+-- IMAP 邮件服务器数据库架构
+-- PostgreSQL 兼容
+--
+-- 表结构由 init.sql 创建，这里只补充 IMAP 需要的列、索引和触发器，
+-- 可以在已有数据库上重复执行
+-- ===========================================
+
+-- IMAP UID 与 \Seen 以外的标志位（1=\Answered 2=\Flagged 4=\Deleted 8=\Draft）
+ALTER TABLE emails ADD COLUMN IF NOT EXISTS uid BIGINT;
+ALTER TABLE emails ADD COLUMN IF NOT EXISTS imap_flags SMALLINT NOT NULL DEFAULT 0;
+-- 增量同步修改序号（STORE / EXPUNGE 会改变它）
+ALTER TABLE emails ADD COLUMN IF NOT EXISTS modseq BIGINT;
+
+-- ==================== IMAP UID 分配 ====================
+-- 同一邮箱的 UID 必须按提交顺序严格递增：分配前先取该邮箱的事务级 advisory lock，
+-- 同一邮箱的并发投递依次提交，先提交的邮件 UID 一定更小；不同邮箱之间互不等待
+CREATE SEQUENCE IF NOT EXISTS emails_uid_seq;
+
+CREATE OR REPLACE FUNCTION assign_email_uid()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.uid IS NULL THEN
+        -- 第一个键为 'IMAP'，与其他用途的 advisory lock 区分
+        PERFORM pg_advisory_xact_lock(1229799760, hashtext(NEW.owner));
+        NEW.uid := nextval('emails_uid_seq');
+    END IF;
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS assign_emails_uid ON emails;
+CREATE TRIGGER assign_emails_uid
+    BEFORE INSERT ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION assign_email_uid();
+
+-- 为触发器创建之前投递的邮件补充 UID（按接收时间）
+UPDATE emails e
+SET uid = numbered.uid
+FROM (
+    SELECT id, nextval('emails_uid_seq') AS uid
+    FROM (SELECT id FROM emails WHERE uid IS NULL ORDER BY received_at, id) ordered
+) numbered
+WHERE e.id = numbered.id;
+
+-- IMAP 按 UID 列出和定位邮件的索引 idx_emails_owner_uid 在大表上建索引耗时较长，不在启动时创建，
+-- 见 migrations/add_email_uid_index.sql
+
+-- ==================== 邮箱修改序号 (modseq) ====================
+-- 投递、标志变化和删除时从全局序列取新的 modseq，客户端按 modseq 游标增量同步。
+-- 取号前先取与 UID 分配相同的邮箱 advisory lock，同一邮箱的 modseq 按提交顺序递增，
+-- 游标之后不会再出现更小的 modseq
+CREATE SEQUENCE IF NOT EXISTS emails_modseq_seq;
+
+CREATE OR REPLACE FUNCTION bump_email_modseq()
+RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(1229799760, hashtext(NEW.owner));
+    NEW.modseq := nextval('emails_modseq_seq');
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS bump_emails_modseq_insert ON emails;
+CREATE TRIGGER bump_emails_modseq_insert
+    BEFORE INSERT ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION bump_email_modseq();
+
+DROP TRIGGER IF EXISTS bump_emails_modseq_update ON emails;
+CREATE TRIGGER bump_emails_modseq_update
+    BEFORE UPDATE OF is_read, is_deleted, imap_flags ON emails
+    FOR EACH ROW
+    WHEN (OLD.is_read IS DISTINCT FROM NEW.is_read
+          OR OLD.is_deleted IS DISTINCT FROM NEW.is_deleted
+          OR OLD.imap_flags IS DISTINCT FROM NEW.imap_flags)
+    EXECUTE FUNCTION bump_email_modseq();
+
+-- 物理删除的邮件留下墓碑，增量同步据此通知客户端删除
+CREATE TABLE IF NOT EXISTS email_tombstones (
+    owner VARCHAR(320) NOT NULL,
+    modseq BIGINT NOT NULL,
+    email_id UUID NOT NULL,
+    deleted_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY (owner, modseq)
+);
+
+-- 超过保留期（smtp.tombstone.retentionDays）的墓碑由 SMTP 服务器的后台清理按 deleted_at 删除
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_email_tombstones_deleted_at ON email_tombstones(deleted_at);
+
+-- 每个邮箱已清理墓碑的最大 modseq：游标小于该值的客户端可能错过了删除，需要全量同步
+CREATE TABLE IF NOT EXISTS email_tombstone_floors (
+    owner VARCHAR(320) PRIMARY KEY,
+    modseq BIGINT NOT NULL
+);
+
+CREATE OR REPLACE FUNCTION record_email_tombstone()
+RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(1229799760, hashtext(OLD.owner));
+    INSERT INTO email_tombstones (owner, modseq, email_id)
+    VALUES (OLD.owner, nextval('emails_modseq_seq'), OLD.id);
+    RETURN OLD;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS record_emails_tombstone ON emails;
+CREATE TRIGGER record_emails_tombstone
+    AFTER DELETE ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION record_email_tombstone();
+
+-- 引入 modseq 之前的邮件没有 modseq，用 migrations/backfill_email_modseq.sql 分批补齐
+-- （不在启动时执行：每次启动都要扫描整个 emails 表）
+-- 增量同步按 modseq 游标读取变化的索引 idx_emails_owner_modseq 同样不在启动时创建，
+-- 补齐之后执行 migrations/add_email_modseq_index.sql
+
+-- ==================== 邮箱变更通知 ====================
+-- 投递和删除邮件时 NOTIFY mailbox_changed（内容为邮箱所有者），IMAP IDLE 据此推送
+CREATE OR REPLACE FUNCTION notify_mailbox_changed()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('mailbox_changed', OLD.owner);
+        RETURN OLD;
+    END IF;
+    PERFORM pg_notify('mailbox_changed', NEW.owner);
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS notify_emails_mailbox_changed ON emails;
+CREATE TRIGGER notify_emails_mailbox_changed
+    AFTER INSERT OR DELETE OR UPDATE OF is_deleted ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION notify_mailbox_changed();
+
+-- ==================== 邮箱汇总 ====================
+-- 每个邮箱一行：未删除邮件数、其中未读数、总字节数和最大 modseq。
+-- 投递、标志变化和删除由触发器在同一事务内增量更新，
+-- POP3/IMAP 状态、SMTP 未读数、仪表板和客户端 API 直接读取，不再对 emails 做聚合
+CREATE TABLE IF NOT EXISTS mailbox_summary (
+    owner VARCHAR(320) PRIMARY KEY,
+    total_count BIGINT NOT NULL DEFAULT 0,
+    unread_count BIGINT NOT NULL DEFAULT 0,
+    total_bytes BIGINT NOT NULL DEFAULT 0,
+    max_modseq BIGINT NOT NULL DEFAULT 0,
+
+    CONSTRAINT fk_mailbox_summary_owner FOREIGN KEY (owner) REFERENCES users(email) ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION update_mailbox_summary()
+RETURNS TRIGGER AS $$
+DECLARE
+    target VARCHAR(320);
+    delta_total BIGINT := 0;
+    delta_unread BIGINT := 0;
+    delta_bytes BIGINT := 0;
+    new_modseq BIGINT;
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') AND NOT OLD.is_deleted THEN
+        delta_total := delta_total - 1;
+        delta_unread := delta_unread - CASE WHEN OLD.is_read THEN 0 ELSE 1 END;
+        delta_bytes := delta_bytes - OLD.size;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') AND NOT NEW.is_deleted THEN
+        delta_total := delta_total + 1;
+        delta_unread := delta_unread + CASE WHEN NEW.is_read THEN 0 ELSE 1 END;
+        delta_bytes := delta_bytes + NEW.size;
+    END IF;
+
+    IF TG_OP = 'DELETE' THEN
+        target := OLD.owner;
+        -- 同一事件的 AFTER 触发器按名称顺序执行，record_emails_tombstone 已写入墓碑
+        SELECT MAX(t.modseq) INTO new_modseq FROM email_tombstones t WHERE t.owner = OLD.owner;
+    ELSE
+        target := NEW.owner;
+        new_modseq := NEW.modseq;
+    END IF;
+
+    INSERT INTO mailbox_summary AS s (owner, total_count, unread_count, total_bytes, max_modseq)
+    VALUES (target, delta_total, delta_unread, delta_bytes, COALESCE(new_modseq, 0))
+    ON CONFLICT (owner) DO UPDATE SET
+        total_count = s.total_count + EXCLUDED.total_count,
+        unread_count = s.unread_count + EXCLUDED.unread_count,
+        total_bytes = s.total_bytes + EXCLUDED.total_bytes,
+        max_modseq = GREATEST(s.max_modseq, EXCLUDED.max_modseq);
+    -- users.used_bytes 随 total_bytes 同步增减（只更新本分片上的 users 行）
+    IF delta_bytes <> 0 THEN
+        UPDATE users SET used_bytes = used_bytes + delta_bytes WHERE email = target;
+    END IF;
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+-- 按 emails 和墓碑重新计算全部汇总行，并把 users.used_bytes 对齐到 total_bytes。
+-- 先锁住 emails 的写入直到事务结束，计算期间不会有触发器更新汇总
+CREATE OR REPLACE FUNCTION refresh_mailbox_summary()
+RETURNS VOID AS $$
+BEGIN
+    LOCK TABLE emails IN SHARE MODE;
+    DELETE FROM mailbox_summary;
+    INSERT INTO mailbox_summary (owner, total_count, unread_count, total_bytes, max_modseq)
+    SELECT c.owner, SUM(c.total)::bigint, SUM(c.unread)::bigint, SUM(c.bytes)::bigint, MAX(c.max_modseq)
+    FROM (
+        SELECT owner,
+               COUNT(*) FILTER (WHERE NOT is_deleted) AS total,
+               COUNT(*) FILTER (WHERE NOT is_deleted AND NOT is_read) AS unread,
+               COALESCE(SUM(size) FILTER (WHERE NOT is_deleted), 0) AS bytes,
+               COALESCE(MAX(modseq), 0) AS max_modseq
+        FROM emails
+        GROUP BY owner
+        UNION ALL
+        SELECT owner, 0, 0, 0, MAX(modseq)
+        FROM email_tombstones
+        GROUP BY owner
+    ) c
+    JOIN users u ON u.email = c.owner
+    GROUP BY c.owner;
+    UPDATE users u SET used_bytes = COALESCE(s.total_bytes, 0)
+    FROM users x LEFT JOIN mailbox_summary s ON s.owner = x.email
+    WHERE u.id = x.id AND u.used_bytes <> COALESCE(s.total_bytes, 0);
+END;
+$$ language 'plpgsql';
+
+-- 首次安装时在同一事务内创建触发器并回填，中间的写入不会漏算
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_trigger
+                   WHERE tgrelid = 'emails'::regclass AND tgname = 'update_emails_mailbox_summary') THEN
+        CREATE TRIGGER update_emails_mailbox_summary
+            AFTER INSERT OR DELETE OR UPDATE OF is_read, is_deleted, size ON emails
+            FOR EACH ROW
+            EXECUTE FUNCTION update_mailbox_summary();
+        PERFORM refresh_mailbox_summary();
+    END IF;
+END;
+$$;
+
+-- ==================== 邮箱分片 ====================
+-- 邮件数据按所有者分布到多个 PostgreSQL 实例时，只在目录库（0 号分片）使用。
+-- 默认按地址的一致性哈希选择分片，这里的行为单个邮箱指定分片，优先于哈希结果；
+-- state = 'moving' 表示正在迁移，迁移期间仍从 shard 读取，写入返回临时失败
+CREATE TABLE IF NOT EXISTS mailbox_shards (
+    owner VARCHAR(320) PRIMARY KEY,
+    shard INT NOT NULL CHECK (shard >= 0),
+    state VARCHAR(16) NOT NULL DEFAULT 'active' CHECK (state IN ('active', 'moving')),
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,111 @@
+package com.yhm.imap;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 简单的 IMAP 客户端测试
+ *
+ * 用于测试 IMAP 服务器的基本功能，IDLE 阶段等待 30 秒，
+ * 期间向 test@localhost 投递邮件可以看到服务器推送的 EXISTS
+ */
+public class ImapClientTest {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 1430;
+
+    public static void main(String[] args) {
+        System.out.println("========== IMAP 客户端测试 ==========\n");
+
+        try (Socket socket = new Socket(HOST, PORT);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+
+            // 设置超时
+            socket.setSoTimeout(60000);
+
+            // 读取欢迎消息
+            System.out.println("S: " + reader.readLine());
+
+            testCommand(reader, writer, "a1", "CAPABILITY");
+            testCommand(reader, writer, "a2", "LOGIN test@localhost password123");
+            testCommand(reader, writer, "a3", "LIST \"\" *");
+            testCommand(reader, writer, "a4", "SELECT INBOX");
+            testCommand(reader, writer, "a5", "FETCH 1:* (UID FLAGS INTERNALDATE RFC822.SIZE)");
+            testCommand(reader, writer, "a6", "FETCH 1 (BODY.PEEK[HEADER.FIELDS (FROM SUBJECT)] BODY.PEEK[]<0.64>)");
+            testCommand(reader, writer, "a7", "UID SEARCH UNSEEN");
+            testCommand(reader, writer, "a8", "STORE 1 +FLAGS (\\Flagged)");
+
+            // 测试 IDLE
+            testIdle(reader, writer, "a9", 30000);
+
+            testCommand(reader, writer, "a10", "LOGOUT");
+
+            System.out.println("\n========== 测试完成 ==========");
+
+        } catch (IOException e) {
+            System.err.println("连接错误: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 发送命令并读取响应，直到收到带标签的结果
+     */
+    private static void testCommand(BufferedReader reader, PrintWriter writer, String tag, String command)
+            throws IOException {
+
+        System.out.println("\nC: " + tag + " " + command);
+        writer.print(tag + " " + command + "\r\n");
+        writer.flush();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            System.out.println("S: " + line);
+            if (line.startsWith(tag + " ")) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 进入 IDLE，打印等待期间服务器推送的响应，然后发送 DONE
+     */
+    private static void testIdle(BufferedReader reader, PrintWriter writer, String tag, int waitMillis)
+            throws IOException {
+
+        System.out.println("\nC: " + tag + " IDLE");
+        writer.print(tag + " IDLE\r\n");
+        writer.flush();
+        System.out.println("S: " + reader.readLine());
+
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (reader.ready()) {
+                System.out.println("S: " + reader.readLine());
+            } else {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+
+        System.out.println("C: DONE");
+        writer.print("DONE\r\n");
+        writer.flush();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            System.out.println("S: " + line);
+            if (line.startsWith(tag + " ")) {
+                break;
+            }
+        }
+    }
+}
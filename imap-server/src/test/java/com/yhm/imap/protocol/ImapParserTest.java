@@ -0,0 +1,112 @@
+package com.yhm.imap.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImapParserTest {
+
+    @Test
+    void readsAtomsAndQuotedStrings() throws ImapParseException {
+        ImapParser parser = new ImapParser("user@localhost \"pass word\"");
+
+        assertEquals("user@localhost", parser.astring());
+        parser.space();
+        assertEquals("pass word", parser.astring());
+        parser.end();
+    }
+
+    @Test
+    void quotedStringUnescapesQuoteAndBackslash() throws ImapParseException {
+        ImapParser parser = new ImapParser("\"a\\\"b\\\\c\"");
+
+        assertEquals("a\"b\\c", parser.quoted());
+        assertTrue(parser.atEnd());
+    }
+
+    @Test
+    void quotedStringWithoutClosingQuoteIsRejected() {
+        ImapParser parser = new ImapParser("\"unterminated");
+
+        assertThrows(ImapParseException.class, parser::quoted);
+    }
+
+    @Test
+    void atomAcceptsSequenceSetsAndFlags() throws ImapParseException {
+        ImapParser parser = new ImapParser("1:* \\Seen");
+
+        assertEquals("1:*", parser.atom());
+        parser.space();
+        assertEquals("\\Seen", parser.atom());
+        parser.end();
+    }
+
+    @Test
+    void atomStopsAtParenthesis() throws ImapParseException {
+        ImapParser parser = new ImapParser("INBOX)");
+
+        assertEquals("INBOX", parser.atom());
+        assertEquals(')', parser.peek());
+    }
+
+    @Test
+    void emptyAtomIsRejected() {
+        assertThrows(ImapParseException.class, () -> new ImapParser(" x").atom());
+        assertThrows(ImapParseException.class, () -> new ImapParser("").atom());
+    }
+
+    @Test
+    void readsParenthesizedList() throws ImapParseException {
+        ImapParser parser = new ImapParser("(\\Seen \\Flagged \"x y\")");
+
+        assertEquals(List.of("\\Seen", "\\Flagged", "x y"), parser.list());
+        parser.end();
+    }
+
+    @Test
+    void readsEmptyList() throws ImapParseException {
+        assertEquals(List.of(), new ImapParser("()").list());
+    }
+
+    @Test
+    void tryKeywordRequiresFollowingSpace() {
+        ImapParser parser = new ImapParser("charset UTF-8");
+        assertTrue(parser.tryKeyword("CHARSET"));
+        assertEquals('U', parser.peek());
+
+        assertFalse(new ImapParser("CHARSET").tryKeyword("CHARSET"));
+        assertFalse(new ImapParser("CHARSETS x").tryKeyword("CHARSET"));
+    }
+
+    @Test
+    void numberRejectsNegativeAndNonNumeric() throws ImapParseException {
+        assertEquals(42, new ImapParser("42").number());
+        assertThrows(ImapParseException.class, () -> new ImapParser("-1").number());
+        assertThrows(ImapParseException.class, () -> new ImapParser("abc").number());
+    }
+
+    @Test
+    void readsFetchItemNameAndSection() throws ImapParseException {
+        ImapParser parser = new ImapParser("BODY.PEEK[HEADER.FIELDS (FROM)]<0.64>");
+
+        assertEquals("BODY.PEEK", parser.name());
+        parser.expect('[');
+        assertEquals("HEADER.FIELDS (FROM)", parser.until(']'));
+        assertEquals('<', parser.peek());
+    }
+
+    @Test
+    void endRejectsTrailingArguments() {
+        ImapParser parser = new ImapParser("a b");
+
+        assertThrows(ImapParseException.class, () -> {
+            parser.atom();
+            parser.end();
+        });
+    }
+}
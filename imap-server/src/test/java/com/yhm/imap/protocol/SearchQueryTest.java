@@ -0,0 +1,153 @@
+package com.yhm.imap.protocol;
+
+import com.yhm.imap.db.ImapMessageRepository.TextField;
+import com.yhm.imap.db.MessageRecord;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchQueryTest {
+
+    private static final SearchQuery.Context CONTEXT = new SearchQuery.Context(3, 30);
+
+    private static final MessageRecord FIRST =
+            message(10, 100, "2026-01-05T10:00:00Z", ImapFlags.SEEN);
+    private static final MessageRecord SECOND =
+            message(20, 5000, "2026-02-10T10:00:00Z", ImapFlags.FLAGGED);
+    private static final MessageRecord THIRD =
+            message(30, 20000, "2026-03-15T10:00:00Z", ImapFlags.SEEN | ImapFlags.DELETED);
+
+    private static MessageRecord message(long uid, long size, String date, int flags) {
+        return new MessageRecord(uid, UUID.randomUUID(), size, Instant.parse(date), flags);
+    }
+
+    private static SearchQuery parse(String criteria) throws ImapParseException {
+        ImapParser parser = new ImapParser(criteria);
+        SearchQuery query = SearchQuery.parse(parser);
+        parser.end();
+        return query;
+    }
+
+    /**
+     * 依次判断三封邮件，返回匹配的序号
+     */
+    private static List<Integer> matching(SearchQuery query) {
+        List<MessageRecord> messages = List.of(FIRST, SECOND, THIRD);
+        return IntStream.rangeClosed(1, messages.size())
+                .filter(seq -> query.matches(seq, messages.get(seq - 1), CONTEXT))
+                .boxed()
+                .toList();
+    }
+
+    @Test
+    void all() throws ImapParseException {
+        assertEquals(List.of(1, 2, 3), matching(parse("ALL")));
+    }
+
+    @Test
+    void flagKeys() throws ImapParseException {
+        assertEquals(List.of(1, 3), matching(parse("SEEN")));
+        assertEquals(List.of(2), matching(parse("unseen")));
+        assertEquals(List.of(2), matching(parse("FLAGGED")));
+        assertEquals(List.of(1, 2), matching(parse("UNDELETED")));
+    }
+
+    @Test
+    void keysAreCombinedWithAnd() throws ImapParseException {
+        assertEquals(List.of(1), matching(parse("SEEN UNDELETED")));
+    }
+
+    @Test
+    void orAndNot() throws ImapParseException {
+        assertEquals(List.of(2, 3), matching(parse("OR FLAGGED DELETED")));
+        assertEquals(List.of(1, 2), matching(parse("NOT DELETED")));
+        assertEquals(List.of(2), matching(parse("NOT OR SEEN DELETED")));
+    }
+
+    @Test
+    void parenthesizedGroup() throws ImapParseException {
+        assertEquals(List.of(1, 2), matching(parse("OR (SEEN UNDELETED) FLAGGED")));
+    }
+
+    @Test
+    void sizeKeys() throws ImapParseException {
+        assertEquals(List.of(2, 3), matching(parse("LARGER 100")));
+        assertEquals(List.of(1), matching(parse("SMALLER 5000")));
+    }
+
+    @Test
+    void dateKeys() throws ImapParseException {
+        assertEquals(List.of(1), matching(parse("BEFORE 1-Feb-2026")));
+        assertEquals(List.of(2), matching(parse("ON 10-feb-2026")));
+        assertEquals(List.of(2, 3), matching(parse("SINCE \"10-Feb-2026\"")));
+    }
+
+    @Test
+    void sequenceSetKeys() throws ImapParseException {
+        assertEquals(List.of(2, 3), matching(parse("2:*")));
+        assertEquals(List.of(3), matching(parse("*")));
+        assertEquals(List.of(1, 2, 3), matching(parse("1:*")));
+    }
+
+    @Test
+    void uidKey() throws ImapParseException {
+        assertEquals(List.of(2, 3), matching(parse("UID 15:*")));
+        assertEquals(List.of(1), matching(parse("UID 10")));
+    }
+
+    @Test
+    void unsupportedKeywordsMatchNothing() throws ImapParseException {
+        assertEquals(List.of(), matching(parse("KEYWORD $Junk")));
+        assertEquals(List.of(), matching(parse("NEW")));
+        assertEquals(List.of(1, 2, 3), matching(parse("UNKEYWORD $Junk")));
+    }
+
+    @Test
+    void textKeysAreCollectedForTheDatabase() throws ImapParseException {
+        SearchQuery query = parse("FROM alice SUBJECT \"hello world\" HEADER X-Tag abc CC bob");
+
+        List<SearchQuery.TextCondition> texts = query.textConditions();
+        assertEquals(4, texts.size());
+        assertEquals(TextField.FROM, texts.get(0).field());
+        assertEquals("alice", texts.get(0).value());
+        assertNull(texts.get(0).headerName());
+        assertEquals(TextField.SUBJECT, texts.get(1).field());
+        assertEquals("hello world", texts.get(1).value());
+        assertEquals(TextField.HEADER, texts.get(2).field());
+        assertEquals("X-Tag", texts.get(2).headerName());
+        assertEquals("abc", texts.get(2).value());
+        assertEquals("Cc", texts.get(3).headerName());
+    }
+
+    @Test
+    void textKeysMatchResolvedUids() throws ImapParseException {
+        SearchQuery query = parse("OR BODY invoice TEXT receipt");
+        query.textConditions().get(0).resolve(Set.of(10L));
+        query.textConditions().get(1).resolve(Set.of(30L));
+
+        assertEquals(List.of(1, 3), matching(query));
+    }
+
+    @Test
+    void unresolvedTextKeyMatchesNothing() throws ImapParseException {
+        assertTrue(matching(parse("BODY invoice")).isEmpty());
+    }
+
+    @Test
+    void invalidCriteriaAreRejected() {
+        assertThrows(ImapParseException.class, () -> parse("BOGUS"));
+        assertThrows(ImapParseException.class, () -> parse("SINCE 2026-02-10"));
+        assertThrows(ImapParseException.class, () -> parse("LARGER"));
+        assertThrows(ImapParseException.class, () -> parse("(SEEN"));
+        assertThrows(ImapParseException.class, () -> parse("OR SEEN"));
+    }
+}
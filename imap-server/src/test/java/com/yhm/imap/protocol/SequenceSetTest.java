@@ -0,0 +1,91 @@
+package com.yhm.imap.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequenceSetTest {
+
+    @Test
+    void singleNumber() throws ImapParseException {
+        SequenceSet set = SequenceSet.parse("3");
+
+        assertTrue(set.contains(3, 10));
+        assertFalse(set.contains(2, 10));
+        assertFalse(set.contains(4, 10));
+    }
+
+    @Test
+    void closedRange() throws ImapParseException {
+        SequenceSet set = SequenceSet.parse("2:4");
+
+        assertFalse(set.contains(1, 10));
+        assertTrue(set.contains(2, 10));
+        assertTrue(set.contains(4, 10));
+        assertFalse(set.contains(5, 10));
+    }
+
+    @Test
+    void reversedRangeIsNormalized() throws ImapParseException {
+        SequenceSet set = SequenceSet.parse("5:2");
+
+        assertTrue(set.contains(2, 10));
+        assertTrue(set.contains(5, 10));
+        assertFalse(set.contains(6, 10));
+    }
+
+    @Test
+    void oneToStarCoversEverything() throws ImapParseException {
+        SequenceSet set = SequenceSet.parse("1:*");
+
+        assertTrue(set.contains(1, 7));
+        assertTrue(set.contains(7, 7));
+        assertFalse(set.contains(8, 7));
+    }
+
+    @Test
+    void starAloneIsTheLargestValue() throws ImapParseException {
+        SequenceSet set = SequenceSet.parse("*");
+
+        assertTrue(set.contains(7, 7));
+        assertFalse(set.contains(6, 7));
+    }
+
+    @Test
+    void rangeBeyondLargestValueStillContainsStar() throws ImapParseException {
+        // RFC 3501：UID 集合 "10:*" 在最大 UID 小于 10 时仍包含最大的那个
+        SequenceSet set = SequenceSet.parse("10:*");
+
+        assertTrue(set.contains(5, 5));
+        assertFalse(set.contains(4, 5));
+    }
+
+    @Test
+    void listOfRanges() throws ImapParseException {
+        SequenceSet set = SequenceSet.parse("1:3,5,7:*");
+
+        assertTrue(set.contains(2, 9));
+        assertFalse(set.contains(4, 9));
+        assertTrue(set.contains(5, 9));
+        assertFalse(set.contains(6, 9));
+        assertTrue(set.contains(9, 9));
+    }
+
+    @Test
+    void maxExplicitIgnoresStar() throws ImapParseException {
+        assertEquals(5, SequenceSet.parse("1:3,5,2:*").maxExplicit());
+        assertEquals(0, SequenceSet.parse("*").maxExplicit());
+    }
+
+    @Test
+    void invalidSetsAreRejected() {
+        assertThrows(ImapParseException.class, () -> SequenceSet.parse("0"));
+        assertThrows(ImapParseException.class, () -> SequenceSet.parse("1:"));
+        assertThrows(ImapParseException.class, () -> SequenceSet.parse("1,,2"));
+        assertThrows(ImapParseException.class, () -> SequenceSet.parse("a:b"));
+        assertThrows(ImapParseException.class, () -> SequenceSet.parse("-3"));
+    }
+}
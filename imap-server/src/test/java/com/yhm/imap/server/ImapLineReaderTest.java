@@ -0,0 +1,109 @@
+package com.yhm.imap.server;
+
+import com.yhm.imap.protocol.ImapParseException;
+import com.yhm.imap.protocol.ImapParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImapLineReaderTest {
+
+    private final List<String> continuations = new ArrayList<>();
+
+    private ImapLineReader reader(String input) {
+        return new ImapLineReader(
+                new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), continuations::add);
+    }
+
+    @Test
+    void plainLine() throws IOException {
+        ImapLineReader reader = reader("a1 NOOP\r\na2 LOGOUT\r\n");
+
+        assertEquals("a1 NOOP", reader.readCommand());
+        assertEquals("a2 LOGOUT", reader.readCommand());
+        assertNull(reader.readCommand());
+        assertTrue(continuations.isEmpty());
+    }
+
+    @Test
+    void synchronizingLiteralSendsContinuation() throws IOException {
+        ImapLineReader reader = reader("a1 LOGIN {4}\r\nuser {6}\r\nsecret\r\n");
+
+        assertEquals("a1 LOGIN \"user\" \"secret\"", reader.readCommand());
+        assertEquals(List.of("+ Ready for literal data", "+ Ready for literal data"), continuations);
+    }
+
+    @Test
+    void nonSynchronizingLiteralDoesNotWait() throws IOException {
+        ImapLineReader reader = reader("a1 LOGIN {4+}\r\nuser {6+}\r\nsecret\r\n");
+
+        assertEquals("a1 LOGIN \"user\" \"secret\"", reader.readCommand());
+        assertTrue(continuations.isEmpty());
+    }
+
+    @Test
+    void literalLengthCountsUtf8Bytes() throws IOException, ImapParseException {
+        // "收件箱" 是 9 个 UTF-8 字节
+        ImapLineReader reader = reader("a1 SELECT {9+}\r\n收件箱\r\n");
+
+        String command = reader.readCommand();
+        ImapParser parser = new ImapParser(command.substring("a1 SELECT ".length()));
+        assertEquals("收件箱", parser.astring());
+        parser.end();
+    }
+
+    @Test
+    void literalContentIsQuotedForTheParser() throws IOException, ImapParseException {
+        // literal 中的引号、反斜杠和 CRLF 原样保留
+        String content = "say \"hi\"\\\r\nbye";
+        int length = content.getBytes(StandardCharsets.UTF_8).length;
+        ImapLineReader reader = reader("a1 SEARCH TEXT {" + length + "+}\r\n" + content + " SEEN\r\n");
+
+        String command = reader.readCommand();
+        ImapParser parser = new ImapParser(command.substring("a1 SEARCH ".length()));
+        assertEquals("TEXT", parser.atom());
+        parser.space();
+        assertEquals(content, parser.astring());
+        parser.space();
+        assertEquals("SEEN", parser.atom());
+        parser.end();
+    }
+
+    @Test
+    void emptyLiteral() throws IOException {
+        ImapLineReader reader = reader("a1 LOGIN user {0+}\r\n\r\n");
+
+        assertEquals("a1 LOGIN user \"\"", reader.readCommand());
+    }
+
+    @Test
+    void braceInsideLineIsNotALiteral() throws IOException {
+        ImapLineReader reader = reader("a1 SEARCH SUBJECT {x}\r\n");
+
+        assertEquals("a1 SEARCH SUBJECT {x}", reader.readCommand());
+    }
+
+    @Test
+    void truncatedLiteralEndsTheConnection() throws IOException {
+        ImapLineReader reader = reader("a1 LOGIN {10+}\r\nabc");
+
+        assertNull(reader.readCommand());
+    }
+
+    @Test
+    void oversizedLiteralIsRejected() {
+        ImapLineReader reader = reader("a1 APPEND INBOX {99999999}\r\n");
+
+        assertThrows(IOException.class, reader::readCommand);
+        assertTrue(continuations.isEmpty());
+    }
+}
@@ -6,6 +6,10 @@
 
 -- 创建 UUID 扩展
 CREATE EXTENSION IF NOT EXISTS "uuid-ossp";
+-- GIN 索引支持普通列（邮件全文检索按所有者过滤）
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+-- 三元组索引（发送日志按收件人、响应片段检索）
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
 
 -- ==================== 邮件域名表 ====================
 CREATE TABLE IF NOT EXISTS mail_domains (
@@ -45,10 +49,14 @@ CREATE INDEX IF NOT EXISTS idx_users_email ON users(email);
 CREATE INDEX IF NOT EXISTS idx_users_username_domain ON users(username, domain);
 CREATE INDEX IF NOT EXISTS idx_users_domain ON users(domain);
 CREATE INDEX IF NOT EXISTS idx_users_enabled ON users(is_enabled);
+-- 管理后台用户列表按 (created_at, id) keyset 分页，可按域名筛选
+CREATE INDEX IF NOT EXISTS idx_users_created ON users(created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_users_domain_created ON users(domain, created_at DESC, id DESC);
 
 -- ==================== 邮件表 ====================
+-- 按 received_at 按月分区，主键必须包含分区键
 CREATE TABLE IF NOT EXISTS emails (
-    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    id UUID NOT NULL DEFAULT uuid_generate_v4(),
     sender VARCHAR(320) NOT NULL,
     recipients VARCHAR(320)[] NOT NULL,
     subject VARCHAR(998),
@@ -59,20 +67,159 @@ CREATE TABLE IF NOT EXISTS emails (
     is_read BOOLEAN NOT NULL DEFAULT false,
     is_deleted BOOLEAN NOT NULL DEFAULT false,
     owner VARCHAR(320) NOT NULL,
+    -- 头部长度与正文前若干行的结束偏移（UTF-8 字节），用于 POP3 TOP
+    header_length INT,
+    body_line_offsets INT[],
+    -- IMAP UID（由触发器分配，同一邮箱内按投递顺序递增）与 \Seen 以外的 IMAP 标志位
+    uid BIGINT,
+    imap_flags SMALLINT NOT NULL DEFAULT 0,
+    -- 修改序号（投递、标志变化、删除时递增），用于客户端增量同步
+    modseq BIGINT,
+    -- 软删除时间（由触发器维护），后台清理据此判断宽限期
+    deleted_at TIMESTAMP WITH TIME ZONE,
+    -- 全文检索向量：主题、发件人（整个地址及拆开的各段）和 MIME 解码后的正文文本（body，截取前 10 万字符），
+    -- 由 set_emails_search_vector 触发器计算
+    search_vector TSVECTOR,
     
     CONSTRAINT fk_emails_owner FOREIGN KEY (owner) REFERENCES users(email),
+    PRIMARY KEY (id, received_at),
     CONSTRAINT chk_emails_size CHECK (size >= 0)
-);
+) PARTITION BY RANGE (received_at);
+
+-- 邮件原文不压缩：POP3 分段读取时不必每段从头解压；已有数据库见 migrations/set_raw_content_storage.sql
+ALTER TABLE emails ALTER COLUMN raw_content SET STORAGE EXTERNAL;
 
 -- 邮件索引
 CREATE INDEX IF NOT EXISTS idx_emails_owner ON emails(owner);
 CREATE INDEX IF NOT EXISTS idx_emails_owner_deleted ON emails(owner, is_deleted);
+-- POP3 登录列表覆盖索引：只读 (id, size, received_at)，无需回表；已有数据库见 migrations/add_email_maildrop_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_owner_maildrop ON emails(owner, received_at DESC) INCLUDE (id, size) WHERE is_deleted = false;
 CREATE INDEX IF NOT EXISTS idx_emails_owner_read ON emails(owner, is_read, is_deleted);
-CREATE INDEX IF NOT EXISTS idx_emails_received_at ON emails(received_at DESC);
+-- 管理后台邮件列表按 (received_at, id) keyset 分页；已有数据库见 migrations/add_email_received_id_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_received_id ON emails(received_at DESC, id DESC);
 CREATE INDEX IF NOT EXISTS idx_emails_sender ON emails(sender);
+-- IMAP 按 UID 列出和定位邮件（UID 由序列分配，不需要唯一约束；分区表的唯一索引必须包含分区键）；
+-- 已有数据库见 migrations/add_email_uid_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_owner_uid ON emails(owner, uid);
+-- 增量同步按 modseq 游标读取变化；已有数据库见 migrations/add_email_modseq_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_owner_modseq ON emails(owner, modseq);
+-- 后台清理按删除时间取已软删除的邮件；已有数据库见 migrations/add_email_purge_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_purge ON emails(deleted_at) WHERE is_deleted = true;
 
 -- GIN 索引用于收件人数组搜索
 CREATE INDEX IF NOT EXISTS idx_emails_recipients ON emails USING GIN(recipients);
+-- 管理后台全文检索：可只按 search_vector 检索，也可同时按 owner 过滤；已有数据库见 migrations/add_email_search_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_search ON emails USING GIN(owner, search_vector);
+-- IMAP SEARCH BODY / TEXT：主题、发件人和正文上的 pg_trgm 索引，ILIKE '%x%' 可走索引
+-- 表达式须与 ImapMessageRepository.SEARCH_TEXT 一致；已有数据库见 migrations/add_email_text_trgm_index.sql
+CREATE INDEX IF NOT EXISTS idx_emails_text_trgm ON emails
+    USING GIN ((coalesce(subject, '') || ' ' || sender || ' ' || coalesce(body, '')) gin_trgm_ops);
+
+-- ==================== 邮件表分区 ====================
+-- emails 按 received_at 每月一个分区（emails_yYYYYmMM），没有默认分区。
+-- 查询带上 received_at 条件时只访问对应分区；过期数据按整月分离并删除分区，不做逐行 DELETE。
+-- ensure_email_partitions 由 SMTP 服务器启动时和每天调用，提前创建未来几个月的分区；
+-- 迁移邮箱时目标分片按邮件的月份补建分区（见 ShardRebalancer）
+
+-- 创建 month 所在月份的分区，已存在时返回 false
+CREATE OR REPLACE FUNCTION create_email_partition(month DATE)
+RETURNS BOOLEAN AS $$
+DECLARE
+    start_at DATE := date_trunc('month', month)::date;
+    partition_name TEXT := 'emails_y' || to_char(start_at, 'YYYY') || 'm' || to_char(start_at, 'MM');
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TABLE %I PARTITION OF emails FOR VALUES FROM (%L) TO (%L)',
+                   partition_name,
+                   start_at::timestamp AT TIME ZONE 'UTC',
+                   (start_at + INTERVAL '1 month')::timestamp AT TIME ZONE 'UTC');
+    RETURN true;
+END;
+$$ language 'plpgsql';
+
+-- 确保当前月前 months_back 个月到后 months_ahead 个月的分区存在，返回新建的分区数
+CREATE OR REPLACE FUNCTION ensure_email_partitions(months_back INT, months_ahead INT)
+RETURNS INT AS $$
+DECLARE
+    current_month DATE := date_trunc('month', CURRENT_TIMESTAMP AT TIME ZONE 'UTC')::date;
+    created INT := 0;
+BEGIN
+    FOR i IN -months_back..months_ahead LOOP
+        IF create_email_partition((current_month + make_interval(months => i))::date) THEN
+            created := created + 1;
+        END IF;
+    END LOOP;
+    RETURN created;
+END;
+$$ language 'plpgsql';
+
+-- 过期分区由 EmailPartitionMaintainer 逐个处理，每一步单独提交，不在一个函数事务里完成：
+-- 1. settle_email_partition：分区仍挂在 emails 上时冻结写入并结算容量、汇总和墓碑
+-- 2. ALTER TABLE emails DETACH PARTITION ... CONCURRENTLY（不能在事务块和函数中执行）
+-- 3. DROP TABLE 分离后的分区
+-- 中途失败时下次从未完成的一步继续：已有冻结触发器的分区不再结算
+
+-- 冻结过期分区：结算之后的 INSERT / UPDATE / DELETE 静默跳过，分区内容与结算结果保持一致
+CREATE OR REPLACE FUNCTION skip_expired_email_write()
+RETURNS TRIGGER AS $$
+BEGIN
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+-- 冻结并结算一个仍挂在 emails 上的过期分区，已结算过时返回 false。
+-- 建触发器持有该分区的 SHARE ROW EXCLUSIVE 锁直到提交，结算期间分区上没有并发写入，emails 父表不受影响。
+-- 未删除的邮件只扫描一次，读入临时表后再扣减和写墓碑
+CREATE OR REPLACE FUNCTION settle_email_partition(part TEXT)
+RETURNS BOOLEAN AS $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_trigger
+               WHERE tgrelid = part::regclass AND tgname = 'freeze_expired_emails') THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TRIGGER freeze_expired_emails BEFORE INSERT OR UPDATE OR DELETE ON %I
+                    FOR EACH ROW EXECUTE FUNCTION skip_expired_email_write()', part);
+
+    EXECUTE format('CREATE TEMP TABLE expired_emails AS
+                    SELECT owner, id, is_read, size FROM %I WHERE is_deleted = false', part);
+
+    -- 与 modseq 触发器相同，按邮箱加锁后取号（按 owner 排序加锁，与其他批量操作不会死锁）
+    PERFORM count(pg_advisory_xact_lock(1229799760, hashtext(owner)))
+    FROM (SELECT DISTINCT owner FROM expired_emails ORDER BY owner) o;
+
+    -- 分区删除时不经过 emails 上的触发器，邮箱汇总和 users.used_bytes 在这里扣减
+    UPDATE mailbox_summary m
+    SET total_count = m.total_count - s.total,
+        unread_count = m.unread_count - s.unread,
+        total_bytes = m.total_bytes - s.bytes
+    FROM (SELECT owner, COUNT(*) AS total, COUNT(*) FILTER (WHERE NOT is_read) AS unread, SUM(size) AS bytes
+          FROM expired_emails GROUP BY owner) s
+    WHERE m.owner = s.owner;
+    UPDATE users u SET used_bytes = u.used_bytes - s.bytes
+    FROM (SELECT owner, SUM(size) AS bytes FROM expired_emails GROUP BY owner) s
+    WHERE u.email = s.owner;
+
+    WITH dropped AS (
+        INSERT INTO email_tombstones (owner, modseq, email_id)
+        SELECT owner, nextval('emails_modseq_seq'), id FROM expired_emails
+        RETURNING owner, modseq
+    )
+    UPDATE mailbox_summary m SET max_modseq = GREATEST(m.max_modseq, d.max_modseq)
+    FROM (SELECT owner, MAX(modseq) AS max_modseq FROM dropped GROUP BY owner) d
+    WHERE m.owner = d.owner;
+
+    DROP TABLE expired_emails;
+    RETURN true;
+END;
+$$ language 'plpgsql';
+
+DROP FUNCTION IF EXISTS drop_email_partitions_before(DATE);
+
+-- 不建默认分区：有默认分区时 PostgreSQL 不允许 DETACH PARTITION CONCURRENTLY。
+-- 已有的 emails_default 见 migrations/drop_email_default_partition.sql
+SELECT ensure_email_partitions(1, 3);
 
 -- ==================== 邮件队列表（用于发送外部邮件） ====================
 CREATE TABLE IF NOT EXISTS mail_queue (
@@ -87,32 +234,64 @@ CREATE TABLE IF NOT EXISTS mail_queue (
     created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
     updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
     
-    CONSTRAINT fk_mail_queue_email FOREIGN KEY (email_id) REFERENCES emails(id) ON DELETE CASCADE,
+    -- emails 为分区表，主键包含 received_at，这里不能建 email_id 外键
     CONSTRAINT chk_mail_queue_status CHECK (status IN ('pending', 'sending', 'sent', 'failed'))
 );
 
 -- 邮件队列索引
-CREATE INDEX IF NOT EXISTS idx_mail_queue_status ON mail_queue(status);
+-- 管理后台队列列表按 (created_at, id) keyset 分页，可按状态筛选
+CREATE INDEX IF NOT EXISTS idx_mail_queue_created ON mail_queue(created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_mail_queue_status_created ON mail_queue(status, created_at DESC, id DESC);
 CREATE INDEX IF NOT EXISTS idx_mail_queue_next_retry ON mail_queue(next_retry_at) WHERE status = 'pending';
 
 -- ==================== 发送日志表 ====================
 CREATE TABLE IF NOT EXISTS delivery_logs (
     id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
-    email_id UUID NOT NULL,
+    email_id UUID, -- RCPT 拒绝等没有保存邮件的尝试为 NULL
     recipient VARCHAR(320) NOT NULL,
     remote_host VARCHAR(255),
     remote_ip VARCHAR(45),
     status VARCHAR(20) NOT NULL, -- delivered, bounced, deferred
     smtp_code INT,
     smtp_response TEXT,
-    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    
-    CONSTRAINT fk_delivery_logs_email FOREIGN KEY (email_id) REFERENCES emails(id) ON DELETE CASCADE
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+    -- emails 为分区表，主键包含 received_at，这里不能建 email_id 外键
 );
 
 -- 发送日志索引
 CREATE INDEX IF NOT EXISTS idx_delivery_logs_email ON delivery_logs(email_id);
-CREATE INDEX IF NOT EXISTS idx_delivery_logs_created ON delivery_logs(created_at DESC);
+-- 管理后台日志列表按 (created_at, id) keyset 分页，可组合筛选（见 DeliveryLogSearchRepository）
+CREATE INDEX IF NOT EXISTS idx_delivery_logs_created_id ON delivery_logs(created_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_delivery_logs_status_created ON delivery_logs(status, created_at DESC, id DESC);
+-- 按对端主机、收件人和 SMTP 响应片段筛选的索引在大表上建索引耗时较长，不在这里创建，
+-- 见 migrations/add_delivery_log_search_indexes.sql
+
+-- ==================== 群发任务表 ====================
+CREATE TABLE IF NOT EXISTS broadcast_jobs (
+    id UUID PRIMARY KEY DEFAULT uuid_generate_v4(),
+    sender VARCHAR(320) NOT NULL,
+    subject VARCHAR(998),
+    body TEXT,
+    raw_content TEXT NOT NULL,
+    target_domain VARCHAR(255),
+    admin_only BOOLEAN NOT NULL DEFAULT false,
+    explicit_recipients VARCHAR(320)[],
+    status VARCHAR(20) NOT NULL DEFAULT 'pending', -- pending, running, completed, failed
+    total_count INT NOT NULL DEFAULT 0,
+    sent_count INT NOT NULL DEFAULT 0,
+    last_recipient VARCHAR(320),
+    last_error TEXT,
+    -- 执行任务的管理后台实例及其心跳，心跳过期后其他实例可以接管
+    lease_owner VARCHAR(64),
+    lease_heartbeat TIMESTAMP WITH TIME ZONE,
+    created_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    finished_at TIMESTAMP WITH TIME ZONE
+);
+
+-- 群发任务索引
+CREATE INDEX IF NOT EXISTS idx_broadcast_jobs_status ON broadcast_jobs(status) WHERE status IN ('pending', 'running');
+CREATE INDEX IF NOT EXISTS idx_broadcast_jobs_created ON broadcast_jobs(created_at DESC);
 
 -- ==================== 更新时间触发器 ====================
 CREATE OR REPLACE FUNCTION update_updated_at_column()
@@ -142,19 +321,289 @@ CREATE TRIGGER update_mail_queue_updated_at
     FOR EACH ROW
     EXECUTE FUNCTION update_updated_at_column();
 
+DROP TRIGGER IF EXISTS update_broadcast_jobs_updated_at ON broadcast_jobs;
+CREATE TRIGGER update_broadcast_jobs_updated_at
+    BEFORE UPDATE ON broadcast_jobs
+    FOR EACH ROW
+    EXECUTE FUNCTION update_updated_at_column();
+
+-- ==================== 邮箱变更通知 ====================
+-- 投递和删除邮件时 NOTIFY mailbox_changed（内容为邮箱所有者），POP3 据此失效邮箱列表缓存
+CREATE OR REPLACE FUNCTION notify_mailbox_changed()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        PERFORM pg_notify('mailbox_changed', OLD.owner);
+        RETURN OLD;
+    END IF;
+    PERFORM pg_notify('mailbox_changed', NEW.owner);
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS notify_emails_mailbox_changed ON emails;
+CREATE TRIGGER notify_emails_mailbox_changed
+    AFTER INSERT OR DELETE OR UPDATE OF is_deleted ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION notify_mailbox_changed();
+
+-- ==================== IMAP UID 分配 ====================
+-- 同一邮箱的 UID 必须按提交顺序严格递增：分配前先取该邮箱的事务级 advisory lock，
+-- 同一邮箱的并发投递依次提交，先提交的邮件 UID 一定更小；不同邮箱之间互不等待
+CREATE SEQUENCE IF NOT EXISTS emails_uid_seq;
+
+CREATE OR REPLACE FUNCTION assign_email_uid()
+RETURNS TRIGGER AS $$
+BEGIN
+    IF NEW.uid IS NULL THEN
+        -- 第一个键为 'IMAP'，与其他用途的 advisory lock 区分
+        PERFORM pg_advisory_xact_lock(1229799760, hashtext(NEW.owner));
+        NEW.uid := nextval('emails_uid_seq');
+    END IF;
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS assign_emails_uid ON emails;
+CREATE TRIGGER assign_emails_uid
+    BEFORE INSERT ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION assign_email_uid();
+
+-- ==================== 邮箱修改序号 (modseq) ====================
+-- 投递、标志变化和删除时从全局序列取新的 modseq，客户端按 modseq 游标增量同步。
+-- 取号前先取与 UID 分配相同的邮箱 advisory lock，同一邮箱的 modseq 按提交顺序递增，
+-- 游标之后不会再出现更小的 modseq
+CREATE SEQUENCE IF NOT EXISTS emails_modseq_seq;
+
+CREATE OR REPLACE FUNCTION bump_email_modseq()
+RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(1229799760, hashtext(NEW.owner));
+    NEW.modseq := nextval('emails_modseq_seq');
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS bump_emails_modseq_insert ON emails;
+CREATE TRIGGER bump_emails_modseq_insert
+    BEFORE INSERT ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION bump_email_modseq();
+
+DROP TRIGGER IF EXISTS bump_emails_modseq_update ON emails;
+CREATE TRIGGER bump_emails_modseq_update
+    BEFORE UPDATE OF is_read, is_deleted, imap_flags ON emails
+    FOR EACH ROW
+    WHEN (OLD.is_read IS DISTINCT FROM NEW.is_read
+          OR OLD.is_deleted IS DISTINCT FROM NEW.is_deleted
+          OR OLD.imap_flags IS DISTINCT FROM NEW.imap_flags)
+    EXECUTE FUNCTION bump_email_modseq();
+
+-- 物理删除的邮件留下墓碑，增量同步据此通知客户端删除
+CREATE TABLE IF NOT EXISTS email_tombstones (
+    owner VARCHAR(320) NOT NULL,
+    modseq BIGINT NOT NULL,
+    email_id UUID NOT NULL,
+    deleted_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    PRIMARY KEY (owner, modseq)
+);
+
+-- 超过保留期（smtp.tombstone.retentionDays）的墓碑由 SMTP 服务器的后台清理按 deleted_at 删除
+CREATE INDEX IF NOT EXISTS idx_email_tombstones_deleted_at ON email_tombstones(deleted_at);
+
+-- 每个邮箱已清理墓碑的最大 modseq：游标小于该值的客户端可能错过了删除，需要全量同步
+CREATE TABLE IF NOT EXISTS email_tombstone_floors (
+    owner VARCHAR(320) PRIMARY KEY,
+    modseq BIGINT NOT NULL
+);
+
+CREATE OR REPLACE FUNCTION record_email_tombstone()
+RETURNS TRIGGER AS $$
+BEGIN
+    PERFORM pg_advisory_xact_lock(1229799760, hashtext(OLD.owner));
+    INSERT INTO email_tombstones (owner, modseq, email_id)
+    VALUES (OLD.owner, nextval('emails_modseq_seq'), OLD.id);
+    RETURN OLD;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS record_emails_tombstone ON emails;
+CREATE TRIGGER record_emails_tombstone
+    AFTER DELETE ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION record_email_tombstone();
+
+-- ==================== 软删除时间与后台清理 ====================
+-- is_deleted 变为 true 时记录删除时间，恢复时清空。
+-- SMTP 服务器的后台清理任务按 deleted_at 顺序物理删除超过宽限期的软删除邮件
+CREATE OR REPLACE FUNCTION stamp_email_deleted_at()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.deleted_at := CASE WHEN NEW.is_deleted THEN CURRENT_TIMESTAMP END;
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS stamp_emails_deleted_at ON emails;
+CREATE TRIGGER stamp_emails_deleted_at
+    BEFORE UPDATE OF is_deleted ON emails
+    FOR EACH ROW
+    WHEN (OLD.is_deleted IS DISTINCT FROM NEW.is_deleted)
+    EXECUTE FUNCTION stamp_email_deleted_at();
+
+-- ==================== 全文检索向量 ====================
+-- search_vector 是普通列，投递和修改主题、发件人、正文时由触发器计算。
+-- 不用 STORED 生成列：在已有数据的表上添加生成列会重写整张表
+CREATE OR REPLACE FUNCTION email_search_vector(subject TEXT, sender TEXT, body TEXT)
+RETURNS TSVECTOR AS $$
+    SELECT setweight(to_tsvector('simple', coalesce(subject, '')), 'A') ||
+           setweight(to_tsvector('simple', sender || ' ' || translate(sender, '@.', '  ')), 'B') ||
+           setweight(to_tsvector('simple', left(coalesce(body, ''), 100000)), 'C')
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION set_email_search_vector()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.search_vector := email_search_vector(NEW.subject, NEW.sender, NEW.body);
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS set_emails_search_vector ON emails;
+CREATE TRIGGER set_emails_search_vector
+    BEFORE INSERT OR UPDATE OF subject, sender, body ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION set_email_search_vector();
+
+-- ==================== 邮箱汇总 ====================
+-- 每个邮箱一行：未删除邮件数、其中未读数、总字节数和最大 modseq。
+-- 投递、标志变化和删除由触发器在同一事务内增量更新，
+-- POP3/IMAP 状态、SMTP 未读数、仪表板和客户端 API 直接读取，不再对 emails 做聚合
+CREATE TABLE IF NOT EXISTS mailbox_summary (
+    owner VARCHAR(320) PRIMARY KEY,
+    total_count BIGINT NOT NULL DEFAULT 0,
+    unread_count BIGINT NOT NULL DEFAULT 0,
+    total_bytes BIGINT NOT NULL DEFAULT 0,
+    max_modseq BIGINT NOT NULL DEFAULT 0,
+
+    CONSTRAINT fk_mailbox_summary_owner FOREIGN KEY (owner) REFERENCES users(email) ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION update_mailbox_summary()
+RETURNS TRIGGER AS $$
+DECLARE
+    target VARCHAR(320);
+    delta_total BIGINT := 0;
+    delta_unread BIGINT := 0;
+    delta_bytes BIGINT := 0;
+    new_modseq BIGINT;
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') AND NOT OLD.is_deleted THEN
+        delta_total := delta_total - 1;
+        delta_unread := delta_unread - CASE WHEN OLD.is_read THEN 0 ELSE 1 END;
+        delta_bytes := delta_bytes - OLD.size;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') AND NOT NEW.is_deleted THEN
+        delta_total := delta_total + 1;
+        delta_unread := delta_unread + CASE WHEN NEW.is_read THEN 0 ELSE 1 END;
+        delta_bytes := delta_bytes + NEW.size;
+    END IF;
+
+    IF TG_OP = 'DELETE' THEN
+        target := OLD.owner;
+        -- 同一事件的 AFTER 触发器按名称顺序执行，record_emails_tombstone 已写入墓碑
+        SELECT MAX(t.modseq) INTO new_modseq FROM email_tombstones t WHERE t.owner = OLD.owner;
+    ELSE
+        target := NEW.owner;
+        new_modseq := NEW.modseq;
+    END IF;
+
+    INSERT INTO mailbox_summary AS s (owner, total_count, unread_count, total_bytes, max_modseq)
+    VALUES (target, delta_total, delta_unread, delta_bytes, COALESCE(new_modseq, 0))
+    ON CONFLICT (owner) DO UPDATE SET
+        total_count = s.total_count + EXCLUDED.total_count,
+        unread_count = s.unread_count + EXCLUDED.unread_count,
+        total_bytes = s.total_bytes + EXCLUDED.total_bytes,
+        max_modseq = GREATEST(s.max_modseq, EXCLUDED.max_modseq);
+    -- users.used_bytes 随 total_bytes 同步增减（只更新本分片上的 users 行）
+    IF delta_bytes <> 0 THEN
+        UPDATE users SET used_bytes = used_bytes + delta_bytes WHERE email = target;
+    END IF;
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+-- 按 emails 和墓碑重新计算全部汇总行，并把 users.used_bytes 对齐到 total_bytes。
+-- 先锁住 emails 的写入直到事务结束，计算期间不会有触发器更新汇总
+CREATE OR REPLACE FUNCTION refresh_mailbox_summary()
+RETURNS VOID AS $$
+BEGIN
+    LOCK TABLE emails IN SHARE MODE;
+    DELETE FROM mailbox_summary;
+    INSERT INTO mailbox_summary (owner, total_count, unread_count, total_bytes, max_modseq)
+    SELECT c.owner, SUM(c.total)::bigint, SUM(c.unread)::bigint, SUM(c.bytes)::bigint, MAX(c.max_modseq)
+    FROM (
+        SELECT owner,
+               COUNT(*) FILTER (WHERE NOT is_deleted) AS total,
+               COUNT(*) FILTER (WHERE NOT is_deleted AND NOT is_read) AS unread,
+               COALESCE(SUM(size) FILTER (WHERE NOT is_deleted), 0) AS bytes,
+               COALESCE(MAX(modseq), 0) AS max_modseq
+        FROM emails
+        GROUP BY owner
+        UNION ALL
+        SELECT owner, 0, 0, 0, MAX(modseq)
+        FROM email_tombstones
+        GROUP BY owner
+    ) c
+    JOIN users u ON u.email = c.owner
+    GROUP BY c.owner;
+    UPDATE users u SET used_bytes = COALESCE(s.total_bytes, 0)
+    FROM users x LEFT JOIN mailbox_summary s ON s.owner = x.email
+    WHERE u.id = x.id AND u.used_bytes <> COALESCE(s.total_bytes, 0);
+END;
+$$ language 'plpgsql';
+
+-- 首次安装时在同一事务内创建触发器并回填，中间的写入不会漏算
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_trigger
+                   WHERE tgrelid = 'emails'::regclass AND tgname = 'update_emails_mailbox_summary') THEN
+        CREATE TRIGGER update_emails_mailbox_summary
+            AFTER INSERT OR DELETE OR UPDATE OF is_read, is_deleted, size ON emails
+            FOR EACH ROW
+            EXECUTE FUNCTION update_mailbox_summary();
+        PERFORM refresh_mailbox_summary();
+    END IF;
+END;
+$$;
+
+-- ==================== 邮箱分片 ====================
+-- 邮件数据按所有者分布到多个 PostgreSQL 实例时，只在目录库（0 号分片）使用。
+-- 默认按地址的一致性哈希选择分片，这里的行为单个邮箱指定分片，优先于哈希结果；
+-- state = 'moving' 表示正在迁移，迁移期间仍从 shard 读取，写入返回临时失败
+CREATE TABLE IF NOT EXISTS mailbox_shards (
+    owner VARCHAR(320) PRIMARY KEY,
+    shard INT NOT NULL CHECK (shard >= 0),
+    state VARCHAR(16) NOT NULL DEFAULT 'active' CHECK (state IN ('active', 'moving')),
+    updated_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
 -- ==================== 视图 ====================
 -- 邮箱统计视图
-CREATE OR REPLACE VIEW mailbox_stats AS
+-- 读取 mailbox_summary，不再聚合 emails（列类型有变化，需要先删除旧视图）
+DROP VIEW IF EXISTS mailbox_stats;
+CREATE VIEW mailbox_stats AS
 SELECT 
     u.email,
     u.quota_bytes,
     u.used_bytes,
-    COUNT(e.id) as total_emails,
-    COUNT(CASE WHEN e.is_read = false AND e.is_deleted = false THEN 1 END) as unread_emails,
-    COALESCE(SUM(e.size), 0) as total_size
+    COALESCE(s.total_count, 0) as total_emails,
+    COALESCE(s.unread_count, 0) as unread_emails,
+    COALESCE(s.total_bytes, 0) as total_size
 FROM users u
-LEFT JOIN emails e ON u.email = e.owner AND e.is_deleted = false
-GROUP BY u.id, u.email, u.quota_bytes, u.used_bytes;
+LEFT JOIN mailbox_summary s ON s.owner = u.email;
 
 -- 待发送邮件视图
 CREATE OR REPLACE VIEW pending_deliveries AS
@@ -194,11 +643,20 @@ COMMENT ON TABLE users IS '用户表，存储邮箱用户信息';
 COMMENT ON TABLE emails IS '邮件表，存储所有接收的邮件';
 COMMENT ON TABLE mail_queue IS '邮件队列表，用于管理待发送的外部邮件';
 COMMENT ON TABLE delivery_logs IS '发送日志表，记录邮件发送结果';
+COMMENT ON TABLE broadcast_jobs IS '群发任务表，记录后台群发进度，支持崩溃后续传';
 
 COMMENT ON COLUMN emails.raw_content IS '原始邮件内容，包含完整的邮件头和正文';
 COMMENT ON COLUMN emails.owner IS '邮件所属用户的邮箱地址';
+COMMENT ON COLUMN emails.uid IS 'IMAP UID，同一邮箱内按提交顺序严格递增';
+COMMENT ON COLUMN emails.imap_flags IS 'IMAP 标志位：1=\Answered 2=\Flagged 4=\Deleted 8=\Draft（\Seen 使用 is_read）';
+COMMENT ON COLUMN emails.modseq IS '修改序号，同一邮箱内按提交顺序递增，/api/mail/changes 的同步游标';
+COMMENT ON TABLE email_tombstones IS '物理删除邮件的墓碑，供增量同步报告删除';
+COMMENT ON TABLE email_tombstone_floors IS '每个邮箱已清理墓碑的最大 modseq，更早的同步游标需要全量同步';
+COMMENT ON TABLE mailbox_summary IS '每个邮箱的邮件数、未读数、字节数和最大 modseq，由 emails 触发器增量维护';
+COMMENT ON TABLE mailbox_shards IS '为单个邮箱指定分片（覆盖一致性哈希），迁移邮箱时切换';
 COMMENT ON COLUMN users.quota_bytes IS '用户邮箱容量限制（字节）';
-COMMENT ON COLUMN users.used_bytes IS '用户已使用的邮箱容量（字节）';
+COMMENT ON COLUMN users.used_bytes IS '用户已使用的邮箱容量（字节），由邮箱汇总触发器随 mailbox_summary.total_bytes 同步维护';
+COMMENT ON COLUMN broadcast_jobs.last_recipient IS '最后一个已投递的收件人地址，按地址升序续传';
 
 -- ==================== 完成 ====================
 SELECT '数据库初始化完成！' AS status;
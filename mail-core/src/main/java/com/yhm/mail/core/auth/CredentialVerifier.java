@@ -0,0 +1,211 @@
+package com.yhm.mail.core.auth;
+
+import com.yhm.mail.core.metrics.LatencyHistogram;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCrypt;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 密码校验器
+ *
+ * POP3 和 SMTP AUTH 共用。users.password_hash 由 admin-web 的 BCryptPasswordEncoder 生成；
+ * 不是 BCrypt 格式的值按明文比较，兼容初始化脚本写入的旧数据（与 admin-web 的兼容逻辑一致）。
+ *
+ * 校验成功的结果短时间缓存，客户端频繁轮询时不必每次都计算 BCrypt：
+ * - 缓存只保存 HMAC-SHA256(进程随机密钥, 用户 + 密码 + 存储的哈希)，不保存密码
+ * - 存储的哈希参与计算，修改密码后旧缓存自然失效，无需通知
+ * - 只缓存成功的结果，错误密码每次都要完整计算
+ *
+ * BCrypt 在固定大小的平台线程池中计算，排队已满时返回 {@link Result#BUSY}，
+ * 大量登录同时到达时不会占满虚拟线程的载体线程。
+ */
+public class CredentialVerifier implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialVerifier.class);
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    /**
+     * 校验结果
+     */
+    public enum Result {
+        /** 密码正确 */
+        ACCEPTED,
+        /** 密码错误或用户不存在 */
+        REJECTED,
+        /** 校验排队已满，稍后重试 */
+        BUSY
+    }
+
+    private record CacheEntry(byte[] mac, long expiresAt) {
+    }
+
+    private final long cacheTtlMillis;
+    private final int cacheMaxEntries;
+    private final ThreadPoolExecutor hashExecutor;
+    private final SecretKeySpec hmacKey;
+
+    // 用户 -> 最近一次校验成功的凭据摘要
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder cacheHits;
+    private final LongAdder cacheMisses;
+    private final LongAdder busy;
+    private final LatencyHistogram hashLatency;
+
+    /**
+     * @param cacheTtlMillis    校验成功结果的缓存时间，0 表示不缓存
+     * @param cacheMaxEntries   最多缓存的用户数
+     * @param hashThreads       BCrypt 计算线程数
+     * @param hashQueueCapacity 等待计算的最大请求数
+     */
+    public CredentialVerifier(long cacheTtlMillis, int cacheMaxEntries, int hashThreads, int hashQueueCapacity) {
+        this.cacheTtlMillis = cacheTtlMillis;
+        this.cacheMaxEntries = cacheMaxEntries;
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.hmacKey = new SecretKeySpec(key, HMAC_ALGORITHM);
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.hashExecutor = new ThreadPoolExecutor(
+                hashThreads, hashThreads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(hashQueueCapacity),
+                r -> Thread.ofPlatform()
+                        .name("credential-hash-" + threadIndex.getAndIncrement())
+                        .daemon(true)
+                        .unstarted(r),
+                new ThreadPoolExecutor.AbortPolicy());
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.cacheHits = metrics.counter("auth.cache.hits");
+        this.cacheMisses = metrics.counter("auth.cache.misses");
+        this.busy = metrics.counter("auth.hash.busy");
+        this.hashLatency = metrics.histogram("auth.hash.latency");
+        metrics.gauge("auth.hash.queued", () -> hashExecutor.getQueue().size());
+    }
+
+    /**
+     * 校验密码
+     *
+     * @param username   用户名（邮箱地址）
+     * @param password   客户端提交的密码
+     * @param storedHash users.password_hash；用户不存在或已禁用时传 null
+     */
+    public Result verify(String username, String password, String storedHash) {
+        if (storedHash == null || password == null) {
+            return Result.REJECTED;
+        }
+
+        if (!isBcryptHash(storedHash)) {
+            // 旧数据：明文比较，开销很小，不经过缓存和线程池
+            return constantTimeEquals(password, storedHash) ? Result.ACCEPTED : Result.REJECTED;
+        }
+
+        String key = username.toLowerCase();
+        byte[] mac = cacheTtlMillis > 0 ? computeMac(key, password, storedHash) : null;
+
+        if (mac != null) {
+            CacheEntry entry = cache.get(key);
+            if (entry != null && entry.expiresAt() > System.currentTimeMillis()
+                    && MessageDigest.isEqual(entry.mac(), mac)) {
+                cacheHits.increment();
+                return Result.ACCEPTED;
+            }
+            cacheMisses.increment();
+        }
+
+        Future<Boolean> future;
+        try {
+            future = hashExecutor.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    return BCrypt.checkpw(password, storedHash);
+                } finally {
+                    hashLatency.recordSince(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            busy.increment();
+            log.warn("密码校验排队已满，拒绝用户 {} 的认证", username);
+            return Result.BUSY;
+        }
+
+        boolean matched;
+        try {
+            matched = future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return Result.BUSY;
+        } catch (ExecutionException e) {
+            // 哈希格式损坏等
+            log.warn("校验用户 {} 的密码哈希时出错: {}", username, e.getCause().getMessage());
+            return Result.REJECTED;
+        }
+
+        if (!matched) {
+            return Result.REJECTED;
+        }
+
+        if (mac != null) {
+            remember(key, mac);
+        }
+        return Result.ACCEPTED;
+    }
+
+    private void remember(String key, byte[] mac) {
+        long now = System.currentTimeMillis();
+        if (cache.size() >= cacheMaxEntries && !cache.containsKey(key)) {
+            cache.values().removeIf(entry -> entry.expiresAt() <= now);
+            if (cache.size() >= cacheMaxEntries) {
+                return;
+            }
+        }
+        cache.put(key, new CacheEntry(mac, now + cacheTtlMillis));
+    }
+
+    private byte[] computeMac(String key, String password, String storedHash) {
+        try {
+            Mac hmac = Mac.getInstance(HMAC_ALGORITHM);
+            hmac.init(hmacKey);
+            hmac.update(key.getBytes(StandardCharsets.UTF_8));
+            hmac.update((byte) 0);
+            hmac.update(password.getBytes(StandardCharsets.UTF_8));
+            hmac.update((byte) 0);
+            return hmac.doFinal(storedHash.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // JDK 必须提供 HmacSHA256，出错时退化为不缓存
+            log.error("计算凭据摘要失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean isBcryptHash(String value) {
+        return value.length() == 60
+                && (value.startsWith("$2a$") || value.startsWith("$2b$") || value.startsWith("$2y$"));
+    }
+
+    private static boolean constantTimeEquals(String a, String b) {
+        return MessageDigest.isEqual(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+        hashExecutor.shutdownNow();
+        cache.clear();
+    }
+}
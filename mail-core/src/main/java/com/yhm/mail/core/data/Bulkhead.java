@@ -0,0 +1,103 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.metrics.LatencyHistogram;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据库操作舱壁
+ *
+ * 每个连接一个虚拟线程，上千个会话可能同时访问数据库，而连接池只有 db.pool.maxSize 个连接：
+ * 直接排在连接池上要等满 connectionTimeout（默认 30 秒），排队时间也没有任何指标。
+ * 这里按操作类别（如 RCPT 查询、邮件写入）各给一份许可，公平信号量按到达顺序发放；
+ * 在期限内拿不到许可时抛出 {@link DatabaseBusyException}，协议层立即返回临时失败，客户端稍后重试。
+ *
+ * 各类别的许可数之和应小于连接池大小，拿到许可的操作不会再在连接池上长时间等待，
+ * 未经过舱壁的访问（认证、后台任务等）也总有连接可用。
+ *
+ * 指标（db.bulkhead.类别.*）：wait 排队时间（包括被拒绝的请求）、rejected 拒绝次数、
+ * active 正在执行的操作数、queued 正在排队的请求数。
+ */
+public final class Bulkhead {
+
+    private final String name;
+    private final int permits;
+    private final long deadlineMillis;
+    private final Semaphore semaphore;
+    private final LatencyHistogram waitTime;
+    private final LongAdder rejected;
+
+    /**
+     * @param name 操作类别，也是指标名称的一部分
+     * @param permits 同时执行的最大操作数
+     * @param deadlineMillis 排队等待许可的最长时间
+     */
+    public Bulkhead(String name, int permits, long deadlineMillis) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("许可数必须大于 0: " + name);
+        }
+        this.name = name;
+        this.permits = permits;
+        this.deadlineMillis = deadlineMillis;
+        this.semaphore = new Semaphore(permits, true);
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        String prefix = "db.bulkhead." + name;
+        this.waitTime = metrics.histogram(prefix + ".wait");
+        this.rejected = metrics.counter(prefix + ".rejected");
+        metrics.gauge(prefix + ".active", () -> permits - semaphore.availablePermits());
+        metrics.gauge(prefix + ".queued", semaphore::getQueueLength);
+    }
+
+    /**
+     * 拿到许可后执行，结束后归还许可
+     *
+     * @throws DatabaseBusyException 期限内没有拿到许可（或等待时线程被中断）
+     */
+    public <T, E extends Exception> T call(CommandScope.Body<T, E> body) throws E, DatabaseBusyException {
+        acquire();
+        try {
+            return body.run();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    private void acquire() throws DatabaseBusyException {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            // 带超时的 tryAcquire 遵守公平顺序，不会插队
+            acquired = semaphore.tryAcquire(deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        waitTime.recordSince(start);
+
+        if (!acquired) {
+            rejected.increment();
+            throw new DatabaseBusyException(name, deadlineMillis);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(permits=" + permits + ", deadline=" + deadlineMillis + "ms)";
+    }
+}
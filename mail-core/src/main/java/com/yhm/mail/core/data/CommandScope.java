@@ -0,0 +1,171 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一条协议命令内的连接复用
+ *
+ * 命令处理放在 {@link #call} 中执行时，同一线程从 {@link MailDatabase} 的同一个连接池多次借连接，
+ * 拿到的是同一个物理连接：第一次借用时从连接池取出，命令结束时才归还。
+ * 例如 RCPT 先查域名再查用户只占用一次连接池。
+ *
+ * 借出的连接 close() 只是结束这次使用：如果调用方关闭了自动提交，先回滚未提交的事务并恢复自动提交，
+ * 和连接池归还连接时的处理一致。
+ * 作用域绑定在当前线程上，命令中另起的线程（如分片并行查询）直接使用连接池。
+ * 嵌套调用 {@link #call} 沿用外层作用域。
+ *
+ * 连接会一直占用到命令结束，不要把等待客户端输入、向客户端发送大量数据（如 RETR 的邮件内容）
+ * 或耗时的计算（如密码哈希）放在作用域中。
+ */
+public final class CommandScope {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandScope.class);
+
+    private static final ThreadLocal<CommandScope> CURRENT = new ThreadLocal<>();
+
+    private static final LongAdder BORROWED = MetricsRegistry.global().counter("db.scope.borrowed");
+    private static final LongAdder REUSED = MetricsRegistry.global().counter("db.scope.reused");
+
+    /**
+     * 命令处理逻辑
+     */
+    @FunctionalInterface
+    public interface Body<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * 没有返回值的命令处理逻辑
+     */
+    @FunctionalInterface
+    public interface Action<E extends Exception> {
+        void run() throws E;
+    }
+
+    // 连接池 -> 本次命令借出的物理连接
+    private final Map<DataSource, Connection> connections = new IdentityHashMap<>(2);
+
+    private CommandScope() {
+    }
+
+    /**
+     * 在连接复用作用域中执行，结束后归还借出的连接
+     */
+    public static <T, E extends Exception> T call(Body<T, E> body) throws E {
+        if (CURRENT.get() != null) {
+            return body.run();
+        }
+
+        CommandScope scope = new CommandScope();
+        CURRENT.set(scope);
+        try {
+            return body.run();
+        } finally {
+            CURRENT.remove();
+            scope.close();
+        }
+    }
+
+    /**
+     * 在连接复用作用域中执行，结束后归还借出的连接
+     */
+    public static <E extends Exception> void run(Action<E> action) throws E {
+        call(() -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 当前线程是否在作用域中
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+
+    /**
+     * 从连接池借连接，在作用域中时复用本次命令已借出的连接
+     */
+    static Connection borrow(DataSource pool) throws SQLException {
+        CommandScope scope = CURRENT.get();
+        return scope != null ? scope.connection(pool) : pool.getConnection();
+    }
+
+    private Connection connection(DataSource pool) throws SQLException {
+        Connection physical = connections.get(pool);
+        if (physical != null && !physical.isClosed()) {
+            REUSED.increment();
+        } else {
+            physical = pool.getConnection();
+            connections.put(pool, physical);
+            BORROWED.increment();
+        }
+        return shared(physical);
+    }
+
+    /**
+     * 包装物理连接，close() 只重置事务状态
+     */
+    private static Connection shared(Connection physical) {
+        boolean[] closed = {false};
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close" -> {
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                release(physical);
+                            }
+                            return null;
+                        }
+                        case "isClosed" -> {
+                            return closed[0] || physical.isClosed();
+                        }
+                        default -> {
+                            try {
+                                return method.invoke(physical, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    }
+                });
+    }
+
+    private static void release(Connection physical) {
+        try {
+            if (!physical.isClosed() && !physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // 状态无法恢复的连接直接归还，下次借用时重新从连接池获取
+            log.warn("重置连接事务状态失败，归还连接: {}", e.getMessage());
+            closeQuietly(physical);
+        }
+    }
+
+    private void close() {
+        connections.values().forEach(CommandScope::closeQuietly);
+        connections.clear();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("归还连接失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.yhm.mail.core.data;
+
+import java.sql.SQLException;
+
+/**
+ * 数据库操作在 {@link Bulkhead} 的期限内没有拿到许可
+ *
+ * 继承 SQLException，没有单独处理的地方按已有的数据库错误处理；
+ * 协议层捕获它返回"稍后重试"（SMTP 451 4.3.2、POP3 -ERR [SYS/TEMP]）。
+ * SQLState 使用 PostgreSQL 的 too_many_connections。
+ */
+public class DatabaseBusyException extends SQLException {
+
+    private final String operation;
+
+    public DatabaseBusyException(String operation, long deadlineMillis) {
+        super("数据库繁忙，" + operation + " 等待超过 " + deadlineMillis + " ms", "53300");
+        this.operation = operation;
+    }
+
+    /**
+     * 被拒绝的操作类别
+     */
+    public String getOperation() {
+        return operation;
+    }
+}
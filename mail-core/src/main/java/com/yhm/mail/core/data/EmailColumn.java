@@ -0,0 +1,63 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.model.Email;
+
+import java.sql.Array;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * emails 表中映射到 {@link Email} 的列
+ */
+public enum EmailColumn {
+
+    ID("id", (rs, i, email) -> email.id(rs.getObject(i, UUID.class))),
+    SENDER("sender", (rs, i, email) -> email.sender(rs.getString(i))),
+    RECIPIENTS("recipients", (rs, i, email) -> email.recipients(stringList(rs.getArray(i)))),
+    SUBJECT("subject", (rs, i, email) -> email.subject(rs.getString(i))),
+    BODY("body", (rs, i, email) -> email.body(rs.getString(i))),
+    RAW_CONTENT("raw_content", (rs, i, email) -> email.rawContent(rs.getString(i))),
+    SIZE("size", (rs, i, email) -> email.size(rs.getLong(i))),
+    RECEIVED_AT("received_at", (rs, i, email) -> {
+        Timestamp receivedAt = rs.getTimestamp(i);
+        email.receivedAt(receivedAt != null ? receivedAt.toInstant() : null);
+    }),
+    READ("is_read", (rs, i, email) -> email.read(rs.getBoolean(i))),
+    DELETED("is_deleted", (rs, i, email) -> email.deleted(rs.getBoolean(i))),
+    OWNER("owner", (rs, i, email) -> email.owner(rs.getString(i)));
+
+    @FunctionalInterface
+    interface Reader {
+        void read(ResultSet rs, int index, Email.Builder email) throws SQLException;
+    }
+
+    private final String column;
+    private final Reader reader;
+
+    EmailColumn(String column, Reader reader) {
+        this.column = column;
+        this.reader = reader;
+    }
+
+    /**
+     * 列名
+     */
+    public String column() {
+        return column;
+    }
+
+    void read(ResultSet rs, int index, Email.Builder email) throws SQLException {
+        reader.read(rs, index, email);
+    }
+
+    /**
+     * 数组为 NULL 时返回 null，由 Email.Builder 使用空列表
+     */
+    private static List<String> stringList(Array array) throws SQLException {
+        return array != null ? Arrays.asList((String[]) array.getArray()) : null;
+    }
+}
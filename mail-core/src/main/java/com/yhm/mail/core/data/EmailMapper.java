@@ -0,0 +1,64 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.model.Email;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 按列投影映射 {@link Email}
+ *
+ * 只查询调用方需要的列：查询以 {@link #columns()} 开头（SELECT 列表的顺序与映射一致，按位置读取），
+ * 未选择的字段保持默认值。列表页不需要 raw_content、body 时不必把它们从 TOAST 中读出来。
+ *
+ * <pre>
+ * EmailMapper mapper = EmailMapper.of(EmailColumn.ID, EmailColumn.SIZE, EmailColumn.RECEIVED_AT);
+ * NamedQuery.of("x", "SELECT " + mapper.columns() + " FROM emails WHERE owner = ?");
+ * </pre>
+ */
+public final class EmailMapper implements NamedQuery.RowMapper<Email> {
+
+    /** 所有映射到 Email 的列 */
+    public static final EmailMapper ALL = of(EnumSet.allOf(EmailColumn.class));
+
+    private final EmailColumn[] selected;
+    private final String columns;
+
+    private EmailMapper(Set<EmailColumn> selected) {
+        if (selected.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一列");
+        }
+        // EnumSet 按声明顺序迭代，SELECT 列表顺序固定
+        this.selected = EnumSet.copyOf(selected).toArray(new EmailColumn[0]);
+        this.columns = EnumSet.copyOf(selected).stream()
+                .map(EmailColumn::column)
+                .collect(Collectors.joining(", "));
+    }
+
+    public static EmailMapper of(EmailColumn first, EmailColumn... rest) {
+        return new EmailMapper(EnumSet.of(first, rest));
+    }
+
+    public static EmailMapper of(Set<EmailColumn> columns) {
+        return new EmailMapper(columns);
+    }
+
+    /**
+     * SELECT 列表，如 "id, size, received_at"
+     */
+    public String columns() {
+        return columns;
+    }
+
+    @Override
+    public Email map(ResultSet rs) throws SQLException {
+        Email.Builder email = Email.builder();
+        for (int i = 0; i < selected.length; i++) {
+            selected[i].read(rs, i + 1, email);
+        }
+        return email.build();
+    }
+}
@@ -0,0 +1,227 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.replica.ReplicaRouter;
+import com.yhm.mail.core.shard.ShardRouter;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 邮件数据库：各分片的连接池、分片路由和（可选的）只读副本路由
+ *
+ * 配置 db.shards 大于 1 时邮件数据按所有者分片，每个分片一个连接池（见 {@link PoolFactory}），
+ * 邮箱相关的读写通过 {@link #getConnection(String)} 路由，见 {@link ShardRouter}。
+ * 启用副本时，每个分片可以配置一个流复制备库，只读查询通过 {@link #getReadConnection(String)}
+ * 在副本足够新时走副本，见 {@link ReplicaRouter}。
+ *
+ * 所有连接池都参与 {@link CommandScope} 的连接复用；
+ * 高并发的操作类别通过 {@link #bulkhead(String, int, long)} 限制同时占用的连接数。
+ */
+public final class MailDatabase implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(MailDatabase.class);
+
+    private final PoolFactory factory;
+    private final List<HikariDataSource> pools = new ArrayList<>();
+    private final ShardRouter router;
+    private final List<ReplicaRouter> replicas;
+    private final ConcurrentMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * 按 application.properties 创建
+     *
+     * @param name 名称，也是副本路由的指标前缀，如 pop3.db
+     * @param poolName 连接池名称前缀，如 Pop3MailPool
+     * @param withReplicas 是否按 db.replica.* 配置启用只读副本
+     */
+    public static MailDatabase open(String name, String poolName, boolean withReplicas) {
+        return new MailDatabase(new PoolFactory(PoolFactory.loadProperties(), poolName), name, withReplicas);
+    }
+
+    public MailDatabase(PoolFactory factory, String name, boolean withReplicas) {
+        this.factory = factory;
+        Properties props = factory.properties();
+
+        List<DataSource> primaries = new ArrayList<>();
+        for (int shard = 0; shard < factory.shardCount(); shard++) {
+            HikariDataSource pool = factory.createShardPool(shard);
+            pools.add(pool);
+            primaries.add(new ScopedDataSource(pool));
+        }
+
+        this.router = new ShardRouter(primaries,
+                Integer.parseInt(props.getProperty("db.shard.virtualNodes",
+                        String.valueOf(ShardRouter.DEFAULT_VIRTUAL_NODES))),
+                Long.parseLong(props.getProperty("db.shard.overrideTtl",
+                        String.valueOf(ShardRouter.DEFAULT_OVERRIDE_TTL_MILLIS))));
+        this.replicas = withReplicas ? createReplicaRouters(name, primaries) : null;
+    }
+
+    /**
+     * 为每个分片创建副本路由，配置了副本的分片同时创建副本连接池并启动进度监控
+     */
+    private List<ReplicaRouter> createReplicaRouters(String name, List<DataSource> primaries) {
+        Properties props = factory.properties();
+        long maxLag = Long.parseLong(props.getProperty("db.replica.maxLag",
+                String.valueOf(ReplicaRouter.DEFAULT_MAX_LAG_MILLIS)));
+        long pollInterval = Long.parseLong(props.getProperty("db.replica.pollInterval",
+                String.valueOf(ReplicaRouter.DEFAULT_POLL_INTERVAL_MILLIS)));
+
+        List<ReplicaRouter> created = new ArrayList<>(primaries.size());
+        for (int shard = 0; shard < primaries.size(); shard++) {
+            String routerName = shard == 0 ? name : name + ".shard" + shard;
+            HikariDataSource replica = factory.createReplicaPool(shard);
+            if (replica == null) {
+                created.add(ReplicaRouter.primaryOnly(routerName, primaries.get(shard)));
+                continue;
+            }
+            pools.add(replica);
+
+            ReplicaRouter replicaRouter = new ReplicaRouter(routerName, primaries.get(shard),
+                    new ScopedDataSource(replica), maxLag, pollInterval);
+            replicaRouter.start();
+            created.add(replicaRouter);
+        }
+        return created;
+    }
+
+    // ==================== 连接 ====================
+
+    /**
+     * 分片路由
+     */
+    public ShardRouter router() {
+        return router;
+    }
+
+    /**
+     * 目录库数据源
+     */
+    public DataSource directory() {
+        return router.directory();
+    }
+
+    /**
+     * 获取目录库连接（用户、域名、队列、投递日志等全局数据）
+     */
+    public Connection getConnection() throws SQLException {
+        return router.directory().getConnection();
+    }
+
+    /**
+     * 获取邮箱所在分片的连接，用于读取
+     */
+    public Connection getConnection(String owner) throws SQLException {
+        return router.getConnection(owner);
+    }
+
+    /**
+     * 获取邮箱所在分片的连接，用于写入；邮箱迁移期间抛出 MailboxMovingException
+     */
+    public Connection getWriteConnection(String owner) throws SQLException {
+        return router.getWriteConnection(owner);
+    }
+
+    /**
+     * 获取邮箱所在分片的只读连接，副本足够新且该邮箱最近没有写入时使用副本；
+     * 没有启用副本时等同于 {@link #getConnection(String)}
+     */
+    public Connection getReadConnection(String owner) throws SQLException {
+        if (replicas == null) {
+            return getConnection(owner);
+        }
+        return replicas.get(router.shardOf(owner)).getReadConnection(owner);
+    }
+
+    /**
+     * 打开指定分片上不经过连接池的独立连接，调用方负责关闭
+     */
+    public Connection openDedicatedConnection(int shard) throws SQLException {
+        return factory.openDedicatedConnection(shard);
+    }
+
+    /**
+     * 分片数量
+     */
+    public int shardCount() {
+        return router.shardCount();
+    }
+
+    // ==================== 副本 ====================
+
+    /**
+     * 获取分片的副本路由
+     */
+    public ReplicaRouter replicaRouter(int shard) {
+        if (replicas == null) {
+            throw new IllegalStateException("未启用只读副本");
+        }
+        return replicas.get(shard);
+    }
+
+    /**
+     * 是否有分片配置了只读副本
+     */
+    public boolean hasReplica() {
+        return replicas != null && replicas.stream().anyMatch(ReplicaRouter::hasReplica);
+    }
+
+    /**
+     * 记录邮箱有新的写入，之后的读取走主库直到副本追上
+     */
+    public void markWritten(String owner) throws SQLException {
+        if (replicas != null) {
+            replicas.get(router.shardOf(owner)).markWritten(owner);
+        }
+    }
+
+    // ==================== 舱壁 ====================
+
+    /**
+     * 获取操作类别的舱壁，同名只创建一次
+     *
+     * 许可数和等待期限可由 db.bulkhead.名称.permits、db.bulkhead.名称.deadline 覆盖。
+     * 舱壁按进程计数，不区分分片，各类别许可数之和应小于 db.pool.maxSize。
+     *
+     * @param name 操作类别，如 rcptLookup
+     * @param defaultPermits 默认许可数
+     * @param defaultDeadlineMillis 默认等待期限
+     */
+    public Bulkhead bulkhead(String name, int defaultPermits, long defaultDeadlineMillis) {
+        return bulkheads.computeIfAbsent(name, key -> {
+            Properties props = factory.properties();
+            Bulkhead bulkhead = new Bulkhead(key,
+                    Integer.parseInt(props.getProperty("db.bulkhead." + key + ".permits",
+                            String.valueOf(defaultPermits))),
+                    Long.parseLong(props.getProperty("db.bulkhead." + key + ".deadline",
+                            String.valueOf(defaultDeadlineMillis))));
+            log.info("数据库舱壁: {}", bulkhead);
+            return bulkhead;
+        });
+    }
+
+    /**
+     * 停止副本监控并关闭所有连接池
+     */
+    @Override
+    public void close() {
+        if (replicas != null) {
+            replicas.forEach(ReplicaRouter::stop);
+        }
+        for (HikariDataSource pool : pools) {
+            if (!pool.isClosed()) {
+                pool.close();
+            }
+        }
+        log.info("数据库连接池已关闭");
+    }
+}
@@ -0,0 +1,156 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.metrics.LatencyHistogram;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带名称的 SQL 语句，每次执行记录延迟和行数
+ *
+ * 指标按名称注册到 {@link MetricsRegistry#global()}：
+ * - db.名称：从准备语句到结果读取完毕的延迟（包括行映射）
+ * - db.名称.rows：查询返回、更新影响的行数
+ * - db.名称.errors：执行失败的次数
+ *
+ * 一般声明为仓库类的静态常量；连接由调用方提供，语句在方法返回前关闭。
+ */
+public final class NamedQuery {
+
+    /**
+     * 绑定语句参数
+     */
+    @FunctionalInterface
+    public interface Binder {
+        void bind(PreparedStatement stmt) throws SQLException;
+    }
+
+    /**
+     * 把结果集的当前行映射为对象
+     */
+    @FunctionalInterface
+    public interface RowMapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    /** 没有参数 */
+    public static final Binder NO_PARAMS = stmt -> { };
+
+    private final String name;
+    private final String sql;
+    private final LatencyHistogram latency;
+    private final LongAdder rows;
+    private final LongAdder errors;
+
+    private NamedQuery(String name, String sql) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.name = name;
+        this.sql = sql;
+        this.latency = metrics.histogram("db." + name);
+        this.rows = metrics.counter("db." + name + ".rows");
+        this.errors = metrics.counter("db." + name + ".errors");
+    }
+
+    /**
+     * @param name 名称，如 pop3.maildropEntries
+     * @param sql SQL 语句
+     */
+    public static NamedQuery of(String name, String sql) {
+        return new NamedQuery(name, sql);
+    }
+
+    /**
+     * 依次用 setObject 绑定参数
+     */
+    public static Binder params(Object... values) {
+        return stmt -> {
+            for (int i = 0; i < values.length; i++) {
+                stmt.setObject(i + 1, values[i]);
+            }
+        };
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    /**
+     * 查询所有行
+     */
+    public <T> List<T> list(Connection conn, Binder binder, RowMapper<T> mapper) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            binder.bind(stmt);
+            List<T> result = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(mapper.map(rs));
+                }
+            }
+            rows.add(result.size());
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.recordSince(start);
+        }
+    }
+
+    /**
+     * 查询第一行，没有结果或映射结果为 null 时返回 empty
+     */
+    public <T> Optional<T> first(Connection conn, Binder binder, RowMapper<T> mapper) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            binder.bind(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return Optional.empty();
+                }
+                rows.increment();
+                return Optional.ofNullable(mapper.map(rs));
+            }
+        } catch (SQLException | RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.recordSince(start);
+        }
+    }
+
+    /**
+     * 执行更新
+     * @return 影响的行数
+     */
+    public int update(Connection conn, Binder binder) throws SQLException {
+        long start = System.nanoTime();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            binder.bind(stmt);
+            int updated = stmt.executeUpdate();
+            rows.add(updated);
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.recordSince(start);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
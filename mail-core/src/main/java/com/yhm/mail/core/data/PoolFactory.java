@@ -0,0 +1,181 @@
+package com.yhm.mail.core.data;
+
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.function.ToIntFunction;
+
+/**
+ * HikariCP 连接池工厂
+ *
+ * 各服务器共用同一套 db.* 配置：
+ * - 0 号分片使用 db.url（同时是保存用户、域名等全局数据的目录库），其他分片使用 db.shard.N.url，
+ *   用户名、密码默认与 db.* 相同
+ * - 只读副本使用 db.replica.url、db.shard.N.replica.url，用户名、密码默认与所在分片相同
+ * - 连接池参数 db.pool.*
+ *
+ * 每个连接池的活跃、空闲连接数和等待连接的线程数注册为 db.pool.池名.* 指标。
+ */
+public final class PoolFactory {
+
+    private static final Logger log = LoggerFactory.getLogger(PoolFactory.class);
+
+    private final Properties props;
+    private final String poolName;
+
+    /**
+     * @param props 配置
+     * @param poolName 连接池名称前缀，如 SmtpMailPool
+     */
+    public PoolFactory(Properties props, String poolName) {
+        this.props = props;
+        this.poolName = poolName;
+    }
+
+    /**
+     * 加载 classpath 上的 application.properties，找不到时使用默认配置
+     */
+    public static Properties loadProperties() {
+        Properties props = new Properties();
+
+        try (InputStream is = PoolFactory.class.getClassLoader()
+                .getResourceAsStream("application.properties")) {
+            if (is != null) {
+                props.load(is);
+                log.info("已加载配置文件 application.properties");
+            } else {
+                log.warn("未找到配置文件 application.properties，使用默认配置");
+            }
+        } catch (IOException e) {
+            log.warn("加载配置文件失败，使用默认配置: {}", e.getMessage());
+        }
+
+        return props;
+    }
+
+    public Properties properties() {
+        return props;
+    }
+
+    /**
+     * 配置的分片数量
+     */
+    public int shardCount() {
+        return Integer.parseInt(props.getProperty("db.shards", "1"));
+    }
+
+    /**
+     * 创建分片的连接池
+     */
+    public HikariDataSource createShardPool(int shard) {
+        return createPool(shardUrl(shard),
+                shardProperty(shard, "username", "postgres"),
+                shardProperty(shard, "password", "postgres"),
+                shardPoolName(shard));
+    }
+
+    /**
+     * 创建分片只读副本的连接池，没有配置副本时返回 null
+     */
+    public HikariDataSource createReplicaPool(int shard) {
+        String prefix = shard == 0 ? "db.replica." : "db.shard." + shard + ".replica.";
+        String url = props.getProperty(prefix + "url");
+        if (url == null) {
+            return null;
+        }
+        return createPool(url,
+                props.getProperty(prefix + "username", shardProperty(shard, "username", "postgres")),
+                props.getProperty(prefix + "password", shardProperty(shard, "password", "postgres")),
+                shardPoolName(shard) + "-replica");
+    }
+
+    /**
+     * 打开分片上不经过连接池的独立连接，用于 LISTEN、advisory lock 等会话级状态，调用方负责关闭
+     */
+    public Connection openDedicatedConnection(int shard) throws SQLException {
+        return DriverManager.getConnection(
+                shardUrl(shard),
+                shardProperty(shard, "username", "postgres"),
+                shardProperty(shard, "password", "postgres"));
+    }
+
+    private String shardPoolName(int shard) {
+        return shard == 0 ? poolName : poolName + "-shard" + shard;
+    }
+
+    private String shardUrl(int shard) {
+        if (shard == 0) {
+            return props.getProperty("db.url", "jdbc:postgresql://localhost:5432/maildb");
+        }
+        String url = props.getProperty("db.shard." + shard + ".url");
+        if (url == null) {
+            throw new IllegalStateException("缺少分片配置: db.shard." + shard + ".url");
+        }
+        return url;
+    }
+
+    private String shardProperty(int shard, String name, String defaultValue) {
+        String value = props.getProperty("db." + name, defaultValue);
+        return shard == 0 ? value : props.getProperty("db.shard." + shard + "." + name, value);
+    }
+
+    /**
+     * 创建 HikariCP 数据源
+     */
+    private HikariDataSource createPool(String url, String username, String password, String name) {
+        HikariConfig config = new HikariConfig();
+
+        // 基本连接配置
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.setDriverClassName("org.postgresql.Driver");
+
+        // 连接池配置
+        config.setMaximumPoolSize(Integer.parseInt(props.getProperty("db.pool.maxSize", "20")));
+        config.setMinimumIdle(Integer.parseInt(props.getProperty("db.pool.minIdle", "5")));
+        config.setConnectionTimeout(Long.parseLong(props.getProperty("db.pool.connectionTimeout", "30000")));
+        config.setIdleTimeout(Long.parseLong(props.getProperty("db.pool.idleTimeout", "600000")));
+        config.setMaxLifetime(Long.parseLong(props.getProperty("db.pool.maxLifetime", "1800000")));
+
+        // 连接验证
+        config.setConnectionTestQuery("SELECT 1");
+
+        // 连接池名称
+        config.setPoolName(name);
+
+        // PostgreSQL 特定优化
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+
+        log.info("初始化数据库连接池: pool={}, url={}", name, url);
+
+        HikariDataSource dataSource = new HikariDataSource(config);
+        registerGauges(name, dataSource);
+        return dataSource;
+    }
+
+    private static void registerGauges(String name, HikariDataSource dataSource) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        String prefix = "db.pool." + name;
+        metrics.gauge(prefix + ".active", () -> poolStat(dataSource, HikariPoolMXBean::getActiveConnections));
+        metrics.gauge(prefix + ".idle", () -> poolStat(dataSource, HikariPoolMXBean::getIdleConnections));
+        metrics.gauge(prefix + ".waiting", () -> poolStat(dataSource, HikariPoolMXBean::getThreadsAwaitingConnection));
+    }
+
+    private static long poolStat(HikariDataSource dataSource, ToIntFunction<HikariPoolMXBean> stat) {
+        HikariPoolMXBean pool = dataSource.isClosed() ? null : dataSource.getHikariPoolMXBean();
+        return pool != null ? stat.applyAsInt(pool) : 0;
+    }
+}
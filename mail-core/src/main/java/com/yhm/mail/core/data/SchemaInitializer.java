@@ -1,5 +1,6 @@
-package com.yhm.pop3.db;
+package com.yhm.mail.core.data;
 
+import com.yhm.mail.core.shard.ShardRouter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,92 +12,117 @@ import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 数据库初始化器
- * 负责执行初始化 SQL 脚本创建表结构
+ * 在每个分片上执行 classpath 中的 schema.sql（各服务器自带自己的脚本）
  */
-public final class DatabaseInitializer {
-    
-    private static final Logger log = LoggerFactory.getLogger(DatabaseInitializer.class);
-    
+public final class SchemaInitializer {
+
+    private static final Logger log = LoggerFactory.getLogger(SchemaInitializer.class);
+
     private static volatile boolean initialized = false;
     private static final Object LOCK = new Object();
-    
-    private DatabaseInitializer() {
+
+    private SchemaInitializer() {
         // 工具类，禁止实例化
     }
-    
+
     /**
-     * 初始化数据库
-     * 执行 schema.sql 脚本创建必要的表
+     * 初始化数据库，同一进程中只执行一次
      */
-    public static void initialize() {
+    public static void initialize(ShardRouter router) {
         if (initialized) {
             return;
         }
-        
+
         synchronized (LOCK) {
             if (initialized) {
                 return;
             }
-            
-            log.info("初始化数据库...");
-            
+
+            log.info("开始初始化数据库...");
+
             try {
-                executeSchema();
+                executeSchema(router);
                 initialized = true;
                 log.info("数据库初始化完成");
             } catch (SQLException | IOException e) {
                 log.error("数据库初始化失败: {}", e.getMessage(), e);
-                throw new RuntimeException("Failed to initialize database", e);
+                throw new RuntimeException("数据库初始化失败", e);
             }
         }
     }
-    
-    /**
-     * 执行 schema.sql
-     */
-    private static void executeSchema() throws SQLException, IOException {
+
+    private static void executeSchema(ShardRouter router) throws SQLException, IOException {
         String schema = loadSchemaFile();
-        
         if (schema == null || schema.isBlank()) {
-            log.warn("未找到 schema.sql 或文件为空");
+            log.warn("未找到 schema.sql 或文件为空，跳过数据库初始化");
             return;
         }
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             Statement stmt = conn.createStatement()) {
-            
-            // 使用智能分割器处理 $$...$$ 块
-            var statements = splitSqlStatements(schema);
-            
-            for (String sql : statements) {
-                sql = sql.trim();
-                if (!sql.isEmpty() && !sql.startsWith("--")) {
-                    try {
-                        stmt.execute(sql);
-                        log.debug("执行 SQL: {}", truncate(sql, 100));
-                    } catch (SQLException e) {
-                        // 忽略某些错误（如表已存在）
-                        if (!isIgnorableError(e)) {
-                            throw e;
-                        }
-                        log.debug("忽略 SQL 错误: {}", e.getMessage());
+
+        // 使用智能分割器处理 $$...$$ 块
+        var statements = splitSqlStatements(schema);
+
+        // 每个分片都执行完整脚本：邮件表在各个分片上，users、mail_domains 是它们外键的依赖
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            try (Connection conn = router.shard(shard).getConnection();
+                 Statement stmt = conn.createStatement()) {
+                executeStatements(stmt, statements);
+            }
+        }
+    }
+
+    /**
+     * 加载 schema.sql，去掉整行注释
+     *
+     * 语句前的说明注释会和语句分在同一段里，不去掉的话整条语句会被当作注释跳过
+     */
+    private static String loadSchemaFile() throws IOException {
+        try (InputStream is = SchemaInitializer.class.getClassLoader().getResourceAsStream("schema.sql")) {
+            if (is == null) {
+                return null;
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+                return reader.lines()
+                        .filter(line -> !line.stripLeading().startsWith("--"))
+                        .collect(Collectors.joining("\n"));
+            }
+        }
+    }
+
+    /**
+     * 在一个库上逐条执行脚本语句
+     */
+    private static void executeStatements(Statement stmt, List<String> statements) throws SQLException {
+        for (String sql : statements) {
+            sql = sql.trim();
+            if (!sql.isEmpty()) {
+                try {
+                    stmt.execute(sql);
+                    log.debug("执行 SQL: {}", truncate(sql, 100));
+                } catch (SQLException e) {
+                    // 忽略某些错误（如表已存在）
+                    if (!isIgnorableError(e)) {
+                        throw e;
                     }
+                    log.debug("忽略 SQL 错误: {}", e.getMessage());
                 }
             }
         }
     }
-    
+
     /**
      * 智能分割 SQL 语句，正确处理 PostgreSQL 的 $$...$$ 函数定义块
      */
-    private static java.util.List<String> splitSqlStatements(String schema) {
-        var statements = new java.util.ArrayList<String>();
+    static List<String> splitSqlStatements(String schema) {
+        var statements = new ArrayList<String>();
         var current = new StringBuilder();
         boolean inDollarQuote = false;
-        
+
         int i = 0;
         while (i < schema.length()) {
             // 检查 $$ 标记
@@ -106,9 +132,9 @@ public final class DatabaseInitializer {
                 i += 2;
                 continue;
             }
-            
+
             char c = schema.charAt(i);
-            
+
             // 只有不在 $$ 块内时，分号才是语句分隔符
             if (c == ';' && !inDollarQuote) {
                 String sql = current.toString().trim();
@@ -121,40 +147,16 @@ public final class DatabaseInitializer {
             }
             i++;
         }
-        
+
         // 添加最后一条语句
         String lastSql = current.toString().trim();
         if (!lastSql.isEmpty()) {
             statements.add(lastSql);
         }
-        
+
         return statements;
     }
-    
-    /**
-     * 加载 schema.sql 文件
-     */
-    private static String loadSchemaFile() throws IOException {
-        try (InputStream is = DatabaseInitializer.class.getClassLoader()
-                .getResourceAsStream("schema.sql")) {
-            
-            if (is == null) {
-                return null;
-            }
-            
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(is, StandardCharsets.UTF_8))) {
-                
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    sb.append(line).append("\n");
-                }
-                return sb.toString();
-            }
-        }
-    }
-    
+
     /**
      * 检查是否是可忽略的错误
      */
@@ -164,7 +166,7 @@ public final class DatabaseInitializer {
                message.contains("duplicate") ||
                message.contains("relation") && message.contains("exists");
     }
-    
+
     /**
      * 截断字符串
      */
@@ -175,4 +177,3 @@ public final class DatabaseInitializer {
         return str.substring(0, maxLength).replace("\n", " ") + "...";
     }
 }
-
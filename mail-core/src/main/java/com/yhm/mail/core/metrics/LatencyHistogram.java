@@ -0,0 +1,89 @@
+package com.yhm.mail.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 无锁延迟直方图
+ *
+ * 按微秒的 2 的幂分桶（第 i 个桶记录 [2^(i-1), 2^i) 微秒），
+ * 记录只有几次原子加法，适合在热点路径上使用。分位数为桶上界的近似值。
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 40; // 最大约 2^39 微秒，足够覆盖任何实际延迟
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalMicros.add(micros);
+
+        long max;
+        while (micros > (max = maxMicros.get())) {
+            if (maxMicros.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 从 startNanos（System.nanoTime()）开始计时并记录
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) totalMicros.sum() / n;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * 近似分位数（微秒，返回所在桶的上界）
+     *
+     * @param quantile 0.0 ~ 1.0
+     */
+    public long getPercentileMicros(double quantile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(1L << i, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.0fus, p50=%dus, p99=%dus, max=%dus",
+                getCount(), getMeanMicros(), getPercentileMicros(0.5), getPercentileMicros(0.99), getMaxMicros());
+    }
+}
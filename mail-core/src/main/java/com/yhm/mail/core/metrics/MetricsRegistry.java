@@ -0,0 +1,55 @@
+package com.yhm.mail.core.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 进程内指标注册表
+ *
+ * 计数器、延迟直方图和瞬时值（gauge）按名称注册，同名重复获取返回同一个实例。
+ * 服务器各组件共用 {@link #global()}，由 {@link MetricsReporter} 定期输出。
+ */
+public final class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /**
+     * 全局注册表
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * 注册瞬时值，同名覆盖
+     */
+    public void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /**
+     * 当前所有指标的快照（按名称排序）
+     */
+    public Map<String, String> snapshot() {
+        Map<String, String> result = new TreeMap<>();
+        counters.forEach((name, adder) -> result.put(name, String.valueOf(adder.sum())));
+        gauges.forEach((name, supplier) -> result.put(name, String.valueOf(supplier.getAsLong())));
+        histograms.forEach((name, histogram) -> result.put(name, histogram.toString()));
+        return result;
+    }
+}
@@ -0,0 +1,68 @@
+package com.yhm.mail.core.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 指标日志输出器
+ *
+ * 后台守护线程按固定间隔把注册表快照写入日志（logger: com.yhm.mail.core.metrics）。
+ */
+public final class MetricsReporter {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private final MetricsRegistry registry;
+    private final long intervalNanos;
+    private volatile boolean running;
+    private Thread thread;
+
+    public MetricsReporter(MetricsRegistry registry, long intervalMillis) {
+        this.registry = registry;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    public synchronized void start() {
+        if (running || intervalNanos <= 0) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform()
+                .name("metrics-reporter")
+                .daemon(true)
+                .start(this::loop);
+    }
+
+    private void loop() {
+        while (running) {
+            LockSupport.parkNanos(this, intervalNanos);
+            if (running) {
+                report();
+            }
+        }
+    }
+
+    /**
+     * 立即输出一次
+     */
+    public void report() {
+        Map<String, String> snapshot = registry.snapshot();
+        if (snapshot.isEmpty()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("指标:");
+        snapshot.forEach((name, value) -> sb.append("\n  ").append(name).append(" = ").append(value));
+        log.info(sb.toString());
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
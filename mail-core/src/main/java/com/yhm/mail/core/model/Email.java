@@ -1,5 +1,7 @@
 package com.yhm.mail.core.model;
 
+import com.yhm.mail.core.util.MessageLayout;
+
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,6 +24,7 @@ public class Email {
     private boolean read;
     private boolean deleted;
     private String owner;
+    private MessageLayout layout;
     
     public Email() {
         this.recipients = new ArrayList<>();
@@ -39,6 +42,7 @@ public class Email {
         this.read = builder.read;
         this.deleted = builder.deleted;
         this.owner = builder.owner;
+        this.layout = builder.layout;
     }
     
     public static Builder builder() {
@@ -57,6 +61,7 @@ public class Email {
     public boolean isRead() { return read; }
     public boolean isDeleted() { return deleted; }
     public String getOwner() { return owner; }
+    public MessageLayout getLayout() { return layout; }
     
     // Setters
     public void setId(UUID id) { this.id = id; }
@@ -70,6 +75,7 @@ public class Email {
     public void setRead(boolean read) { this.read = read; }
     public void setDeleted(boolean deleted) { this.deleted = deleted; }
     public void setOwner(String owner) { this.owner = owner; }
+    public void setLayout(MessageLayout layout) { this.layout = layout; }
     
     @Override
     public String toString() {
@@ -98,6 +104,7 @@ public class Email {
         private boolean read;
         private boolean deleted;
         private String owner;
+        private MessageLayout layout;
         
         public Builder id(UUID id) { this.id = id; return this; }
         public Builder sender(String sender) { this.sender = sender; return this; }
@@ -110,6 +117,7 @@ public class Email {
         public Builder read(boolean read) { this.read = read; return this; }
         public Builder deleted(boolean deleted) { this.deleted = deleted; return this; }
         public Builder owner(String owner) { this.owner = owner; return this; }
+        public Builder layout(MessageLayout layout) { this.layout = layout; return this; }
         
         public Email build() {
             return new Email(this);
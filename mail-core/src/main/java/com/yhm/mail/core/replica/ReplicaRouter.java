@@ -0,0 +1,301 @@
+package com.yhm.mail.core.replica;
+
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 只读副本路由
+ *
+ * 一个主库加一个流复制备库。只读查询在副本足够新时走副本，否则走主库：
+ * - 后台线程定期记录主库的 pg_current_wal_lsn()，副本回放到该位置后，
+ *   就知道副本包含了采样时刻之前提交的全部数据
+ * - 副本落后超过 maxLag（或还没有确认过进度）时全部走主库
+ * - 写入后调用 {@link #markWritten(String)}，该邮箱的读取走主库，直到副本追上写入时刻（读己之写）；
+ *   {@link #markWritten()} 对本进程的所有读取生效
+ *
+ * 两条路径的连接占用时间分别记入 {prefix}.primary.latency 和 {prefix}.replica.latency，
+ * 路由结果记入 {prefix}.route.*，副本延迟记入 {prefix}.replica.lagMillis。
+ *
+ * 本类不管理 DataSource 的生命周期，由创建者负责关闭。
+ */
+public final class ReplicaRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRouter.class);
+
+    /** 默认允许的副本延迟 */
+    public static final long DEFAULT_MAX_LAG_MILLIS = 1000;
+
+    /** 默认副本进度检查间隔 */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 200;
+
+    // 未确认的主库采样点上限，副本长时间停止回放时丢弃最早的
+    private static final int MAX_PENDING_SAMPLES = 1024;
+
+    public enum Route {
+        PRIMARY, REPLICA
+    }
+
+    /**
+     * 主库 WAL 位置采样
+     */
+    private record Sample(long takenAt, long lsn) {
+    }
+
+    private final String name;
+    private final TimedDataSource primary;
+    private final TimedDataSource replica;
+    private final long maxLagNanos;
+    private final long pollIntervalNanos;
+
+    // 邮箱（小写）-> 最近一次写入时刻（System.nanoTime()）
+    private final Map<String, Long> recentWrites = new ConcurrentHashMap<>();
+    private final AtomicLong lastGlobalWrite = new AtomicLong();
+    private volatile boolean globalWritten;
+
+    // 只由监控线程访问
+    private final ArrayDeque<Sample> pending = new ArrayDeque<>();
+
+    private volatile boolean synced;
+    private volatile long caughtUpAt;
+
+    private final LongAdder routedToReplica;
+    private final LongAdder lagFallbacks;
+    private final LongAdder writeFallbacks;
+
+    private volatile boolean running;
+    private volatile boolean notStandbyWarned;
+    private Thread thread;
+
+    /**
+     * @param name 名称，也是指标前缀
+     * @param primary 主库
+     * @param replica 副本，为 null 时所有读取走主库
+     */
+    public ReplicaRouter(String name, DataSource primary, DataSource replica,
+                         long maxLagMillis, long pollIntervalMillis) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.name = name;
+        this.primary = new TimedDataSource(primary, metrics.histogram(name + ".primary.latency"));
+        this.replica = replica != null
+                ? new TimedDataSource(replica, metrics.histogram(name + ".replica.latency"))
+                : null;
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(pollIntervalMillis);
+        this.routedToReplica = metrics.counter(name + ".route.replica");
+        this.lagFallbacks = metrics.counter(name + ".route.fallback.lag");
+        this.writeFallbacks = metrics.counter(name + ".route.fallback.recentWrite");
+        if (replica != null) {
+            metrics.gauge(name + ".replica.lagMillis", this::lagMillis);
+        }
+    }
+
+    /**
+     * 没有副本，所有读取走主库（仍然记录延迟）
+     */
+    public static ReplicaRouter primaryOnly(String name, DataSource primary) {
+        return new ReplicaRouter(name, primary, null, DEFAULT_MAX_LAG_MILLIS, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    // ==================== 数据源 ====================
+
+    public boolean hasReplica() {
+        return replica != null;
+    }
+
+    /**
+     * 主库（记录延迟）
+     */
+    public DataSource primary() {
+        return primary;
+    }
+
+    /**
+     * 副本（记录延迟），没有副本时返回主库
+     */
+    public DataSource replica() {
+        return replica != null ? replica : primary;
+    }
+
+    /**
+     * 读取连接，按 {@link #route(String)} 选择主库或副本
+     * @param owner 邮箱地址，为 null 时只考虑全局写入
+     */
+    public Connection getReadConnection(String owner) throws SQLException {
+        return route(owner) == Route.REPLICA ? replica.getConnection() : primary.getConnection();
+    }
+
+    // ==================== 路由 ====================
+
+    /**
+     * 不针对单个邮箱的只读查询的路由
+     */
+    public Route route() {
+        return route(null);
+    }
+
+    /**
+     * 只读查询的路由
+     * @param owner 邮箱地址，为 null 时只考虑全局写入
+     */
+    public Route route(String owner) {
+        if (replica == null) {
+            return Route.PRIMARY;
+        }
+
+        long freshAt = caughtUpAt;
+        if (!synced || System.nanoTime() - freshAt > maxLagNanos) {
+            lagFallbacks.increment();
+            return Route.PRIMARY;
+        }
+        if (writtenSince(freshAt, owner)) {
+            writeFallbacks.increment();
+            return Route.PRIMARY;
+        }
+
+        routedToReplica.increment();
+        return Route.REPLICA;
+    }
+
+    private boolean writtenSince(long freshAt, String owner) {
+        if (globalWritten && lastGlobalWrite.get() - freshAt >= 0) {
+            return true;
+        }
+        if (owner == null) {
+            return false;
+        }
+        Long writtenAt = recentWrites.get(owner.toLowerCase(Locale.ROOT));
+        return writtenAt != null && writtenAt - freshAt >= 0;
+    }
+
+    /**
+     * 记录邮箱在主库上有新的写入（投递、删除、标志变化），之后该邮箱的读取走主库直到副本追上
+     * 必须在写入提交之后调用
+     */
+    public void markWritten(String owner) {
+        if (replica != null) {
+            recentWrites.put(owner.toLowerCase(Locale.ROOT), System.nanoTime());
+        }
+    }
+
+    /**
+     * 记录本进程在主库上有新的写入，之后所有读取走主库直到副本追上
+     * 必须在写入提交之后调用
+     */
+    public void markWritten() {
+        if (replica != null) {
+            long now = System.nanoTime();
+            lastGlobalWrite.accumulateAndGet(now, (prev, next) -> next - prev > 0 ? next : prev);
+            globalWritten = true;
+        }
+    }
+
+    /**
+     * 副本延迟（毫秒），即副本确认包含的数据距今多久；尚未确认过时返回 -1
+     */
+    public long lagMillis() {
+        if (replica == null) {
+            return 0;
+        }
+        return synced ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUpAt) : -1;
+    }
+
+    // ==================== 副本进度监控 ====================
+
+    /**
+     * 启动副本进度监控线程（没有副本时什么也不做）
+     */
+    public synchronized void start() {
+        if (running || replica == null) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform()
+                .name("replica-monitor-" + name)
+                .daemon(true)
+                .start(this::loop);
+        log.info("只读副本路由已启动: {}, maxLag={}ms", name, TimeUnit.NANOSECONDS.toMillis(maxLagNanos));
+    }
+
+    private void loop() {
+        while (running) {
+            try {
+                poll();
+            } catch (SQLException e) {
+                // 副本进度不再更新，延迟超过 maxLag 后读取自动回到主库
+                log.debug("检查副本进度失败: {}: {}", name, e.getMessage());
+            }
+            LockSupport.parkNanos(this, pollIntervalNanos);
+        }
+    }
+
+    private void poll() throws SQLException {
+        long takenAt = System.nanoTime();
+        try (Connection conn = primary.delegate().getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT pg_current_wal_lsn()::text")) {
+            if (rs.next()) {
+                if (pending.size() >= MAX_PENDING_SAMPLES) {
+                    pending.pollFirst();
+                }
+                pending.addLast(new Sample(takenAt, parseLsn(rs.getString(1))));
+            }
+        }
+
+        long replayed;
+        try (Connection conn = replica.delegate().getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                     "SELECT pg_is_in_recovery(), pg_last_wal_replay_lsn()::text")) {
+            if (!rs.next() || !rs.getBoolean(1) || rs.getString(2) == null) {
+                if (!notStandbyWarned) {
+                    notStandbyWarned = true;
+                    log.warn("只读副本不是流复制备库，读取全部走主库: {}", name);
+                }
+                return;
+            }
+            replayed = parseLsn(rs.getString(2));
+        }
+
+        // 副本已回放到的采样点中最晚的一个，就是副本确认包含的数据时刻
+        Sample caughtUp = null;
+        while (!pending.isEmpty() && Long.compareUnsigned(pending.peekFirst().lsn(), replayed) <= 0) {
+            caughtUp = pending.pollFirst();
+        }
+        if (caughtUp != null) {
+            long freshAt = caughtUp.takenAt();
+            caughtUpAt = freshAt;
+            synced = true;
+            recentWrites.values().removeIf(writtenAt -> writtenAt - freshAt < 0);
+        }
+    }
+
+    /**
+     * 解析 PostgreSQL 的 LSN 文本（如 16/B374D848）
+     */
+    static long parseLsn(String lsn) {
+        int slash = lsn.indexOf('/');
+        return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
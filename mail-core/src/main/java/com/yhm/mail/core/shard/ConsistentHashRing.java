@@ -0,0 +1,92 @@
+package com.yhm.mail.core.shard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 一致性哈希环
+ *
+ * 每个分片在环上放置若干虚拟节点，键顺时针落到第一个虚拟节点所属的分片。
+ * 虚拟节点位置只取决于分片序号和节点序号，追加分片时已有分片的节点不动，
+ * 只有约 1/N 的键改变归属。
+ *
+ * 所有服务器和 admin-web 必须使用相同的分片数量、顺序和虚拟节点数，否则同一个邮箱会被路由到不同分片。
+ */
+final class ConsistentHashRing {
+
+    private final long[] points;
+    private final int[] shards;
+
+    ConsistentHashRing(int shardCount, int virtualNodes) {
+        if (shardCount < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("分片数和虚拟节点数必须大于 0");
+        }
+
+        int size = shardCount * virtualNodes;
+        long[] keyed = new long[size];
+        int[] owners = new int[size];
+        int n = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < virtualNodes; node++) {
+                keyed[n] = hash("shard-" + shard + "#" + node);
+                owners[n] = shard;
+                n++;
+            }
+        }
+
+        // 按位置排序（位置相同的极少数情况下序号小的分片在前，保证各进程结果一致）
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compareUnsigned(keyed[a], keyed[b]);
+            return c != 0 ? c : Integer.compare(owners[a], owners[b]);
+        });
+
+        this.points = new long[size];
+        this.shards = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = keyed[order[i]];
+            shards[i] = owners[order[i]];
+        }
+    }
+
+    /**
+     * 键所属的分片
+     */
+    int shardFor(String key) {
+        long h = hash(key);
+
+        // 二分查找第一个位置 >= h 的虚拟节点，超过末尾则回到环首
+        int lo = 0;
+        int hi = points.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Long.compareUnsigned(points[mid], h) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return shards[lo == points.length ? 0 : lo];
+    }
+
+    /**
+     * 64 位 FNV-1a，再经 MurmurHash3 的 fmix64 打散
+     * FNV-1a 对只差末尾几个字符的键（如 shard-0#1、shard-0#2）分布不够均匀
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
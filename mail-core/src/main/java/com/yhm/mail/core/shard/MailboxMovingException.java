@@ -0,0 +1,16 @@
+package com.yhm.mail.core.shard;
+
+import java.sql.SQLException;
+
+/**
+ * 邮箱正在迁移到其他分片，暂时不能写入
+ *
+ * 继承 SQLException，各服务器按已有的数据库错误处理返回临时失败（SMTP 451、POP3 -ERR、IMAP NO），
+ * 客户端稍后重试即可。SQLState 使用 PostgreSQL 的 object_in_use。
+ */
+public class MailboxMovingException extends SQLException {
+
+    public MailboxMovingException(String owner) {
+        super("邮箱正在迁移，暂时不能写入: " + owner, "55006");
+    }
+}
@@ -0,0 +1,167 @@
+package com.yhm.mail.core.shard;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * 在两个库之间按列名复制行
+ *
+ * 列取源查询结果与目标表非生成列的交集，两边表结构版本略有差别时也能复制。
+ * 用于把用户行复制到新分片和 {@link ShardRebalancer} 迁移邮箱。
+ */
+final class RowCopier {
+
+    private static final int BATCH_SIZE = 200;
+
+    private final Connection target;
+    private final String table;
+    private final List<String> conflictColumns;
+    private final boolean update;
+    private final Set<String> preservedColumns;
+    private final Set<String> targetColumns;
+
+    private final Map<String, Object> lastRow = new HashMap<>();
+
+    /**
+     * @param conflictColumns 冲突判断列；为空时使用 ON CONFLICT DO NOTHING
+     * @param update 冲突时是否用源数据覆盖其他列
+     */
+    RowCopier(Connection target, String table, List<String> conflictColumns, boolean update) throws SQLException {
+        this(target, table, conflictColumns, update, Set.of());
+    }
+
+    /**
+     * @param preservedColumns 冲突时保留目标库原值的列（新插入的行仍然写入）
+     */
+    RowCopier(Connection target, String table, List<String> conflictColumns, boolean update,
+              Set<String> preservedColumns) throws SQLException {
+        this.target = target;
+        this.table = table;
+        this.conflictColumns = conflictColumns;
+        this.update = update;
+        this.preservedColumns = preservedColumns;
+        this.targetColumns = loadColumns(target, table);
+        if (targetColumns.isEmpty()) {
+            throw new SQLException("目标库缺少表: " + table);
+        }
+    }
+
+    /**
+     * 按条件从源库复制，已存在的行跳过
+     */
+    static int copy(Connection source, Connection target, String table, String where, List<?> params)
+            throws SQLException {
+        RowCopier copier = new RowCopier(target, table, List.of(), false);
+        try (PreparedStatement stmt = source.prepareStatement("SELECT * FROM " + table + " WHERE " + where)) {
+            bind(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return copier.copy(rs);
+            }
+        }
+    }
+
+    /**
+     * 写入结果集的全部行
+     * @return 读取的行数
+     */
+    int copy(ResultSet rs) throws SQLException {
+        ResultSetMetaData meta = rs.getMetaData();
+        List<Integer> indexes = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+        for (int i = 1; i <= meta.getColumnCount(); i++) {
+            String column = meta.getColumnName(i).toLowerCase(Locale.ROOT);
+            if (targetColumns.contains(column) && !columns.contains(column)) {
+                indexes.add(i);
+                columns.add(column);
+            }
+        }
+
+        int rows = 0;
+        try (PreparedStatement insert = target.prepareStatement(insertSql(columns))) {
+            while (rs.next()) {
+                lastRow.clear();
+                for (int i = 0; i < indexes.size(); i++) {
+                    Object value = rs.getObject(indexes.get(i));
+                    lastRow.put(columns.get(i), value);
+                    if (value instanceof Array array) {
+                        insert.setArray(i + 1, array);
+                    } else {
+                        insert.setObject(i + 1, value);
+                    }
+                }
+                insert.addBatch();
+                if (++rows % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            if (rows % BATCH_SIZE != 0) {
+                insert.executeBatch();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 最近一次 {@link #copy(ResultSet)} 读取的最后一行中的列值，用于分批复制时的游标
+     */
+    Object last(String column) {
+        return lastRow.get(column);
+    }
+
+    private String insertSql(List<String> columns) {
+        String placeholders = columns.stream().map(c -> "?").collect(Collectors.joining(", "));
+        StringBuilder sql = new StringBuilder()
+                .append("INSERT INTO ").append(table)
+                .append(" (").append(String.join(", ", columns)).append(")")
+                .append(" VALUES (").append(placeholders).append(")");
+
+        if (conflictColumns.isEmpty() || !update) {
+            sql.append(" ON CONFLICT DO NOTHING");
+            return sql.toString();
+        }
+        String assignments = columns.stream()
+                .filter(c -> !conflictColumns.contains(c) && !preservedColumns.contains(c))
+                .map(c -> c + " = EXCLUDED." + c)
+                .collect(Collectors.joining(", "));
+        sql.append(" ON CONFLICT (").append(String.join(", ", conflictColumns)).append(")")
+                .append(" DO UPDATE SET ").append(assignments);
+        return sql.toString();
+    }
+
+    private static Set<String> loadColumns(Connection conn, String table) throws SQLException {
+        String sql = """
+            SELECT column_name FROM information_schema.columns
+            WHERE table_schema = current_schema() AND table_name = ? AND is_generated = 'NEVER'
+            ORDER BY ordinal_position
+            """;
+
+        Set<String> columns = new LinkedHashSet<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    columns.add(rs.getString(1));
+                }
+            }
+        }
+        return columns;
+    }
+
+    static void bind(PreparedStatement stmt, List<?> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            stmt.setObject(i + 1, params.get(i));
+        }
+    }
+}
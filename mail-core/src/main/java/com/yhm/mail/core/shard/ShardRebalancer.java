@@ -0,0 +1,353 @@
+package com.yhm.mail.core.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在线迁移邮箱到其他分片
+ *
+ * 迁移过程中邮箱一直可读，只有切换前的短暂窗口内写入返回临时失败：
+ * 1. 在目标分片准备 users 行和邮件所在月份的分区（emails 没有默认分区），
+ *    把目标分片的 uid/modseq 序列推进到不小于原分片
+ * 2. 记录起点 modseq，分批复制全部邮件（不加锁，邮箱照常收信）
+ * 3. mailbox_shards 标记为 moving，等待各进程的路由缓存过期，此后写入被拒绝
+ * 4. 在原分片取邮箱 advisory lock（等待进行中的写事务提交），复制起点之后的变化和墓碑
+ * 5. mailbox_shards 指向目标分片，再等待缓存过期后删除原分片上的数据
+ *
+ * 迁移后邮件的 id、received_at、uid 不变，IMAP 客户端不需要重新同步；
+ * modseq 在目标分片重新分配，且都大于原分片上的值，增量同步的客户端会收到一次全部邮件的更新。
+ *
+ * 第 3、4 步失败时恢复为原分片，目标分片上已复制的数据不可见，重新执行即可（复制是幂等的）。
+ */
+public final class ShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    private static final int BATCH_ROWS = 500;
+
+    private static final String FIRST_BATCH_SQL = """
+            SELECT * FROM emails WHERE owner = ?
+            ORDER BY received_at, id LIMIT ?
+            """;
+
+    private static final String NEXT_BATCH_SQL = """
+            SELECT * FROM emails WHERE owner = ? AND (received_at, id) > (?, ?)
+            ORDER BY received_at, id LIMIT ?
+            """;
+
+    /**
+     * 迁移结果
+     * @param copied 批量复制的邮件数
+     * @param changed 冻结窗口内补齐的变化数（更新和删除）
+     */
+    public record MoveResult(String owner, int fromShard, int toShard, int copied, int changed) {
+    }
+
+    private final ShardRouter router;
+
+    public ShardRebalancer(ShardRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * 把邮箱迁移到指定分片
+     */
+    public MoveResult move(String owner, int targetShard) throws SQLException, InterruptedException {
+        if (targetShard < 0 || targetShard >= router.shardCount()) {
+            throw new IllegalArgumentException("分片序号超出范围: " + targetShard);
+        }
+
+        router.invalidateOverrides();
+        ShardRouter.Placement placement = router.placementOf(owner);
+        if (placement.moving()) {
+            throw new SQLException("邮箱已在迁移中: " + owner);
+        }
+        int sourceShard = placement.shard();
+        if (sourceShard == targetShard) {
+            return new MoveResult(owner, sourceShard, targetShard, 0, 0);
+        }
+
+        DataSource source = router.shard(sourceShard);
+        DataSource target = router.shard(targetShard);
+        log.info("开始迁移邮箱 {}: 分片 {} -> {}", owner, sourceShard, targetShard);
+
+        // 1. 目标分片准备
+        ShardRouter.copyMailboxOwner(owner.toLowerCase(), router.directory(), target);
+        createPartitions(source, target, owner);
+        advanceSequences(source, target);
+
+        // 2. 批量复制
+        long since = maxModseq(source, owner);
+        int copied = copyEmails(source, target, owner);
+        log.info("邮箱 {} 已复制 {} 封邮件，开始冻结写入", owner, copied);
+
+        // 3、4. 冻结写入并补齐变化
+        int changed;
+        setPlacement(owner, sourceShard, "moving");
+        try {
+            waitForRoutingCaches();
+            changed = copyChanges(source, target, owner, since);
+        } catch (SQLException | InterruptedException | RuntimeException e) {
+            restorePlacement(owner, sourceShard);
+            throw e;
+        }
+
+        // 5. 切换并清理原分片
+        if (router.hashShardOf(owner) == targetShard) {
+            clearPlacement(owner);
+        } else {
+            setPlacement(owner, targetShard, "active");
+        }
+        log.info("邮箱 {} 已切换到分片 {}，等待路由缓存过期后清理原分片", owner, targetShard);
+
+        waitForRoutingCaches();
+        ShardRouter.deleteMailbox(source, owner, sourceShard != 0);
+
+        log.info("邮箱 {} 迁移完成: 复制 {} 封，补齐 {} 项变化", owner, copied, changed);
+        return new MoveResult(owner, sourceShard, targetShard, copied, changed);
+    }
+
+    // ==================== 复制 ====================
+
+    private int copyEmails(DataSource source, DataSource target, String owner) throws SQLException {
+        int copied = 0;
+        try (Connection from = source.getConnection();
+             Connection to = target.getConnection()) {
+            RowCopier copier = new RowCopier(to, "emails", List.of(), false);
+
+            Timestamp lastReceivedAt = null;
+            UUID lastId = null;
+            while (true) {
+                PreparedStatement stmt;
+                if (lastReceivedAt == null) {
+                    stmt = from.prepareStatement(FIRST_BATCH_SQL);
+                    stmt.setString(1, owner);
+                    stmt.setInt(2, BATCH_ROWS);
+                } else {
+                    stmt = from.prepareStatement(NEXT_BATCH_SQL);
+                    stmt.setString(1, owner);
+                    stmt.setTimestamp(2, lastReceivedAt);
+                    stmt.setObject(3, lastId);
+                    stmt.setInt(4, BATCH_ROWS);
+                }
+
+                int rows;
+                try (stmt; ResultSet rs = stmt.executeQuery()) {
+                    rows = copier.copy(rs);
+                }
+                copied += rows;
+                if (rows < BATCH_ROWS) {
+                    return copied;
+                }
+                lastReceivedAt = (Timestamp) copier.last("received_at");
+                lastId = (UUID) copier.last("id");
+            }
+        }
+    }
+
+    /**
+     * 在原分片持有邮箱 advisory lock 期间补齐起点之后的变化
+     * 邮箱已标记为 moving，锁只用于等待标记生效前开始的写事务
+     */
+    private int copyChanges(DataSource source, DataSource target, String owner, long since) throws SQLException {
+        try (Connection from = source.getConnection();
+             Connection to = target.getConnection()) {
+            from.setAutoCommit(false);
+            to.setAutoCommit(false);
+            try {
+                lockMailbox(from, owner);
+                advanceSequences(from, to);
+
+                int changed;
+                RowCopier upsert = new RowCopier(to, "emails", List.of("id", "received_at"), true);
+                try (PreparedStatement stmt = from.prepareStatement(
+                        "SELECT * FROM emails WHERE owner = ? AND modseq > ?")) {
+                    stmt.setString(1, owner);
+                    stmt.setLong(2, since);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        changed = upsert.copy(rs);
+                    }
+                }
+
+                List<UUID> deleted = new ArrayList<>();
+                try (PreparedStatement stmt = from.prepareStatement(
+                        "SELECT email_id FROM email_tombstones WHERE owner = ? AND modseq > ?")) {
+                    stmt.setString(1, owner);
+                    stmt.setLong(2, since);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            deleted.add(rs.getObject(1, UUID.class));
+                        }
+                    }
+                }
+                if (!deleted.isEmpty()) {
+                    try (PreparedStatement stmt = to.prepareStatement(
+                            "DELETE FROM emails WHERE owner = ? AND id = ANY(?)")) {
+                        stmt.setString(1, owner);
+                        stmt.setArray(2, to.createArrayOf("uuid", deleted.toArray()));
+                        stmt.executeUpdate();
+                    }
+                    changed += deleted.size();
+                }
+
+                // 已删除邮件的墓碑也要带过去，增量同步的客户端靠它删除本地副本
+                RowCopier.copy(from, to, "email_tombstones", "owner = ?", List.of(owner));
+                // 已清理墓碑的水位同样带过去，更早的同步游标在目标分片上仍需全量同步
+                RowCopier.copy(from, to, "email_tombstone_floors", "owner = ?", List.of(owner));
+
+                to.commit();
+                from.commit();
+                return changed;
+            } catch (SQLException e) {
+                to.rollback();
+                from.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 在目标分片创建邮箱邮件所在月份的分区，已存在的跳过
+     * 迁移前后 received_at 不变，目标分片上可能还没有较早月份的分区
+     */
+    private static void createPartitions(DataSource source, DataSource target, String owner) throws SQLException {
+        try (Connection from = source.getConnection();
+             Connection to = target.getConnection();
+             PreparedStatement months = from.prepareStatement(
+                     "SELECT DISTINCT date_trunc('month', received_at AT TIME ZONE 'UTC')::date FROM emails WHERE owner = ?");
+             PreparedStatement create = to.prepareStatement("SELECT create_email_partition(?)")) {
+            months.setString(1, owner);
+            try (ResultSet rs = months.executeQuery()) {
+                while (rs.next()) {
+                    create.setDate(1, rs.getDate(1));
+                    create.execute();
+                }
+            }
+        }
+    }
+
+    /**
+     * 目标分片的 uid/modseq 序列推进到不小于原分片
+     * 复制过去的 uid 不会与目标分片以后分配的冲突，目标分片上的 modseq 都大于原分片上的值
+     */
+    private static void advanceSequences(DataSource source, DataSource target) throws SQLException {
+        try (Connection from = source.getConnection();
+             Connection to = target.getConnection()) {
+            advanceSequences(from, to);
+        }
+    }
+
+    private static void advanceSequences(Connection from, Connection to) throws SQLException {
+        for (String sequence : List.of("emails_uid_seq", "emails_modseq_seq")) {
+            long value;
+            try (PreparedStatement stmt = from.prepareStatement("SELECT last_value FROM " + sequence);
+                 ResultSet rs = stmt.executeQuery()) {
+                value = rs.next() ? rs.getLong(1) : 1;
+            }
+            try (PreparedStatement stmt = to.prepareStatement(
+                    "SELECT setval('" + sequence + "', GREATEST((SELECT last_value FROM " + sequence + "), ?))")) {
+                stmt.setLong(1, value);
+                stmt.execute();
+            }
+        }
+    }
+
+    private static long maxModseq(DataSource source, String owner) throws SQLException {
+        String sql = """
+            SELECT GREATEST(
+                (SELECT COALESCE(MAX(modseq), 0) FROM emails WHERE owner = ?),
+                (SELECT COALESCE(MAX(modseq), 0) FROM email_tombstones WHERE owner = ?))
+            """;
+
+        try (Connection conn = source.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                // 等待进行中的写事务提交，之后的变化 modseq 都更大
+                lockMailbox(conn, owner);
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setString(1, owner);
+                    stmt.setString(2, owner);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        rs.next();
+                        return rs.getLong(1);
+                    }
+                }
+            } finally {
+                conn.rollback();
+            }
+        }
+    }
+
+    /**
+     * 与 UID/modseq 分配触发器相同的邮箱 advisory lock
+     */
+    private static void lockMailbox(Connection conn, String owner) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT pg_advisory_xact_lock(1229799760, hashtext(?))")) {
+            stmt.setString(1, owner);
+            stmt.execute();
+        }
+    }
+
+    // ==================== mailbox_shards ====================
+
+    private void setPlacement(String owner, int shard, String state) throws SQLException {
+        String sql = """
+            INSERT INTO mailbox_shards (owner, shard, state, updated_at)
+            VALUES (?, ?, ?, CURRENT_TIMESTAMP)
+            ON CONFLICT (owner) DO UPDATE SET
+                shard = EXCLUDED.shard,
+                state = EXCLUDED.state,
+                updated_at = EXCLUDED.updated_at
+            """;
+
+        try (Connection conn = router.directory().getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, ShardRouter.normalize(owner));
+            stmt.setInt(2, shard);
+            stmt.setString(3, state);
+            stmt.executeUpdate();
+        }
+        router.invalidateOverrides();
+    }
+
+    private void clearPlacement(String owner) throws SQLException {
+        try (Connection conn = router.directory().getConnection();
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM mailbox_shards WHERE owner = ?")) {
+            stmt.setString(1, ShardRouter.normalize(owner));
+            stmt.executeUpdate();
+        }
+        router.invalidateOverrides();
+    }
+
+    private void restorePlacement(String owner, int sourceShard) {
+        try {
+            if (router.hashShardOf(owner) == sourceShard) {
+                clearPlacement(owner);
+            } else {
+                setPlacement(owner, sourceShard, "active");
+            }
+            log.warn("邮箱 {} 迁移失败，已恢复到分片 {}", owner, sourceShard);
+        } catch (SQLException e) {
+            log.error("邮箱 {} 迁移失败且无法恢复 mailbox_shards，需要手动处理: {}", owner, e.getMessage());
+        }
+    }
+
+    /**
+     * 等待所有进程的 mailbox_shards 缓存过期（两倍缓存时间，留出加载耗时）
+     */
+    private void waitForRoutingCaches() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(router.overrideTtlMillis() * 2);
+    }
+}
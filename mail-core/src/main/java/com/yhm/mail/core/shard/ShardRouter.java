@@ -0,0 +1,429 @@
+package com.yhm.mail.core.shard;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 邮箱分片路由
+ *
+ * 按邮箱所有者把邮件数据（emails、email_tombstones、mailbox_summary）分布到 N 个 PostgreSQL 实例：
+ * - 默认按所有者地址的一致性哈希选择分片
+ * - 目录库（0 号分片）的 mailbox_shards 表可以为单个邮箱指定分片，优先于哈希结果，
+ *   迁移邮箱（{@link ShardRebalancer}）时也通过它切换
+ * - 域名、用户、队列、投递日志等全局数据只在目录库
+ *
+ * mailbox_shards 整表缓存在内存中，过期后下次路由时重新加载。
+ * 只有一个分片时所有邮箱都在目录库，不查询 mailbox_shards，行为与不分片完全相同。
+ *
+ * 本类不管理 DataSource 的生命周期，由创建者负责关闭。
+ */
+public final class ShardRouter {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRouter.class);
+
+    /** 默认每个分片的虚拟节点数 */
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    /** 默认 mailbox_shards 缓存时间 */
+    public static final long DEFAULT_OVERRIDE_TTL_MILLIS = 5000;
+
+    /** 分片上已有 users 行的邮箱的缓存时间 */
+    private static final long MAILBOX_CACHE_TTL_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    /** 最多缓存的邮箱数 */
+    private static final int MAILBOX_CACHE_MAX_ENTRIES = 100_000;
+
+    /**
+     * 在单个分片上执行的查询
+     */
+    @FunctionalInterface
+    public interface ShardQuery<T> {
+        T query(int shard, DataSource dataSource) throws SQLException;
+    }
+
+    /**
+     * 指定分片
+     * @param shard 邮箱当前所在分片
+     * @param moving 是否正在迁移（迁移期间可以读，不能写）
+     */
+    record Placement(int shard, boolean moving) {
+    }
+
+    private record Overrides(Map<String, Placement> placements, long expiresAt) {
+        boolean fresh() {
+            return System.nanoTime() - expiresAt < 0;
+        }
+    }
+
+    private final List<DataSource> shards;
+    private final ConsistentHashRing ring;
+    private final long overrideTtlNanos;
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    // "分片/邮箱" -> 过期时间（System.nanoTime），见 ensureMailbox
+    private final Map<String, Long> ensuredMailboxes = new ConcurrentHashMap<>();
+
+    private volatile Overrides overrides;
+
+    public ShardRouter(List<DataSource> shards, int virtualNodes, long overrideTtlMillis) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("至少需要一个分片");
+        }
+        this.shards = List.copyOf(shards);
+        this.ring = new ConsistentHashRing(this.shards.size(), virtualNodes);
+        this.overrideTtlNanos = TimeUnit.MILLISECONDS.toNanos(overrideTtlMillis);
+        this.overrides = new Overrides(Map.of(), System.nanoTime());
+    }
+
+    /**
+     * 单库部署
+     */
+    public static ShardRouter single(DataSource dataSource) {
+        return new ShardRouter(List.of(dataSource), 1, DEFAULT_OVERRIDE_TTL_MILLIS);
+    }
+
+    // ==================== 分片 ====================
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    /**
+     * 目录库（0 号分片），保存全局数据和 mailbox_shards
+     */
+    public DataSource directory() {
+        return shards.get(0);
+    }
+
+    public DataSource shard(int shard) {
+        return shards.get(shard);
+    }
+
+    public long overrideTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(overrideTtlNanos);
+    }
+
+    // ==================== 路由 ====================
+
+    /**
+     * 邮箱所在分片
+     */
+    public int shardOf(String owner) throws SQLException {
+        return placementOf(owner).shard();
+    }
+
+    /**
+     * 一致性哈希给出的分片，不考虑 mailbox_shards
+     */
+    public int hashShardOf(String owner) {
+        return isSharded() ? ring.shardFor(normalize(owner)) : 0;
+    }
+
+    /**
+     * 邮箱所在分片的数据源（读）
+     */
+    public DataSource dataSourceFor(String owner) throws SQLException {
+        return shards.get(shardOf(owner));
+    }
+
+    /**
+     * 邮箱所在分片的连接，用于读取
+     * 迁移期间仍然返回原分片，数据要到切换之后才从原分片删除
+     */
+    public Connection getConnection(String owner) throws SQLException {
+        return dataSourceFor(owner).getConnection();
+    }
+
+    /**
+     * 邮箱所在分片的连接，用于写入
+     * @throws MailboxMovingException 邮箱正在迁移
+     */
+    public Connection getWriteConnection(String owner) throws SQLException {
+        return shards.get(writableShardOf(owner)).getConnection();
+    }
+
+    /**
+     * 邮箱所在分片，用于写入
+     * @throws MailboxMovingException 邮箱正在迁移
+     */
+    public int writableShardOf(String owner) throws SQLException {
+        Placement placement = placementOf(owner);
+        if (placement.moving()) {
+            throw new MailboxMovingException(owner);
+        }
+        return placement.shard();
+    }
+
+    Placement placementOf(String owner) throws SQLException {
+        if (!isSharded()) {
+            return new Placement(0, false);
+        }
+        String key = normalize(owner);
+        Placement placement = currentOverrides().get(key);
+        return placement != null ? placement : new Placement(ring.shardFor(key), false);
+    }
+
+    /**
+     * 丢弃 mailbox_shards 缓存，下次路由时重新加载
+     */
+    public void invalidateOverrides() {
+        overrides = new Overrides(overrides.placements(), System.nanoTime());
+    }
+
+    private Map<String, Placement> currentOverrides() throws SQLException {
+        Overrides current = overrides;
+        if (current.fresh()) {
+            return current.placements();
+        }
+
+        refreshLock.lock();
+        try {
+            // 等锁期间可能已被其他线程刷新
+            current = overrides;
+            if (current.fresh()) {
+                return current.placements();
+            }
+            Map<String, Placement> loaded = loadOverrides();
+            overrides = new Overrides(loaded, System.nanoTime() + overrideTtlNanos);
+            return loaded;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private Map<String, Placement> loadOverrides() throws SQLException {
+        String sql = "SELECT owner, shard, state FROM mailbox_shards";
+
+        Map<String, Placement> loaded = new HashMap<>();
+        try (Connection conn = directory().getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            while (rs.next()) {
+                int shard = rs.getInt("shard");
+                if (shard < 0 || shard >= shards.size()) {
+                    log.warn("mailbox_shards 中的分片序号超出范围，忽略: owner={}, shard={}",
+                            rs.getString("owner"), shard);
+                    continue;
+                }
+                loaded.put(normalize(rs.getString("owner")),
+                        new Placement(shard, "moving".equals(rs.getString("state"))));
+            }
+        }
+        return Map.copyOf(loaded);
+    }
+
+    // ==================== 分片发散查询 ====================
+
+    /**
+     * 在所有分片上并行执行查询（每个分片一个虚拟线程）
+     * @return 按分片序号排列的结果
+     * @throws SQLException 任一分片失败（查询抛出的 RuntimeException 原样抛出）
+     */
+    public <T> List<T> fanOut(ShardQuery<T> query) throws SQLException {
+        if (!isSharded()) {
+            return Collections.singletonList(query.query(0, directory()));
+        }
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<T>> futures = new ArrayList<>(shards.size());
+            for (int i = 0; i < shards.size(); i++) {
+                int shard = i;
+                futures.add(executor.submit(() -> query.query(shard, shards.get(shard))));
+            }
+
+            List<T> results = new ArrayList<>(shards.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new SQLException("分片查询失败: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("分片查询被中断", e);
+        }
+    }
+
+    // ==================== 邮箱准备 ====================
+
+    /**
+     * 确保邮箱所在分片上有 users 行（emails、mailbox_summary 的外键依赖它）
+     * 用户只在目录库中创建，首次投递到其他分片时从目录库复制（连同 mail_domains 行）。
+     * 确认存在的结果缓存一段时间，投递时不必每封都查询分片；
+     * 之后目录库中的修改和删除由 {@link #syncMailboxOwner}、{@link #purgeMailbox} 同步
+     */
+    public void ensureMailbox(String owner) throws SQLException {
+        int shard = shardOf(owner);
+        if (shard == 0) {
+            return;
+        }
+        String email = owner.toLowerCase(Locale.ROOT);
+        String key = shard + "/" + email;
+        Long expiresAt = ensuredMailboxes.get(key);
+        if (expiresAt != null && System.nanoTime() - expiresAt < 0) {
+            return;
+        }
+
+        boolean exists;
+        try (Connection conn = shards.get(shard).getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM users WHERE email = ?")) {
+            stmt.setString(1, email);
+            try (ResultSet rs = stmt.executeQuery()) {
+                exists = rs.next();
+            }
+        }
+        if (!exists) {
+            copyMailboxOwner(email, directory(), shards.get(shard));
+            log.info("已在分片 {} 上创建邮箱: {}", shard, email);
+        }
+        rememberMailbox(key);
+    }
+
+    private void rememberMailbox(String key) {
+        long now = System.nanoTime();
+        if (ensuredMailboxes.size() >= MAILBOX_CACHE_MAX_ENTRIES && !ensuredMailboxes.containsKey(key)) {
+            ensuredMailboxes.values().removeIf(expiresAt -> now - expiresAt >= 0);
+            if (ensuredMailboxes.size() >= MAILBOX_CACHE_MAX_ENTRIES) {
+                return;
+            }
+        }
+        ensuredMailboxes.put(key, now + MAILBOX_CACHE_TTL_NANOS);
+    }
+
+    /**
+     * 把目录库中用户的修改（密码、启用状态、配额等）同步到邮箱所在分片上的 users 副本，没有副本时创建
+     * 修改用户的一方在目录库事务提交之后调用；used_bytes 由分片上的邮箱汇总触发器维护，不覆盖
+     */
+    public void syncMailboxOwner(String owner) throws SQLException {
+        int shard = shardOf(owner);
+        if (shard == 0) {
+            return;
+        }
+        String email = owner.toLowerCase(Locale.ROOT);
+        try (Connection from = directory().getConnection();
+             Connection to = shards.get(shard).getConnection()) {
+            to.setAutoCommit(false);
+            try {
+                RowCopier.copy(from, to, "mail_domains",
+                        "domain = (SELECT domain FROM users WHERE email = ?)", List.of(email));
+                RowCopier copier = new RowCopier(to, "users", List.of("email"), true, Set.of("used_bytes"));
+                try (PreparedStatement stmt = from.prepareStatement("SELECT * FROM users WHERE email = ?")) {
+                    stmt.setString(1, email);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        copier.copy(rs);
+                    }
+                }
+                to.commit();
+            } catch (SQLException e) {
+                to.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 删除邮箱在所在分片上的全部数据：邮件、墓碑、汇总，其他分片上还有 users 副本和 mailbox_shards 中的指定
+     * 删除用户时在删除目录库 users 行之前调用；目录库的 users 行由调用方删除
+     */
+    public void purgeMailbox(String owner) throws SQLException {
+        int shard = shardOf(owner);
+        String email = owner.toLowerCase(Locale.ROOT);
+        deleteMailbox(shards.get(shard), email, shard != 0);
+        ensuredMailboxes.remove(shard + "/" + email);
+
+        if (isSharded()) {
+            try (Connection conn = directory().getConnection();
+                 PreparedStatement stmt = conn.prepareStatement("DELETE FROM mailbox_shards WHERE owner = ?")) {
+                stmt.setString(1, email);
+                stmt.executeUpdate();
+            }
+            invalidateOverrides();
+        }
+        log.info("已删除分片 {} 上的邮箱: {}", shard, email);
+    }
+
+    /**
+     * 删除一个库上属于邮箱的邮件数据
+     * @param deleteUser 是否同时删除 users 行（只删除其他分片上的副本，目录库的 users 行是全局数据）
+     */
+    static void deleteMailbox(DataSource dataSource, String owner, boolean deleteUser) throws SQLException {
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (String sql : List.of(
+                        "DELETE FROM emails WHERE owner = ?",
+                        "DELETE FROM email_tombstones WHERE owner = ?",
+                        "DELETE FROM email_tombstone_floors WHERE owner = ?",
+                        "DELETE FROM mailbox_summary WHERE owner = ?")) {
+                    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                        stmt.setString(1, owner);
+                        stmt.executeUpdate();
+                    }
+                }
+                if (deleteUser) {
+                    try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM users WHERE email = ?")) {
+                        stmt.setString(1, owner.toLowerCase(Locale.ROOT));
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 把 users 行及其 mail_domains 行复制到目标库，已存在则跳过
+     */
+    static void copyMailboxOwner(String email, DataSource source, DataSource target) throws SQLException {
+        try (Connection from = source.getConnection();
+             Connection to = target.getConnection()) {
+            to.setAutoCommit(false);
+            try {
+                RowCopier.copy(from, to, "mail_domains",
+                        "domain = (SELECT domain FROM users WHERE email = ?)", List.of(email));
+                RowCopier.copy(from, to, "users", "email = ?", List.of(email));
+                to.commit();
+            } catch (SQLException e) {
+                to.rollback();
+                throw e;
+            }
+        }
+    }
+
+    static String normalize(String owner) {
+        return owner.toLowerCase(Locale.ROOT);
+    }
+}
@@ -2,9 +2,15 @@ package com.yhm.mail.core.util;
 
 import com.yhm.mail.core.model.Email;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -19,6 +25,15 @@ public final class EmailParser {
     private static final Pattern EMAIL_ADDRESS_PATTERN = Pattern
             .compile("<([^>]+)>|([a-zA-Z0-9._%+-]+@[a-zA-Z0-9.-]+\\.[a-zA-Z]{2,})");
 
+    private static final Pattern BLANK_LINE_PATTERN = Pattern.compile("\r?\n\r?\n");
+    private static final Pattern HTML_INVISIBLE_PATTERN =
+            Pattern.compile("(?is)<(style|script|head)[^>]*>.*?</\\1\\s*>");
+    private static final Pattern HTML_BREAK_PATTERN = Pattern.compile("(?i)<(br|/p|/div|/tr|/li|/h[1-6])[^>]*>");
+    private static final Pattern HTML_TAG_PATTERN = Pattern.compile("<[^>]*>");
+
+    // multipart 嵌套层数上限
+    private static final int MAX_MIME_DEPTH = 8;
+
     private EmailParser() {
         // 工具类，禁止实例化
     }
@@ -33,34 +48,22 @@ public final class EmailParser {
      */
     public static Email parse(String rawContent, String sender, List<String> recipients) {
         String subject = "";
-        StringBuilder bodyBuilder = new StringBuilder();
 
         String[] lines = rawContent.split("\r\n|\n");
-        boolean inBody = false;
-        boolean inHeaders = true;
 
         for (String line : lines) {
-            if (inHeaders) {
-                if (line.isEmpty()) {
-                    inHeaders = false;
-                    inBody = true;
-                    continue;
-                }
+            if (line.isEmpty()) {
+                break;
+            }
 
-                Matcher matcher = HEADER_PATTERN.matcher(line);
-                if (matcher.matches()) {
-                    String headerName = matcher.group(1).toLowerCase();
-                    String headerValue = matcher.group(2);
+            Matcher matcher = HEADER_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                String headerName = matcher.group(1).toLowerCase();
+                String headerValue = matcher.group(2);
 
-                    if ("subject".equals(headerName)) {
-                        subject = decodeHeader(headerValue);
-                    }
+                if ("subject".equals(headerName)) {
+                    subject = decodeHeader(headerValue);
                 }
-            } else if (inBody) {
-                if (!bodyBuilder.isEmpty()) {
-                    bodyBuilder.append("\n");
-                }
-                bodyBuilder.append(line);
             }
         }
 
@@ -69,15 +72,247 @@ public final class EmailParser {
                 .sender(sender)
                 .recipients(new ArrayList<>(recipients))
                 .subject(subject)
-                .body(bodyBuilder.toString())
+                .body(extractText(rawContent))
                 .rawContent(rawContent)
                 .size(rawContent.getBytes().length)
                 .receivedAt(Instant.now())
                 .read(false)
                 .deleted(false)
+                .layout(MessageLayout.compute(rawContent))
                 .build();
     }
 
+    /**
+     * 提取邮件的正文文本
+     *
+     * 按 MIME 结构解码：multipart/alternative 取 text/plain 部分（没有时取 text/html 并去掉标签），
+     * 其他 multipart 拼接各个文本部分，附件和非文本部分跳过；
+     * base64 和 quoted-printable 按部分声明的 charset 解码。
+     * 结果保存在 emails.body 中，用于管理后台显示和全文检索。
+     *
+     * @param rawContent 原始邮件内容
+     * @return 正文文本，行分隔符为 \n
+     */
+    public static String extractText(String rawContent) {
+        return partText(rawContent, 0).strip();
+    }
+
+    private static String partText(String part, int depth) {
+        int headerEnd = headerEnd(part);
+        Map<String, String> headers = parseHeaders(headerEnd >= 0 ? part.substring(0, headerEnd) : part);
+        String body = headerEnd >= 0 ? part.substring(headerEnd).replaceFirst("^\r?\n", "") : "";
+
+        String disposition = headers.getOrDefault("content-disposition", "");
+        if (depth > 0 && disposition.toLowerCase().startsWith("attachment")) {
+            return "";
+        }
+
+        String contentType = headers.getOrDefault("content-type", "text/plain");
+        String mediaType = contentType.split(";", 2)[0].strip().toLowerCase();
+
+        if (mediaType.startsWith("multipart/")) {
+            String boundary = headerParameter(contentType, "boundary");
+            if (boundary == null || depth >= MAX_MIME_DEPTH) {
+                return "";
+            }
+            List<String> texts = new ArrayList<>();
+            List<String> htmlTexts = new ArrayList<>();
+            for (String child : splitMultipart(body, boundary)) {
+                String childType = parseHeaders(headerEndOrAll(child)).getOrDefault("content-type", "text/plain");
+                String text = partText(child, depth + 1).strip();
+                if (text.isEmpty()) {
+                    continue;
+                }
+                if (childType.strip().toLowerCase().startsWith("text/html")) {
+                    htmlTexts.add(text);
+                } else {
+                    texts.add(text);
+                }
+            }
+            if (mediaType.equals("multipart/alternative")) {
+                // 同一内容的不同表示，只取一个
+                return !texts.isEmpty() ? texts.getFirst() : htmlTexts.isEmpty() ? "" : htmlTexts.getFirst();
+            }
+            texts.addAll(htmlTexts);
+            return String.join("\n\n", texts);
+        }
+
+        if (!mediaType.startsWith("text/")) {
+            return "";
+        }
+
+        String text = decodeTransfer(body,
+                headers.getOrDefault("content-transfer-encoding", "7bit").strip().toLowerCase(),
+                charsetOf(headerParameter(contentType, "charset")));
+        text = text.replace("\r\n", "\n");
+        return mediaType.equals("text/html") ? htmlToText(text) : text;
+    }
+
+    /**
+     * 头部结束（第一个空行之前）的位置，没有空行时返回 -1
+     */
+    private static int headerEnd(String part) {
+        if (part.startsWith("\r\n") || part.startsWith("\n")) {
+            return 0;
+        }
+        Matcher matcher = BLANK_LINE_PATTERN.matcher(part);
+        return matcher.find() ? matcher.start() + (part.charAt(matcher.start()) == '\r' ? 2 : 1) : -1;
+    }
+
+    private static String headerEndOrAll(String part) {
+        int end = headerEnd(part);
+        return end >= 0 ? part.substring(0, end) : part;
+    }
+
+    /**
+     * 解析头部（折行合并，头部名转为小写，同名头部保留第一个）
+     */
+    private static Map<String, String> parseHeaders(String headerBlock) {
+        Map<String, String> headers = new HashMap<>();
+        String name = null;
+        StringBuilder value = new StringBuilder();
+        for (String line : headerBlock.split("\r\n|\n")) {
+            if (!line.isEmpty() && (line.charAt(0) == ' ' || line.charAt(0) == '\t') && name != null) {
+                value.append(' ').append(line.strip());
+                continue;
+            }
+            if (name != null) {
+                headers.putIfAbsent(name, value.toString());
+            }
+            Matcher matcher = HEADER_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                name = matcher.group(1).toLowerCase();
+                value.setLength(0);
+                value.append(matcher.group(2).strip());
+            } else {
+                name = null;
+            }
+        }
+        if (name != null) {
+            headers.putIfAbsent(name, value.toString());
+        }
+        return headers;
+    }
+
+    /**
+     * 头部参数，如 Content-Type 的 charset、boundary
+     */
+    private static String headerParameter(String header, String parameter) {
+        Matcher matcher = Pattern.compile(";\\s*" + parameter + "\\s*=\\s*(\"([^\"]*)\"|[^;\\s]+)",
+                Pattern.CASE_INSENSITIVE).matcher(header);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(2) != null ? matcher.group(2) : matcher.group(1);
+    }
+
+    /**
+     * 按 boundary 拆分 multipart 正文，忽略前言和结尾
+     */
+    private static List<String> splitMultipart(String body, String boundary) {
+        List<String> parts = new ArrayList<>();
+        String delimiter = "--" + boundary;
+        StringBuilder current = null;
+        for (String line : body.split("\r\n|\n", -1)) {
+            if (line.startsWith(delimiter)) {
+                if (current != null) {
+                    parts.add(current.toString());
+                }
+                if (line.startsWith(delimiter + "--")) {
+                    return parts;
+                }
+                current = new StringBuilder();
+            } else if (current != null) {
+                current.append(line).append("\r\n");
+            }
+        }
+        if (current != null) {
+            parts.add(current.toString());
+        }
+        return parts;
+    }
+
+    private static Charset charsetOf(String name) {
+        if (name == null) {
+            return StandardCharsets.UTF_8;
+        }
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * 按 Content-Transfer-Encoding 解码正文，7bit、8bit 和未知编码原样返回
+     */
+    private static String decodeTransfer(String body, String encoding, Charset charset) {
+        try {
+            return switch (encoding) {
+                case "base64" -> new String(Base64.getMimeDecoder().decode(body), charset);
+                case "quoted-printable" -> new String(decodeQuotedPrintableBody(body), charset);
+                default -> body;
+            };
+        } catch (IllegalArgumentException e) {
+            return body;
+        }
+    }
+
+    /**
+     * 解码 quoted-printable 正文（软换行 "=" 结尾的行与下一行相连）
+     */
+    private static byte[] decodeQuotedPrintableBody(String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '=') {
+                if (text.startsWith("\r\n", i + 1)) {
+                    i += 2;
+                    continue;
+                }
+                if (text.startsWith("\n", i + 1)) {
+                    i += 1;
+                    continue;
+                }
+                if (i + 2 < text.length()) {
+                    int hi = Character.digit(text.charAt(i + 1), 16);
+                    int lo = Character.digit(text.charAt(i + 2), 16);
+                    if (hi >= 0 && lo >= 0) {
+                        out.write((hi << 4) | lo);
+                        i += 2;
+                        continue;
+                    }
+                }
+            }
+            if (c < 0x80) {
+                out.write(c);
+            } else {
+                // 正文已按 UTF-8 读入，非 ASCII 字符还原为 UTF-8 字节
+                out.writeBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * HTML 转为纯文本：去掉 style、script 和标签，还原常见实体
+     */
+    private static String htmlToText(String html) {
+        String text = HTML_INVISIBLE_PATTERN.matcher(html).replaceAll(" ");
+        text = HTML_BREAK_PATTERN.matcher(text).replaceAll("\n");
+        text = HTML_TAG_PATTERN.matcher(text).replaceAll(" ");
+        text = text.replace("&nbsp;", " ")
+                .replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replace("&quot;", "\"")
+                .replace("&#39;", "'")
+                .replace("&amp;", "&");
+        return text.replaceAll("[ \t]+", " ")
+                .replaceAll(" ?\n ?", "\n")
+                .replaceAll("\n{3,}", "\n\n")
+                .strip();
+    }
+
     /**
      * 提取邮箱地址
      * 从 "Name <email@domain.com>" 或 "email@domain.com" 格式中提取邮箱地址
@@ -0,0 +1,94 @@
+package com.yhm.mail.core.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 邮件结构索引
+ *
+ * 在接收时计算一次：头部长度（含分隔空行）以及正文前 {@link #INDEXED_BODY_LINES} 行
+ * 每行结束位置相对正文起点的偏移。所有偏移都按 UTF-8 字节计算。
+ *
+ * POP3 TOP msg n 只需读取前 headerLength + bodyLineOffsets[n - 1] 个字节，
+ * 不必取回整封邮件再拆分。
+ *
+ * @param headerLength    头部字节数（包括头部与正文之间的空行）
+ * @param bodyLineOffsets 正文第 i+1 行结束（含换行符）处相对正文起点的字节偏移
+ */
+public record MessageLayout(int headerLength, int[] bodyLineOffsets) {
+
+    /**
+     * 每封邮件最多索引的正文行数
+     */
+    public static final int INDEXED_BODY_LINES = 100;
+
+    /**
+     * 计算邮件结构索引
+     *
+     * @return 索引；邮件没有头部与正文之间的空行时返回 null
+     */
+    public static MessageLayout compute(String rawContent) {
+        if (rawContent == null) {
+            return null;
+        }
+        return compute(rawContent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 计算邮件结构索引
+     *
+     * @return 索引；邮件没有头部与正文之间的空行时返回 null
+     */
+    public static MessageLayout compute(byte[] raw) {
+        int headerLength = findBodyStart(raw);
+        if (headerLength < 0) {
+            return null;
+        }
+
+        int[] offsets = new int[INDEXED_BODY_LINES];
+        int lines = 0;
+        for (int i = headerLength; i < raw.length && lines < INDEXED_BODY_LINES; i++) {
+            if (raw[i] == '\n') {
+                offsets[lines++] = i + 1 - headerLength;
+            }
+        }
+
+        // 最后一行没有换行符
+        int bodyLength = raw.length - headerLength;
+        int lastEnd = lines > 0 ? offsets[lines - 1] : 0;
+        if (lines < INDEXED_BODY_LINES && bodyLength > lastEnd) {
+            offsets[lines++] = bodyLength;
+        }
+
+        return new MessageLayout(headerLength, Arrays.copyOf(offsets, lines));
+    }
+
+    /**
+     * 查找第一个空行之后的位置
+     */
+    private static int findBodyStart(byte[] raw) {
+        int lineStart = 0;
+        for (int i = 0; i < raw.length; i++) {
+            if (raw[i] == '\n') {
+                int lineLength = i - lineStart;
+                if (lineLength == 0 || (lineLength == 1 && raw[lineStart] == '\r')) {
+                    return i + 1;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 索引是否覆盖了正文全部行
+     */
+    public boolean coversWholeBody() {
+        return bodyLineOffsets.length < INDEXED_BODY_LINES;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageLayout{headerLength=" + headerLength + ", indexedLines=" + bodyLineOffsets.length + '}';
+    }
+}
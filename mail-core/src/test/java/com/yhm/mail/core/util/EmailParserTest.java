@@ -0,0 +1,207 @@
+package com.yhm.mail.core.util;
+
+import com.yhm.mail.core.model.Email;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmailParserTest {
+
+    @Test
+    void plainTextBodyIsReturnedAsIs() {
+        String raw = "Subject: hi\r\n\r\nHello,\r\nworld\r\n";
+
+        assertEquals("Hello,\nworld", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void messageWithoutBlankLineHasNoBody() {
+        assertEquals("", EmailParser.extractText("Subject: hi\r\n"));
+    }
+
+    @Test
+    void base64BodyIsDecodedWithDeclaredCharset() {
+        String raw = """
+                Content-Type: text/plain; charset=utf-8
+                Content-Transfer-Encoding: base64
+
+                5L2g5aW977yM5LiW55WM
+                """;
+
+        assertEquals("你好，世界", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void base64BodyInLegacyCharset() {
+        // "中文" 的 GBK 编码
+        String raw = """
+                Content-Type: text/plain; charset="GBK"
+                Content-Transfer-Encoding: base64
+
+                1tDOxA==
+                """;
+
+        assertEquals("中文", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void quotedPrintableBodyJoinsSoftLineBreaks() {
+        String raw = "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Transfer-Encoding: quoted-printable\r\n"
+                + "\r\n"
+                + "caf=C3=A9 =\r\n"
+                + "au lait a=3Db\r\n";
+
+        assertEquals("café au lait a=b", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void unknownCharsetFallsBackToUtf8() {
+        String raw = "Content-Type: text/plain; charset=x-no-such-charset\r\n"
+                + "Content-Transfer-Encoding: quoted-printable\r\n"
+                + "\r\n"
+                + "=E4=B8=AD\r\n";
+
+        assertEquals("中", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void invalidBase64IsKeptAsIs() {
+        String raw = "Content-Transfer-Encoding: base64\r\n\r\n@@not base64@@\r\n";
+
+        assertEquals("@@not base64@@", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void htmlBodyIsStrippedOfTagsAndInvisibleElements() {
+        String raw = "Content-Type: text/html; charset=utf-8\r\n"
+                + "\r\n"
+                + "<html><head><title>t</title></head><body>"
+                + "<style>p { color: red; }</style><script>alert(1)</script>"
+                + "<p>Hello&nbsp;<b>world</b></p><p>a &lt; b &amp;&amp; c</p></body></html>\r\n";
+
+        String text = EmailParser.extractText(raw);
+
+        assertEquals("Hello world\na < b && c", text);
+    }
+
+    @Test
+    void alternativePrefersPlainText() {
+        String raw = """
+                Content-Type: multipart/alternative; boundary="alt"
+
+                --alt
+                Content-Type: text/html; charset=utf-8
+
+                <p>html version</p>
+                --alt
+                Content-Type: text/plain; charset=utf-8
+
+                plain version
+                --alt--
+                """;
+
+        assertEquals("plain version", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void alternativeWithOnlyHtmlUsesHtml() {
+        String raw = """
+                Content-Type: multipart/alternative; boundary=alt
+
+                --alt
+                Content-Type: text/html; charset=utf-8
+                Content-Transfer-Encoding: base64
+
+                PHA+5Lit5paHPC9wPg==
+                --alt--
+                """;
+
+        assertEquals("中文", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void attachmentsAndBinaryPartsAreSkipped() {
+        String raw = """
+                Content-Type: multipart/mixed; boundary="mix"
+
+                preamble is ignored
+                --mix
+                Content-Type: text/plain
+
+                see attached
+                --mix
+                Content-Type: text/plain; name="notes.txt"
+                Content-Disposition: attachment; filename="notes.txt"
+
+                attachment text
+                --mix
+                Content-Type: image/png
+                Content-Transfer-Encoding: base64
+
+                iVBORw0KGgo=
+                --mix--
+                epilogue is ignored
+                """;
+
+        String text = EmailParser.extractText(raw);
+
+        assertEquals("see attached", text);
+        assertFalse(text.contains("attachment text"));
+    }
+
+    @Test
+    void nestedMultipartTextPartsAreJoined() {
+        String raw = """
+                Content-Type: multipart/mixed;
+                 boundary="outer"
+
+                --outer
+                Content-Type: multipart/alternative; boundary="inner"
+
+                --inner
+                Content-Type: text/plain
+
+                first
+                --inner
+                Content-Type: text/html
+
+                <p>first</p>
+                --inner--
+                --outer
+                Content-Type: text/plain
+                Content-Disposition: inline
+
+                second
+                --outer--
+                """;
+
+        assertEquals("first\n\nsecond", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void multipartWithoutBoundaryHasNoText() {
+        String raw = "Content-Type: multipart/mixed\r\n\r\n--x\r\n\r\ntext\r\n--x--\r\n";
+
+        assertEquals("", EmailParser.extractText(raw));
+    }
+
+    @Test
+    void parseDecodesEncodedSubjectAndBody() {
+        String raw = "Subject: =?UTF-8?B?5rWL6K+V?=\r\n"
+                + "Content-Type: text/plain; charset=utf-8\r\n"
+                + "Content-Transfer-Encoding: base64\r\n"
+                + "\r\n"
+                + "5q2j5paH\r\n";
+
+        Email email = EmailParser.parse(raw, "a@example.com", List.of("b@example.com"));
+
+        assertEquals("测试", email.getSubject());
+        assertEquals("正文", email.getBody());
+        assertTrue(email.getRawContent().contains("5q2j5paH"));
+    }
+}
@@ -0,0 +1,102 @@
+package com.yhm.mail.core.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageLayoutTest {
+
+    @Test
+    void crlfHeaderIncludesBlankLine() {
+        MessageLayout layout = MessageLayout.compute("Subject: hi\r\n\r\nline1\r\nline2\r\n");
+
+        assertEquals("Subject: hi\r\n\r\n".length(), layout.headerLength());
+        assertArrayEquals(new int[]{7, 14}, layout.bodyLineOffsets());
+    }
+
+    @Test
+    void bareLfSeparatesHeaderAndBody() {
+        MessageLayout layout = MessageLayout.compute("Subject: hi\n\nline1\nline2\n");
+
+        assertEquals("Subject: hi\n\n".length(), layout.headerLength());
+        assertArrayEquals(new int[]{6, 12}, layout.bodyLineOffsets());
+    }
+
+    @Test
+    void offsetsCountUtf8Bytes() {
+        String raw = "Subject: 你好\r\n\r\n中文\r\nabc\r\n";
+
+        MessageLayout layout = MessageLayout.compute(raw);
+
+        // "你好"、"中文" 各 6 个字节
+        assertEquals("Subject: \r\n\r\n".length() + 6, layout.headerLength());
+        assertArrayEquals(new int[]{8, 13}, layout.bodyLineOffsets());
+        assertEquals(raw.getBytes(StandardCharsets.UTF_8).length,
+                layout.headerLength() + layout.bodyLineOffsets()[1]);
+    }
+
+    @Test
+    void lastLineWithoutNewlineEndsAtBodyEnd() {
+        MessageLayout layout = MessageLayout.compute("Subject: hi\r\n\r\nline1\r\ntail");
+
+        assertArrayEquals(new int[]{7, 11}, layout.bodyLineOffsets());
+    }
+
+    @Test
+    void emptyBodyHasNoLines() {
+        MessageLayout layout = MessageLayout.compute("Subject: hi\r\n\r\n");
+
+        assertEquals(15, layout.headerLength());
+        assertArrayEquals(new int[0], layout.bodyLineOffsets());
+        assertTrue(layout.coversWholeBody());
+    }
+
+    @Test
+    void messageWithoutBlankLineHasNoLayout() {
+        assertNull(MessageLayout.compute("Subject: hi\r\nFrom: a@example.com\r\n"));
+        assertNull(MessageLayout.compute("Subject: hi"));
+        assertNull(MessageLayout.compute((String) null));
+    }
+
+    @Test
+    void whitespaceOnlyLineIsNotSeparator() {
+        MessageLayout layout = MessageLayout.compute("Subject: hi\r\n \r\nX: y\r\n\r\nbody\r\n");
+
+        assertEquals("Subject: hi\r\n \r\nX: y\r\n\r\n".length(), layout.headerLength());
+        assertArrayEquals(new int[]{6}, layout.bodyLineOffsets());
+    }
+
+    @Test
+    void indexStopsAtLineCap() {
+        StringBuilder raw = new StringBuilder("Subject: hi\r\n\r\n");
+        for (int i = 0; i < MessageLayout.INDEXED_BODY_LINES + 5; i++) {
+            raw.append("x\r\n");
+        }
+
+        MessageLayout layout = MessageLayout.compute(raw.toString());
+
+        assertEquals(MessageLayout.INDEXED_BODY_LINES, layout.bodyLineOffsets().length);
+        assertEquals(3 * MessageLayout.INDEXED_BODY_LINES,
+                layout.bodyLineOffsets()[MessageLayout.INDEXED_BODY_LINES - 1]);
+        assertFalse(layout.coversWholeBody());
+    }
+
+    @Test
+    void bodyJustUnderCapCoversWholeBody() {
+        StringBuilder raw = new StringBuilder("Subject: hi\r\n\r\n");
+        for (int i = 0; i < MessageLayout.INDEXED_BODY_LINES - 1; i++) {
+            raw.append("x\r\n");
+        }
+
+        MessageLayout layout = MessageLayout.compute(raw.toString());
+
+        assertEquals(MessageLayout.INDEXED_BODY_LINES - 1, layout.bodyLineOffsets().length);
+        assertTrue(layout.coversWholeBody());
+    }
+}
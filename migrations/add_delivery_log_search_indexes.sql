@@ -0,0 +1,38 @@
+-- ===========================================
+-- 迁移：发送日志组合筛选的索引
+--
+-- 管理后台按对端主机筛选走 idx_delivery_logs_host_created，按收件人、SMTP 响应片段（ILIKE '%x%'）
+-- 检索走 pg_trgm 的 GIN 索引（见 DeliveryLogSearchRepository）。delivery_logs 很大时建索引耗时较长，
+-- 不放在 SMTP 服务器启动时执行的 schema.sql 和 init.sql 中；新建和已有的数据库都执行本脚本。
+--
+-- CREATE INDEX CONCURRENTLY 不阻塞发送日志的写入，服务器无需停机；
+-- CONCURRENTLY 不能放在事务中，用 psql 逐条执行：
+--   psql -U postgres -d maildb -f migrations/add_delivery_log_search_indexes.sql
+-- 发送日志只在目录库（0 号分片）上，分片部署时只需在目录库上执行。中途失败可以直接重新执行。
+-- ===========================================
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- 上次中断留下的无效索引先删除，再重新创建
+SELECT format('DROP INDEX CONCURRENTLY IF EXISTS %I', c.relname)
+FROM pg_index ix
+JOIN pg_class c ON c.oid = ix.indexrelid
+WHERE ix.indrelid = 'delivery_logs'::regclass AND NOT ix.indisvalid
+  AND c.relname IN ('idx_delivery_logs_host_created', 'idx_delivery_logs_recipient_trgm',
+                    'idx_delivery_logs_response_trgm')
+\gexec
+
+-- 按对端主机筛选
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_delivery_logs_host_created
+    ON delivery_logs(remote_host, created_at DESC, id DESC);
+
+-- 按收件人、SMTP 响应片段检索（片段至少 3 个字符，见 DeliveryLogFilter）
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_delivery_logs_recipient_trgm
+    ON delivery_logs USING GIN(recipient gin_trgm_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_delivery_logs_response_trgm
+    ON delivery_logs USING GIN(smtp_response gin_trgm_ops);
+
+SELECT '迁移完成：发送日志筛选索引已创建' AS status,
+       (SELECT bool_and(ix.indisvalid) FROM pg_index ix JOIN pg_class c ON c.oid = ix.indexrelid
+        WHERE c.relname IN ('idx_delivery_logs_host_created', 'idx_delivery_logs_recipient_trgm',
+                            'idx_delivery_logs_response_trgm')) AS valid;
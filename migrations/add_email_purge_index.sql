@@ -0,0 +1,55 @@
+-- ===========================================
+-- 迁移：软删除清理索引 idx_emails_purge
+--
+-- 后台清理任务（EmailPurger）按 deleted_at 取宽限期已过的软删除邮件。
+-- 部分索引只包含 is_deleted = true 的行，体积很小；但建索引仍要扫描整个分区，
+-- emails 是最大的表，索引不在 SMTP 服务器启动时创建。没有索引时清理任务每批都要扫描分区。
+--
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+-- 每个分区单独 CREATE INDEX CONCURRENTLY，不阻塞投递和读写，服务器无需停机；
+-- 脚本用 psql 的 \gexec 逐条执行生成的语句（CONCURRENTLY 不能放在事务或函数中）：
+--   psql -U postgres -d maildb -f migrations/add_email_purge_index.sql
+-- 分片部署时在每个分片上各执行一次。中途失败可以直接重新执行。
+-- ===========================================
+
+-- 父表上只建索引定义（ON ONLY 不扫描数据），所有分区挂上后自动变为有效
+CREATE INDEX IF NOT EXISTS idx_emails_purge ON ONLY emails (deleted_at) WHERE is_deleted = true;
+
+-- 上次中断留下的无效分区索引先删除，再重新创建
+SELECT format('DROP INDEX CONCURRENTLY IF EXISTS %I', idx.relname)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+JOIN pg_class idx ON idx.relname = c.relname || '_purge'
+JOIN pg_index ix ON ix.indexrelid = idx.oid AND NOT ix.indisvalid
+WHERE i.inhparent = 'emails'::regclass
+\gexec
+
+-- 逐个分区并发建索引，再挂到父表索引上。
+-- 已有分区索引挂在 idx_emails_purge 上的分区跳过（包括早先在启动时直接建好的索引）
+SELECT format('CREATE INDEX CONCURRENTLY IF NOT EXISTS %I ON %s (deleted_at) WHERE is_deleted = true',
+    c.relname || '_purge', c.oid::regclass)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_index x ON x.indexrelid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_purge'::regclass AND x.indrelid = c.oid
+  )
+ORDER BY c.relname
+\gexec
+
+SELECT format('ALTER INDEX idx_emails_purge ATTACH PARTITION %I', c.relname || '_purge')
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_index x ON x.indexrelid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_purge'::regclass AND x.indrelid = c.oid
+  )
+\gexec
+
+-- 之后 ensure_email_partitions 新建的分区会自动带上该索引
+SELECT '迁移完成：idx_emails_purge 已在所有分区上创建' AS status,
+       (SELECT indisvalid FROM pg_index WHERE indexrelid = 'idx_emails_purge'::regclass) AS valid;
@@ -0,0 +1,64 @@
+-- ===========================================
+-- 迁移：管理后台分页索引 idx_emails_received_id
+--
+-- 管理后台邮件列表按 (received_at, id) keyset 分页，正文回填、modseq 补齐等批处理也沿该索引推进游标。
+-- 取代只有 received_at 的 idx_emails_received_at，新索引有效后删除旧索引。
+-- emails 是最大的表，索引不在 SMTP 服务器启动时创建。
+--
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+-- 每个分区单独 CREATE INDEX CONCURRENTLY，不阻塞投递和读写，服务器无需停机；
+-- 脚本用 psql 的 \gexec 逐条执行生成的语句（CONCURRENTLY 不能放在事务或函数中）：
+--   psql -U postgres -d maildb -f migrations/add_email_received_id_index.sql
+-- 分片部署时在每个分片上各执行一次。中途失败可以直接重新执行。
+-- ===========================================
+
+-- 父表上只建索引定义（ON ONLY 不扫描数据），所有分区挂上后自动变为有效
+CREATE INDEX IF NOT EXISTS idx_emails_received_id ON ONLY emails (received_at DESC, id DESC);
+
+-- 上次中断留下的无效分区索引先删除，再重新创建
+SELECT format('DROP INDEX CONCURRENTLY IF EXISTS %I', idx.relname)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+JOIN pg_class idx ON idx.relname = c.relname || '_received_id'
+JOIN pg_index ix ON ix.indexrelid = idx.oid AND NOT ix.indisvalid
+WHERE i.inhparent = 'emails'::regclass
+\gexec
+
+-- 逐个分区并发建索引，再挂到父表索引上。
+-- 已有分区索引挂在 idx_emails_received_id 上的分区跳过（包括早先在启动时直接建好的索引）
+SELECT format('CREATE INDEX CONCURRENTLY IF NOT EXISTS %I ON %s (received_at DESC, id DESC)',
+    c.relname || '_received_id', c.oid::regclass)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_index x ON x.indexrelid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_received_id'::regclass AND x.indrelid = c.oid
+  )
+ORDER BY c.relname
+\gexec
+
+SELECT format('ALTER INDEX idx_emails_received_id ATTACH PARTITION %I', c.relname || '_received_id')
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_index x ON x.indexrelid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_received_id'::regclass AND x.indrelid = c.oid
+  )
+\gexec
+
+-- 新索引覆盖了旧的 idx_emails_received_at (received_at DESC)，有效后删除旧索引。
+-- 分区表上的索引不能 DROP INDEX CONCURRENTLY，删除要短暂持有 emails 的 ACCESS EXCLUSIVE 锁；
+-- lock_timeout 避免排在长查询后面阻塞投递，超时失败时稍后重新执行本脚本即可
+SET lock_timeout = '5s';
+SELECT 'DROP INDEX IF EXISTS idx_emails_received_at'
+WHERE (SELECT indisvalid FROM pg_index WHERE indexrelid = 'idx_emails_received_id'::regclass)
+\gexec
+RESET lock_timeout;
+
+-- 之后 ensure_email_partitions 新建的分区会自动带上该索引
+SELECT '迁移完成：idx_emails_received_id 已在所有分区上创建' AS status,
+       (SELECT indisvalid FROM pg_index WHERE indexrelid = 'idx_emails_received_id'::regclass) AS valid;
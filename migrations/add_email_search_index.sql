@@ -0,0 +1,124 @@
+-- ===========================================
+-- 迁移：全文检索向量 search_vector 的回填和索引 idx_emails_search
+--
+-- search_vector 是由 set_emails_search_vector 触发器维护的普通列，SMTP 服务器启动时只添加列和触发器
+-- （不带默认值的列只改目录，不重写表），新投递的邮件即可检索；本脚本为已有邮件补齐向量并建索引。
+-- 早先以 STORED 生成列添加的 search_vector 先去掉生成表达式（保留已有的值，不重写表），再改由触发器维护。
+--
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+-- 回填按 (received_at, id) 分批更新、每批单独提交；索引每个分区单独 CREATE INDEX CONCURRENTLY，
+-- 不阻塞投递和读写，服务器无需停机。脚本用 psql 的 \gexec 逐条执行生成的语句
+-- （CONCURRENTLY 不能放在事务或函数中）：
+--   psql -U postgres -d maildb -f migrations/add_email_search_index.sql
+-- 分片部署时在每个分片上各执行一次。中途失败可以直接重新执行。
+-- 正文按 MIME 解码之前投递的邮件，之后再用 com.yhm.smtp.BodyBackfillMain 重新解码正文，向量随之更新。
+-- ===========================================
+
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_attribute
+               WHERE attrelid = 'emails'::regclass AND attname = 'search_vector'
+                 AND NOT attisdropped AND attgenerated = 's') THEN
+        ALTER TABLE emails ALTER COLUMN search_vector DROP EXPRESSION;
+    END IF;
+END;
+$$;
+
+ALTER TABLE emails ADD COLUMN IF NOT EXISTS search_vector TSVECTOR;
+
+-- 与 init.sql、SMTP schema.sql 中的定义相同（SMTP 服务器在列还是生成列时不创建触发器）
+CREATE OR REPLACE FUNCTION email_search_vector(subject TEXT, sender TEXT, body TEXT)
+RETURNS TSVECTOR AS $$
+    SELECT setweight(to_tsvector('simple', coalesce(subject, '')), 'A') ||
+           setweight(to_tsvector('simple', sender || ' ' || translate(sender, '@.', '  ')), 'B') ||
+           setweight(to_tsvector('simple', left(coalesce(body, ''), 100000)), 'C')
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION set_email_search_vector()
+RETURNS TRIGGER AS $$
+BEGIN
+    NEW.search_vector := email_search_vector(NEW.subject, NEW.sender, NEW.body);
+    RETURN NEW;
+END;
+$$ language 'plpgsql';
+
+DROP TRIGGER IF EXISTS set_emails_search_vector ON emails;
+CREATE TRIGGER set_emails_search_vector
+    BEFORE INSERT OR UPDATE OF subject, sender, body ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION set_email_search_vector();
+
+-- 先建触发器再回填：回填期间投递的邮件由触发器计算，不会漏掉
+DO $$
+DECLARE
+    batch_size CONSTANT INT := 5000;
+    last_received TIMESTAMP WITH TIME ZONE := '-infinity';
+    last_id UUID := '00000000-0000-0000-0000-000000000000';
+    next_received TIMESTAMP WITH TIME ZONE;
+    next_id UUID;
+BEGIN
+    LOOP
+        -- 本批的上界：游标之后第 batch_size 行（沿 idx_emails_received_id），不足一批时为空
+        SELECT received_at, id INTO next_received, next_id
+        FROM emails
+        WHERE (received_at, id) > (last_received, last_id)
+        ORDER BY received_at, id
+        OFFSET batch_size - 1 LIMIT 1;
+
+        -- 只写 search_vector，不触发标志、汇总和变更通知的触发器
+        UPDATE emails SET search_vector = email_search_vector(subject, sender, body)
+        WHERE (received_at, id) > (last_received, last_id)
+          AND (next_id IS NULL OR (received_at, id) <= (next_received, next_id))
+          AND search_vector IS NULL;
+
+        EXIT WHEN next_id IS NULL;
+        last_received := next_received;
+        last_id := next_id;
+        COMMIT;
+    END LOOP;
+END $$;
+
+-- 父表上只建索引定义（ON ONLY 不扫描数据），所有分区挂上后自动变为有效
+CREATE INDEX IF NOT EXISTS idx_emails_search ON ONLY emails USING GIN(owner, search_vector);
+
+-- 上次中断留下的无效分区索引先删除，再重新创建
+SELECT format('DROP INDEX CONCURRENTLY IF EXISTS %I', idx.relname)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+JOIN pg_class idx ON idx.relname = c.relname || '_search'
+JOIN pg_index ix ON ix.indexrelid = idx.oid AND NOT ix.indisvalid
+WHERE i.inhparent = 'emails'::regclass
+\gexec
+
+-- 逐个分区并发建索引，再挂到父表索引上。
+-- 已有分区索引挂在 idx_emails_search 上的分区跳过（包括早先在启动时直接建好的索引）
+SELECT format('CREATE INDEX CONCURRENTLY IF NOT EXISTS %I ON %s USING GIN(owner, search_vector)',
+    c.relname || '_search', c.oid::regclass)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_index x ON x.indexrelid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_search'::regclass AND x.indrelid = c.oid
+  )
+ORDER BY c.relname
+\gexec
+
+SELECT format('ALTER INDEX idx_emails_search ATTACH PARTITION %I', c.relname || '_search')
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_index x ON x.indexrelid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_search'::regclass AND x.indrelid = c.oid
+  )
+\gexec
+
+-- 之后 ensure_email_partitions 新建的分区会自动带上该索引
+SELECT '迁移完成：search_vector 已回填，idx_emails_search 已在所有分区上创建' AS status,
+       (SELECT COUNT(*) FROM emails WHERE search_vector IS NULL) AS remaining,
+       (SELECT indisvalid FROM pg_index WHERE indexrelid = 'idx_emails_search'::regclass) AS valid;
@@ -0,0 +1,54 @@
+-- ===========================================
+-- 迁移：为 IMAP SEARCH BODY / TEXT 添加 pg_trgm 索引 idx_emails_text_trgm
+--
+-- 索引表达式为 主题 || 发件人 || MIME 解码后的正文，ILIKE '%x%' 可以走索引，
+-- 不再逐封读取 raw_content。表达式须与 ImapMessageRepository.SEARCH_TEXT 保持一致。
+--
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+-- 每个分区单独 CREATE INDEX CONCURRENTLY，不阻塞投递和读写，服务器无需停机；
+-- 脚本用 psql 的 \gexec 逐条执行生成的语句（CONCURRENTLY 不能放在事务或函数中）：
+--   psql -U postgres -d maildb -f migrations/add_email_text_trgm_index.sql
+-- 分片部署时在每个分片上各执行一次。中途失败可以直接重新执行。
+-- ===========================================
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+-- 父表上只建索引定义（ON ONLY 不扫描数据），所有分区挂上后自动变为有效
+CREATE INDEX IF NOT EXISTS idx_emails_text_trgm ON ONLY emails
+    USING GIN ((coalesce(subject, '') || ' ' || sender || ' ' || coalesce(body, '')) gin_trgm_ops);
+
+-- 上次中断留下的无效分区索引先删除，再重新创建
+SELECT format('DROP INDEX CONCURRENTLY IF EXISTS %I', idx.relname)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+JOIN pg_class idx ON idx.relname = c.relname || '_text_trgm'
+JOIN pg_index ix ON ix.indexrelid = idx.oid AND NOT ix.indisvalid
+WHERE i.inhparent = 'emails'::regclass
+\gexec
+
+-- 逐个分区并发建索引
+SELECT format($sql$CREATE INDEX CONCURRENTLY IF NOT EXISTS %I ON %s
+    USING GIN ((coalesce(subject, '') || ' ' || sender || ' ' || coalesce(body, '')) gin_trgm_ops)$sql$,
+    c.relname || '_text_trgm', c.oid::regclass)
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+ORDER BY c.relname
+\gexec
+
+-- 挂到父表索引上（已挂上的跳过）
+SELECT format('ALTER INDEX idx_emails_text_trgm ATTACH PARTITION %I', c.relname || '_text_trgm')
+FROM pg_inherits i
+JOIN pg_class c ON c.oid = i.inhrelid
+WHERE i.inhparent = 'emails'::regclass
+  AND NOT EXISTS (
+      SELECT 1 FROM pg_inherits ii
+      JOIN pg_class ci ON ci.oid = ii.inhrelid
+      WHERE ii.inhparent = 'idx_emails_text_trgm'::regclass
+        AND ci.relname = c.relname || '_text_trgm'
+  )
+\gexec
+
+-- 之后 ensure_email_partitions 新建的分区会自动带上该索引
+SELECT '迁移完成：idx_emails_text_trgm 已在所有分区上创建' AS status,
+       (SELECT indisvalid FROM pg_index WHERE indexrelid = 'idx_emails_text_trgm'::regclass) AS valid;
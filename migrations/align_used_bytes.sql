@@ -0,0 +1,23 @@
+-- ===========================================
+-- 迁移：把 users.used_bytes 对齐到 mailbox_summary.total_bytes
+--
+-- 旧版本投递时不增加 used_bytes，删除时扣减并截断到 0，已有的值没有意义。
+-- 新版本的邮箱汇总触发器让 used_bytes 随 total_bytes 同步增减；
+-- 先用新版本启动一次任一服务器（更新触发器函数），再执行本脚本对齐已有的值：
+--   psql -U postgres -d maildb -f migrations/align_used_bytes.sql
+-- 分片部署时在每个分片上各执行一次（每个分片对齐本分片上的 users 行）。可以重复执行。
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+-- ===========================================
+
+BEGIN;
+
+-- 触发器先更新汇总行再更新 users，锁住汇总表的写入，对齐期间投递和删除稍作等待
+LOCK TABLE mailbox_summary IN SHARE MODE;
+
+UPDATE users u SET used_bytes = COALESCE(s.total_bytes, 0)
+FROM users x LEFT JOIN mailbox_summary s ON s.owner = x.email
+WHERE u.id = x.id AND u.used_bytes <> COALESCE(s.total_bytes, 0);
+
+COMMIT;
+
+SELECT '迁移完成：users.used_bytes 已与 mailbox_summary 对齐' AS status;
@@ -0,0 +1,45 @@
+-- ===========================================
+-- 迁移：为引入 modseq 之前投递的邮件补充 modseq
+--
+-- 新邮件由 bump_emails_modseq_insert 触发器取号，新建的数据库和已补齐的数据库不需要执行本脚本。
+-- 按 (received_at, id) 顺序分批更新，每批单独提交，不长时间持有行锁，服务器无需停机：
+--   psql -U postgres -d maildb -f migrations/backfill_email_modseq.sql
+-- 分片部署时在每个分片上各执行一次。中途中断可以直接重新执行。
+-- ===========================================
+
+DO $$
+DECLARE
+    batch_size CONSTANT INT := 5000;
+    last_received TIMESTAMP WITH TIME ZONE := '-infinity';
+    last_id UUID := '00000000-0000-0000-0000-000000000000';
+    next_received TIMESTAMP WITH TIME ZONE;
+    next_id UUID;
+BEGIN
+    LOOP
+        -- 本批的上界：游标之后第 batch_size 行（沿 idx_emails_received_id），不足一批时为空
+        SELECT received_at, id INTO next_received, next_id
+        FROM emails
+        WHERE (received_at, id) > (last_received, last_id)
+        ORDER BY received_at, id
+        OFFSET batch_size - 1 LIMIT 1;
+
+        -- 更新触发器只在标志变化时取号，这里不会重复取号
+        UPDATE emails SET modseq = nextval('emails_modseq_seq')
+        WHERE (received_at, id) > (last_received, last_id)
+          AND (next_id IS NULL OR (received_at, id) <= (next_received, next_id))
+          AND modseq IS NULL;
+
+        EXIT WHEN next_id IS NULL;
+        last_received := next_received;
+        last_id := next_id;
+        COMMIT;
+    END LOOP;
+END $$;
+
+-- 汇总表的 max_modseq 只由触发器在投递、标志变化和删除时推进，这里补上
+UPDATE mailbox_summary m SET max_modseq = e.max_modseq
+FROM (SELECT owner, MAX(modseq) AS max_modseq FROM emails GROUP BY owner) e
+WHERE m.owner = e.owner AND m.max_modseq < e.max_modseq;
+
+SELECT '迁移完成：已补齐 emails.modseq' AS status,
+       (SELECT COUNT(*) FROM emails WHERE modseq IS NULL) AS remaining;
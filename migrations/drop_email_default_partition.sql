@@ -0,0 +1,50 @@
+-- ===========================================
+-- 迁移：去掉 emails 的默认分区 emails_default
+--
+-- 有默认分区时 PostgreSQL 不允许 DETACH PARTITION CONCURRENTLY，过期分区只能在
+-- emails 上持有 ACCESS EXCLUSIVE 锁分离（EmailPartitionMaintainer 这时退回普通 DETACH 并设置 lock_timeout）。
+-- 新建的数据库不再创建默认分区，不需要执行本脚本。
+--
+-- 默认分区中的邮件按月份补建分区后原样搬回（不经过触发器，uid、modseq 和邮箱汇总不变），
+-- 再删除默认分区。整个过程在一个事务内完成，期间 emails 被锁定；
+-- 默认分区通常为空或很小，锁定时间很短。关闭触发器需要超级用户：
+--   psql -U postgres -d maildb -f migrations/drop_email_default_partition.sql
+-- 分片部署时在每个分片上各执行一次。可以重复执行。
+-- ===========================================
+
+BEGIN;
+
+DO $$
+DECLARE
+    month DATE;
+    columns TEXT;
+BEGIN
+    IF to_regclass('emails_default') IS NULL THEN
+        RETURN;
+    END IF;
+
+    ALTER TABLE emails DETACH PARTITION emails_default;
+
+    FOR month IN
+        SELECT DISTINCT date_trunc('month', received_at AT TIME ZONE 'UTC')::date FROM emails_default
+    LOOP
+        PERFORM create_email_partition(month);
+    END LOOP;
+
+    -- 生成列不能写入，由新分区重新计算
+    SELECT string_agg(quote_ident(attname), ', ' ORDER BY attnum) INTO columns
+    FROM pg_attribute
+    WHERE attrelid = 'emails'::regclass AND attnum > 0 AND NOT attisdropped AND attgenerated = '';
+
+    PERFORM set_config('session_replication_role', 'replica', true);
+    EXECUTE format('INSERT INTO emails (%s) SELECT %s FROM emails_default', columns, columns);
+    PERFORM set_config('session_replication_role', 'origin', true);
+
+    DROP TABLE emails_default;
+END;
+$$;
+
+COMMIT;
+
+SELECT '迁移完成：emails 已没有默认分区' AS status,
+       (SELECT partdefid = 0 FROM pg_partitioned_table WHERE partrelid = 'emails'::regclass) AS ok;
@@ -0,0 +1,370 @@
+-- ===========================================
+-- 迁移：把已有的 emails 表改为按 received_at 按月分区
+--
+-- 适用于用旧版 init.sql 建库、并已执行过 IMAP schema.sql（uid、imap_flags、modseq 列）的数据库。
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+--
+-- 执行期间 emails 被锁定，请先停止 SMTP、POP3、IMAP 服务器和管理后台：
+--   psql -U postgres -d maildb -f migrations/partition_emails.sql
+-- 确认数据无误后手动删除 emails_legacy（见文件末尾）
+-- ===========================================
+
+BEGIN;
+
+-- ==================== 旧表改名 ====================
+ALTER TABLE emails RENAME TO emails_legacy;
+ALTER TABLE emails_legacy RENAME CONSTRAINT emails_pkey TO emails_legacy_pkey;
+
+-- 索引名在 schema 内唯一，先删掉旧表上的索引，新表才能用相同的名字
+DROP INDEX IF EXISTS idx_emails_owner;
+DROP INDEX IF EXISTS idx_emails_owner_deleted;
+DROP INDEX IF EXISTS idx_emails_owner_maildrop;
+DROP INDEX IF EXISTS idx_emails_owner_read;
+DROP INDEX IF EXISTS idx_emails_received_at;
+DROP INDEX IF EXISTS idx_emails_sender;
+DROP INDEX IF EXISTS idx_emails_owner_uid;
+DROP INDEX IF EXISTS idx_emails_owner_modseq;
+DROP INDEX IF EXISTS idx_emails_recipients;
+
+-- 触发器留在旧表上没有意义
+DROP TRIGGER IF EXISTS notify_emails_mailbox_changed ON emails_legacy;
+DROP TRIGGER IF EXISTS assign_emails_uid ON emails_legacy;
+DROP TRIGGER IF EXISTS bump_emails_modseq_insert ON emails_legacy;
+DROP TRIGGER IF EXISTS bump_emails_modseq_update ON emails_legacy;
+DROP TRIGGER IF EXISTS record_emails_tombstone ON emails_legacy;
+DROP TRIGGER IF EXISTS update_emails_mailbox_summary ON emails_legacy;
+
+-- 分区表的主键包含 received_at，其他表不能再用外键引用 emails(id)
+ALTER TABLE mail_queue DROP CONSTRAINT IF EXISTS fk_mail_queue_email;
+ALTER TABLE delivery_logs DROP CONSTRAINT IF EXISTS fk_delivery_logs_email;
+
+-- 视图按 OID 绑定在旧表上，复制数据后重建
+DROP VIEW IF EXISTS mailbox_stats;
+DROP VIEW IF EXISTS pending_deliveries;
+
+-- ==================== 分区表 ====================
+CREATE TABLE emails (
+    id UUID NOT NULL DEFAULT uuid_generate_v4(),
+    sender VARCHAR(320) NOT NULL,
+    recipients VARCHAR(320)[] NOT NULL,
+    subject VARCHAR(998),
+    body TEXT,
+    raw_content TEXT NOT NULL,
+    size BIGINT NOT NULL DEFAULT 0,
+    received_at TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    is_read BOOLEAN NOT NULL DEFAULT false,
+    is_deleted BOOLEAN NOT NULL DEFAULT false,
+    owner VARCHAR(320) NOT NULL,
+    -- 头部长度与正文前若干行的结束偏移（UTF-8 字节），用于 POP3 TOP
+    header_length INT,
+    body_line_offsets INT[],
+    -- IMAP UID（由触发器分配，同一邮箱内按投递顺序递增）与 \Seen 以外的 IMAP 标志位
+    uid BIGINT,
+    imap_flags SMALLINT NOT NULL DEFAULT 0,
+    -- 修改序号（投递、标志变化、删除时递增），用于客户端增量同步
+    modseq BIGINT,
+    
+    CONSTRAINT fk_emails_owner FOREIGN KEY (owner) REFERENCES users(email),
+    PRIMARY KEY (id, received_at),
+    CONSTRAINT chk_emails_size CHECK (size >= 0)
+) PARTITION BY RANGE (received_at);
+
+-- 创建 month 所在月份的分区，已存在时返回 false
+CREATE OR REPLACE FUNCTION create_email_partition(month DATE)
+RETURNS BOOLEAN AS $$
+DECLARE
+    start_at DATE := date_trunc('month', month)::date;
+    partition_name TEXT := 'emails_y' || to_char(start_at, 'YYYY') || 'm' || to_char(start_at, 'MM');
+BEGIN
+    IF to_regclass(partition_name) IS NOT NULL THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TABLE %I PARTITION OF emails FOR VALUES FROM (%L) TO (%L)',
+                   partition_name,
+                   start_at::timestamp AT TIME ZONE 'UTC',
+                   (start_at + INTERVAL '1 month')::timestamp AT TIME ZONE 'UTC');
+    RETURN true;
+END;
+$$ language 'plpgsql';
+
+-- 确保当前月前 months_back 个月到后 months_ahead 个月的分区存在，返回新建的分区数
+CREATE OR REPLACE FUNCTION ensure_email_partitions(months_back INT, months_ahead INT)
+RETURNS INT AS $$
+DECLARE
+    current_month DATE := date_trunc('month', CURRENT_TIMESTAMP AT TIME ZONE 'UTC')::date;
+    created INT := 0;
+BEGIN
+    FOR i IN -months_back..months_ahead LOOP
+        IF create_email_partition((current_month + make_interval(months => i))::date) THEN
+            created := created + 1;
+        END IF;
+    END LOOP;
+    RETURN created;
+END;
+$$ language 'plpgsql';
+
+-- 过期分区由 EmailPartitionMaintainer 逐个处理，每一步单独提交，不在一个函数事务里完成：
+-- 1. settle_email_partition：分区仍挂在 emails 上时冻结写入并结算容量、汇总和墓碑
+-- 2. ALTER TABLE emails DETACH PARTITION ... CONCURRENTLY（不能在事务块和函数中执行）
+-- 3. DROP TABLE 分离后的分区
+-- 中途失败时下次从未完成的一步继续：已有冻结触发器的分区不再结算
+
+-- 冻结过期分区：结算之后的 INSERT / UPDATE / DELETE 静默跳过，分区内容与结算结果保持一致
+CREATE OR REPLACE FUNCTION skip_expired_email_write()
+RETURNS TRIGGER AS $$
+BEGIN
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+-- 冻结并结算一个仍挂在 emails 上的过期分区，已结算过时返回 false。
+-- 建触发器持有该分区的 SHARE ROW EXCLUSIVE 锁直到提交，结算期间分区上没有并发写入，emails 父表不受影响。
+-- 未删除的邮件只扫描一次，读入临时表后再扣减和写墓碑
+CREATE OR REPLACE FUNCTION settle_email_partition(part TEXT)
+RETURNS BOOLEAN AS $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_trigger
+               WHERE tgrelid = part::regclass AND tgname = 'freeze_expired_emails') THEN
+        RETURN false;
+    END IF;
+    EXECUTE format('CREATE TRIGGER freeze_expired_emails BEFORE INSERT OR UPDATE OR DELETE ON %I
+                    FOR EACH ROW EXECUTE FUNCTION skip_expired_email_write()', part);
+
+    EXECUTE format('CREATE TEMP TABLE expired_emails AS
+                    SELECT owner, id, is_read, size FROM %I WHERE is_deleted = false', part);
+
+    -- 与 modseq 触发器相同，按邮箱加锁后取号（按 owner 排序加锁，与其他批量操作不会死锁）
+    PERFORM count(pg_advisory_xact_lock(1229799760, hashtext(owner)))
+    FROM (SELECT DISTINCT owner FROM expired_emails ORDER BY owner) o;
+
+    -- 分区删除时不经过 emails 上的触发器，邮箱汇总和 users.used_bytes 在这里扣减
+    UPDATE mailbox_summary m
+    SET total_count = m.total_count - s.total,
+        unread_count = m.unread_count - s.unread,
+        total_bytes = m.total_bytes - s.bytes
+    FROM (SELECT owner, COUNT(*) AS total, COUNT(*) FILTER (WHERE NOT is_read) AS unread, SUM(size) AS bytes
+          FROM expired_emails GROUP BY owner) s
+    WHERE m.owner = s.owner;
+    UPDATE users u SET used_bytes = u.used_bytes - s.bytes
+    FROM (SELECT owner, SUM(size) AS bytes FROM expired_emails GROUP BY owner) s
+    WHERE u.email = s.owner;
+
+    WITH dropped AS (
+        INSERT INTO email_tombstones (owner, modseq, email_id)
+        SELECT owner, nextval('emails_modseq_seq'), id FROM expired_emails
+        RETURNING owner, modseq
+    )
+    UPDATE mailbox_summary m SET max_modseq = GREATEST(m.max_modseq, d.max_modseq)
+    FROM (SELECT owner, MAX(modseq) AS max_modseq FROM dropped GROUP BY owner) d
+    WHERE m.owner = d.owner;
+
+    DROP TABLE expired_emails;
+    RETURN true;
+END;
+$$ language 'plpgsql';
+
+-- 覆盖已有数据最早的月份到未来 3 个月
+DO $$
+DECLARE
+    month DATE := date_trunc('month', COALESCE(
+        (SELECT MIN(received_at) FROM emails_legacy) AT TIME ZONE 'UTC',
+        CURRENT_TIMESTAMP AT TIME ZONE 'UTC'))::date;
+BEGIN
+    WHILE month <= (date_trunc('month', CURRENT_TIMESTAMP AT TIME ZONE 'UTC') + INTERVAL '3 months')::date LOOP
+        PERFORM create_email_partition(month);
+        month := (month + INTERVAL '1 month')::date;
+    END LOOP;
+END;
+$$;
+
+-- 不建默认分区：有默认分区时过期分区无法 DETACH PARTITION CONCURRENTLY
+
+-- ==================== 复制数据 ====================
+-- 在建索引和触发器之前复制：批量写入更快，uid 和 modseq 保持原值
+INSERT INTO emails (id, sender, recipients, subject, body, raw_content, size, received_at, is_read, is_deleted, owner,
+       header_length, body_line_offsets, uid, imap_flags, modseq)
+SELECT id, sender, recipients, subject, body, raw_content, size, received_at, is_read, is_deleted, owner,
+       header_length, body_line_offsets, uid, imap_flags, modseq
+FROM emails_legacy;
+
+-- ==================== 索引 ====================
+CREATE INDEX IF NOT EXISTS idx_emails_owner ON emails(owner);
+CREATE INDEX IF NOT EXISTS idx_emails_owner_deleted ON emails(owner, is_deleted);
+CREATE INDEX IF NOT EXISTS idx_emails_owner_maildrop ON emails(owner, received_at DESC) INCLUDE (id, size) WHERE is_deleted = false;
+CREATE INDEX IF NOT EXISTS idx_emails_owner_read ON emails(owner, is_read, is_deleted);
+CREATE INDEX IF NOT EXISTS idx_emails_received_id ON emails(received_at DESC, id DESC);
+CREATE INDEX IF NOT EXISTS idx_emails_sender ON emails(sender);
+CREATE INDEX IF NOT EXISTS idx_emails_owner_uid ON emails(owner, uid);
+CREATE INDEX IF NOT EXISTS idx_emails_owner_modseq ON emails(owner, modseq);
+CREATE INDEX IF NOT EXISTS idx_emails_recipients ON emails USING GIN(recipients);
+
+-- ==================== 触发器 ====================
+DROP TRIGGER IF EXISTS notify_emails_mailbox_changed ON emails;
+CREATE TRIGGER notify_emails_mailbox_changed
+    AFTER INSERT OR DELETE OR UPDATE OF is_deleted ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION notify_mailbox_changed();
+
+DROP TRIGGER IF EXISTS assign_emails_uid ON emails;
+CREATE TRIGGER assign_emails_uid
+    BEFORE INSERT ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION assign_email_uid();
+
+DROP TRIGGER IF EXISTS bump_emails_modseq_insert ON emails;
+CREATE TRIGGER bump_emails_modseq_insert
+    BEFORE INSERT ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION bump_email_modseq();
+
+DROP TRIGGER IF EXISTS bump_emails_modseq_update ON emails;
+CREATE TRIGGER bump_emails_modseq_update
+    BEFORE UPDATE OF is_read, is_deleted, imap_flags ON emails
+    FOR EACH ROW
+    WHEN (OLD.is_read IS DISTINCT FROM NEW.is_read
+          OR OLD.is_deleted IS DISTINCT FROM NEW.is_deleted
+          OR OLD.imap_flags IS DISTINCT FROM NEW.imap_flags)
+    EXECUTE FUNCTION bump_email_modseq();
+
+DROP TRIGGER IF EXISTS record_emails_tombstone ON emails;
+CREATE TRIGGER record_emails_tombstone
+    AFTER DELETE ON emails
+    FOR EACH ROW
+    EXECUTE FUNCTION record_email_tombstone();
+
+-- ==================== 邮箱汇总 ====================
+-- 每个邮箱一行：未删除邮件数、其中未读数、总字节数和最大 modseq。
+-- 投递、标志变化和删除由触发器在同一事务内增量更新，
+-- POP3/IMAP 状态、SMTP 未读数、仪表板和客户端 API 直接读取，不再对 emails 做聚合
+CREATE TABLE IF NOT EXISTS mailbox_summary (
+    owner VARCHAR(320) PRIMARY KEY,
+    total_count BIGINT NOT NULL DEFAULT 0,
+    unread_count BIGINT NOT NULL DEFAULT 0,
+    total_bytes BIGINT NOT NULL DEFAULT 0,
+    max_modseq BIGINT NOT NULL DEFAULT 0,
+
+    CONSTRAINT fk_mailbox_summary_owner FOREIGN KEY (owner) REFERENCES users(email) ON DELETE CASCADE
+);
+
+CREATE OR REPLACE FUNCTION update_mailbox_summary()
+RETURNS TRIGGER AS $$
+DECLARE
+    target VARCHAR(320);
+    delta_total BIGINT := 0;
+    delta_unread BIGINT := 0;
+    delta_bytes BIGINT := 0;
+    new_modseq BIGINT;
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') AND NOT OLD.is_deleted THEN
+        delta_total := delta_total - 1;
+        delta_unread := delta_unread - CASE WHEN OLD.is_read THEN 0 ELSE 1 END;
+        delta_bytes := delta_bytes - OLD.size;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') AND NOT NEW.is_deleted THEN
+        delta_total := delta_total + 1;
+        delta_unread := delta_unread + CASE WHEN NEW.is_read THEN 0 ELSE 1 END;
+        delta_bytes := delta_bytes + NEW.size;
+    END IF;
+
+    IF TG_OP = 'DELETE' THEN
+        target := OLD.owner;
+        -- 同一事件的 AFTER 触发器按名称顺序执行，record_emails_tombstone 已写入墓碑
+        SELECT MAX(t.modseq) INTO new_modseq FROM email_tombstones t WHERE t.owner = OLD.owner;
+    ELSE
+        target := NEW.owner;
+        new_modseq := NEW.modseq;
+    END IF;
+
+    INSERT INTO mailbox_summary AS s (owner, total_count, unread_count, total_bytes, max_modseq)
+    VALUES (target, delta_total, delta_unread, delta_bytes, COALESCE(new_modseq, 0))
+    ON CONFLICT (owner) DO UPDATE SET
+        total_count = s.total_count + EXCLUDED.total_count,
+        unread_count = s.unread_count + EXCLUDED.unread_count,
+        total_bytes = s.total_bytes + EXCLUDED.total_bytes,
+        max_modseq = GREATEST(s.max_modseq, EXCLUDED.max_modseq);
+    -- users.used_bytes 随 total_bytes 同步增减（只更新本分片上的 users 行）
+    IF delta_bytes <> 0 THEN
+        UPDATE users SET used_bytes = used_bytes + delta_bytes WHERE email = target;
+    END IF;
+    RETURN NULL;
+END;
+$$ language 'plpgsql';
+
+-- 按 emails 和墓碑重新计算全部汇总行，并把 users.used_bytes 对齐到 total_bytes。
+-- 先锁住 emails 的写入直到事务结束，计算期间不会有触发器更新汇总
+CREATE OR REPLACE FUNCTION refresh_mailbox_summary()
+RETURNS VOID AS $$
+BEGIN
+    LOCK TABLE emails IN SHARE MODE;
+    DELETE FROM mailbox_summary;
+    INSERT INTO mailbox_summary (owner, total_count, unread_count, total_bytes, max_modseq)
+    SELECT c.owner, SUM(c.total)::bigint, SUM(c.unread)::bigint, SUM(c.bytes)::bigint, MAX(c.max_modseq)
+    FROM (
+        SELECT owner,
+               COUNT(*) FILTER (WHERE NOT is_deleted) AS total,
+               COUNT(*) FILTER (WHERE NOT is_deleted AND NOT is_read) AS unread,
+               COALESCE(SUM(size) FILTER (WHERE NOT is_deleted), 0) AS bytes,
+               COALESCE(MAX(modseq), 0) AS max_modseq
+        FROM emails
+        GROUP BY owner
+        UNION ALL
+        SELECT owner, 0, 0, 0, MAX(modseq)
+        FROM email_tombstones
+        GROUP BY owner
+    ) c
+    JOIN users u ON u.email = c.owner
+    GROUP BY c.owner;
+    UPDATE users u SET used_bytes = COALESCE(s.total_bytes, 0)
+    FROM users x LEFT JOIN mailbox_summary s ON s.owner = x.email
+    WHERE u.id = x.id AND u.used_bytes <> COALESCE(s.total_bytes, 0);
+END;
+$$ language 'plpgsql';
+
+-- 首次安装时在同一事务内创建触发器并回填，中间的写入不会漏算
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_trigger
+                   WHERE tgrelid = 'emails'::regclass AND tgname = 'update_emails_mailbox_summary') THEN
+        CREATE TRIGGER update_emails_mailbox_summary
+            AFTER INSERT OR DELETE OR UPDATE OF is_read, is_deleted, size ON emails
+            FOR EACH ROW
+            EXECUTE FUNCTION update_mailbox_summary();
+        PERFORM refresh_mailbox_summary();
+    END IF;
+END;
+$$;
+
+-- ==================== 视图 ====================
+-- 邮箱统计视图
+-- 读取 mailbox_summary，不再聚合 emails（列类型有变化，需要先删除旧视图）
+DROP VIEW IF EXISTS mailbox_stats;
+CREATE VIEW mailbox_stats AS
+SELECT 
+    u.email,
+    u.quota_bytes,
+    u.used_bytes,
+    COALESCE(s.total_count, 0) as total_emails,
+    COALESCE(s.unread_count, 0) as unread_emails,
+    COALESCE(s.total_bytes, 0) as total_size
+FROM users u
+LEFT JOIN mailbox_summary s ON s.owner = u.email;
+
+-- 待发送邮件视图
+CREATE OR REPLACE VIEW pending_deliveries AS
+SELECT 
+    mq.*,
+    e.sender,
+    e.subject,
+    e.size
+FROM mail_queue mq
+JOIN emails e ON mq.email_id = e.id
+WHERE mq.status = 'pending'
+  AND (mq.next_retry_at IS NULL OR mq.next_retry_at <= CURRENT_TIMESTAMP)
+ORDER BY mq.created_at;
+
+ANALYZE emails;
+
+COMMIT;
+
+-- 确认新表数据完整后删除旧表：
+-- DROP TABLE emails_legacy;
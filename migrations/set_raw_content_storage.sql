@@ -0,0 +1,21 @@
+-- ===========================================
+-- 迁移：emails.raw_content 改为不压缩的外部存储（STORAGE EXTERNAL）
+--
+-- POP3 RETR/TOP 按字符分段读取 raw_content（substring），默认的 EXTENDED 存储压缩 TOAST 数据，
+-- 每读一段都要从头解压到这一段末尾，大邮件的解压量随段数平方增长。
+-- EXTERNAL 不压缩，分段读取只取到这一段末尾的 TOAST 块，不再解压。
+-- 代价是邮件原文不再压缩，新邮件占用的磁盘空间增加。
+--
+-- 只修改列的存储方式（包括所有分区，之后新建的分区沿用），不重写表，
+-- 已有的邮件保持原来的压缩存储，只有之后写入的邮件按 EXTERNAL 存储。
+-- 需要短暂的 ACCESS EXCLUSIVE 锁，lock_timeout 避免排在长查询后面阻塞投递；超时失败时稍后重新执行即可：
+--   psql -U postgres -d maildb -f migrations/set_raw_content_storage.sql
+-- 分片部署时在每个分片上各执行一次。可以重复执行。
+-- 新建的数据库直接使用 init.sql，不需要执行本脚本。
+-- ===========================================
+
+SET lock_timeout = '5s';
+
+ALTER TABLE emails ALTER COLUMN raw_content SET STORAGE EXTERNAL;
+
+SELECT '迁移完成：emails.raw_content 已改为 STORAGE EXTERNAL' AS status;
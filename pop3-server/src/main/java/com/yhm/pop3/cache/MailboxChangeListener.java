@@ -0,0 +1,132 @@
+package com.yhm.pop3.cache;
+
+import com.yhm.pop3.db.DatabaseConfig;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 邮箱变更监听器
+ *
+ * 在独立连接上 LISTEN mailbox_changed，通知内容为邮箱所有者地址。
+ * 通知由 emails 表上的触发器在投递（INSERT）、删除时发出，
+ * 随 SMTP 服务器的事务提交送达。
+ *
+ * 收到通知时先把邮箱标记为刚写入（之后的读取走主库直到副本追上），再使缓存失效，
+ * 避免缓存重新加载时从尚未回放这次投递的副本读到旧列表。
+ *
+ * 邮件分片时每个分片一条监听连接、一个线程。
+ * 任一监听连接断开期间停用 {@link MaildropCache}，全部连接恢复后清空缓存再启用。
+ */
+public class MailboxChangeListener {
+
+    private static final Logger log = LoggerFactory.getLogger(MailboxChangeListener.class);
+
+    public static final String CHANNEL = "mailbox_changed";
+
+    private static final int POLL_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_DELAY_MILLIS = 5000;
+
+    private final MaildropCache cache;
+    private final int shards;
+    private final AtomicReferenceArray<Connection> connections;
+    private final Thread[] threads;
+    // 已建立监听的分片数，等于分片总数时才启用缓存
+    private final AtomicInteger listening = new AtomicInteger();
+    private volatile boolean running;
+
+    public MailboxChangeListener(MaildropCache cache) {
+        this.cache = cache;
+        this.shards = DatabaseConfig.getShardCount();
+        this.connections = new AtomicReferenceArray<>(shards);
+        this.threads = new Thread[shards];
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < shards; i++) {
+            int shard = i;
+            threads[i] = Thread.ofPlatform()
+                    .name(shards == 1 ? "mailbox-change-listener" : "mailbox-change-listener-" + shard)
+                    .daemon(true)
+                    .start(() -> loop(shard));
+        }
+    }
+
+    private void loop(int shard) {
+        while (running) {
+            boolean counted = false;
+            try (Connection conn = DatabaseConfig.openDedicatedConnection(shard)) {
+                connections.set(shard, conn);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+
+                // 监听建立前的变更无法得知，清空后再启用
+                counted = true;
+                if (listening.incrementAndGet() == shards) {
+                    cache.setEnabled(true);
+                }
+                log.info("已开始监听分片 {} 的邮箱变更通知", shard);
+
+                PGConnection pgConn = conn.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConn.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        String owner = notification.getParameter();
+                        DatabaseConfig.getReplicaRouter(shard).markWritten(owner);
+                        cache.invalidate(owner);
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("分片 {} 邮箱变更监听连接断开，{} 毫秒后重连: {}",
+                            shard, RECONNECT_DELAY_MILLIS, e.getMessage());
+                }
+            } finally {
+                if (counted) {
+                    listening.decrementAndGet();
+                }
+                cache.setEnabled(false);
+                connections.set(shard, null);
+            }
+
+            if (running) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MILLIS));
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        for (int i = 0; i < shards; i++) {
+            Connection conn = connections.get(i);
+            if (conn != null) {
+                try {
+                    // 关闭连接使阻塞中的 getNotifications 立即返回
+                    conn.close();
+                } catch (SQLException ignored) {
+                    // 监听线程会自行退出
+                }
+            }
+            if (threads[i] != null) {
+                LockSupport.unpark(threads[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.yhm.pop3.cache;
+
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.pop3.db.MaildropListing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 跨会话的邮箱列表缓存
+ *
+ * 按用户缓存 {@link MaildropListing}，邮箱没有变化时登录不再查询邮件列表。
+ * 新邮件投递和删除由数据库触发器发出 NOTIFY mailbox_changed，
+ * {@link MailboxChangeListener} 收到后使对应用户的缓存失效。
+ *
+ * 一致性：
+ * - 只有监听连接正常时才启用缓存，断开期间可能错过通知，重连后整体清空
+ * - 加载前取 {@link #beginLoad()} 序号，加载期间如果该用户（或全部）失效过，
+ *   {@link #put} 会丢弃这次结果，避免把旧列表写回缓存
+ *
+ * 容量按缓存的邮件总数限制，超出时淘汰最久未使用的用户。
+ */
+public class MaildropCache {
+
+    // 失效标记：listing 为空，stamp 为失效时的序号
+    private record Entry(MaildropListing listing, long stamp) {
+        int weight() {
+            return listing != null ? listing.count() : 0;
+        }
+    }
+
+    private final long maxMessages;
+
+    // 访问顺序的 LinkedHashMap 实现 LRU
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private long cachedMessages;
+    private long clearedAt;
+    private volatile boolean enabled;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder invalidations;
+
+    public MaildropCache(long maxMessages) {
+        this.maxMessages = maxMessages;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.hits = metrics.counter("pop3.listingCache.hits");
+        this.misses = metrics.counter("pop3.listingCache.misses");
+        this.invalidations = metrics.counter("pop3.listingCache.invalidations");
+        metrics.gauge("pop3.listingCache.messages", this::getCachedMessages);
+    }
+
+    /**
+     * 获取缓存的列表，未命中或缓存未启用时返回 null
+     */
+    public MaildropListing get(String owner) {
+        if (!enabled) {
+            return null;
+        }
+        lock.lock();
+        try {
+            Entry entry = entries.get(owner.toLowerCase());
+            if (entry != null && entry.listing() != null) {
+                hits.increment();
+                return entry.listing();
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 开始从数据库加载前调用，返回值传给 {@link #put}
+     */
+    public long beginLoad() {
+        return sequence.get();
+    }
+
+    /**
+     * 写入加载结果；加载期间发生过失效则丢弃
+     */
+    public void put(String owner, MaildropListing listing, long stamp) {
+        if (!enabled || maxMessages <= 0 || listing.count() > maxMessages) {
+            return;
+        }
+        String key = owner.toLowerCase();
+        lock.lock();
+        try {
+            if (stamp < clearedAt) {
+                return;
+            }
+            Entry previous = entries.get(key);
+            if (previous != null && previous.stamp() > stamp) {
+                return;
+            }
+            replace(key, new Entry(listing, stamp));
+            evictIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 使用户的缓存失效
+     */
+    public void invalidate(String owner) {
+        invalidations.increment();
+        String key = owner.toLowerCase();
+        lock.lock();
+        try {
+            // 留下失效标记，拦截失效前开始的加载
+            replace(key, new Entry(null, sequence.incrementAndGet()));
+            evictIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空全部缓存
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            entries.clear();
+            cachedMessages = 0;
+            clearedAt = sequence.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 启用或停用缓存，状态变化时清空
+     */
+    public void setEnabled(boolean enabled) {
+        if (this.enabled != enabled) {
+            invalidateAll();
+            this.enabled = enabled;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getCachedMessages() {
+        lock.lock();
+        try {
+            return cachedMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replace(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            cachedMessages -= previous.weight();
+        }
+        cachedMessages += entry.weight();
+    }
+
+    /**
+     * 淘汰最久未使用的条目，失效标记也计入条目数上限
+     */
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((cachedMessages > maxMessages || entries.size() > maxMessages) && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            cachedMessages -= eldest.weight();
+            if (eldest.listing() == null) {
+                // 失效标记被淘汰后，失效前开始的加载一律丢弃
+                clearedAt = Math.max(clearedAt, eldest.stamp());
+            }
+            it.remove();
+        }
+    }
+}
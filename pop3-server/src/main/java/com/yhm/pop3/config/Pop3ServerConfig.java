@@ -19,6 +19,14 @@ public class Pop3ServerConfig {
     private final boolean requireAuth;
     private final int authFailedMaxAttempts;
     private final long autoLogoutTimeout;
+    private final String lockProvider;
+    private final long lockTimeout;
+    private final long metricsReportInterval;
+    private final long listingCacheMaxMessages;
+    private final long authCacheTtl;
+    private final int authCacheMaxEntries;
+    private final int authHashThreads;
+    private final int authHashQueueCapacity;
     
     private Pop3ServerConfig(Builder builder) {
         this.domain = builder.domain;
@@ -29,6 +37,14 @@ public class Pop3ServerConfig {
         this.requireAuth = builder.requireAuth;
         this.authFailedMaxAttempts = builder.authFailedMaxAttempts;
         this.autoLogoutTimeout = builder.autoLogoutTimeout;
+        this.lockProvider = builder.lockProvider;
+        this.lockTimeout = builder.lockTimeout;
+        this.metricsReportInterval = builder.metricsReportInterval;
+        this.listingCacheMaxMessages = builder.listingCacheMaxMessages;
+        this.authCacheTtl = builder.authCacheTtl;
+        this.authCacheMaxEntries = builder.authCacheMaxEntries;
+        this.authHashThreads = builder.authHashThreads;
+        this.authHashQueueCapacity = builder.authHashQueueCapacity;
     }
     
     // ==================== Getters ====================
@@ -65,6 +81,38 @@ public class Pop3ServerConfig {
         return autoLogoutTimeout;
     }
     
+    public String getLockProvider() {
+        return lockProvider;
+    }
+    
+    public long getLockTimeout() {
+        return lockTimeout;
+    }
+    
+    public long getMetricsReportInterval() {
+        return metricsReportInterval;
+    }
+    
+    public long getListingCacheMaxMessages() {
+        return listingCacheMaxMessages;
+    }
+    
+    public long getAuthCacheTtl() {
+        return authCacheTtl;
+    }
+    
+    public int getAuthCacheMaxEntries() {
+        return authCacheMaxEntries;
+    }
+    
+    public int getAuthHashThreads() {
+        return authHashThreads;
+    }
+    
+    public int getAuthHashQueueCapacity() {
+        return authHashQueueCapacity;
+    }
+    
     // ==================== 工厂方法 ====================
     
     /**
@@ -91,6 +139,14 @@ public class Pop3ServerConfig {
                 .requireAuth(Boolean.parseBoolean(props.getProperty("pop3.requireAuth", "true")))
                 .authFailedMaxAttempts(Integer.parseInt(props.getProperty("pop3.authFailedMaxAttempts", "3")))
                 .autoLogoutTimeout(Long.parseLong(props.getProperty("pop3.autoLogoutTimeout", "600000")))
+                .lockProvider(props.getProperty("pop3.lockProvider", "memory"))
+                .lockTimeout(Long.parseLong(props.getProperty("pop3.lockTimeout", "1800000")))
+                .metricsReportInterval(Long.parseLong(props.getProperty("pop3.metrics.reportInterval", "60000")))
+                .listingCacheMaxMessages(Long.parseLong(props.getProperty("pop3.listingCache.maxMessages", "1000000")))
+                .authCacheTtl(Long.parseLong(props.getProperty("pop3.auth.cacheTtl", "300000")))
+                .authCacheMaxEntries(Integer.parseInt(props.getProperty("pop3.auth.cacheMaxEntries", "100000")))
+                .authHashThreads(Integer.parseInt(props.getProperty("pop3.auth.hashThreads", "4")))
+                .authHashQueueCapacity(Integer.parseInt(props.getProperty("pop3.auth.hashQueueCapacity", "256")))
                 .build();
     }
     
@@ -119,6 +175,14 @@ public class Pop3ServerConfig {
         private boolean requireAuth = true;
         private int authFailedMaxAttempts = 3;
         private long autoLogoutTimeout = 600000;         // 10 分钟自动登出
+        private String lockProvider = "memory";          // memory / postgres
+        private long lockTimeout = 1800000;              // 30 分钟（仅 memory）
+        private long metricsReportInterval = 60000;      // 1 分钟，0 表示不输出
+        private long listingCacheMaxMessages = 1000000;  // 约 24MB，0 表示不缓存
+        private long authCacheTtl = 300000;              // 5 分钟，0 表示不缓存
+        private int authCacheMaxEntries = 100000;
+        private int authHashThreads = 4;                 // BCrypt 计算线程数
+        private int authHashQueueCapacity = 256;
         
         public Builder domain(String domain) {
             this.domain = domain;
@@ -160,6 +224,46 @@ public class Pop3ServerConfig {
             return this;
         }
         
+        public Builder lockProvider(String lockProvider) {
+            this.lockProvider = lockProvider;
+            return this;
+        }
+        
+        public Builder lockTimeout(long lockTimeout) {
+            this.lockTimeout = lockTimeout;
+            return this;
+        }
+        
+        public Builder metricsReportInterval(long metricsReportInterval) {
+            this.metricsReportInterval = metricsReportInterval;
+            return this;
+        }
+        
+        public Builder listingCacheMaxMessages(long listingCacheMaxMessages) {
+            this.listingCacheMaxMessages = listingCacheMaxMessages;
+            return this;
+        }
+        
+        public Builder authCacheTtl(long authCacheTtl) {
+            this.authCacheTtl = authCacheTtl;
+            return this;
+        }
+        
+        public Builder authCacheMaxEntries(int authCacheMaxEntries) {
+            this.authCacheMaxEntries = authCacheMaxEntries;
+            return this;
+        }
+        
+        public Builder authHashThreads(int authHashThreads) {
+            this.authHashThreads = authHashThreads;
+            return this;
+        }
+        
+        public Builder authHashQueueCapacity(int authHashQueueCapacity) {
+            this.authHashQueueCapacity = authHashQueueCapacity;
+            return this;
+        }
+        
         public Pop3ServerConfig build() {
             return new Pop3ServerConfig(this);
         }
@@ -176,6 +280,14 @@ public class Pop3ServerConfig {
                 ", requireAuth=" + requireAuth +
                 ", authFailedMaxAttempts=" + authFailedMaxAttempts +
                 ", autoLogoutTimeout=" + autoLogoutTimeout +
+                ", lockProvider='" + lockProvider + '\'' +
+                ", lockTimeout=" + lockTimeout +
+                ", metricsReportInterval=" + metricsReportInterval +
+                ", listingCacheMaxMessages=" + listingCacheMaxMessages +
+                ", authCacheTtl=" + authCacheTtl +
+                ", authCacheMaxEntries=" + authCacheMaxEntries +
+                ", authHashThreads=" + authHashThreads +
+                ", authHashQueueCapacity=" + authHashQueueCapacity +
                 '}';
     }
 }
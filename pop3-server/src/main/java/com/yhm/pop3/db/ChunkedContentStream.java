@@ -0,0 +1,96 @@
+package com.yhm.pop3.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+
+/**
+ * 分段读取的邮件内容流
+ *
+ * 每次只在内存中保留一段（{@link #CHUNK_CHARS} 个字符的 UTF-8 字节），读完后再向数据库取下一段。
+ * 分段按字符切分，每段单独转换为 UTF-8 不会截断多字节字符。
+ *
+ * 读取中途的数据库错误以 IOException 抛出：响应已经开始发送，只能按连接错误处理。
+ */
+final class ChunkedContentStream extends InputStream {
+
+    /**
+     * 每段的字符数
+     */
+    static final int CHUNK_CHARS = 256 * 1024;
+
+    /**
+     * 读取一段内容
+     */
+    @FunctionalInterface
+    interface ChunkFetcher {
+        /**
+         * @param start 起始字符位置（从 1 开始）
+         * @param chars 字符数
+         * @return 这一段的 UTF-8 字节，已超出内容末尾时返回空数组
+         */
+        byte[] fetch(int start, int chars) throws SQLException;
+    }
+
+    private final ChunkFetcher fetcher;
+    private byte[] chunk;
+    private int position;
+    private int nextStart;
+    private boolean last;
+
+    /**
+     * @param first 第一段（调用方先取第一段以确认邮件存在）
+     */
+    ChunkedContentStream(byte[] first, ChunkFetcher fetcher) {
+        this.fetcher = fetcher;
+        this.chunk = first;
+        this.nextStart = 1 + CHUNK_CHARS;
+        this.last = isLast(first);
+    }
+
+    /**
+     * 每个字符至少一个字节，字节数少于请求的字符数说明已到末尾
+     */
+    private static boolean isLast(byte[] chunk) {
+        return chunk.length < CHUNK_CHARS;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return chunk[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (position >= chunk.length) {
+            if (last) {
+                return false;
+            }
+            try {
+                chunk = fetcher.fetch(nextStart, CHUNK_CHARS);
+            } catch (SQLException e) {
+                throw new IOException("读取邮件内容失败: " + e.getMessage(), e);
+            }
+            position = 0;
+            nextStart += CHUNK_CHARS;
+            last = isLast(chunk);
+        }
+        return true;
+    }
+}
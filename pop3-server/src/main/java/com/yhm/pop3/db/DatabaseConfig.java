@@ -1,28 +1,27 @@
 package com.yhm.pop3.db;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.yhm.mail.core.data.Bulkhead;
+import com.yhm.mail.core.data.MailDatabase;
+import com.yhm.mail.core.replica.ReplicaRouter;
+import com.yhm.mail.core.shard.ShardRouter;
 
 import javax.sql.DataSource;
-import java.io.IOException;
-import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Properties;
 
 /**
  * 数据库配置管理类
- * 使用 HikariCP 连接池管理 PostgreSQL 连接
- * 
- * 使用 Java 25 的 double-checked locking 优化
+ * POP3 服务器的 {@link MailDatabase}（连接池、分片路由、只读副本），按 application.properties 的 db.* 配置创建
+ *
+ * 邮箱相关的读写通过 {@link #getConnection(String)} 路由，见 {@link ShardRouter}。
+ * 每个分片可以配置一个流复制备库（db.replica.url、db.shard.N.replica.url），
+ * 邮件列表和内容等只读查询通过 {@link #getReadConnection(String)} 在副本足够新时走副本，
+ * 见 {@link ReplicaRouter}。
+ * 邮件列表加载、邮件内容读取和删除提交各有一个 {@link Bulkhead}，上千个会话同时访问时快速返回 -ERR 而不是在连接池上排队。
  */
 public final class DatabaseConfig {
     
-    private static final Logger log = LoggerFactory.getLogger(DatabaseConfig.class);
-    
-    private static volatile HikariDataSource dataSource;
+    private static volatile MailDatabase database;
     private static final Object LOCK = new Object();
     
     private DatabaseConfig() {
@@ -30,92 +29,132 @@ public final class DatabaseConfig {
     }
     
     /**
-     * 获取数据源
+     * 获取数据库（第一次调用时创建连接池）
      */
-    public static DataSource getDataSource() {
-        if (dataSource == null) {
+    public static MailDatabase getDatabase() {
+        if (database == null) {
             synchronized (LOCK) {
-                if (dataSource == null) {
-                    dataSource = createDataSource();
+                if (database == null) {
+                    database = MailDatabase.open("pop3.db", "Pop3MailPool", true);
                 }
             }
         }
-        return dataSource;
+        return database;
+    }
+    
+    /**
+     * 获取数据源（目录库）
+     */
+    public static DataSource getDataSource() {
+        return getDatabase().directory();
+    }
+    
+    /**
+     * 获取分片路由
+     */
+    public static ShardRouter getRouter() {
+        return getDatabase().router();
     }
     
     /**
-     * 获取数据库连接
+     * 获取目录库连接（用户、域名等全局数据）
      */
     public static Connection getConnection() throws SQLException {
-        return getDataSource().getConnection();
-    }
-    
-    /**
-     * 创建 HikariCP 数据源
-     */
-    private static HikariDataSource createDataSource() {
-        Properties props = loadProperties();
-        
-        HikariConfig config = new HikariConfig();
-        
-        // 基本连接配置
-        config.setJdbcUrl(props.getProperty("db.url", "jdbc:postgresql://localhost:5432/maildb"));
-        config.setUsername(props.getProperty("db.username", "postgres"));
-        config.setPassword(props.getProperty("db.password", "postgres"));
-        config.setDriverClassName("org.postgresql.Driver");
-        
-        // 连接池配置
-        config.setMaximumPoolSize(Integer.parseInt(props.getProperty("db.pool.maxSize", "20")));
-        config.setMinimumIdle(Integer.parseInt(props.getProperty("db.pool.minIdle", "5")));
-        config.setConnectionTimeout(Long.parseLong(props.getProperty("db.pool.connectionTimeout", "30000")));
-        config.setIdleTimeout(Long.parseLong(props.getProperty("db.pool.idleTimeout", "600000")));
-        config.setMaxLifetime(Long.parseLong(props.getProperty("db.pool.maxLifetime", "1800000")));
-        
-        // 连接验证
-        config.setConnectionTestQuery("SELECT 1");
-        
-        // 连接池名称
-        config.setPoolName("Pop3MailPool");
-        
-        // PostgreSQL 特定优化
-        config.addDataSourceProperty("cachePrepStmts", "true");
-        config.addDataSourceProperty("prepStmtCacheSize", "250");
-        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-        
-        log.info("初始化数据库连接池: {}", config.getJdbcUrl());
-        
-        return new HikariDataSource(config);
-    }
-    
-    /**
-     * 加载配置文件
-     */
-    private static Properties loadProperties() {
-        Properties props = new Properties();
-        
-        try (InputStream is = DatabaseConfig.class.getClassLoader()
-                .getResourceAsStream("application.properties")) {
-            if (is != null) {
-                props.load(is);
-                log.info("已加载配置文件 application.properties");
-            } else {
-                log.warn("未找到配置文件 application.properties，使用默认配置");
-            }
-        } catch (IOException e) {
-            log.warn("加载配置文件失败，使用默认配置: {}", e.getMessage());
-        }
-        
-        return props;
+        return getDatabase().getConnection();
+    }
+    
+    /**
+     * 获取邮箱所在分片的连接，用于读取
+     */
+    public static Connection getConnection(String owner) throws SQLException {
+        return getDatabase().getConnection(owner);
+    }
+    
+    /**
+     * 获取邮箱所在分片的只读连接，副本足够新且该邮箱最近没有写入时使用副本
+     */
+    public static Connection getReadConnection(String owner) throws SQLException {
+        return getDatabase().getReadConnection(owner);
+    }
+    
+    /**
+     * 获取邮箱所在分片的连接，用于写入；邮箱迁移期间抛出 MailboxMovingException
+     */
+    public static Connection getWriteConnection(String owner) throws SQLException {
+        return getDatabase().getWriteConnection(owner);
+    }
+    
+    /**
+     * 获取分片的副本路由
+     */
+    public static ReplicaRouter getReplicaRouter(int shard) {
+        return getDatabase().replicaRouter(shard);
+    }
+    
+    /**
+     * 是否有分片配置了只读副本
+     */
+    public static boolean hasReplica() {
+        return getDatabase().hasReplica();
+    }
+    
+    /**
+     * 记录邮箱有新的写入（本进程的删除或其他进程投递的通知），之后的读取走主库直到副本追上
+     */
+    public static void markWritten(String owner) throws SQLException {
+        getDatabase().markWritten(owner);
+    }
+    
+    /**
+     * 打开一个不经过连接池的独立连接（目录库）
+     * 用于需要长期持有会话级状态（如 advisory lock）的场景，调用方负责关闭
+     */
+    public static Connection openDedicatedConnection() throws SQLException {
+        return openDedicatedConnection(0);
+    }
+    
+    /**
+     * 打开指定分片上不经过连接池的独立连接，用于 LISTEN，调用方负责关闭
+     */
+    public static Connection openDedicatedConnection(int shard) throws SQLException {
+        return getDatabase().openDedicatedConnection(shard);
+    }
+    
+    /**
+     * 分片数量
+     */
+    public static int getShardCount() {
+        return getDatabase().shardCount();
+    }
+    
+    /**
+     * 认证后加载邮件列表
+     */
+    public static Bulkhead maildropLoad() {
+        return getDatabase().bulkhead("maildropLoad", 6, 3000);
+    }
+    
+    /**
+     * RETR/TOP 读取邮件内容，大邮件的每一段单独占用许可
+     */
+    public static Bulkhead contentRead() {
+        return getDatabase().bulkhead("contentRead", 6, 3000);
+    }
+    
+    /**
+     * QUIT 时提交删除标记
+     */
+    public static Bulkhead deletionCommit() {
+        return getDatabase().bulkhead("deletionCommit", 6, 5000);
     }
     
     /**
      * 关闭数据源
      */
     public static void shutdown() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            log.info("数据库连接池已关闭");
+        MailDatabase current = database;
+        if (current != null) {
+            current.close();
         }
     }
 }
-
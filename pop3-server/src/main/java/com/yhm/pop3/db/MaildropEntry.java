@@ -0,0 +1,16 @@
+package com.yhm.pop3.db;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * 邮箱列表项
+ *
+ * 登录时只加载 STAT/LIST/UIDL 需要的字段，邮件内容在 RETR/TOP 时按需读取
+ */
+public record MaildropEntry(
+        UUID id,
+        long size,
+        Instant receivedAt
+) {
+}
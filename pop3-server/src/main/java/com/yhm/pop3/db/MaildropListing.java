@@ -0,0 +1,86 @@
+package com.yhm.pop3.db;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 紧凑的邮箱列表
+ *
+ * 只保存 STAT/LIST/UIDL 需要的 id 和大小，以及按分区定位邮件用的接收时间，
+ * 按列存放在基本类型数组中，每封邮件 32 字节，可以长期缓存。不可变，可在会话之间共享。
+ */
+public final class MaildropListing {
+
+    private static final MaildropListing EMPTY = new MaildropListing(new long[0], new long[0], new long[0], new long[0]);
+
+    private final long[] idMostBits;
+    private final long[] idLeastBits;
+    private final long[] sizes;
+    // 接收时间（epoch 微秒，与 PostgreSQL timestamptz 精度一致）
+    private final long[] receivedAtMicros;
+
+    private MaildropListing(long[] idMostBits, long[] idLeastBits, long[] sizes, long[] receivedAtMicros) {
+        this.idMostBits = idMostBits;
+        this.idLeastBits = idLeastBits;
+        this.sizes = sizes;
+        this.receivedAtMicros = receivedAtMicros;
+    }
+
+    /**
+     * 空列表
+     */
+    public static MaildropListing empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 从查询结果构建（保持原顺序）
+     */
+    public static MaildropListing of(List<MaildropEntry> entries) {
+        int n = entries.size();
+        long[] most = new long[n];
+        long[] least = new long[n];
+        long[] sizes = new long[n];
+        long[] receivedAt = new long[n];
+        for (int i = 0; i < n; i++) {
+            MaildropEntry entry = entries.get(i);
+            most[i] = entry.id().getMostSignificantBits();
+            least[i] = entry.id().getLeastSignificantBits();
+            sizes[i] = entry.size();
+            receivedAt[i] = Math.addExact(Math.multiplyExact(entry.receivedAt().getEpochSecond(), 1_000_000L),
+                    entry.receivedAt().getNano() / 1_000);
+        }
+        return new MaildropListing(most, least, sizes, receivedAt);
+    }
+
+    /**
+     * 邮件数量
+     */
+    public int count() {
+        return sizes.length;
+    }
+
+    /**
+     * 第 index 封邮件的 id（从 0 开始）
+     */
+    public UUID id(int index) {
+        return new UUID(idMostBits[index], idLeastBits[index]);
+    }
+
+    /**
+     * 第 index 封邮件的大小（从 0 开始）
+     */
+    public long size(int index) {
+        return sizes[index];
+    }
+
+    /**
+     * 第 index 封邮件的接收时间（从 0 开始），即 emails 的分区键
+     */
+    public Instant receivedAt(int index) {
+        long micros = receivedAtMicros[index];
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                Math.floorMod(micros, 1_000_000L) * 1_000);
+    }
+}
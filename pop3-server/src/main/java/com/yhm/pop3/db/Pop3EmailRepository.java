@@ -1,117 +1,155 @@
 package com.yhm.pop3.db;
 
+import com.yhm.mail.core.data.Bulkhead;
+import com.yhm.mail.core.data.DatabaseBusyException;
+import com.yhm.mail.core.data.EmailMapper;
+import com.yhm.mail.core.data.NamedQuery;
 import com.yhm.mail.core.model.Email;
+import com.yhm.mail.core.util.MessageLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.*;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 /**
  * POP3 邮件数据访问对象
  * 负责邮件的查询和状态更新操作
- * 
- * 包含邮箱锁定功能，确保同一用户同一时间只有一个 POP3 会话
+ *
+ * 邮件读写路由到邮箱所在分片，用户查询只访问目录库。
+ * 列表和内容等只读查询在分片配置了副本且副本足够新时走副本（见 DatabaseConfig#getReadConnection）。
+ * 语句都是 {@link NamedQuery}，延迟和行数记录在 db.pop3.* 指标中。
+ *
+ * 邮件内容（RETR/TOP）的每次查询都经过内容读取舱壁，查询结束即归还连接，
+ * 向客户端发送内容期间不占用连接池。
  */
 public class Pop3EmailRepository {
     
     private static final Logger log = LoggerFactory.getLogger(Pop3EmailRepository.class);
     
-    // 邮箱锁定记录（用户 -> 锁定时间）
-    // 使用内存锁，如果需要分布式锁可以改用 Redis
-    private static final Map<String, Long> maildropLocks = new ConcurrentHashMap<>();
+    /**
+     * 邮件内容流消费者
+     */
+    @FunctionalInterface
+    public interface ContentConsumer {
+        void accept(InputStream content) throws IOException;
+    }
+    
+    /**
+     * 按需打开邮箱所在分片的连接（副本或主库）
+     */
+    @FunctionalInterface
+    private interface ConnectionSource {
+        Connection open() throws SQLException;
+    }
+    
+    private static final NamedQuery USER_EXISTS = NamedQuery.of("pop3.userExists",
+            "SELECT 1 FROM users WHERE email = ? AND is_enabled = true");
+    
+    private static final NamedQuery PASSWORD_HASH = NamedQuery.of("pop3.passwordHash",
+            "SELECT password_hash FROM users WHERE email = ? AND is_enabled = true");
+    
+    private static final NamedQuery FIND_BY_OWNER = NamedQuery.of("pop3.findEmailsByOwner", """
+            SELECT %s FROM emails
+            WHERE owner = ? AND is_deleted = false
+            ORDER BY received_at DESC
+            """.formatted(EmailMapper.ALL.columns()));
+    
+    private static final NamedQuery MAILDROP_ENTRIES = NamedQuery.of("pop3.maildropEntries", """
+            SELECT id, size, received_at FROM emails
+            WHERE owner = ? AND is_deleted = false
+            ORDER BY received_at DESC
+            """);
+    
+    // 按字符分段读取，substring 只读取到这一段末尾（raw_content 为 STORAGE EXTERNAL 时不需要解压），convert_to 只转换这一段
+    private static final NamedQuery STREAM_FIRST_CHUNK = NamedQuery.of("pop3.streamFirstChunk", """
+            SELECT convert_to(substring(raw_content FROM 1 FOR ?), 'UTF8') FROM emails
+            WHERE id = ? AND received_at = ? AND is_deleted = false
+            """);
+    
+    // 之后的分段不再检查 is_deleted：内容不会改变，读取中途被标记删除也应发完
+    private static final NamedQuery STREAM_NEXT_CHUNK = NamedQuery.of("pop3.streamNextChunk", """
+            SELECT convert_to(substring(raw_content FROM ? FOR ?), 'UTF8') FROM emails
+            WHERE id = ? AND received_at = ?
+            """);
+    
+    // 偏移按 UTF-8 字节计算；每个字符至少一个字节，前 n 个字节一定在前 n 个字符内，
+    // 先在文本上截取前 n 个字符再转换，只读取/转换邮件开头，而不是整封
+    private static final NamedQuery TOP_BYTES = NamedQuery.of("pop3.topBytes", """
+            SELECT header_length,
+                   cardinality(body_line_offsets),
+                   substring(convert_to(substring(raw_content FROM 1 FOR top.bytes), 'UTF8') FROM 1 FOR top.bytes)
+            FROM emails,
+                 LATERAL (SELECT header_length + CASE WHEN ? = 0 THEN 0
+                                                      ELSE COALESCE(body_line_offsets[LEAST(?, cardinality(body_line_offsets))], 0)
+                                                 END AS bytes) top
+            WHERE id = ? AND received_at = ? AND is_deleted = false
+            """);
+    
+    private static final NamedQuery FIND_BY_ID = NamedQuery.of("pop3.findEmailById",
+            "SELECT " + EmailMapper.ALL.columns() + " FROM emails WHERE id = ? AND is_deleted = false");
+    
+    private static final NamedQuery MARK_DELETED = NamedQuery.of("pop3.markDeleted",
+            "UPDATE emails SET is_deleted = true WHERE id = ?");
+    
+    private static final NamedQuery COMMIT_DELETIONS = NamedQuery.of("pop3.commitDeletions", """
+            UPDATE emails SET is_deleted = true
+            WHERE owner = ? AND id = ANY(?) AND received_at BETWEEN ? AND ? AND is_deleted = false
+            """);
+    
+    private static final NamedQuery DELETE = NamedQuery.of("pop3.deleteEmail",
+            "DELETE FROM emails WHERE id = ?");
+    
+    private static final NamedQuery COUNT_BY_OWNER = NamedQuery.of("pop3.countByOwner",
+            "SELECT total_count FROM mailbox_summary WHERE owner = ?");
+    
+    private static final NamedQuery TOTAL_SIZE = NamedQuery.of("pop3.totalSizeByOwner",
+            "SELECT total_bytes FROM mailbox_summary WHERE owner = ?");
     
-    // 锁定超时时间（30分钟）
-    private static final long LOCK_TIMEOUT = 30 * 60 * 1000;
+    private final Bulkhead contentRead;
     
     /**
-     * 检查用户是否存在
+     * @param contentRead 邮件内容查询的舱壁
      */
-    public boolean userExists(String email) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM users WHERE email = ? AND is_enabled = true";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, email.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
-        }
-        
-        return false;
+    public Pop3EmailRepository(Bulkhead contentRead) {
+        this.contentRead = contentRead;
     }
     
     /**
-     * 验证用户密码
+     * 检查用户是否存在
      */
-    public boolean authenticateUser(String email, String password) throws SQLException {
-        String sql = "SELECT password_hash FROM users WHERE email = ? AND is_enabled = true";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, email.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    String storedPassword = rs.getString("password_hash");
-                    // 简单比较，生产环境应使用 BCrypt 等安全哈希
-                    return password.equals(storedPassword);
-                }
-            }
+    public boolean userExists(String email) throws SQLException {
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            return USER_EXISTS.first(conn, NamedQuery.params(email.toLowerCase()), rs -> true).isPresent();
         }
-        
-        return false;
     }
     
     /**
-     * 获取用户密码（用于 APOP 认证）
+     * 获取用户存储的密码（BCrypt 哈希，或旧数据中的明文）
+     * 用户不存在或已禁用时返回 null
      */
     public String getUserPassword(String email) throws SQLException {
-        String sql = "SELECT password_hash FROM users WHERE email = ? AND is_enabled = true";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, email.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("password_hash");
-                }
-            }
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            return PASSWORD_HASH.first(conn, NamedQuery.params(email.toLowerCase()), rs -> rs.getString(1))
+                    .orElse(null);
         }
-        
-        return null;
     }
     
     /**
      * 查询用户的所有邮件（未删除的）
      */
     public List<Email> findByOwner(String owner) throws SQLException {
-        String sql = """
-            SELECT * FROM emails 
-            WHERE owner = ? AND is_deleted = false 
-            ORDER BY received_at DESC
-            """;
-        
-        List<Email> emails = new ArrayList<>();
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, owner.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    emails.add(mapResultSetToEmail(rs));
-                }
-            }
+        List<Email> emails;
+        try (Connection conn = DatabaseConfig.getReadConnection(owner)) {
+            emails = FIND_BY_OWNER.list(conn, NamedQuery.params(owner.toLowerCase()), EmailMapper.ALL);
         }
         
         log.debug("为用户 {} 加载了 {} 封邮件", owner, emails.size());
@@ -119,172 +157,200 @@ public class Pop3EmailRepository {
     }
     
     /**
-     * 根据ID查询邮件
+     * 查询用户邮箱列表（未删除的）
+     * 只读取 (id, size, received_at)，由 idx_emails_owner_maildrop 覆盖索引直接返回
      */
-    public Optional<Email> findById(UUID id) throws SQLException {
-        String sql = "SELECT * FROM emails WHERE id = ? AND is_deleted = false";
+    public List<MaildropEntry> findMaildropEntries(String owner) throws SQLException {
+        List<MaildropEntry> entries;
+        try (Connection conn = DatabaseConfig.getReadConnection(owner)) {
+            entries = MAILDROP_ENTRIES.list(conn, NamedQuery.params(owner.toLowerCase()),
+                    rs -> new MaildropEntry(
+                            rs.getObject(1, UUID.class),
+                            rs.getLong(2),
+                            rs.getTimestamp(3).toInstant()));
+        }
         
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapResultSetToEmail(rs));
-                }
+        log.debug("为用户 {} 加载了 {} 条邮箱列表项", owner, entries.size());
+        return entries;
+    }
+    
+    /**
+     * 以字节流读取邮件原始内容
+     * 邮件不存在时不调用 consumer 并返回 false
+     *
+     * 内容按 {@link ChunkedContentStream#CHUNK_CHARS} 个字符分段读取，内存中只保留一段；
+     * 不超过一段的邮件（绝大多数）只需一次查询。
+     * 每段单独借用连接并经过内容读取舱壁，读完这一段就归还，consumer 写出内容时不占用连接。
+     * received_at 是 emails 的分区键，带上它只访问一个分区；owner 用于选择分片
+     *
+     * @throws DatabaseBusyException 第一段在期限内没有拿到舱壁许可（之后的分段以 IOException 抛出）
+     */
+    public boolean streamRawContent(String owner, UUID id, Instant receivedAt, ContentConsumer consumer)
+            throws SQLException, IOException {
+        Timestamp partition = Timestamp.from(receivedAt);
+        ConnectionSource source = () -> DatabaseConfig.getReadConnection(owner);
+        Optional<byte[]> first = readChunk(source, STREAM_FIRST_CHUNK,
+                NamedQuery.params(ChunkedContentStream.CHUNK_CHARS, id, partition));
+        if (first.isEmpty()) {
+            // 副本可能还没有回放这封邮件（列表来自主库），回到主库再查一次，之后的分段也从主库读取
+            source = () -> DatabaseConfig.getConnection(owner);
+            first = readChunk(source, STREAM_FIRST_CHUNK,
+                    NamedQuery.params(ChunkedContentStream.CHUNK_CHARS, id, partition));
+            if (first.isEmpty()) {
+                return false;
             }
         }
         
-        return Optional.empty();
+        ConnectionSource chunkSource = source;
+        try (InputStream content = new ChunkedContentStream(first.get(), (start, chars) ->
+                readChunk(chunkSource, STREAM_NEXT_CHUNK, NamedQuery.params(start, chars, id, partition))
+                        // 读取中途被物理删除（清理任务），不能返回截断的内容
+                        .orElseThrow(() -> new SQLException("邮件 " + id + " 在读取过程中被删除")))) {
+            consumer.accept(content);
+        }
+        return true;
     }
     
     /**
-     * 标记邮件为已删除
+     * 借一个连接读取一段内容，读完即归还
      */
-    public boolean markAsDeleted(UUID id) throws SQLException {
-        String sql = "UPDATE emails SET is_deleted = true WHERE id = ?";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            int updated = stmt.executeUpdate();
-            
-            if (updated > 0) {
-                log.debug("邮件 {} 已标记为删除", id);
+    private Optional<byte[]> readChunk(ConnectionSource source, NamedQuery query, NamedQuery.Binder params)
+            throws SQLException {
+        return contentRead.call(() -> {
+            try (Connection conn = source.open()) {
+                return query.first(conn, params, Pop3EmailRepository::chunkBytes);
             }
-            
-            return updated > 0;
-        }
+        });
+    }
+    
+    private static byte[] chunkBytes(ResultSet rs) throws SQLException {
+        byte[] bytes = rs.getBytes(1);
+        return bytes != null ? bytes : new byte[0];
     }
     
     /**
-     * 物理删除邮件
+     * 按接收时计算的偏移索引读取 TOP 所需的字节范围（头部 + 前 lines 行正文）
+     * 
+     * 邮件没有索引（旧数据）或请求的行数超出索引范围时返回 empty，调用方回退到整封读取
+     * （副本还没有这封邮件时同样返回 empty，整封读取会回到主库）
      */
-    public boolean delete(UUID id) throws SQLException {
-        String sql = "DELETE FROM emails WHERE id = ?";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            return stmt.executeUpdate() > 0;
+    public Optional<byte[]> findTopBytes(String owner, UUID id, Instant receivedAt, int lines) throws SQLException {
+        return contentRead.call(() -> findTopBytes(DatabaseConfig.getReadConnection(owner), id, receivedAt, lines));
+    }
+    
+    private Optional<byte[]> findTopBytes(Connection conn, UUID id, Instant receivedAt, int lines) throws SQLException {
+        try (conn) {
+            return TOP_BYTES.first(conn, NamedQuery.params(lines, lines, id, Timestamp.from(receivedAt)), rs -> {
+                rs.getInt(1);
+                if (rs.wasNull()) {
+                    return null;
+                }
+                
+                // 索引被截断且请求行数超出索引范围
+                int indexedLines = rs.getInt(2);
+                if (lines > indexedLines && indexedLines >= MessageLayout.INDEXED_BODY_LINES) {
+                    return null;
+                }
+                
+                return rs.getBytes(3);
+            });
         }
     }
     
     /**
-     * 获取邮件总数
+     * 根据ID查询邮件（在所有分片上查找）
      */
-    public int countByOwner(String owner) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM emails WHERE owner = ? AND is_deleted = false";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, owner.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1);
-                }
+    public Optional<Email> findById(UUID id) throws SQLException {
+        List<Optional<Email>> found = DatabaseConfig.getRouter().fanOut((shard, dataSource) -> {
+            try (Connection conn = dataSource.getConnection()) {
+                return FIND_BY_ID.first(conn, NamedQuery.params(id), EmailMapper.ALL);
             }
-        }
+        });
         
-        return 0;
+        return found.stream().flatMap(Optional::stream).findFirst();
     }
     
     /**
-     * 获取邮件总大小
+     * 标记邮件为已删除
      */
-    public long totalSizeByOwner(String owner) throws SQLException {
-        String sql = "SELECT COALESCE(SUM(size), 0) FROM emails WHERE owner = ? AND is_deleted = false";
+    public boolean markAsDeleted(UUID id) throws SQLException {
+        boolean updated = updateById(MARK_DELETED, id);
         
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, owner.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getLong(1);
-                }
-            }
+        if (updated) {
+            log.debug("邮件 {} 已标记为删除", id);
         }
         
-        return 0;
+        return updated;
     }
     
-    // ==================== 邮箱锁定 ====================
-    
     /**
-     * 检查邮箱是否被锁定
+     * 批量标记邮件为已删除（POP3 UPDATE 状态提交）
+     * 
+     * 只标记属于该用户的邮件，users.used_bytes 由邮箱汇总触发器在同一事务中扣减。
+     * received_at 范围条件让更新只访问这些邮件所在的分区
+     *
+     * @param oldest 这些邮件中最早的接收时间
+     * @param newest 这些邮件中最晚的接收时间
+     * @return 实际标记删除的邮件数
      */
-    public boolean isMaildropLocked(String owner) {
-        Long lockTime = maildropLocks.get(owner.toLowerCase());
-        
-        if (lockTime == null) {
-            return false;
+    public int markAsDeleted(String owner, List<UUID> ids, Instant oldest, Instant newest) throws SQLException {
+        if (ids.isEmpty()) {
+            return 0;
         }
         
-        // 检查锁是否已过期
-        if (System.currentTimeMillis() - lockTime > LOCK_TIMEOUT) {
-            maildropLocks.remove(owner.toLowerCase());
-            return false;
+        int deleted;
+        try (Connection conn = DatabaseConfig.getWriteConnection(owner)) {
+            deleted = COMMIT_DELETIONS.update(conn, stmt -> {
+                stmt.setString(1, owner.toLowerCase());
+                stmt.setArray(2, conn.createArrayOf("uuid", ids.toArray()));
+                stmt.setTimestamp(3, Timestamp.from(oldest));
+                stmt.setTimestamp(4, Timestamp.from(newest));
+            });
         }
         
-        return true;
+        // 之后的列表读取走主库，直到副本回放了这次删除
+        DatabaseConfig.markWritten(owner);
+        
+        log.debug("用户 {} 批量删除 {} 封邮件（请求 {} 封）", owner, deleted, ids.size());
+        return deleted;
     }
     
     /**
-     * 锁定邮箱
+     * 物理删除邮件
      */
-    public void lockMaildrop(String owner) {
-        maildropLocks.put(owner.toLowerCase(), System.currentTimeMillis());
-        log.debug("邮箱已锁定: {}", owner);
+    public boolean delete(UUID id) throws SQLException {
+        return updateById(DELETE, id);
     }
     
     /**
-     * 解锁邮箱
+     * 获取邮件总数（读取触发器维护的 mailbox_summary）
      */
-    public void unlockMaildrop(String owner) throws SQLException {
-        maildropLocks.remove(owner.toLowerCase());
-        log.debug("邮箱已解锁: {}", owner);
+    public int countByOwner(String owner) throws SQLException {
+        try (Connection conn = DatabaseConfig.getReadConnection(owner)) {
+            return COUNT_BY_OWNER.first(conn, NamedQuery.params(owner.toLowerCase()), rs -> rs.getInt(1)).orElse(0);
+        }
     }
     
     /**
-     * 刷新锁定时间
+     * 获取邮件总大小（读取触发器维护的 mailbox_summary）
      */
-    public void refreshLock(String owner) {
-        if (maildropLocks.containsKey(owner.toLowerCase())) {
-            maildropLocks.put(owner.toLowerCase(), System.currentTimeMillis());
+    public long totalSizeByOwner(String owner) throws SQLException {
+        try (Connection conn = DatabaseConfig.getReadConnection(owner)) {
+            return TOTAL_SIZE.first(conn, NamedQuery.params(owner.toLowerCase()), rs -> rs.getLong(1)).orElse(0L);
         }
     }
     
     // ==================== 辅助方法 ====================
     
     /**
-     * 将 ResultSet 映射为 Email 对象
+     * 在所有分片上按 ID 执行更新，任一分片命中即返回 true
      */
-    private Email mapResultSetToEmail(ResultSet rs) throws SQLException {
-        Array recipientsArray = rs.getArray("recipients");
-        String[] recipientsArr = recipientsArray != null 
-                ? (String[]) recipientsArray.getArray() 
-                : new String[0];
-        
-        return Email.builder()
-                .id(rs.getObject("id", UUID.class))
-                .sender(rs.getString("sender"))
-                .recipients(Arrays.asList(recipientsArr))
-                .subject(rs.getString("subject"))
-                .body(rs.getString("body"))
-                .rawContent(rs.getString("raw_content"))
-                .size(rs.getLong("size"))
-                .receivedAt(rs.getTimestamp("received_at").toInstant())
-                .read(rs.getBoolean("is_read"))
-                .deleted(rs.getBoolean("is_deleted"))
-                .owner(rs.getString("owner"))
-                .build();
+    private boolean updateById(NamedQuery query, UUID id) throws SQLException {
+        List<Integer> updated = DatabaseConfig.getRouter().fanOut((shard, dataSource) -> {
+            try (Connection conn = dataSource.getConnection()) {
+                return query.update(conn, NamedQuery.params(id));
+            }
+        });
+        return updated.stream().mapToInt(Integer::intValue).sum() > 0;
     }
 }
-
@@ -0,0 +1,77 @@
+package com.yhm.pop3.lock;
+
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内邮箱锁
+ *
+ * 只在单个 POP3 节点内有效。锁在 lockTimeout 内没有刷新会被视为过期，
+ * 防止异常退出的会话永久占用邮箱。
+ */
+public class InMemoryMaildropLockProvider implements MaildropLockProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(InMemoryMaildropLockProvider.class);
+
+    // 邮箱锁定记录（用户 -> 最后刷新时间）
+    private final Map<String, Long> locks = new ConcurrentHashMap<>();
+    private final long lockTimeout;
+
+    private final LongAdder acquired;
+    private final LongAdder contended;
+
+    public InMemoryMaildropLockProvider(long lockTimeout) {
+        this.lockTimeout = lockTimeout;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.acquired = metrics.counter("pop3.lock.acquired");
+        this.contended = metrics.counter("pop3.lock.contended");
+        metrics.gauge("pop3.lock.held", this::heldCount);
+    }
+
+    @Override
+    public boolean tryLock(String owner) {
+        String key = owner.toLowerCase();
+        long now = System.currentTimeMillis();
+        boolean[] granted = {false};
+
+        // 检查和加锁在同一个原子操作中完成
+        locks.compute(key, (k, lockTime) -> {
+            if (lockTime == null || now - lockTime > lockTimeout) {
+                granted[0] = true;
+                return now;
+            }
+            return lockTime;
+        });
+
+        if (granted[0]) {
+            acquired.increment();
+            log.debug("邮箱已锁定: {}", owner);
+        } else {
+            contended.increment();
+            log.debug("邮箱已被其他会话锁定: {}", owner);
+        }
+        return granted[0];
+    }
+
+    @Override
+    public void unlock(String owner) {
+        locks.remove(owner.toLowerCase());
+        log.debug("邮箱已解锁: {}", owner);
+    }
+
+    @Override
+    public void refresh(String owner) {
+        locks.computeIfPresent(owner.toLowerCase(), (k, v) -> System.currentTimeMillis());
+    }
+
+    @Override
+    public int heldCount() {
+        return locks.size();
+    }
+}
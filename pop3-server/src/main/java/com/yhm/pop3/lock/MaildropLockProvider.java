@@ -0,0 +1,63 @@
+package com.yhm.pop3.lock;
+
+import com.yhm.pop3.config.Pop3ServerConfig;
+
+import java.sql.SQLException;
+
+/**
+ * 邮箱锁提供者
+ *
+ * RFC 1939 要求同一邮箱同一时间只能有一个 POP3 会话处于 TRANSACTION 状态。
+ *
+ * 实现：
+ * - memory   单节点进程内锁（默认）
+ * - postgres PostgreSQL advisory lock，多个 POP3 节点共享
+ */
+public interface MaildropLockProvider extends AutoCloseable {
+
+    /**
+     * 尝试锁定邮箱
+     *
+     * @return 成功返回 true，邮箱已被其他会话锁定返回 false
+     */
+    boolean tryLock(String owner) throws SQLException;
+
+    /**
+     * 释放邮箱锁
+     */
+    void unlock(String owner);
+
+    /**
+     * 会话仍然活跃时刷新锁（对有超时的实现有效）
+     */
+    default void refresh(String owner) {
+    }
+
+    /**
+     * 会话持有的锁是否仍然有效
+     * 锁连接断开期间锁可能已被其他节点获取，此时会话不能继续读取或提交删除
+     */
+    default boolean isHeld(String owner) {
+        return true;
+    }
+    
+    /**
+     * 当前节点持有的锁数量
+     */
+    int heldCount();
+
+    @Override
+    default void close() {
+    }
+
+    /**
+     * 根据配置创建锁提供者
+     */
+    static MaildropLockProvider create(Pop3ServerConfig config) {
+        return switch (config.getLockProvider().toLowerCase()) {
+            case "postgres" -> new PostgresAdvisoryLockProvider();
+            case "memory" -> new InMemoryMaildropLockProvider(config.getLockTimeout());
+            default -> throw new IllegalArgumentException("未知的邮箱锁实现: " + config.getLockProvider());
+        };
+    }
+}
@@ -0,0 +1,277 @@
+package com.yhm.pop3.lock;
+
+import com.yhm.mail.core.metrics.LatencyHistogram;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.pop3.db.DatabaseConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于 PostgreSQL advisory lock 的邮箱锁
+ *
+ * 每个 POP3 节点持有一条不经过连接池的独立连接，所有邮箱锁都是这条连接上的会话级
+ * advisory lock：pg_try_advisory_lock(LOCK_CLASS, hashtext(owner))。
+ * 节点崩溃或连接断开时数据库自动释放该节点的全部锁，不需要超时。
+ *
+ * advisory lock 在同一数据库会话内可重入，所以本节点内的互斥由 heldOwners 保证，
+ * 跨节点的互斥由数据库保证。
+ *
+ * 锁连接只在语句失败后或定期检查（每 {@link #VALIDATE_INTERVAL_MILLIS} 毫秒）发现断开时重连，
+ * 加锁、解锁不额外往返数据库。重连后重新申请本节点持有的锁；断连期间被其他节点拿到的邮箱
+ * 从 heldOwners 移入 lostOwners，{@link #isHeld(String)} 返回 false，对应会话在下一条命令时结束，
+ * 该会话解锁前本节点不再为这个邮箱加锁。
+ *
+ * 不同邮箱的 hashtext 冲突只会造成误判为"已锁定"，不会破坏互斥。
+ */
+public class PostgresAdvisoryLockProvider implements MaildropLockProvider {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresAdvisoryLockProvider.class);
+
+    // advisory lock 的第一个键，区分本系统中其他用途的 advisory lock（'POP3'）
+    private static final int LOCK_CLASS = 0x504F5033;
+
+    private static final String TRY_LOCK_SQL = "SELECT pg_try_advisory_lock(?, hashtext(?))";
+    private static final String UNLOCK_SQL = "SELECT pg_advisory_unlock(?, hashtext(?))";
+
+    // 锁连接的定期检查间隔
+    private static final long VALIDATE_INTERVAL_MILLIS = 5000;
+
+    // 本节点持有的邮箱
+    private final Set<String> heldOwners = ConcurrentHashMap.newKeySet();
+
+    // 重连后没能重新拿到的邮箱（会话还没有结束）
+    private final Set<String> lostOwners = ConcurrentHashMap.newKeySet();
+
+    // JDBC 连接不是线程安全的；使用 ReentrantLock 以免阻塞虚拟线程的载体线程
+    private final ReentrantLock connectionLock = new ReentrantLock();
+    private Connection connection;
+
+    private final LongAdder acquired;
+    private final LongAdder contended;
+    private final LongAdder errors;
+    private final LongAdder lost;
+    private final LatencyHistogram acquireLatency;
+
+    private final ScheduledExecutorService validator = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("pop3-lock-validator").daemon(true).factory());
+
+    public PostgresAdvisoryLockProvider() {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.acquired = metrics.counter("pop3.lock.acquired");
+        this.contended = metrics.counter("pop3.lock.contended");
+        this.errors = metrics.counter("pop3.lock.errors");
+        this.lost = metrics.counter("pop3.lock.lost");
+        this.acquireLatency = metrics.histogram("pop3.lock.acquireLatency");
+        metrics.gauge("pop3.lock.held", this::heldCount);
+
+        validator.scheduleWithFixedDelay(this::validateConnection,
+                VALIDATE_INTERVAL_MILLIS, VALIDATE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean tryLock(String owner) throws SQLException {
+        String key = owner.toLowerCase();
+
+        // 本节点已有会话持有该邮箱，或失去锁的会话还没有结束
+        if (lostOwners.contains(key) || !heldOwners.add(key)) {
+            contended.increment();
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean granted = false;
+        connectionLock.lock();
+        try {
+            // 重连在 connectionLock 内进行，这里再检查一次，避免与移入 lostOwners 交错
+            granted = !lostOwners.contains(key) && execute(TRY_LOCK_SQL, key, key);
+        } catch (SQLException e) {
+            errors.increment();
+            resetConnection();
+            throw e;
+        } finally {
+            connectionLock.unlock();
+            acquireLatency.recordSince(start);
+            if (!granted) {
+                heldOwners.remove(key);
+            }
+        }
+
+        if (granted) {
+            acquired.increment();
+            log.debug("邮箱已锁定（advisory lock）: {}", owner);
+        } else {
+            contended.increment();
+            log.debug("邮箱已被其他节点锁定: {}", owner);
+        }
+        return granted;
+    }
+
+    @Override
+    public void unlock(String owner) {
+        String key = owner.toLowerCase();
+        if (lostOwners.remove(key) || !heldOwners.remove(key)) {
+            // 锁已失去（不在本连接上），或本来就没有持有
+            return;
+        }
+
+        connectionLock.lock();
+        try {
+            execute(UNLOCK_SQL, key, null);
+            log.debug("邮箱已解锁（advisory lock）: {}", owner);
+        } catch (SQLException e) {
+            // 连接已断开时锁已随会话释放
+            errors.increment();
+            log.warn("释放邮箱锁失败: {} - {}", owner, e.getMessage());
+            resetConnection();
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isHeld(String owner) {
+        return !lostOwners.contains(owner.toLowerCase());
+    }
+
+    @Override
+    public int heldCount() {
+        return heldOwners.size();
+    }
+
+    /**
+     * 在锁连接上执行 advisory lock 函数，必须持有 connectionLock
+     *
+     * @param acquiring 正在申请的邮箱，重连时不重新申请（否则会在同一会话上重复加锁）
+     */
+    private boolean execute(String sql, String key, String acquiring) throws SQLException {
+        Connection conn = ensureConnection(acquiring);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, LOCK_CLASS);
+            stmt.setString(2, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * 获取锁连接；连接已关闭（语句失败或定期检查发现断开）时重连并重新申请本节点持有的锁，
+     * 必须持有 connectionLock
+     */
+    private Connection ensureConnection(String acquiring) throws SQLException {
+        if (connection != null) {
+            return connection;
+        }
+
+        connection = DatabaseConfig.openDedicatedConnection();
+        connection.setAutoCommit(true);
+
+        try {
+            reacquireHeldLocks(acquiring);
+        } catch (SQLException e) {
+            resetConnection();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * 定期检查锁连接，断开时立即重连，尽早发现失去的锁
+     */
+    private void validateConnection() {
+        connectionLock.lock();
+        try {
+            if (connection == null && heldOwners.isEmpty()) {
+                return;
+            }
+            if (connection != null && connection.isValid(2)) {
+                return;
+            }
+            log.warn("邮箱锁连接已断开，重新连接");
+            resetConnection();
+            ensureConnection(null);
+        } catch (SQLException e) {
+            errors.increment();
+            log.warn("邮箱锁连接重连失败: {}", e.getMessage());
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+
+    /**
+     * 重连后重新申请锁；申请不到说明其他节点已在断连期间拿到，移入 lostOwners
+     */
+    private void reacquireHeldLocks(String acquiring) throws SQLException {
+        if (heldOwners.isEmpty()) {
+            return;
+        }
+
+        List<String> lostNow = new ArrayList<>();
+        int reacquired = 0;
+        for (String owner : heldOwners) {
+            if (owner.equals(acquiring)) {
+                continue;
+            }
+            try (PreparedStatement stmt = connection.prepareStatement(TRY_LOCK_SQL)) {
+                stmt.setInt(1, LOCK_CLASS);
+                stmt.setString(2, owner);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next() && rs.getBoolean(1)) {
+                        reacquired++;
+                    } else {
+                        lostNow.add(owner);
+                    }
+                }
+            }
+        }
+
+        // 先放入 lostOwners 再移出 heldOwners，期间 tryLock 不会为这些邮箱加锁
+        lostOwners.addAll(lostNow);
+        lostNow.forEach(heldOwners::remove);
+
+        if (!lostNow.isEmpty()) {
+            lost.add(lostNow.size());
+            log.warn("锁连接重连后 {} 个邮箱锁已被其他节点获取，对应会话将被结束: {}", lostNow.size(), lostNow);
+        }
+        log.info("锁连接已重连，重新持有 {} 个邮箱锁", reacquired);
+    }
+
+    private void resetConnection() {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // 连接已不可用
+            }
+            connection = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        validator.shutdownNow();
+        connectionLock.lock();
+        try {
+            // 关闭连接即释放本节点所有 advisory lock
+            resetConnection();
+            heldOwners.clear();
+            lostOwners.clear();
+        } finally {
+            connectionLock.unlock();
+        }
+    }
+}
@@ -31,7 +31,7 @@ public enum Pop3Command {
     /**
      * APOP 命令 - 使用摘要认证（可选）
      * 语法: APOP name digest
-     * 替代 USER/PASS 的更安全认证方式
+     * 本服务器不支持（密码以 BCrypt 哈希存储，无法计算摘要），总是返回 -ERR
      */
     APOP,
     
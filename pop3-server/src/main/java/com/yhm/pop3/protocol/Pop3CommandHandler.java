@@ -1,18 +1,31 @@
 package com.yhm.pop3.protocol;
 
-import com.yhm.mail.core.model.Email;
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.mail.core.data.Bulkhead;
+import com.yhm.mail.core.data.CommandScope;
+import com.yhm.mail.core.data.DatabaseBusyException;
+import com.yhm.pop3.cache.MaildropCache;
 import com.yhm.pop3.config.Pop3ServerConfig;
+import com.yhm.pop3.db.DatabaseConfig;
+import com.yhm.pop3.db.MaildropListing;
 import com.yhm.pop3.db.Pop3EmailRepository;
+import com.yhm.pop3.lock.MaildropLockProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 
 /**
  * POP3 命令处理器
  * 
- * 处理所有 POP3 协议命令，返回响应
+ * 处理所有 POP3 协议命令，把响应写入输出缓冲
  * 
  * 实现 RFC 1939 定义的 POP3 协议
  */
@@ -22,22 +35,40 @@ public class Pop3CommandHandler {
     
     private final Pop3ServerConfig config;
     private final Pop3EmailRepository emailRepository;
+    private final MaildropLockProvider lockProvider;
+    private final MaildropCache maildropCache;
+    private final CredentialVerifier credentialVerifier;
+    private final Bulkhead maildropLoad;
+    private final Bulkhead deletionCommit;
     
-    public Pop3CommandHandler(Pop3ServerConfig config) {
+    public Pop3CommandHandler(Pop3ServerConfig config, MaildropLockProvider lockProvider,
+                              MaildropCache maildropCache, CredentialVerifier credentialVerifier) {
         this.config = config;
-        this.emailRepository = new Pop3EmailRepository();
+        this.emailRepository = new Pop3EmailRepository(DatabaseConfig.contentRead());
+        this.lockProvider = lockProvider;
+        this.maildropCache = maildropCache;
+        this.credentialVerifier = credentialVerifier;
+        this.maildropLoad = DatabaseConfig.maildropLoad();
+        this.deletionCommit = DatabaseConfig.deletionCommit();
     }
     
     /**
-     * 处理 POP3 命令
+     * 处理 POP3 命令并把响应写入输出缓冲
+     *
+     * RETR/TOP 把邮件内容以字节流写入缓冲区，不在内存中拼接整封邮件；不带参数的 LIST/UIDL 逐行写入。
+     * 调用方负责 flush。
      *
      * @param line    原始命令行
      * @param session 当前会话
-     * @return 响应字符串（可能是多行）
      */
-    public String handleCommand(String line, Pop3Session session) {
+    public void handleCommand(String line, Pop3Session session, Pop3ResponseWriter out) throws IOException {
         if (line == null || line.isBlank()) {
-            return Pop3Response.unknownCommand();
+            writeResponse(Pop3Response.unknownCommand(), out);
+            return;
+        }
+        
+        if (session.isInTransactionState() && !checkMaildropLock(session, out)) {
+            return;
         }
         
         // 更新活动时间
@@ -47,33 +78,107 @@ public class Pop3CommandHandler {
         
         // 检查命令在当前状态是否有效
         if (session.isInAuthorizationState() && !command.isValidInAuthorizationState()) {
-            return Pop3Response.permissionDenied();
+            writeResponse(Pop3Response.permissionDenied(), out);
+            return;
         }
         
         if (session.isInTransactionState() && !command.isValidInTransactionState()) {
-            return Pop3Response.badSequence();
+            writeResponse(Pop3Response.badSequence(), out);
+            return;
+        }
+        
+        switch (command) {
+            // 邮件内容按段借用连接，不放进连接复用作用域，向客户端发送内容期间不占用连接
+            case RETR -> handleRetr(line, session, out);
+            case TOP -> handleTop(line, session, out);
+            default -> {
+                if ((command == Pop3Command.LIST || command == Pop3Command.UIDL)
+                        && line.trim().indexOf(' ') < 0) {
+                    streamListAll(command, session, out);
+                } else if (session.isInTransactionState()) {
+                    // 事务状态的其他命令在一个连接复用作用域中执行（QUIT 提交删除后扣减用量等只借一次连接）；
+                    // 认证命令不放进来，避免在密码哈希期间占着连接
+                    CommandScope.run(() -> writeResponse(respond(command, line, session), out));
+                } else {
+                    writeResponse(respond(command, line, session), out);
+                }
+            }
         }
-        
+    }
+    
+    /**
+     * 处理单行（或不含邮件内容的多行）响应的命令
+     */
+    private String respond(Pop3Command command, String line, Pop3Session session) {
         return switch (command) {
             case USER -> handleUser(line, session);
             case PASS -> handlePass(line, session);
-            case APOP -> handleApop(line, session);
+            case APOP -> handleApop(session);
             case STAT -> handleStat(session);
             case LIST -> handleList(line, session);
-            case RETR -> handleRetr(line, session);
             case DELE -> handleDele(line, session);
             case NOOP -> handleNoop();
             case RSET -> handleRset(session);
-            case TOP -> handleTop(line, session);
             case UIDL -> handleUidl(line, session);
             case QUIT -> handleQuit(session);
             case CAPA -> handleCapa(session);
             case STLS -> Pop3Response.tlsNotAvailable();
             case AUTH -> Pop3Response.err("AUTH not supported, use USER/PASS");
-            case UNKNOWN -> Pop3Response.unknownCommand();
+            // RETR/TOP 在 handleCommand 中以流方式处理
+            case RETR, TOP, UNKNOWN -> Pop3Response.unknownCommand();
         };
     }
     
+    /**
+     * 锁连接断开期间其他节点拿到了邮箱锁时结束会话，不提交删除；仍持有时刷新邮箱锁
+     *
+     * @return 仍持有邮箱锁
+     */
+    private boolean checkMaildropLock(Pop3Session session, Pop3ResponseWriter out) throws IOException {
+        if (!lockProvider.isHeld(session.getUsername())) {
+            log.warn("用户 {} 的邮箱锁已失去，结束会话", session.getUsername());
+            out.writeResponse(Pop3Response.maildropLockLost());
+            lockProvider.unlock(session.getUsername());
+            session.setState(Pop3Session.State.UPDATE);
+            return false;
+        }
+        
+        // 会话仍然活跃，刷新邮箱锁
+        lockProvider.refresh(session.getUsername());
+        return true;
+    }
+    
+    private static void writeResponse(String response, Pop3ResponseWriter out) throws IOException {
+        if (response != null) {
+            out.writeResponse(response);
+            log.debug("发送: {}", firstLine(response));
+        }
+    }
+    
+    /**
+     * 不带参数的 LIST / UIDL：逐行写入输出缓冲，不拼接整个列表
+     */
+    private void streamListAll(Pop3Command command, Pop3Session session, Pop3ResponseWriter out) throws IOException {
+        if (command == Pop3Command.LIST) {
+            out.writeResponse(Pop3Response.listStart(session.getMessageCount(), session.getTotalSize()));
+            for (int n = session.nextActive(1); n > 0; n = session.nextActive(n + 1)) {
+                out.writeListItem(n, session.getMessageSize(n));
+            }
+        } else {
+            out.writeResponse(Pop3Response.uidlStart());
+            for (int n = session.nextActive(1); n > 0; n = session.nextActive(n + 1)) {
+                out.writeUidlItem(n, session.getMessageId(n));
+            }
+        }
+        out.writeTerminator();
+        log.debug("发送: {} 列表，{} 封邮件", command, session.getMessageCount());
+    }
+    
+    private static String firstLine(String response) {
+        int end = response.indexOf("\r\n");
+        return end < 0 ? response : response.substring(0, end) + " ...";
+    }
+    
     // ==================== 授权状态命令 ====================
     
     /**
@@ -133,26 +238,27 @@ public class Pop3CommandHandler {
         
         try {
             // 验证密码
-            boolean authenticated = emailRepository.authenticateUser(
-                    session.getUsername(), password);
+            String storedHash = emailRepository.getUserPassword(session.getUsername());
+            CredentialVerifier.Result result = credentialVerifier.verify(
+                    session.getUsername(), password, storedHash);
             
-            if (!authenticated) {
-                session.incrementAuthFailedAttempts();
-                log.warn("认证失败: {} (尝试次数: {})",
-                        session.getUsername(), session.getAuthFailedAttempts());
-                
-                // 检查是否超过最大尝试次数
-                if (session.getAuthFailedAttempts() >= config.getAuthFailedMaxAttempts()) {
-                    return Pop3Response.err("[AUTH] too many failed attempts");
-                }
-                
+            if (result == CredentialVerifier.Result.BUSY) {
+                // 不计入失败次数，客户端可以稍后重试
                 session.setUserCommandReceived(false);
-                return Pop3Response.authFailed();
+                return Pop3Response.authBusy();
+            }
+            
+            if (result == CredentialVerifier.Result.REJECTED) {
+                return rejectAuthentication(session, Pop3Response.authFailed());
             }
             
             // 认证成功，加载邮件
             return loadMaildropAndTransition(session);
             
+        } catch (DatabaseBusyException e) {
+            log.warn("加载邮箱排队超时: {}", session.getUsername());
+            session.setUserCommandReceived(false);
+            return Pop3Response.systemBusy();
         } catch (SQLException e) {
             log.error("认证时数据库错误: {}", e.getMessage());
             return Pop3Response.internalError();
@@ -161,62 +267,66 @@ public class Pop3CommandHandler {
     
     /**
      * 处理 APOP 命令
-     * APOP username digest
+     * 
+     * 不支持：APOP 的摘要要用明文密码计算，而库中只有 BCrypt 哈希，用哈希计算摘要等于让哈希充当密码。
+     * 欢迎消息不带时间戳，客户端不会主动使用 APOP；收到时按认证失败计数，与 PASS 共用失败次数上限
      */
-    private String handleApop(String line, Pop3Session session) {
+    private String handleApop(Pop3Session session) {
         if (!session.isInAuthorizationState()) {
             return Pop3Response.alreadyAuthenticated();
         }
         
-        String[] parts = line.split("\\s+", 3);
-        if (parts.length < 3) {
-            return Pop3Response.missingArgument();
-        }
+        return rejectAuthentication(session, Pop3Response.apopNotSupported());
+    }
+    
+    /**
+     * 记录一次认证失败，超过最大尝试次数时返回结束会话的响应（连接处理器随后断开连接）
+     */
+    private String rejectAuthentication(Pop3Session session, String response) {
+        session.incrementAuthFailedAttempts();
+        log.warn("认证失败: {} (尝试次数: {})", session.getUsername(), session.getAuthFailedAttempts());
         
-        String username = parts[1];
-        String clientDigest = parts[2].toLowerCase();
+        if (session.getAuthFailedAttempts() >= config.getAuthFailedMaxAttempts()) {
+            return Pop3Response.err("[AUTH] too many failed attempts");
+        }
         
-        try {
-            // 获取用户密码
-            String password = emailRepository.getUserPassword(username);
-            if (password == null) {
-                session.incrementAuthFailedAttempts();
-                return Pop3Response.userNotFound();
-            }
-            
-            // 计算预期的摘要并比较
-            String expectedDigest = session.computeApopDigest(password);
-            
-            if (!expectedDigest.equalsIgnoreCase(clientDigest)) {
-                session.incrementAuthFailedAttempts();
-                log.warn("APOP 认证失败: {}", username);
-                return Pop3Response.authFailed();
-            }
-            
-            session.setUsername(username);
-            return loadMaildropAndTransition(session);
-            
-        } catch (SQLException e) {
-            log.error("APOP 认证时数据库错误: {}", e.getMessage());
-            return Pop3Response.internalError();
+        session.setUserCommandReceived(false);
+        return response;
+    }
+    
+    /**
+     * 获取邮箱列表，邮箱没有变化时直接使用缓存；只有查询数据库时占用舱壁许可
+     */
+    private MaildropListing loadListing(String owner) throws SQLException {
+        MaildropListing listing = maildropCache.get(owner);
+        if (listing != null) {
+            return listing;
         }
+        
+        long stamp = maildropCache.beginLoad();
+        listing = MaildropListing.of(maildropLoad.call(() -> emailRepository.findMaildropEntries(owner)));
+        maildropCache.put(owner, listing, stamp);
+        return listing;
     }
     
     /**
      * 加载邮件箱并转换到事务状态
      */
     private String loadMaildropAndTransition(Pop3Session session) throws SQLException {
-        // 检查邮箱是否被锁定（其他会话正在使用）
-        if (emailRepository.isMaildropLocked(session.getUsername())) {
+        // 锁定邮箱（其他会话正在使用时失败）
+        if (!lockProvider.tryLock(session.getUsername())) {
             return Pop3Response.maildropLocked();
         }
         
-        // 锁定邮箱
-        emailRepository.lockMaildrop(session.getUsername());
-        
-        // 加载邮件
-        List<Email> emails = emailRepository.findByOwner(session.getUsername());
-        session.loadMaildrop(emails);
+        // 只加载邮箱列表，内容在 RETR/TOP 时按需读取
+        MaildropListing listing;
+        try {
+            listing = loadListing(session.getUsername());
+        } catch (SQLException e) {
+            lockProvider.unlock(session.getUsername());
+            throw e;
+        }
+        session.loadMaildrop(listing);
         
         // 转换到事务状态
         session.setState(Pop3Session.State.TRANSACTION);
@@ -263,9 +373,9 @@ public class Pop3CommandHandler {
         StringBuilder response = new StringBuilder();
         response.append(Pop3Response.listStart(session.getMessageCount(), session.getTotalSize()));
         
-        for (Pop3Session.MaildropMessage msg : session.getActiveMessages()) {
+        for (int n = session.nextActive(1); n > 0; n = session.nextActive(n + 1)) {
             response.append("\r\n");
-            response.append(Pop3Response.listItem(msg.messageNumber(), msg.getSize()));
+            response.append(Pop3Response.listItem(n, session.getMessageSize(n)));
         }
         
         response.append("\r\n");
@@ -293,52 +403,137 @@ public class Pop3CommandHandler {
      * 处理 RETR 命令
      * RETR msg
      */
-    private String handleRetr(String line, Pop3Session session) {
+    private void handleRetr(String line, Pop3Session session, Pop3ResponseWriter out) throws IOException {
         String[] parts = line.split("\\s+", 2);
         
         if (parts.length < 2) {
-            return Pop3Response.missingArgument();
+            out.writeResponse(Pop3Response.missingArgument());
+            return;
         }
         
+        int msgNum;
         try {
-            int msgNum = Integer.parseInt(parts[1].trim());
-            return buildRetrResponse(session, msgNum);
+            msgNum = Integer.parseInt(parts[1].trim());
         } catch (NumberFormatException e) {
-            return Pop3Response.invalidArgument();
+            out.writeResponse(Pop3Response.invalidArgument());
+            return;
+        }
+        
+        var msg = findActiveMessage(session, msgNum, out);
+        if (msg == null) {
+            return;
+        }
+        
+        if (streamContent(session, msg, Pop3Response.retrStart(msg.getSize()), out, out::writeDotStuffed)) {
+            log.debug("发送: RETR {} ({} octets)", msgNum, msg.getSize());
         }
     }
     
-    private String buildRetrResponse(Pop3Session session, int msgNum) {
-        var msgOpt = session.getMessage(msgNum);
+    /**
+     * 处理 TOP 命令
+     * TOP msg n
+     *
+     * 优先利用接收时计算的偏移索引只读取需要的字节范围；
+     * 没有可用索引时按段读取邮件，写够行数后不再读取后面的分段
+     */
+    private void handleTop(String line, Pop3Session session, Pop3ResponseWriter out) throws IOException {
+        String[] parts = line.split("\\s+", 3);
         
-        if (msgOpt.isEmpty()) {
-            return Pop3Response.noSuchMessage(session.getMessageCount());
+        if (parts.length < 3) {
+            out.writeResponse(Pop3Response.missingArgument());
+            return;
         }
         
-        var msg = msgOpt.get();
-        if (msg.deleted()) {
-            return Pop3Response.messageDeleted();
+        int msgNum;
+        int lines;
+        try {
+            msgNum = Integer.parseInt(parts[1].trim());
+            lines = Integer.parseInt(parts[2].trim());
+        } catch (NumberFormatException e) {
+            out.writeResponse(Pop3Response.invalidArgument());
+            return;
         }
         
-        Email email = msg.email();
-        String content = email.getRawContent();
+        if (lines < 0) {
+            out.writeResponse(Pop3Response.invalidArgument());
+            return;
+        }
         
-        StringBuilder response = new StringBuilder();
-        response.append(Pop3Response.retrStart(msg.getSize()));
-        response.append("\r\n");
+        var msg = findActiveMessage(session, msgNum, out);
+        if (msg == null) {
+            return;
+        }
         
-        // 字节填充：以点开头的行需要添加额外的点
-        for (String contentLine : content.split("\r\n|\n")) {
-            if (contentLine.startsWith(".")) {
-                response.append(".");
-            }
-            response.append(contentLine);
-            response.append("\r\n");
+        Optional<byte[]> range;
+        try {
+            range = emailRepository.findTopBytes(session.getUsername(), msg.id(), msg.receivedAt(), lines);
+        } catch (DatabaseBusyException e) {
+            log.warn("读取 TOP 索引排队超时: {}", session.getUsername());
+            out.writeResponse(Pop3Response.systemBusy());
+            return;
+        } catch (SQLException e) {
+            log.error("读取 TOP 索引时数据库错误: {}", e.getMessage());
+            range = Optional.empty();
         }
         
-        response.append(Pop3Response.multiLineEnd());
+        if (range.isPresent()) {
+            out.writeResponse(Pop3Response.topStart());
+            out.writeDotStuffed(new ByteArrayInputStream(range.get()));
+            log.debug("发送: TOP {} {} ({} bytes)", msgNum, lines, range.get().length);
+            return;
+        }
         
-        return response.toString();
+        if (streamContent(session, msg, Pop3Response.topStart(), out, content -> out.writeTop(content, lines))) {
+            log.debug("发送: TOP {} {}（整封读取）", msgNum, lines);
+        }
+    }
+    
+    /**
+     * 按编号取未删除的邮件，不存在或已删除时写出错误响应并返回 null
+     */
+    private Pop3Session.MaildropMessage findActiveMessage(Pop3Session session, int msgNum, Pop3ResponseWriter out)
+            throws IOException {
+        var msgOpt = session.getMessage(msgNum);
+        if (msgOpt.isEmpty()) {
+            out.writeResponse(Pop3Response.noSuchMessage(session.getMessageCount()));
+            return null;
+        }
+        
+        var msg = msgOpt.get();
+        if (msg.deleted()) {
+            out.writeResponse(Pop3Response.messageDeleted());
+            return null;
+        }
+        return msg;
+    }
+    
+    /**
+     * 按段读取邮件内容，写出响应首行后交给 writer 写入内容
+     *
+     * @return 已写出内容；邮件不存在或数据库错误时写出错误响应并返回 false
+     */
+    private boolean streamContent(Pop3Session session, Pop3Session.MaildropMessage msg, String firstLine,
+                               Pop3ResponseWriter out, Pop3EmailRepository.ContentConsumer writer) throws IOException {
+        try {
+            boolean found = emailRepository.streamRawContent(session.getUsername(), msg.id(), msg.receivedAt(), content -> {
+                out.writeResponse(firstLine);
+                writer.accept(content);
+            });
+            
+            if (!found) {
+                log.warn("邮件 {} 内容不存在（可能已被其他途径删除）", msg.id());
+                out.writeResponse(Pop3Response.internalError());
+            }
+            return found;
+        } catch (DatabaseBusyException e) {
+            log.warn("读取邮件内容排队超时: {}", session.getUsername());
+            out.writeResponse(Pop3Response.systemBusy());
+            return false;
+        } catch (SQLException e) {
+            log.error("读取邮件内容时数据库错误: {}", e.getMessage());
+            out.writeResponse(Pop3Response.internalError());
+            return false;
+        }
     }
     
     /**
@@ -355,17 +550,13 @@ public class Pop3CommandHandler {
         try {
             int msgNum = Integer.parseInt(parts[1].trim());
             
-            var msgOpt = session.getMessage(msgNum);
-            if (msgOpt.isEmpty()) {
+            if (!session.hasMessage(msgNum)) {
                 return Pop3Response.noSuchMessage(session.getMessageCount());
             }
             
-            var msg = msgOpt.get();
-            if (msg.deleted()) {
+            if (!session.markDeleted(msgNum)) {
                 return Pop3Response.messageDeleted();
             }
-            
-            session.markDeleted(msgNum);
             log.debug("邮件 {} 标记为删除", msgNum);
             
             return Pop3Response.deleted(msgNum);
@@ -391,88 +582,6 @@ public class Pop3CommandHandler {
         return Pop3Response.reset(session.getMessageCount());
     }
     
-    /**
-     * 处理 TOP 命令
-     * TOP msg n
-     */
-    private String handleTop(String line, Pop3Session session) {
-        String[] parts = line.split("\\s+", 3);
-        
-        if (parts.length < 3) {
-            return Pop3Response.missingArgument();
-        }
-        
-        try {
-            int msgNum = Integer.parseInt(parts[1].trim());
-            int lines = Integer.parseInt(parts[2].trim());
-            
-            if (lines < 0) {
-                return Pop3Response.invalidArgument();
-            }
-            
-            return buildTopResponse(session, msgNum, lines);
-            
-        } catch (NumberFormatException e) {
-            return Pop3Response.invalidArgument();
-        }
-    }
-    
-    private String buildTopResponse(Pop3Session session, int msgNum, int lines) {
-        var msgOpt = session.getMessage(msgNum);
-        
-        if (msgOpt.isEmpty()) {
-            return Pop3Response.noSuchMessage(session.getMessageCount());
-        }
-        
-        var msg = msgOpt.get();
-        if (msg.deleted()) {
-            return Pop3Response.messageDeleted();
-        }
-        
-        Email email = msg.email();
-        String content = email.getRawContent();
-        
-        StringBuilder response = new StringBuilder();
-        response.append(Pop3Response.topStart());
-        response.append("\r\n");
-        
-        // 分离头部和正文
-        String[] contentParts = content.split("\r\n\r\n|\n\n", 2);
-        String headers = contentParts[0];
-        String body = contentParts.length > 1 ? contentParts[1] : "";
-        
-        // 添加头部
-        for (String headerLine : headers.split("\r\n|\n")) {
-            if (headerLine.startsWith(".")) {
-                response.append(".");
-            }
-            response.append(headerLine);
-            response.append("\r\n");
-        }
-        
-        // 空行分隔头部和正文
-        response.append("\r\n");
-        
-        // 添加指定行数的正文
-        if (lines > 0 && !body.isEmpty()) {
-            String[] bodyLines = body.split("\r\n|\n");
-            int linesToSend = Math.min(lines, bodyLines.length);
-            
-            for (int i = 0; i < linesToSend; i++) {
-                String bodyLine = bodyLines[i];
-                if (bodyLine.startsWith(".")) {
-                    response.append(".");
-                }
-                response.append(bodyLine);
-                response.append("\r\n");
-            }
-        }
-        
-        response.append(Pop3Response.multiLineEnd());
-        
-        return response.toString();
-    }
-    
     /**
      * 处理 UIDL 命令
      * UIDL [msg]
@@ -498,9 +607,9 @@ public class Pop3CommandHandler {
         StringBuilder response = new StringBuilder();
         response.append(Pop3Response.uidlStart());
         
-        for (Pop3Session.MaildropMessage msg : session.getActiveMessages()) {
+        for (int n = session.nextActive(1); n > 0; n = session.nextActive(n + 1)) {
             response.append("\r\n");
-            response.append(Pop3Response.uidlItem(msg.messageNumber(), msg.getUniqueId()));
+            response.append(Pop3Response.uidlItem(n, session.getMessageId(n).toString()));
         }
         
         response.append("\r\n");
@@ -535,17 +644,28 @@ public class Pop3CommandHandler {
             // 执行删除操作
             int deletedCount = 0;
             try {
-                deletedCount = commitDeletions(session);
+                // 没有删除标记时不占用许可
+                if (session.getDeletedCount() > 0) {
+                    deletedCount = deletionCommit.call(() -> commitDeletions(session));
+                }
+                if (deletedCount > 0) {
+                    // 不等待数据库通知，本节点立即失效
+                    maildropCache.invalidate(session.getUsername());
+                }
+            } catch (DatabaseBusyException e) {
+                // 删除没有执行，告知客户端（RFC 1939），邮件在下次会话中仍然存在
+                lockProvider.unlock(session.getUsername());
+                log.warn("用户 {} 退出时提交删除排队超时，邮件未删除", session.getUsername());
+                return Pop3Response.deletionBusy();
             } catch (SQLException e) {
-                log.error("执行删除操作时出错: {}", e.getMessage());
+                // 事务已回滚，删除没有生效，同样告知客户端
+                lockProvider.unlock(session.getUsername());
+                log.error("用户 {} 退出时提交删除出错，邮件未删除: {}", session.getUsername(), e.getMessage());
+                return Pop3Response.deletionFailed();
             }
             
             // 解锁邮箱
-            try {
-                emailRepository.unlockMaildrop(session.getUsername());
-            } catch (SQLException e) {
-                log.error("解锁邮箱时出错: {}", e.getMessage());
-            }
+            lockProvider.unlock(session.getUsername());
             
             log.info("用户 {} 退出，删除了 {} 封邮件", session.getUsername(), deletedCount);
             
@@ -559,15 +679,26 @@ public class Pop3CommandHandler {
      * 提交删除操作
      */
     private int commitDeletions(Pop3Session session) throws SQLException {
-        int deleted = 0;
-        
-        for (Pop3Session.MaildropMessage msg : session.getDeletedMessages()) {
-            if (emailRepository.markAsDeleted(msg.email().getId())) {
-                deleted++;
+        List<Pop3Session.MaildropMessage> messages = session.getDeletedMessages();
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        
+        List<UUID> ids = new ArrayList<>(messages.size());
+        Instant oldest = Instant.MAX;
+        Instant newest = Instant.MIN;
+        for (Pop3Session.MaildropMessage msg : messages) {
+            ids.add(msg.id());
+            if (msg.receivedAt().isBefore(oldest)) {
+                oldest = msg.receivedAt();
+            }
+            if (msg.receivedAt().isAfter(newest)) {
+                newest = msg.receivedAt();
             }
         }
         
-        return deleted;
+        // 一次往返完成全部删除和容量扣减
+        return emailRepository.markAsDeleted(session.getUsername(), ids, oldest, newest);
     }
     
     /**
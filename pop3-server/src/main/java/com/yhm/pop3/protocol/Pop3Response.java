@@ -37,10 +37,10 @@ public final class Pop3Response {
     
     /**
      * 服务就绪响应（欢迎消息）
-     * 包含时间戳用于 APOP 认证
+     * 不带 APOP 时间戳（RFC 1939：没有时间戳表示不支持 APOP）
      */
-    public static String greeting(String domain, String timestamp) {
-        return OK + " " + domain + " POP3 server ready " + timestamp;
+    public static String greeting(String domain) {
+        return OK + " " + domain + " POP3 server ready";
     }
     
     /**
@@ -199,6 +199,13 @@ public final class Pop3Response {
         return ERR + " [AUTH] authentication failed";
     }
     
+    /**
+     * 不支持 APOP
+     */
+    public static String apopNotSupported() {
+        return ERR + " [AUTH] APOP not supported, use USER/PASS";
+    }
+    
     /**
      * 权限被拒绝（未认证）
      */
@@ -213,6 +220,13 @@ public final class Pop3Response {
         return ERR + " [IN-USE] maildrop already locked";
     }
     
+    /**
+     * 邮箱锁已被其他节点获取，会话结束
+     */
+    public static String maildropLockLost() {
+        return ERR + " [IN-USE] maildrop lock lost, session closed";
+    }
+    
     /**
      * 无效的邮件编号
      */
@@ -276,6 +290,34 @@ public final class Pop3Response {
         return ERR + " TLS not available";
     }
     
+    /**
+     * 认证繁忙（密码校验排队已满）
+     */
+    public static String authBusy() {
+        return ERR + " [SYS/TEMP] authentication service busy, try again later";
+    }
+    
+    /**
+     * 数据库繁忙（加载邮箱、读取邮件内容排队超时）
+     */
+    public static String systemBusy() {
+        return ERR + " [SYS/TEMP] server busy, try again later";
+    }
+    
+    /**
+     * 数据库繁忙，删除标记没有提交
+     */
+    public static String deletionBusy() {
+        return ERR + " [SYS/TEMP] server busy, deleted messages not removed";
+    }
+    
+    /**
+     * 提交删除标记时出错，删除没有生效
+     */
+    public static String deletionFailed() {
+        return ERR + " [SYS/TEMP] some deleted messages not removed";
+    }
+    
     /**
      * 用户不存在
      */
@@ -0,0 +1,236 @@
+package com.yhm.pop3.protocol;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * POP3 响应输出缓冲
+ *
+ * 每个连接持有一个固定大小的字节缓冲区，响应先写入缓冲区，
+ * 缓冲区满或调用 {@link #flush()} 时才写入 socket。
+ *
+ * 多行邮件内容通过 {@link #writeDotStuffed(InputStream)}、{@link #writeTop(InputStream, int)} 以字节为单位边复制边做字节填充，
+ * 不需要把整封邮件拆成行或拼成字符串，每个会话的内存占用与邮件大小无关。
+ */
+public class Pop3ResponseWriter {
+
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte DOT = '.';
+    private static final byte[] CRLF = {CR, LF};
+    private static final byte[] TERMINATOR = {DOT, CR, LF};
+    private static final byte SP = ' ';
+    private static final byte DASH = '-';
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count;
+
+    // 复制邮件内容时复用的读缓冲区
+    private final byte[] readBuffer;
+
+    // 格式化十进制数时复用的缓冲区（long 最多 20 位）
+    private final byte[] digits = new byte[20];
+
+    public Pop3ResponseWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Pop3ResponseWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+        this.readBuffer = new byte[bufferSize];
+    }
+
+    /**
+     * 写入一个响应（单行或已用 CRLF 分隔的多行），并追加结尾的 CRLF
+     */
+    public void writeResponse(String response) throws IOException {
+        writeBytes(response.getBytes(StandardCharsets.UTF_8));
+        writeBytes(CRLF);
+    }
+
+    /**
+     * 写入邮件内容并完成多行响应
+     *
+     * 以 "." 开头的行前补一个 "."，裸 LF 规范化为 CRLF，
+     * 内容末尾缺少换行时补齐，最后写入结束标记 ".\r\n"。
+     */
+    public void writeDotStuffed(InputStream content) throws IOException {
+        copyDotStuffed(content, -1);
+        writeBytes(TERMINATOR);
+    }
+
+    /**
+     * 写入邮件头部、分隔空行和正文前 bodyLines 行并完成多行响应（TOP）
+     *
+     * 字节填充和换行规范化与 {@link #writeDotStuffed(InputStream)} 相同；
+     * 写够行数后不再读取 content，邮件没有空行分隔正文时在头部后补一个空行。
+     */
+    public void writeTop(InputStream content, int bodyLines) throws IOException {
+        if (copyDotStuffed(content, bodyLines)) {
+            writeBytes(CRLF);
+        }
+        writeBytes(TERMINATOR);
+    }
+
+    /**
+     * 复制内容并做字节填充
+     *
+     * @param bodyLines 小于 0 时复制整封邮件，否则只复制头部、空行和正文前 bodyLines 行
+     * @return bodyLines 不小于 0 且内容在头部中结束（没有分隔空行）时返回 true
+     */
+    private boolean copyDotStuffed(InputStream content, int bodyLines) throws IOException {
+        boolean lineStart = true;
+        // 当前行到目前为止是否为空行（只有 CR）
+        boolean blankLine = true;
+        boolean inHeader = bodyLines >= 0;
+        int remaining = bodyLines;
+        byte prev = LF;
+
+        int n;
+        while ((n = content.read(readBuffer)) != -1) {
+            for (int i = 0; i < n; i++) {
+                byte b = readBuffer[i];
+
+                if (lineStart && b == DOT) {
+                    writeByte(DOT);
+                }
+
+                if (b == LF) {
+                    if (prev != CR) {
+                        writeByte(CR);
+                    }
+                    writeByte(LF);
+                    lineStart = true;
+                    prev = b;
+
+                    if (bodyLines >= 0) {
+                        if (inHeader) {
+                            inHeader = !blankLine;
+                        } else {
+                            remaining--;
+                        }
+                        if (!inHeader && remaining == 0) {
+                            return false;
+                        }
+                    }
+                    blankLine = true;
+                } else {
+                    writeByte(b);
+                    lineStart = false;
+                    blankLine &= b == CR;
+                    prev = b;
+                }
+            }
+        }
+
+        if (!lineStart) {
+            if (prev == CR) {
+                writeByte(LF);
+            } else {
+                writeBytes(CRLF);
+            }
+        }
+        return inHeader;
+    }
+
+    /**
+     * 写入多行列表中的一行 "n size"（LIST）
+     */
+    public void writeListItem(int messageNumber, long size) throws IOException {
+        writeDecimal(messageNumber);
+        writeByte(SP);
+        writeDecimal(size);
+        writeBytes(CRLF);
+    }
+
+    /**
+     * 写入多行列表中的一行 "n uuid"（UIDL），格式与 {@link UUID#toString()} 相同
+     */
+    public void writeUidlItem(int messageNumber, UUID id) throws IOException {
+        writeDecimal(messageNumber);
+        writeByte(SP);
+        long most = id.getMostSignificantBits();
+        long least = id.getLeastSignificantBits();
+        writeHex(most >>> 32, 8);
+        writeByte(DASH);
+        writeHex(most >>> 16, 4);
+        writeByte(DASH);
+        writeHex(most, 4);
+        writeByte(DASH);
+        writeHex(least >>> 48, 4);
+        writeByte(DASH);
+        writeHex(least, 12);
+        writeBytes(CRLF);
+    }
+
+    /**
+     * 写入多行响应的结束标记 ".\r\n"
+     */
+    public void writeTerminator() throws IOException {
+        writeBytes(TERMINATOR);
+    }
+
+    /**
+     * 把缓冲区中的数据写入 socket
+     */
+    public void flush() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+        out.flush();
+    }
+
+    private void writeByte(byte b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (count == buffer.length) {
+                drain();
+            }
+            int len = Math.min(bytes.length - offset, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, len);
+            count += len;
+            offset += len;
+        }
+    }
+
+    private void writeDecimal(long value) throws IOException {
+        int pos = digits.length;
+        do {
+            digits[--pos] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (pos < digits.length) {
+            writeByte(digits[pos++]);
+        }
+    }
+
+    /**
+     * 写入 value 低 nibbles*4 位的小写十六进制
+     */
+    private void writeHex(long value, int nibbles) throws IOException {
+        for (int shift = (nibbles - 1) * 4; shift >= 0; shift -= 4) {
+            writeByte(HEX[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, count);
+        count = 0;
+    }
+}
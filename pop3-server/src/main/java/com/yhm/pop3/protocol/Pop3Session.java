@@ -1,9 +1,8 @@
 package com.yhm.pop3.protocol;
 
-import com.yhm.mail.core.model.Email;
+import com.yhm.pop3.db.MaildropListing;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.*;
 
 /**
@@ -48,32 +47,29 @@ public class Pop3Session {
     private boolean userCommandReceived = false;
     private int authFailedAttempts = 0;
     
-    // APOP 认证用的时间戳
-    private final String apopTimestamp;
-    
-    // 邮件数据
-    private List<MaildropMessage> maildrop = new ArrayList<>();
-    private int totalMessageCount = 0;
-    private long totalSize = 0;
+    // 邮件数据：列表与其他会话共享且不可变，删除标记只记录在本会话
+    private MaildropListing maildrop = MaildropListing.empty();
+    private final BitSet deleted = new BitSet();
+    private long loadedTotalSize = 0;
+    private int deletedCount = 0;
+    private long deletedSize = 0;
     
     /**
-     * 邮件箱中的邮件记录
+     * 单封邮件的视图（不含邮件内容），按需创建
      */
     public record MaildropMessage(
             int messageNumber,
-            Email email,
+            UUID id,
+            long size,
+            Instant receivedAt,
             boolean deleted
     ) {
-        public MaildropMessage withDeleted(boolean deleted) {
-            return new MaildropMessage(messageNumber, email, deleted);
-        }
-        
         public long getSize() {
-            return email.getSize();
+            return size;
         }
         
         public String getUniqueId() {
-            return email.getId().toString();
+            return id.toString();
         }
     }
     
@@ -81,18 +77,6 @@ public class Pop3Session {
         this.remoteAddress = remoteAddress;
         this.connectionTime = System.currentTimeMillis();
         this.lastActivityTime = this.connectionTime;
-        
-        // 生成 APOP 时间戳 (格式: <process-id.timestamp@hostname>)
-        this.apopTimestamp = generateApopTimestamp();
-    }
-    
-    /**
-     * 生成 APOP 认证用的时间戳
-     */
-    private String generateApopTimestamp() {
-        long processId = ProcessHandle.current().pid();
-        long timestamp = System.currentTimeMillis();
-        return "<" + processId + "." + timestamp + "@localhost>";
     }
     
     // ==================== 状态管理 ====================
@@ -169,107 +153,92 @@ public class Pop3Session {
         this.authFailedAttempts = 0;
     }
     
-    public String getApopTimestamp() {
-        return apopTimestamp;
-    }
-    
-    /**
-     * 计算 APOP 摘要
-     * digest = MD5(timestamp + password)
-     */
-    public String computeApopDigest(String password) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            byte[] digest = md.digest((apopTimestamp + password).getBytes());
-            
-            // 转换为十六进制字符串
-            StringBuilder sb = new StringBuilder();
-            for (byte b : digest) {
-                sb.append(String.format("%02x", b));
-            }
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD5 algorithm not available", e);
-        }
-    }
-    
     // ==================== 邮件箱操作 ====================
     
     /**
      * 加载邮件箱
      */
-    public void loadMaildrop(List<Email> emails) {
-        this.maildrop = new ArrayList<>();
-        int index = 1;
-        for (Email email : emails) {
-            maildrop.add(new MaildropMessage(index++, email, false));
-        }
-        recalculateStats();
-    }
-    
-    /**
-     * 重新计算邮件箱统计信息
-     */
-    private void recalculateStats() {
-        this.totalMessageCount = 0;
-        this.totalSize = 0;
+    public void loadMaildrop(MaildropListing listing) {
+        this.maildrop = listing;
+        this.deleted.clear();
+        this.deletedCount = 0;
+        this.deletedSize = 0;
         
-        for (MaildropMessage msg : maildrop) {
-            if (!msg.deleted()) {
-                totalMessageCount++;
-                totalSize += msg.getSize();
-            }
+        long total = 0;
+        for (int i = 0; i < listing.count(); i++) {
+            total += listing.size(i);
         }
+        this.loadedTotalSize = total;
     }
     
     /**
      * 获取邮件总数（不包括已删除的）
      */
     public int getMessageCount() {
-        return totalMessageCount;
+        return maildrop.count() - deletedCount;
     }
     
     /**
      * 获取邮件总大小（不包括已删除的）
      */
     public long getTotalSize() {
-        return totalSize;
+        return loadedTotalSize - deletedSize;
     }
     
     /**
-     * 获取所有未删除的邮件
+     * 从 messageNumber 开始（含）的下一封未删除邮件的编号，没有时返回 -1
+     * 
+     * 用于按顺序遍历未删除邮件：
+     * for (int n = nextActive(1); n > 0; n = nextActive(n + 1))
      */
-    public List<MaildropMessage> getActiveMessages() {
-        return maildrop.stream()
-                .filter(msg -> !msg.deleted())
-                .toList();
+    public int nextActive(int messageNumber) {
+        int index = deleted.nextClearBit(Math.max(messageNumber, 1) - 1);
+        return index < maildrop.count() ? index + 1 : -1;
+    }
+    
+    /**
+     * 检查邮件编号是否存在（包括已删除的）
+     */
+    public boolean hasMessage(int messageNumber) {
+        return messageNumber >= 1 && messageNumber <= maildrop.count();
+    }
+    
+    public boolean isDeleted(int messageNumber) {
+        return deleted.get(messageNumber - 1);
+    }
+    
+    public long getMessageSize(int messageNumber) {
+        return maildrop.size(messageNumber - 1);
+    }
+    
+    public UUID getMessageId(int messageNumber) {
+        return maildrop.id(messageNumber - 1);
     }
     
     /**
      * 获取指定编号的邮件
      */
     public Optional<MaildropMessage> getMessage(int messageNumber) {
-        if (messageNumber < 1 || messageNumber > maildrop.size()) {
+        if (!hasMessage(messageNumber)) {
             return Optional.empty();
         }
-        return Optional.of(maildrop.get(messageNumber - 1));
+        int index = messageNumber - 1;
+        return Optional.of(new MaildropMessage(
+                messageNumber, maildrop.id(index), maildrop.size(index), maildrop.receivedAt(index),
+                deleted.get(index)));
     }
     
     /**
      * 标记邮件为已删除
      */
     public boolean markDeleted(int messageNumber) {
-        if (messageNumber < 1 || messageNumber > maildrop.size()) {
-            return false;
-        }
-        
-        MaildropMessage msg = maildrop.get(messageNumber - 1);
-        if (msg.deleted()) {
+        if (!hasMessage(messageNumber) || isDeleted(messageNumber)) {
             return false;
         }
         
-        maildrop.set(messageNumber - 1, msg.withDeleted(true));
-        recalculateStats();
+        deleted.set(messageNumber - 1);
+        deletedCount++;
+        deletedSize += getMessageSize(messageNumber);
         return true;
     }
     
@@ -277,15 +246,10 @@ public class Pop3Session {
      * 重置所有删除标记
      */
     public int resetDeletedFlags() {
-        int restored = 0;
-        for (int i = 0; i < maildrop.size(); i++) {
-            MaildropMessage msg = maildrop.get(i);
-            if (msg.deleted()) {
-                maildrop.set(i, msg.withDeleted(false));
-                restored++;
-            }
-        }
-        recalculateStats();
+        int restored = deletedCount;
+        deleted.clear();
+        deletedCount = 0;
+        deletedSize = 0;
         return restored;
     }
     
@@ -293,18 +257,19 @@ public class Pop3Session {
      * 获取所有标记为删除的邮件
      */
     public List<MaildropMessage> getDeletedMessages() {
-        return maildrop.stream()
-                .filter(MaildropMessage::deleted)
-                .toList();
+        List<MaildropMessage> messages = new ArrayList<>(deletedCount);
+        for (int i = deleted.nextSetBit(0); i >= 0; i = deleted.nextSetBit(i + 1)) {
+            messages.add(new MaildropMessage(
+                    i + 1, maildrop.id(i), maildrop.size(i), maildrop.receivedAt(i), true));
+        }
+        return messages;
     }
     
     /**
      * 获取删除的邮件数量
      */
     public int getDeletedCount() {
-        return (int) maildrop.stream()
-                .filter(MaildropMessage::deleted)
-                .count();
+        return deletedCount;
     }
     
     @Override
@@ -313,8 +278,8 @@ public class Pop3Session {
                 "state=" + state +
                 ", remoteAddress='" + remoteAddress + '\'' +
                 ", username='" + username + '\'' +
-                ", messageCount=" + totalMessageCount +
-                ", totalSize=" + totalSize +
+                ", messageCount=" + getMessageCount() +
+                ", totalSize=" + getTotalSize() +
                 ", deletedCount=" + getDeletedCount() +
                 '}';
     }
@@ -1,9 +1,12 @@
 package com.yhm.pop3.server;
 
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.pop3.cache.MaildropCache;
 import com.yhm.pop3.config.Pop3ServerConfig;
-import com.yhm.pop3.db.Pop3EmailRepository;
+import com.yhm.pop3.lock.MaildropLockProvider;
 import com.yhm.pop3.protocol.Pop3CommandHandler;
 import com.yhm.pop3.protocol.Pop3Response;
+import com.yhm.pop3.protocol.Pop3ResponseWriter;
 import com.yhm.pop3.protocol.Pop3Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,14 +34,16 @@ public class Pop3ConnectionHandler implements Runnable {
     private final Pop3ServerConfig config;
     private final Pop3CommandHandler commandHandler;
     private final Pop3Session session;
-    private final Pop3EmailRepository emailRepository;
+    private final MaildropLockProvider lockProvider;
     
-    public Pop3ConnectionHandler(Socket socket, Pop3ServerConfig config) {
+    public Pop3ConnectionHandler(Socket socket, Pop3ServerConfig config,
+                                 MaildropLockProvider lockProvider, MaildropCache maildropCache,
+                                 CredentialVerifier credentialVerifier) {
         this.socket = socket;
         this.config = config;
-        this.commandHandler = new Pop3CommandHandler(config);
+        this.commandHandler = new Pop3CommandHandler(config, lockProvider, maildropCache, credentialVerifier);
         this.session = new Pop3Session(socket.getRemoteSocketAddress().toString());
-        this.emailRepository = new Pop3EmailRepository();
+        this.lockProvider = lockProvider;
     }
     
     @Override
@@ -54,35 +59,40 @@ public class Pop3ConnectionHandler implements Runnable {
             
             try (BufferedReader reader = new BufferedReader(
                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-                 PrintWriter writer = new PrintWriter(
-                         new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)) {
+                 OutputStream output = socket.getOutputStream()) {
                 
-                // 发送欢迎消息（包含 APOP 时间戳）
-                sendResponse(writer, Pop3Response.greeting(
-                        config.getDomain(), session.getApopTimestamp()));
+                Pop3ResponseWriter writer = new Pop3ResponseWriter(output);
+                
+                // 发送欢迎消息
+                sendResponse(writer, Pop3Response.greeting(config.getDomain()));
                 
                 // 主循环：读取并处理命令
+                // PIPELINING (RFC 2449)：输入缓冲中已有的完整命令依次执行，
+                // 响应累积在输出缓冲中，读完这一批后才 flush，整批只需一次往返
                 String line;
                 while ((line = readLine(reader)) != null) {
                     log.debug("收到: {}", maskPassword(line));
                     
-                    // 处理命令
-                    String response = commandHandler.handleCommand(line, session);
-                    
-                    if (response != null) {
-                        sendResponse(writer, response);
-                    }
+                    // 处理命令，响应直接写入输出缓冲
+                    commandHandler.handleCommand(line, session, writer);
                     
                     // 检查是否应该断开连接
                     if (session.isInUpdateState()) {
+                        writer.flush();
                         break;
                     }
                     
                     // 检查认证失败次数
                     if (session.getAuthFailedAttempts() >= config.getAuthFailedMaxAttempts()) {
+                        writer.flush();
                         log.warn("认证失败次数过多，断开连接: {}", session.getRemoteAddress());
                         break;
                     }
+                    
+                    // 客户端没有更多已到达的命令时才发送
+                    if (!reader.ready()) {
+                        writer.flush();
+                    }
                 }
                 
             }
@@ -90,9 +100,7 @@ public class Pop3ConnectionHandler implements Runnable {
         } catch (SocketTimeoutException e) {
             log.warn("POP3 连接超时: {}", session.getRemoteAddress());
             try {
-                PrintWriter writer = new PrintWriter(
-                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-                sendResponse(writer, Pop3Response.timeout());
+                sendResponse(new Pop3ResponseWriter(socket.getOutputStream()), Pop3Response.timeout());
             } catch (IOException ignored) {
                 // 忽略关闭时的错误
             }
@@ -119,21 +127,12 @@ public class Pop3ConnectionHandler implements Runnable {
     }
     
     /**
-     * 发送响应
+     * 发送单个响应并立即刷新
      */
-    private void sendResponse(PrintWriter writer, String response) {
-        // 对于多行响应，直接发送
-        if (response.contains("\r\n")) {
-            // 已经包含换行符的多行响应
-            String[] lines = response.split("\r\n");
-            for (String line : lines) {
-                writer.println(line);
-                log.debug("发送: {}", line);
-            }
-        } else {
-            writer.println(response);
-            log.debug("发送: {}", response);
-        }
+    private void sendResponse(Pop3ResponseWriter writer, String response) throws IOException {
+        writer.writeResponse(response);
+        writer.flush();
+        log.debug("发送: {}", response);
     }
     
     /**
@@ -152,12 +151,8 @@ public class Pop3ConnectionHandler implements Runnable {
     private void cleanup() {
         // 如果会话已认证但没有正常退出，需要解锁邮箱
         if (session.isInTransactionState() && session.getUsername() != null) {
-            try {
-                emailRepository.unlockMaildrop(session.getUsername());
-                log.debug("异常断开，已解锁邮箱: {}", session.getUsername());
-            } catch (Exception e) {
-                log.error("解锁邮箱失败: {}", e.getMessage());
-            }
+            lockProvider.unlock(session.getUsername());
+            log.debug("异常断开，已解锁邮箱: {}", session.getUsername());
         }
     }
     
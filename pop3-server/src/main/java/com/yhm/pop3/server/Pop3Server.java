@@ -1,8 +1,14 @@
 package com.yhm.pop3.server;
 
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.mail.core.data.SchemaInitializer;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.mail.core.metrics.MetricsReporter;
+import com.yhm.pop3.cache.MailboxChangeListener;
+import com.yhm.pop3.cache.MaildropCache;
 import com.yhm.pop3.config.Pop3ServerConfig;
 import com.yhm.pop3.db.DatabaseConfig;
-import com.yhm.pop3.db.DatabaseInitializer;
+import com.yhm.pop3.lock.MaildropLockProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +46,11 @@ public class Pop3Server {
     
     private ServerSocket serverSocket;
     private ExecutorService virtualThreadExecutor;
+    private MaildropLockProvider lockProvider;
+    private MaildropCache maildropCache;
+    private MailboxChangeListener changeListener;
+    private CredentialVerifier credentialVerifier;
+    private MetricsReporter metricsReporter;
     
     public Pop3Server(Pop3ServerConfig config) {
         this.config = config;
@@ -58,7 +69,29 @@ public class Pop3Server {
         log.info("配置: {}", config);
         
         // 初始化数据库
-        DatabaseInitializer.initialize();
+        SchemaInitializer.initialize(DatabaseConfig.getRouter());
+        
+        // 邮箱锁（memory / postgres）
+        lockProvider = MaildropLockProvider.create(config);
+        log.info("邮箱锁实现: {}", config.getLockProvider());
+        
+        // 邮箱列表缓存，依赖数据库变更通知失效；配置了只读副本时同样需要通知来保证读到刚投递的邮件
+        maildropCache = new MaildropCache(config.getListingCacheMaxMessages());
+        changeListener = new MailboxChangeListener(maildropCache);
+        if (config.getListingCacheMaxMessages() > 0 || DatabaseConfig.hasReplica()) {
+            changeListener.start();
+        }
+        
+        // 密码校验（BCrypt 线程池 + 成功结果缓存）
+        credentialVerifier = new CredentialVerifier(
+                config.getAuthCacheTtl(),
+                config.getAuthCacheMaxEntries(),
+                config.getAuthHashThreads(),
+                config.getAuthHashQueueCapacity());
+        
+        // 定期输出运行指标
+        metricsReporter = new MetricsReporter(MetricsRegistry.global(), config.getMetricsReportInterval());
+        metricsReporter.start();
         
         // 创建虚拟线程执行器
         // Java 21+ 支持虚拟线程
@@ -106,7 +139,8 @@ public class Pop3Server {
                 // 使用虚拟线程处理连接
                 virtualThreadExecutor.submit(() -> {
                     try {
-                        new Pop3ConnectionHandler(clientSocket, config).run();
+                        new Pop3ConnectionHandler(clientSocket, config, lockProvider,
+                                maildropCache, credentialVerifier).run();
                     } finally {
                         activeConnections.decrementAndGet();
                     }
@@ -172,6 +206,23 @@ public class Pop3Server {
             }
         }
         
+        // 释放本节点持有的邮箱锁
+        if (lockProvider != null) {
+            lockProvider.close();
+        }
+        
+        if (changeListener != null) {
+            changeListener.stop();
+        }
+        
+        if (credentialVerifier != null) {
+            credentialVerifier.close();
+        }
+        
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+        }
+        
         // 关闭数据库连接池
         DatabaseConfig.shutdown();
         
@@ -0,0 +1,289 @@
+package com.yhm.pop3;
+
+import com.yhm.pop3.db.DatabaseConfig;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POP3 PIPELINING 基准测试
+ *
+ * 在客户端和 POP3 服务器之间插入一个延迟代理（每个方向延迟 RTT/2），
+ * 分别用逐条请求和流水线两种方式下载同一批邮件并比较耗时。
+ * 需要先启动 POP3 服务器和数据库。
+ *
+ * 用法: Pop3PipeliningBenchmark [邮件数量=500] [RTT 毫秒=50]
+ */
+public class Pop3PipeliningBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 1100;
+    private static final String USER = "test@localhost";
+    private static final String PASSWORD = "password123";
+
+    // 每封测试邮件正文大小
+    private static final int BODY_SIZE = 4096;
+
+    public static void main(String[] args) throws Exception {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        long rttMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+        System.out.println("========== POP3 PIPELINING 基准测试 ==========");
+        System.out.printf("邮件数量: %d, 模拟 RTT: %d ms%n%n", messageCount, rttMillis);
+
+        seedMessages(messageCount);
+
+        try (DelayProxy proxy = new DelayProxy(HOST, PORT, rttMillis / 2)) {
+            proxy.start();
+
+            long sequential = download(proxy.getPort(), messageCount, false);
+            System.out.printf("逐条请求: %d ms (%.1f ms/封)%n", sequential, (double) sequential / messageCount);
+
+            long pipelined = download(proxy.getPort(), messageCount, true);
+            System.out.printf("流水线:   %d ms (%.1f ms/封)%n", pipelined, (double) pipelined / messageCount);
+
+            System.out.printf("%n加速比: %.1fx%n", (double) sequential / Math.max(pipelined, 1));
+
+            cleanup(proxy.getPort());
+        }
+
+        DatabaseConfig.shutdown();
+    }
+
+    /**
+     * 写入测试邮件
+     */
+    private static void seedMessages(int count) throws SQLException {
+        String sql = """
+            INSERT INTO emails (id, sender, recipients, subject, body, raw_content, size, owner)
+            SELECT gen_random_uuid(), 'bench@localhost', ARRAY[?], 'pipelining ' || n, 'body',
+                   'Subject: pipelining ' || n || E'\\r\\n\\r\\n' || repeat('x', ?) || E'\\r\\n', ? + 40, ?
+            FROM generate_series(1, ?) AS n
+            """;
+
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, USER);
+            stmt.setInt(2, BODY_SIZE);
+            stmt.setInt(3, BODY_SIZE);
+            stmt.setString(4, USER);
+            stmt.setInt(5, count);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 登录并下载前 count 封邮件，返回下载耗时（毫秒）
+     */
+    private static long download(int port, int count, boolean pipelined) throws Exception {
+        try (Socket socket = new Socket(HOST, port);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false)) {
+
+            socket.setSoTimeout(120000);
+            login(reader, writer);
+
+            long begin = System.nanoTime();
+
+            if (pipelined) {
+                // 另一个线程一次性发出全部命令，避免双方 socket 缓冲区同时写满
+                Thread sender = Thread.ofVirtual().start(() -> {
+                    for (int i = 1; i <= count; i++) {
+                        writer.print("RETR " + i + "\r\n");
+                    }
+                    writer.flush();
+                });
+                for (int i = 1; i <= count; i++) {
+                    readMultiLine(reader);
+                }
+                sender.join();
+            } else {
+                for (int i = 1; i <= count; i++) {
+                    send(writer, "RETR " + i);
+                    readMultiLine(reader);
+                }
+            }
+
+            long elapsed = (System.nanoTime() - begin) / 1_000_000;
+
+            send(writer, "QUIT");
+            expectOk(reader.readLine());
+            return elapsed;
+        }
+    }
+
+    /**
+     * 删除测试邮件（同样使用流水线）
+     */
+    private static void cleanup(int port) throws Exception {
+        try (Socket socket = new Socket(HOST, port);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false)) {
+
+            socket.setSoTimeout(120000);
+            int total = login(reader, writer);
+
+            Thread sender = Thread.ofVirtual().start(() -> {
+                for (int i = 1; i <= total; i++) {
+                    writer.print("DELE " + i + "\r\n");
+                }
+                writer.print("QUIT\r\n");
+                writer.flush();
+            });
+            for (int i = 0; i <= total; i++) {
+                expectOk(reader.readLine());
+            }
+            sender.join();
+            System.out.printf("已删除 %d 封测试邮件%n", total);
+        }
+    }
+
+    /**
+     * 登录，返回邮件数量
+     */
+    private static int login(BufferedReader reader, PrintWriter writer) throws IOException {
+        expectOk(reader.readLine());
+        send(writer, "USER " + USER);
+        expectOk(reader.readLine());
+        send(writer, "PASS " + PASSWORD);
+        String response = reader.readLine();
+        expectOk(response);
+
+        send(writer, "STAT");
+        String stat = reader.readLine();
+        expectOk(stat);
+        return Integer.parseInt(stat.split("\\s+")[1]);
+    }
+
+    private static void readMultiLine(BufferedReader reader) throws IOException {
+        expectOk(reader.readLine());
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equals(".")) {
+                return;
+            }
+        }
+        throw new EOFException("多行响应未结束");
+    }
+
+    private static void send(PrintWriter writer, String command) {
+        writer.print(command + "\r\n");
+        writer.flush();
+    }
+
+    private static void expectOk(String response) throws IOException {
+        if (response == null || !response.startsWith("+OK")) {
+            throw new IOException("意外的响应: " + response);
+        }
+    }
+
+    // ==================== 延迟代理 ====================
+
+    /**
+     * TCP 延迟代理
+     *
+     * 每个方向上读到的数据在 delayMillis 之后才转发，模拟链路延迟，不限制带宽。
+     */
+    static class DelayProxy implements Closeable {
+
+        private record Chunk(long deliverAt, byte[] data) {
+        }
+
+        private static final Chunk EOF = new Chunk(0, new byte[0]);
+
+        private final String targetHost;
+        private final int targetPort;
+        private final long delayNanos;
+        private final ServerSocket serverSocket;
+
+        DelayProxy(String targetHost, int targetPort, long delayMillis) throws IOException {
+            this.targetHost = targetHost;
+            this.targetPort = targetPort;
+            this.delayNanos = TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            this.serverSocket = new ServerSocket(0);
+        }
+
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+
+        void start() {
+            Thread.ofPlatform().daemon(true).name("delay-proxy").start(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket client = serverSocket.accept();
+                        Socket server = new Socket(targetHost, targetPort);
+                        client.setTcpNoDelay(true);
+                        server.setTcpNoDelay(true);
+                        relay(client, server);
+                        relay(server, client);
+                    } catch (IOException e) {
+                        // 代理已关闭
+                    }
+                }
+            });
+        }
+
+        /**
+         * 单向转发：读线程打时间戳入队，写线程到点后发出
+         */
+        private void relay(Socket from, Socket to) {
+            BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+
+            Thread.ofVirtual().start(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                try (InputStream in = from.getInputStream()) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        queue.add(new Chunk(System.nanoTime() + delayNanos, Arrays.copyOf(buffer, n)));
+                    }
+                } catch (IOException ignored) {
+                    // 连接关闭
+                }
+                queue.add(EOF);
+            });
+
+            Thread.ofVirtual().start(() -> {
+                try (OutputStream out = to.getOutputStream()) {
+                    while (true) {
+                        Chunk chunk = queue.take();
+                        if (chunk == EOF) {
+                            break;
+                        }
+                        long wait = chunk.deliverAt() - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                        out.write(chunk.data());
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                    // 连接关闭
+                }
+                try {
+                    to.close();
+                } catch (IOException ignored) {
+                    // 忽略
+                }
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.yhm.pop3;
+
+import com.yhm.pop3.db.DatabaseConfig;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * POP3 QUIT 延迟基准测试
+ *
+ * 为测试用户写入一批邮件，登录后 DELE 全部邮件，测量 QUIT（UPDATE 状态提交删除）的耗时。
+ * 需要先启动 POP3 服务器和数据库。
+ *
+ * 用法: Pop3QuitBenchmark [邮件数量=5000] [轮数=3]
+ */
+public class Pop3QuitBenchmark {
+
+    private static final String HOST = "localhost";
+    private static final int PORT = 1100;
+    private static final String USER = "test@localhost";
+    private static final String PASSWORD = "password123";
+
+    // DELE 分批发送，避免客户端和服务端的 socket 缓冲区同时写满
+    private static final int DELE_BATCH = 200;
+
+    public static void main(String[] args) throws Exception {
+        int messageCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        System.out.println("========== POP3 QUIT 基准测试 ==========");
+        System.out.printf("邮件数量: %d, 轮数: %d%n%n", messageCount, rounds);
+
+        long[] quitMillis = new long[rounds];
+
+        for (int round = 0; round < rounds; round++) {
+            seedMessages(messageCount);
+            quitMillis[round] = runRound();
+            System.out.printf("第 %d 轮: QUIT 耗时 %d ms%n", round + 1, quitMillis[round]);
+        }
+
+        long total = 0;
+        long max = 0;
+        for (long ms : quitMillis) {
+            total += ms;
+            max = Math.max(max, ms);
+        }
+        System.out.printf("%n平均: %.1f ms, 最大: %d ms%n", (double) total / rounds, max);
+
+        DatabaseConfig.shutdown();
+    }
+
+    /**
+     * 写入测试邮件
+     */
+    private static void seedMessages(int count) throws SQLException {
+        String sql = """
+            INSERT INTO emails (id, sender, recipients, subject, body, raw_content, size, owner)
+            SELECT gen_random_uuid(), 'bench@localhost', ARRAY[?], 'bench ' || n, 'body',
+                   'Subject: bench ' || n || E'\\r\\n\\r\\nbody\\r\\n', 24, ?
+            FROM generate_series(1, ?) AS n
+            """;
+
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, USER);
+            stmt.setString(2, USER);
+            stmt.setInt(3, count);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 登录、删除全部邮件并计时 QUIT
+     */
+    private static long runRound() throws IOException {
+        try (Socket socket = new Socket(HOST, PORT);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter writer = new PrintWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), false)) {
+
+            socket.setSoTimeout(120000);
+
+            expectOk(reader.readLine());
+            send(writer, "USER " + USER);
+            expectOk(reader.readLine());
+            send(writer, "PASS " + PASSWORD);
+            expectOk(reader.readLine());
+
+            send(writer, "STAT");
+            String stat = reader.readLine();
+            expectOk(stat);
+            int total = Integer.parseInt(stat.split("\\s+")[1]);
+
+            for (int start = 1; start <= total; start += DELE_BATCH) {
+                int end = Math.min(total, start + DELE_BATCH - 1);
+                for (int i = start; i <= end; i++) {
+                    writer.print("DELE " + i + "\r\n");
+                }
+                writer.flush();
+                for (int i = start; i <= end; i++) {
+                    expectOk(reader.readLine());
+                }
+            }
+
+            long begin = System.nanoTime();
+            send(writer, "QUIT");
+            String quit = reader.readLine();
+            long elapsed = (System.nanoTime() - begin) / 1_000_000;
+
+            expectOk(quit);
+            System.out.println("S: " + quit);
+            return elapsed;
+        }
+    }
+
+    private static void send(PrintWriter writer, String command) {
+        writer.print(command + "\r\n");
+        writer.flush();
+    }
+
+    private static void expectOk(String response) throws IOException {
+        if (response == null || !response.startsWith("+OK")) {
+            throw new IOException("意外的响应: " + response);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.yhm.pop3.protocol;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Pop3ResponseWriterTest {
+
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+
+    @Test
+    void linesStartingWithDotAreStuffed() throws IOException {
+        String written = dotStuffed(".hidden\r\nok\r\n..two\r\n.\r\n");
+
+        assertEquals("..hidden\r\nok\r\n...two\r\n..\r\n.\r\n", written);
+    }
+
+    @Test
+    void dotInsideLineIsNotStuffed() throws IOException {
+        assertEquals("a.b\r\n.\r\n", dotStuffed("a.b\r\n"));
+    }
+
+    @Test
+    void bareLfIsNormalisedToCrlf() throws IOException {
+        String written = dotStuffed("Subject: hi\n\nline1\n.line2\r\nline3\n");
+
+        assertEquals("Subject: hi\r\n\r\nline1\r\n..line2\r\nline3\r\n.\r\n", written);
+    }
+
+    @Test
+    void missingFinalNewlineIsAdded() throws IOException {
+        assertEquals("tail\r\n.\r\n", dotStuffed("tail"));
+        assertEquals("tail\r\n.\r\n", dotStuffed("tail\r"));
+    }
+
+    @Test
+    void emptyContentWritesOnlyTerminator() throws IOException {
+        assertEquals(".\r\n", dotStuffed(""));
+    }
+
+    @Test
+    void stuffingWorksAcrossReadBufferBoundary() throws IOException {
+        // 缓冲区 16 字节："\n" 和下一行开头的 "." 分在两次读取中
+        Pop3ResponseWriter writer = new Pop3ResponseWriter(sink, 16);
+        String line = "0123456789abcde\n";
+
+        writer.writeDotStuffed(utf8(line + ".x\n"));
+        writer.flush();
+
+        assertEquals("0123456789abcde\r\n..x\r\n.\r\n", sink.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void multiByteContentIsCopiedUnchanged() throws IOException {
+        assertEquals("中文\r\n.\r\n", dotStuffed("中文\n"));
+    }
+
+    @Test
+    void topWritesHeaderBlankLineAndRequestedBodyLines() throws IOException {
+        String raw = "Subject: hi\r\n.X: y\r\n\r\nline1\r\n.line2\r\nline3\r\n";
+
+        assertEquals("Subject: hi\r\n..X: y\r\n\r\nline1\r\n..line2\r\n.\r\n", top(raw, 2));
+        assertEquals("Subject: hi\r\n..X: y\r\n\r\n.\r\n", top(raw, 0));
+    }
+
+    @Test
+    void topWithMoreLinesThanBodyWritesWholeMessage() throws IOException {
+        assertEquals("Subject: hi\r\n\r\nline1\r\ntail\r\n.\r\n", top("Subject: hi\n\nline1\ntail", 10));
+    }
+
+    @Test
+    void topWithoutBlankLineAddsSeparator() throws IOException {
+        assertEquals("Subject: hi\r\n\r\n.\r\n", top("Subject: hi", 5));
+    }
+
+    @Test
+    void topStopsReadingAfterRequestedLines() throws IOException {
+        String raw = "Subject: hi\r\n\r\nline1\r\nline2\r\n";
+        InputStream content = utf8(raw);
+        // 每次只读一个字节，剩余的字节数就是没有读取的内容
+        Pop3ResponseWriter writer = new Pop3ResponseWriter(sink, 1);
+
+        writer.writeTop(content, 1);
+        writer.flush();
+
+        assertEquals("Subject: hi\r\n\r\nline1\r\n.\r\n", sink.toString(StandardCharsets.UTF_8));
+        assertEquals("line2\r\n".length(), content.available());
+    }
+
+    @Test
+    void listAndUidlItems() throws IOException {
+        Pop3ResponseWriter writer = new Pop3ResponseWriter(sink);
+        UUID id = UUID.fromString("0123abcd-0000-4fff-8a0b-00000000002a");
+
+        writer.writeListItem(7, 1234567890123L);
+        writer.writeUidlItem(12, id);
+        writer.writeTerminator();
+        writer.flush();
+
+        assertEquals("7 1234567890123\r\n12 " + id + "\r\n.\r\n", sink.toString(StandardCharsets.UTF_8));
+    }
+
+    private String dotStuffed(String content) throws IOException {
+        sink.reset();
+        Pop3ResponseWriter writer = new Pop3ResponseWriter(sink);
+        writer.writeDotStuffed(utf8(content));
+        writer.flush();
+        return sink.toString(StandardCharsets.UTF_8);
+    }
+
+    private String top(String content, int lines) throws IOException {
+        sink.reset();
+        Pop3ResponseWriter writer = new Pop3ResponseWriter(sink);
+        writer.writeTop(utf8(content), lines);
+        writer.flush();
+        return sink.toString(StandardCharsets.UTF_8);
+    }
+
+    private static InputStream utf8(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,51 @@
+package com.yhm.smtp;
+
+import com.yhm.smtp.db.DatabaseConfig;
+import com.yhm.smtp.db.EmailBodyBackfill;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+/**
+ * 旧邮件正文回填工具（见 {@link EmailBodyBackfill}）
+ *
+ * 使用与 SMTP 服务器相同的 application.properties，依次处理所有分片，服务器运行期间在线执行。
+ * 应在 migrations/add_email_search_index.sql 之后执行，更新的正文才会进入 search_vector：
+ * <pre>
+ * java -cp smtp-server.jar com.yhm.smtp.BodyBackfillMain               回填当前时间之前投递的邮件
+ * java -cp smtp-server.jar com.yhm.smtp.BodyBackfillMain 2026-06-01    只回填该日期（UTC）之前投递的邮件
+ * </pre>
+ */
+public class BodyBackfillMain {
+
+    private static final Logger log = LoggerFactory.getLogger(BodyBackfillMain.class);
+
+    private static final int BATCH_SIZE = 500;
+
+    public static void main(String[] args) {
+        if (args.length > 1) {
+            System.err.println("用法: BodyBackfillMain [截止日期 yyyy-MM-dd]");
+            System.exit(2);
+        }
+
+        try {
+            OffsetDateTime before = args.length == 1
+                    ? LocalDate.parse(args[0]).atStartOfDay().atOffset(ZoneOffset.UTC)
+                    : OffsetDateTime.now(ZoneOffset.UTC);
+            EmailBodyBackfill.Result result = new EmailBodyBackfill(BATCH_SIZE).run(DatabaseConfig.getRouter(), before);
+            System.out.printf("正文回填完成：读取 %d 封邮件，更新 %d 封%n", result.scanned(), result.updated());
+        } catch (DateTimeParseException e) {
+            System.err.println("截止日期格式应为 yyyy-MM-dd: " + args[0]);
+            System.exit(2);
+        } catch (Exception e) {
+            log.error("正文回填失败: {}", e.getMessage(), e);
+            System.exit(1);
+        } finally {
+            DatabaseConfig.shutdown();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.yhm.smtp;
+
+import com.yhm.mail.core.shard.ShardRebalancer;
+import com.yhm.mail.core.shard.ShardRouter;
+import com.yhm.smtp.db.DatabaseConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 邮箱分片迁移工具
+ *
+ * 使用与 SMTP 服务器相同的 application.properties（db.shards、db.shard.N.url），
+ * 服务器运行期间在线执行：
+ * <pre>
+ * java -cp smtp-server.jar com.yhm.smtp.ShardRebalanceMain user@example.com      查看所在分片
+ * java -cp smtp-server.jar com.yhm.smtp.ShardRebalanceMain user@example.com 2    迁移到 2 号分片
+ * </pre>
+ */
+public class ShardRebalanceMain {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalanceMain.class);
+
+    public static void main(String[] args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("用法: ShardRebalanceMain <邮箱地址> [目标分片]");
+            System.exit(2);
+        }
+
+        String owner = args[0];
+        try {
+            ShardRouter router = DatabaseConfig.getRouter();
+            if (args.length == 1) {
+                System.out.printf("%s: 分片 %d（哈希分片 %d，共 %d 个分片）%n",
+                        owner, router.shardOf(owner), router.hashShardOf(owner), router.shardCount());
+                return;
+            }
+
+            ShardRebalancer.MoveResult result = new ShardRebalancer(router).move(owner, Integer.parseInt(args[1]));
+            System.out.printf("%s: 分片 %d -> %d，复制 %d 封邮件，补齐 %d 项变化%n",
+                    result.owner(), result.fromShard(), result.toShard(), result.copied(), result.changed());
+        } catch (NumberFormatException e) {
+            System.err.println("目标分片必须是数字: " + args[1]);
+            System.exit(2);
+        } catch (Exception e) {
+            log.error("邮箱迁移失败: {}", e.getMessage(), e);
+            System.exit(1);
+        } finally {
+            DatabaseConfig.shutdown();
+        }
+    }
+}
@@ -17,6 +17,26 @@ public class SmtpServerConfig {
     private final long maxMessageSize;
     private final int maxRecipients;
     private final boolean requireAuth;
+    private final boolean allowPlaintextAuth;
+    private final int authFailedMaxAttempts;
+    private final int deliveryLogBatchSize;
+    private final long deliveryLogFlushInterval;
+    private final int deliveryLogBufferCapacity;
+    private final String deliveryLogSpillFile;
+    private final long authCacheTtl;
+    private final int authCacheMaxEntries;
+    private final int authHashThreads;
+    private final int authHashQueueCapacity;
+    private final int partitionMonthsAhead;
+    private final int retentionMonths;
+    private final int purgeGraceDays;
+    private final int tombstoneRetentionDays;
+    private final int purgeBatchSize;
+    private final long purgeBatchPause;
+    private final long purgeInterval;
+    private final long purgeMaxReplicationLag;
+    private final int purgeMaxActiveQueries;
+    private final long metricsReportInterval;
     
     private SmtpServerConfig(Builder builder) {
         this.domain = builder.domain;
@@ -27,6 +47,26 @@ public class SmtpServerConfig {
         this.maxMessageSize = builder.maxMessageSize;
         this.maxRecipients = builder.maxRecipients;
         this.requireAuth = builder.requireAuth;
+        this.allowPlaintextAuth = builder.allowPlaintextAuth;
+        this.authFailedMaxAttempts = builder.authFailedMaxAttempts;
+        this.deliveryLogBatchSize = builder.deliveryLogBatchSize;
+        this.deliveryLogFlushInterval = builder.deliveryLogFlushInterval;
+        this.deliveryLogBufferCapacity = builder.deliveryLogBufferCapacity;
+        this.deliveryLogSpillFile = builder.deliveryLogSpillFile;
+        this.authCacheTtl = builder.authCacheTtl;
+        this.authCacheMaxEntries = builder.authCacheMaxEntries;
+        this.authHashThreads = builder.authHashThreads;
+        this.authHashQueueCapacity = builder.authHashQueueCapacity;
+        this.partitionMonthsAhead = builder.partitionMonthsAhead;
+        this.retentionMonths = builder.retentionMonths;
+        this.purgeGraceDays = builder.purgeGraceDays;
+        this.tombstoneRetentionDays = builder.tombstoneRetentionDays;
+        this.purgeBatchSize = builder.purgeBatchSize;
+        this.purgeBatchPause = builder.purgeBatchPause;
+        this.purgeInterval = builder.purgeInterval;
+        this.purgeMaxReplicationLag = builder.purgeMaxReplicationLag;
+        this.purgeMaxActiveQueries = builder.purgeMaxActiveQueries;
+        this.metricsReportInterval = builder.metricsReportInterval;
     }
     
     // ==================== Getters ====================
@@ -63,6 +103,86 @@ public class SmtpServerConfig {
         return requireAuth;
     }
     
+    public boolean isAllowPlaintextAuth() {
+        return allowPlaintextAuth;
+    }
+    
+    public int getAuthFailedMaxAttempts() {
+        return authFailedMaxAttempts;
+    }
+    
+    public int getDeliveryLogBatchSize() {
+        return deliveryLogBatchSize;
+    }
+    
+    public long getDeliveryLogFlushInterval() {
+        return deliveryLogFlushInterval;
+    }
+    
+    public int getDeliveryLogBufferCapacity() {
+        return deliveryLogBufferCapacity;
+    }
+    
+    public String getDeliveryLogSpillFile() {
+        return deliveryLogSpillFile;
+    }
+    
+    public long getAuthCacheTtl() {
+        return authCacheTtl;
+    }
+    
+    public int getAuthCacheMaxEntries() {
+        return authCacheMaxEntries;
+    }
+    
+    public int getAuthHashThreads() {
+        return authHashThreads;
+    }
+    
+    public int getAuthHashQueueCapacity() {
+        return authHashQueueCapacity;
+    }
+    
+    public int getPartitionMonthsAhead() {
+        return partitionMonthsAhead;
+    }
+    
+    public int getRetentionMonths() {
+        return retentionMonths;
+    }
+    
+    public int getPurgeGraceDays() {
+        return purgeGraceDays;
+    }
+    
+    public int getTombstoneRetentionDays() {
+        return tombstoneRetentionDays;
+    }
+    
+    public int getPurgeBatchSize() {
+        return purgeBatchSize;
+    }
+    
+    public long getPurgeBatchPause() {
+        return purgeBatchPause;
+    }
+    
+    public long getPurgeInterval() {
+        return purgeInterval;
+    }
+    
+    public long getPurgeMaxReplicationLag() {
+        return purgeMaxReplicationLag;
+    }
+    
+    public int getPurgeMaxActiveQueries() {
+        return purgeMaxActiveQueries;
+    }
+    
+    public long getMetricsReportInterval() {
+        return metricsReportInterval;
+    }
+    
     // ==================== 工厂方法 ====================
     
     /**
@@ -89,6 +209,26 @@ public class SmtpServerConfig {
                 .maxMessageSize(Long.parseLong(props.getProperty("smtp.maxMessageSize", "26214400")))
                 .maxRecipients(Integer.parseInt(props.getProperty("smtp.maxRecipients", "100")))
                 .requireAuth(Boolean.parseBoolean(props.getProperty("smtp.requireAuth", "false")))
+                .allowPlaintextAuth(Boolean.parseBoolean(props.getProperty("smtp.allowPlaintextAuth", "false")))
+                .authFailedMaxAttempts(Integer.parseInt(props.getProperty("smtp.authFailedMaxAttempts", "3")))
+                .deliveryLogBatchSize(Integer.parseInt(props.getProperty("smtp.deliveryLog.batchSize", "500")))
+                .deliveryLogFlushInterval(Long.parseLong(props.getProperty("smtp.deliveryLog.flushInterval", "200")))
+                .deliveryLogBufferCapacity(Integer.parseInt(props.getProperty("smtp.deliveryLog.bufferCapacity", "10000")))
+                .deliveryLogSpillFile(props.getProperty("smtp.deliveryLog.spillFile", "logs/delivery-logs-spill.csv"))
+                .authCacheTtl(Long.parseLong(props.getProperty("smtp.auth.cacheTtl", "300000")))
+                .authCacheMaxEntries(Integer.parseInt(props.getProperty("smtp.auth.cacheMaxEntries", "100000")))
+                .authHashThreads(Integer.parseInt(props.getProperty("smtp.auth.hashThreads", "4")))
+                .authHashQueueCapacity(Integer.parseInt(props.getProperty("smtp.auth.hashQueueCapacity", "256")))
+                .partitionMonthsAhead(Integer.parseInt(props.getProperty("smtp.partition.monthsAhead", "3")))
+                .retentionMonths(Integer.parseInt(props.getProperty("smtp.retention.months", "0")))
+                .purgeGraceDays(Integer.parseInt(props.getProperty("smtp.purge.graceDays", "7")))
+                .tombstoneRetentionDays(Integer.parseInt(props.getProperty("smtp.tombstone.retentionDays", "90")))
+                .purgeBatchSize(Integer.parseInt(props.getProperty("smtp.purge.batchSize", "500")))
+                .purgeBatchPause(Long.parseLong(props.getProperty("smtp.purge.batchPause", "100")))
+                .purgeInterval(Long.parseLong(props.getProperty("smtp.purge.interval", "600000")))
+                .purgeMaxReplicationLag(Long.parseLong(props.getProperty("smtp.purge.maxReplicationLag", "5000")))
+                .purgeMaxActiveQueries(Integer.parseInt(props.getProperty("smtp.purge.maxActiveQueries", "32")))
+                .metricsReportInterval(Long.parseLong(props.getProperty("smtp.metrics.reportInterval", "60000")))
                 .build();
     }
     
@@ -117,6 +257,26 @@ public class SmtpServerConfig {
         private long maxMessageSize = 25 * 1024 * 1024; // 25MB
         private int maxRecipients = 100;
         private boolean requireAuth = false;
+        private boolean allowPlaintextAuth = false;      // 没有 TLS，AUTH PLAIN 的密码以明文传输
+        private int authFailedMaxAttempts = 3;
+        private int deliveryLogBatchSize = 500;
+        private long deliveryLogFlushInterval = 200;
+        private int deliveryLogBufferCapacity = 10000;
+        private String deliveryLogSpillFile = "logs/delivery-logs-spill.csv";
+        private long authCacheTtl = 300000;              // 5 分钟，0 表示不缓存
+        private int authCacheMaxEntries = 100000;
+        private int authHashThreads = 4;                 // BCrypt 计算线程数
+        private int authHashQueueCapacity = 256;
+        private int partitionMonthsAhead = 3;            // 提前创建的邮件分区月数
+        private int retentionMonths = 0;                 // 邮件保留月数，0 表示不删除
+        private int purgeGraceDays = 7;                  // 软删除邮件保留天数
+        private int tombstoneRetentionDays = 90;         // 墓碑保留天数，0 表示不清理
+        private int purgeBatchSize = 500;
+        private long purgeBatchPause = 100;
+        private long purgeInterval = 600000;             // 10 分钟，0 表示不清理
+        private long purgeMaxReplicationLag = 5000;
+        private int purgeMaxActiveQueries = 32;
+        private long metricsReportInterval = 60000;      // 1 分钟，0 表示不输出
         
         public Builder domain(String domain) {
             this.domain = domain;
@@ -158,6 +318,106 @@ public class SmtpServerConfig {
             return this;
         }
         
+        public Builder allowPlaintextAuth(boolean allowPlaintextAuth) {
+            this.allowPlaintextAuth = allowPlaintextAuth;
+            return this;
+        }
+        
+        public Builder authFailedMaxAttempts(int authFailedMaxAttempts) {
+            this.authFailedMaxAttempts = authFailedMaxAttempts;
+            return this;
+        }
+        
+        public Builder deliveryLogBatchSize(int deliveryLogBatchSize) {
+            this.deliveryLogBatchSize = deliveryLogBatchSize;
+            return this;
+        }
+        
+        public Builder deliveryLogFlushInterval(long deliveryLogFlushInterval) {
+            this.deliveryLogFlushInterval = deliveryLogFlushInterval;
+            return this;
+        }
+        
+        public Builder deliveryLogBufferCapacity(int deliveryLogBufferCapacity) {
+            this.deliveryLogBufferCapacity = deliveryLogBufferCapacity;
+            return this;
+        }
+        
+        public Builder deliveryLogSpillFile(String deliveryLogSpillFile) {
+            this.deliveryLogSpillFile = deliveryLogSpillFile;
+            return this;
+        }
+        
+        public Builder authCacheTtl(long authCacheTtl) {
+            this.authCacheTtl = authCacheTtl;
+            return this;
+        }
+        
+        public Builder authCacheMaxEntries(int authCacheMaxEntries) {
+            this.authCacheMaxEntries = authCacheMaxEntries;
+            return this;
+        }
+        
+        public Builder authHashThreads(int authHashThreads) {
+            this.authHashThreads = authHashThreads;
+            return this;
+        }
+        
+        public Builder authHashQueueCapacity(int authHashQueueCapacity) {
+            this.authHashQueueCapacity = authHashQueueCapacity;
+            return this;
+        }
+        
+        public Builder partitionMonthsAhead(int partitionMonthsAhead) {
+            this.partitionMonthsAhead = partitionMonthsAhead;
+            return this;
+        }
+        
+        public Builder retentionMonths(int retentionMonths) {
+            this.retentionMonths = retentionMonths;
+            return this;
+        }
+        
+        public Builder purgeGraceDays(int purgeGraceDays) {
+            this.purgeGraceDays = purgeGraceDays;
+            return this;
+        }
+        
+        public Builder tombstoneRetentionDays(int tombstoneRetentionDays) {
+            this.tombstoneRetentionDays = tombstoneRetentionDays;
+            return this;
+        }
+        
+        public Builder purgeBatchSize(int purgeBatchSize) {
+            this.purgeBatchSize = purgeBatchSize;
+            return this;
+        }
+        
+        public Builder purgeBatchPause(long purgeBatchPause) {
+            this.purgeBatchPause = purgeBatchPause;
+            return this;
+        }
+        
+        public Builder purgeInterval(long purgeInterval) {
+            this.purgeInterval = purgeInterval;
+            return this;
+        }
+        
+        public Builder purgeMaxReplicationLag(long purgeMaxReplicationLag) {
+            this.purgeMaxReplicationLag = purgeMaxReplicationLag;
+            return this;
+        }
+        
+        public Builder purgeMaxActiveQueries(int purgeMaxActiveQueries) {
+            this.purgeMaxActiveQueries = purgeMaxActiveQueries;
+            return this;
+        }
+        
+        public Builder metricsReportInterval(long metricsReportInterval) {
+            this.metricsReportInterval = metricsReportInterval;
+            return this;
+        }
+        
         public SmtpServerConfig build() {
             return new SmtpServerConfig(this);
         }
@@ -174,6 +434,21 @@ public class SmtpServerConfig {
                 ", maxMessageSize=" + maxMessageSize +
                 ", maxRecipients=" + maxRecipients +
                 ", requireAuth=" + requireAuth +
+                ", allowPlaintextAuth=" + allowPlaintextAuth +
+                ", authFailedMaxAttempts=" + authFailedMaxAttempts +
+                ", deliveryLogBatchSize=" + deliveryLogBatchSize +
+                ", deliveryLogFlushInterval=" + deliveryLogFlushInterval +
+                ", authCacheTtl=" + authCacheTtl +
+                ", authCacheMaxEntries=" + authCacheMaxEntries +
+                ", authHashThreads=" + authHashThreads +
+                ", authHashQueueCapacity=" + authHashQueueCapacity +
+                ", partitionMonthsAhead=" + partitionMonthsAhead +
+                ", retentionMonths=" + retentionMonths +
+                ", purgeGraceDays=" + purgeGraceDays +
+                ", tombstoneRetentionDays=" + tombstoneRetentionDays +
+                ", purgeBatchSize=" + purgeBatchSize +
+                ", purgeInterval=" + purgeInterval +
+                ", metricsReportInterval=" + metricsReportInterval +
                 '}';
     }
 }
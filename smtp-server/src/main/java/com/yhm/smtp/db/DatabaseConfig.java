@@ -1,26 +1,23 @@
 package com.yhm.smtp.db;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.yhm.mail.core.data.Bulkhead;
+import com.yhm.mail.core.data.MailDatabase;
+import com.yhm.mail.core.shard.ShardRouter;
 
 import javax.sql.DataSource;
-import java.io.IOException;
-import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Properties;
 
 /**
  * 数据库配置管理类
- * 使用 HikariCP 连接池管理 PostgreSQL 连接
+ * SMTP 服务器的 {@link MailDatabase}（连接池、分片路由），按 application.properties 的 db.* 配置创建
+ *
+ * 邮箱相关的读写通过 {@link #getConnection(String)} 路由，见 {@link ShardRouter}。
+ * RCPT 查询和邮件写入各有一个 {@link Bulkhead}，上千个会话同时访问时快速返回 451 而不是在连接池上排队。
  */
 public final class DatabaseConfig {
     
-    private static final Logger log = LoggerFactory.getLogger(DatabaseConfig.class);
-    
-    private static volatile HikariDataSource dataSource;
+    private static volatile MailDatabase database;
     private static final Object LOCK = new Object();
     
     private DatabaseConfig() {
@@ -28,92 +25,75 @@ public final class DatabaseConfig {
     }
     
     /**
-     * 获取数据源
+     * 获取数据库（第一次调用时创建连接池）
      */
-    public static DataSource getDataSource() {
-        if (dataSource == null) {
+    public static MailDatabase getDatabase() {
+        if (database == null) {
             synchronized (LOCK) {
-                if (dataSource == null) {
-                    dataSource = createDataSource();
+                if (database == null) {
+                    database = MailDatabase.open("smtp.db", "SmtpMailPool", false);
                 }
             }
         }
-        return dataSource;
+        return database;
+    }
+    
+    /**
+     * 获取数据源（目录库）
+     */
+    public static DataSource getDataSource() {
+        return getDatabase().directory();
+    }
+    
+    /**
+     * 获取分片路由
+     */
+    public static ShardRouter getRouter() {
+        return getDatabase().router();
     }
     
     /**
-     * 获取数据库连接
+     * 获取目录库连接（用户、域名、队列、投递日志等全局数据）
      */
     public static Connection getConnection() throws SQLException {
-        return getDataSource().getConnection();
+        return getDatabase().getConnection();
     }
     
     /**
-     * 创建 HikariCP 数据源
+     * 获取邮箱所在分片的连接，用于读取
      */
-    private static HikariDataSource createDataSource() {
-        Properties props = loadProperties();
-        
-        HikariConfig config = new HikariConfig();
-        
-        // 基本连接配置
-        config.setJdbcUrl(props.getProperty("db.url", "jdbc:postgresql://localhost:5432/maildb"));
-        config.setUsername(props.getProperty("db.username", "postgres"));
-        config.setPassword(props.getProperty("db.password", "postgres"));
-        config.setDriverClassName("org.postgresql.Driver");
-        
-        // 连接池配置
-        config.setMaximumPoolSize(Integer.parseInt(props.getProperty("db.pool.maxSize", "20")));
-        config.setMinimumIdle(Integer.parseInt(props.getProperty("db.pool.minIdle", "5")));
-        config.setConnectionTimeout(Long.parseLong(props.getProperty("db.pool.connectionTimeout", "30000")));
-        config.setIdleTimeout(Long.parseLong(props.getProperty("db.pool.idleTimeout", "600000")));
-        config.setMaxLifetime(Long.parseLong(props.getProperty("db.pool.maxLifetime", "1800000")));
-        
-        // 连接验证
-        config.setConnectionTestQuery("SELECT 1");
-        
-        // 连接池名称
-        config.setPoolName("SmtpMailPool");
-        
-        // PostgreSQL 特定优化
-        config.addDataSourceProperty("cachePrepStmts", "true");
-        config.addDataSourceProperty("prepStmtCacheSize", "250");
-        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-        
-        log.info("初始化数据库连接池: {}", config.getJdbcUrl());
-        
-        return new HikariDataSource(config);
+    public static Connection getConnection(String owner) throws SQLException {
+        return getDatabase().getConnection(owner);
     }
     
     /**
-     * 加载配置文件
+     * 获取邮箱所在分片的连接，用于写入；邮箱迁移期间抛出 MailboxMovingException
      */
-    private static Properties loadProperties() {
-        Properties props = new Properties();
-        
-        try (InputStream is = DatabaseConfig.class.getClassLoader()
-                .getResourceAsStream("application.properties")) {
-            if (is != null) {
-                props.load(is);
-                log.info("已加载配置文件 application.properties");
-            } else {
-                log.warn("未找到配置文件 application.properties，使用默认配置");
-            }
-        } catch (IOException e) {
-            log.warn("加载配置文件失败，使用默认配置: {}", e.getMessage());
-        }
-        
-        return props;
+    public static Connection getWriteConnection(String owner) throws SQLException {
+        return getDatabase().getWriteConnection(owner);
+    }
+    
+    /**
+     * RCPT 阶段的域名、用户查询
+     */
+    public static Bulkhead rcptLookup() {
+        return getDatabase().bulkhead("rcptLookup", 8, 2000);
+    }
+    
+    /**
+     * DATA 阶段的邮件写入（所有本地收件人）
+     */
+    public static Bulkhead ingestWrite() {
+        return getDatabase().bulkhead("ingestWrite", 8, 5000);
     }
     
     /**
      * 关闭数据源
      */
     public static void shutdown() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            log.info("数据库连接池已关闭");
+        MailDatabase current = database;
+        if (current != null) {
+            current.close();
         }
     }
 }
-
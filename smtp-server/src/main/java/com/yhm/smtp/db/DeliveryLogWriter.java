@@ -0,0 +1,512 @@
+package com.yhm.smtp.db;
+
+import org.postgresql.PGConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 投递日志异步批量写入器
+ *
+ * 投递线程通过 {@link #record(DeliveryLogRecord)} 把日志交给有界无锁缓冲区后立即返回，
+ * 后台刷新线程每累计 batchSize 条或每隔 flushInterval 毫秒用多行 INSERT 写入 delivery_logs。
+ *
+ * 缓冲区已满（数据库跟不上）或写库失败时，记录以 CSV 格式追加到本地溢出文件，
+ * 启动时以及之后第一次成功写库时（数据库已恢复）通过 COPY 回放，保证每次投递尝试都有一行日志。
+ */
+public final class DeliveryLogWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryLogWriter.class);
+
+    private static final String INSERT_PREFIX = """
+            INSERT INTO delivery_logs (email_id, recipient, remote_host, remote_ip, status, smtp_code, smtp_response, created_at)
+            VALUES\s""";
+
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String COPY_SQL = """
+            COPY delivery_logs (email_id, recipient, remote_host, remote_ip, status, smtp_code, smtp_response, created_at)
+            FROM STDIN WITH (FORMAT csv)""";
+
+    // 停止时等待刷新线程写完剩余日志的最长时间，超时后剩余部分落盘
+    private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+    /**
+     * 单条投递日志
+     */
+    public record DeliveryLogRecord(
+            UUID emailId,
+            String recipient,
+            String remoteHost,
+            String remoteIp,
+            String status,
+            Integer smtpCode,
+            String smtpResponse,
+            Instant createdAt
+    ) {
+        public static DeliveryLogRecord delivered(UUID emailId, String recipient,
+                                                  String remoteHost, String remoteIp, String smtpResponse) {
+            return new DeliveryLogRecord(emailId, recipient, remoteHost, remoteIp,
+                    "delivered", 250, smtpResponse, Instant.now());
+        }
+
+        /**
+         * 未投递的尝试（RCPT 拒绝、写入失败等），按响应码分为 bounced（5xx）和 deferred（4xx）
+         *
+         * @param emailId 没有保存邮件时为 null
+         */
+        public static DeliveryLogRecord failed(UUID emailId, String recipient,
+                                               String remoteHost, String remoteIp, String smtpResponse) {
+            Integer code = parseCode(smtpResponse);
+            String status = code != null && code >= 500 ? "bounced" : "deferred";
+            return new DeliveryLogRecord(emailId, recipient, remoteHost, remoteIp,
+                    status, code, smtpResponse, Instant.now());
+        }
+
+        private static Integer parseCode(String smtpResponse) {
+            if (smtpResponse == null || smtpResponse.length() < 3) {
+                return null;
+            }
+            try {
+                return Integer.valueOf(smtpResponse.substring(0, 3));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final int capacity;
+    private final Path spillFile;
+
+    // 有界无锁缓冲区：ConcurrentLinkedQueue + CAS 计数
+    private final ConcurrentLinkedQueue<DeliveryLogRecord> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger buffered = new AtomicInteger(0);
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Thread flusher;
+    private FileChannel spillChannel;
+    // 溢出文件中有尚未回放的日志
+    private final AtomicBoolean spillPending = new AtomicBoolean(false);
+
+    // 统计
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong spilled = new AtomicLong(0);
+    private final AtomicLong flushes = new AtomicLong(0);
+
+    public DeliveryLogWriter(int batchSize, long flushIntervalMillis, int capacity, Path spillFile) {
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.capacity = Math.max(this.batchSize, capacity);
+        this.spillFile = spillFile;
+    }
+
+    /**
+     * 启动后台刷新线程，并回放上次遗留的溢出文件
+     */
+    public void start() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        spillPending.set(true);
+        replaySpillFile();
+
+        flusher = Thread.ofPlatform()
+                .name("delivery-log-flusher")
+                .daemon(true)
+                .start(this::flushLoop);
+
+        log.info("投递日志写入器已启动: batchSize={}, flushInterval={}ms, capacity={}, spillFile={}",
+                batchSize, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos), capacity, spillFile);
+    }
+
+    /**
+     * 提交一条投递日志，不会阻塞调用方等待数据库
+     */
+    public void record(DeliveryLogRecord record) {
+        if (!running.get() || !tryReserve()) {
+            spill(List.of(record));
+            return;
+        }
+
+        buffer.offer(record);
+
+        // 检查 running 之后、入队之前 stop() 可能已经取空了缓冲区，没有人再读取，自己把剩余的记录落盘
+        if (!running.get()) {
+            spillBuffered();
+            return;
+        }
+
+        // 攒够一批时唤醒刷新线程
+        if (buffered.get() >= batchSize) {
+            Thread t = flusher;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    /**
+     * CAS 预留一个缓冲槽位，超过容量返回 false
+     */
+    private boolean tryReserve() {
+        while (true) {
+            int current = buffered.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (buffered.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 刷新主循环
+     */
+    private void flushLoop() {
+        long nextDeadline = System.nanoTime() + flushIntervalNanos;
+
+        while (running.get()) {
+            long now = System.nanoTime();
+            if (buffered.get() < batchSize && now < nextDeadline) {
+                LockSupport.parkNanos(this, nextDeadline - now);
+                continue;
+            }
+
+            drainAndWrite();
+            nextDeadline = System.nanoTime() + flushIntervalNanos;
+        }
+
+        // 停止前写完剩余日志；数据库很慢时不无限等待，剩余部分由 stop() 落盘
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS);
+        while (buffered.get() > 0 && System.nanoTime() < deadline) {
+            if (!drainAndWrite()) {
+                // 计数已预留但记录还没入队
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * 取出至多一批日志并写入数据库
+     *
+     * @return 是否取到了日志
+     */
+    private boolean drainAndWrite() {
+        List<DeliveryLogRecord> batch = new ArrayList<>(Math.min(batchSize, Math.max(1, buffered.get())));
+        DeliveryLogRecord record;
+        while (batch.size() < batchSize && (record = buffer.poll()) != null) {
+            batch.add(record);
+        }
+
+        if (batch.isEmpty()) {
+            return false;
+        }
+        buffered.addAndGet(-batch.size());
+
+        try {
+            insertBatch(batch);
+            written.addAndGet(batch.size());
+            flushes.incrementAndGet();
+            log.debug("已写入 {} 条投递日志", batch.size());
+        } catch (SQLException e) {
+            log.error("批量写入投递日志失败，转存到溢出文件: {}", e.getMessage());
+            spill(batch);
+            return true;
+        }
+
+        // 数据库可写，回放之前落盘的日志
+        if (spillPending.get()) {
+            replaySpillFile();
+        }
+        return true;
+    }
+
+    /**
+     * 多行 INSERT 写入一批日志
+     */
+    private void insertBatch(List<DeliveryLogRecord> batch) throws SQLException {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (ROW_PLACEHOLDER.length() + 2));
+        sql.append(INSERT_PREFIX);
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(ROW_PLACEHOLDER);
+        }
+
+        try (Connection conn = DatabaseConfig.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+
+            int p = 1;
+            for (DeliveryLogRecord r : batch) {
+                stmt.setObject(p++, r.emailId());
+                stmt.setString(p++, r.recipient());
+                stmt.setString(p++, r.remoteHost());
+                stmt.setString(p++, r.remoteIp());
+                stmt.setString(p++, r.status());
+                if (r.smtpCode() != null) {
+                    stmt.setInt(p++, r.smtpCode());
+                } else {
+                    stmt.setNull(p++, Types.INTEGER);
+                }
+                stmt.setString(p++, r.smtpResponse());
+                stmt.setTimestamp(p++, Timestamp.from(r.createdAt()));
+            }
+
+            stmt.executeUpdate();
+        }
+    }
+
+    // ==================== 溢出文件 ====================
+
+    /**
+     * 把日志以 CSV 追加到溢出文件
+     */
+    private void spill(List<DeliveryLogRecord> records) {
+        StringBuilder sb = new StringBuilder(records.size() * 128);
+        for (DeliveryLogRecord r : records) {
+            appendCsvRow(sb, r);
+        }
+
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            // 与回放时的文件切换互斥，避免写入正在回放的文件
+            synchronized (this) {
+                FileChannel channel = spillChannel();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+            spilled.addAndGet(records.size());
+            spillPending.set(true);
+        } catch (IOException e) {
+            log.error("写入投递日志溢出文件失败，丢弃 {} 条日志: {}", records.size(), e.getMessage());
+        }
+    }
+
+    private synchronized FileChannel spillChannel() throws IOException {
+        if (spillChannel == null || !spillChannel.isOpen()) {
+            Path parent = spillFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            spillChannel = FileChannel.open(spillFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return spillChannel;
+    }
+
+    /**
+     * 通过 COPY 回放溢出文件
+     *
+     * 先把溢出文件改名为 .replaying，回放期间新的溢出写入新文件；
+     * 上次因连不上数据库而未回放的 .replaying 文件先回放，不会被覆盖。COPY 是单条语句，要么全部写入要么全部不写。
+     * COPY 因文件内容失败时（崩溃时写了一半的最后一行、无法写入的行）重试不会成功，
+     * 把文件改名为 .failed-时间戳 留待人工处理，之后的溢出照常回放。
+     */
+    private void replaySpillFile() {
+        spillPending.set(false);
+        Path replaying = spillFile.resolveSibling(spillFile.getFileName() + ".replaying");
+
+        if (!Files.exists(replaying)) {
+            synchronized (this) {
+                if (!Files.exists(spillFile)) {
+                    return;
+                }
+                closeSpillChannel();
+                try {
+                    Files.move(spillFile, replaying, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    log.warn("无法准备回放投递日志溢出文件: {}", e.getMessage());
+                    spillPending.set(true);
+                    return;
+                }
+            }
+        }
+
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            long rows = -1;
+            try (Reader reader = Files.newBufferedReader(replaying, StandardCharsets.UTF_8)) {
+                rows = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL, reader);
+            } catch (SQLException e) {
+                if (isConnectionError(e)) {
+                    throw e;
+                }
+                setAside(replaying, e.getMessage());
+            } catch (IOException e) {
+                // 关闭文件时的错误不影响已经写入的数据
+                if (rows < 0) {
+                    setAside(replaying, e.getMessage());
+                }
+            }
+            if (rows >= 0) {
+                deleteReplayed(replaying, rows);
+            }
+        } catch (SQLException e) {
+            log.warn("数据库不可用，稍后回放投递日志溢出文件 {}: {}", replaying, e.getMessage());
+            spillPending.set(true);
+            return;
+        }
+
+        // 回放期间又有新的溢出
+        if (Files.exists(spillFile)) {
+            spillPending.set(true);
+        }
+    }
+
+    private static void deleteReplayed(Path replaying, long rows) {
+        log.info("已从溢出文件回放 {} 条投递日志", rows);
+        try {
+            Files.delete(replaying);
+        } catch (IOException e) {
+            // 已经写入数据库，不能再次回放
+            setAside(replaying, "回放后无法删除: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 无法回放的溢出文件改名为 .failed-时间戳，不再自动回放
+     */
+    private static void setAside(Path replaying, String reason) {
+        Path failed = replaying.resolveSibling(replaying.getFileName().toString()
+                .replace(".replaying", ".failed-" + System.currentTimeMillis()));
+        try {
+            Files.move(replaying, failed, StandardCopyOption.ATOMIC_MOVE);
+            log.error("回放投递日志溢出文件失败，已移到 {} 待人工处理: {}", failed, reason);
+        } catch (IOException e) {
+            log.error("回放投递日志溢出文件失败，且无法移走 {}（{}）: {}", replaying, e.getMessage(), reason);
+        }
+    }
+
+    /**
+     * 连接类错误（SQLSTATE 08xxx）：数据库恢复后重试可能成功
+     */
+    private static boolean isConnectionError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    private synchronized void closeSpillChannel() {
+        if (spillChannel != null) {
+            try {
+                spillChannel.close();
+            } catch (IOException e) {
+                log.debug("关闭溢出文件时出错: {}", e.getMessage());
+            }
+            spillChannel = null;
+        }
+    }
+
+    private static void appendCsvRow(StringBuilder sb, DeliveryLogRecord r) {
+        appendCsvField(sb, r.emailId() != null ? r.emailId().toString() : null).append(',');
+        appendCsvField(sb, r.recipient()).append(',');
+        appendCsvField(sb, r.remoteHost()).append(',');
+        appendCsvField(sb, r.remoteIp()).append(',');
+        appendCsvField(sb, r.status()).append(',');
+        appendCsvField(sb, r.smtpCode() != null ? r.smtpCode().toString() : null).append(',');
+        appendCsvField(sb, r.smtpResponse()).append(',');
+        appendCsvField(sb, r.createdAt().toString()).append('\n');
+    }
+
+    /**
+     * CSV 字段：null 输出为空（COPY 视为 NULL），其余加引号转义
+     */
+    private static StringBuilder appendCsvField(StringBuilder sb, String value) {
+        if (value == null) {
+            return sb;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        return sb.append('"');
+    }
+
+    // ==================== 生命周期与统计 ====================
+
+    /**
+     * 停止刷新线程，写完缓冲区中剩余的日志
+     */
+    public void stop() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+
+        Thread t = flusher;
+        if (t != null) {
+            LockSupport.unpark(t);
+            try {
+                t.join(STOP_TIMEOUT_MILLIS + TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 刷新线程未能写完的部分落盘
+        spillBuffered();
+
+        closeSpillChannel();
+
+        log.info("投递日志写入器已停止: 写入 {} 条, 溢出 {} 条, 刷新 {} 次",
+                written.get(), spilled.get(), flushes.get());
+    }
+
+    /**
+     * 取出缓冲区中的全部日志写入溢出文件
+     */
+    private void spillBuffered() {
+        List<DeliveryLogRecord> remaining = new ArrayList<>();
+        DeliveryLogRecord record;
+        while ((record = buffer.poll()) != null) {
+            remaining.add(record);
+        }
+        if (!remaining.isEmpty()) {
+            buffered.addAndGet(-remaining.size());
+            spill(remaining);
+        }
+    }
+
+    public int getBufferedCount() {
+        return buffered.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+}
@@ -0,0 +1,124 @@
+package com.yhm.smtp.db;
+
+import com.yhm.mail.core.shard.ShardRouter;
+import com.yhm.mail.core.util.EmailParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * 旧邮件正文回填
+ *
+ * 正文按 MIME 解码（见 {@link EmailParser#extractText}）之前投递的邮件，emails.body 中是未解码的正文
+ * （base64、quoted-printable、HTML 标签和附件内容），管理后台的显示和全文检索都不准确。
+ * 本工具按 (received_at, id) 顺序分批读取 raw_content 重新解码，结果不同时更新 body，
+ * search_vector 由触发器随 body 重新计算。
+ *
+ * 每批在一个短事务中更新，服务器无需停机；已解码的邮件结果不变，不会重复更新，中断后可以直接重新执行。
+ * 已冻结待分离的过期分区上的更新由 freeze_expired_emails 触发器忽略。
+ */
+public class EmailBodyBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailBodyBackfill.class);
+
+    private static final String SELECT_BATCH_SQL = """
+            SELECT id, received_at, body, raw_content FROM emails
+            WHERE (received_at, id) > (?, ?) AND received_at < ?
+            ORDER BY received_at, id
+            LIMIT ?
+            """;
+
+    private static final String UPDATE_BODY_SQL = "UPDATE emails SET body = ? WHERE id = ? AND received_at = ?";
+
+    /**
+     * @param scanned 读取的邮件数
+     * @param updated 正文有变化并已更新的邮件数
+     */
+    public record Result(long scanned, long updated) {
+        Result plus(Result other) {
+            return new Result(scanned + other.scanned, updated + other.updated);
+        }
+    }
+
+    private final int batchSize;
+
+    /**
+     * @param batchSize 每批读取的邮件数
+     */
+    public EmailBodyBackfill(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * 依次回填每个分片上 before 之前投递的邮件
+     */
+    public Result run(ShardRouter router, OffsetDateTime before) throws SQLException {
+        Result total = new Result(0, 0);
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            Result result = run(router.shard(shard), before);
+            log.info("分片 {} 正文回填完成：读取 {} 封，更新 {} 封", shard, result.scanned(), result.updated());
+            total = total.plus(result);
+        }
+        return total;
+    }
+
+    private Result run(DataSource dataSource, OffsetDateTime before) throws SQLException {
+        OffsetDateTime lastReceived = OffsetDateTime.MIN;
+        UUID lastId = new UUID(0, 0);
+        long scanned = 0;
+        long updated = 0;
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement select = conn.prepareStatement(SELECT_BATCH_SQL);
+                 PreparedStatement update = conn.prepareStatement(UPDATE_BODY_SQL)) {
+                while (true) {
+                    select.setObject(1, lastReceived);
+                    select.setObject(2, lastId);
+                    select.setObject(3, before);
+                    select.setInt(4, batchSize);
+
+                    int rows = 0;
+                    int changed = 0;
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            rows++;
+                            lastId = rs.getObject("id", UUID.class);
+                            lastReceived = rs.getObject("received_at", OffsetDateTime.class);
+                            String body = EmailParser.extractText(rs.getString("raw_content"));
+                            if (!Objects.equals(body, rs.getString("body"))) {
+                                update.setString(1, body);
+                                update.setObject(2, lastId);
+                                update.setObject(3, lastReceived);
+                                update.addBatch();
+                                changed++;
+                            }
+                        }
+                    }
+                    if (changed > 0) {
+                        update.executeBatch();
+                    }
+                    conn.commit();
+
+                    scanned += rows;
+                    updated += changed;
+                    if (rows < batchSize) {
+                        return new Result(scanned, updated);
+                    }
+                    log.debug("正文回填进度：读取 {} 封，更新 {} 封，当前位置 {}", scanned, updated, lastReceived);
+                }
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+}
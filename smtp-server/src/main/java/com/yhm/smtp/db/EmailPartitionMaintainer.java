@@ -0,0 +1,257 @@
+package com.yhm.smtp.db;
+
+import com.yhm.mail.core.shard.ShardRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * emails 分区维护
+ *
+ * 后台守护线程在启动时和之后每天执行一次：
+ * 1. ensure_email_partitions 提前创建未来几个月的月分区（emails 没有默认分区）；
+ * 2. 配置了保留月数时，删除过期的整月分区，代替逐行 DELETE（不产生大量死元组，也不需要 VACUUM 回收）。
+ *
+ * 每个过期分区分三步，各自单独提交：
+ * - settle_email_partition：分区仍挂在 emails 上时冻结写入，扫描一次结算容量、邮箱汇总和墓碑；
+ * - DETACH PARTITION CONCURRENTLY：不在 emails 上持有 ACCESS EXCLUSIVE 锁，投递和查询照常进行；
+ *   旧库仍有 emails_default 时 PostgreSQL 不允许 CONCURRENTLY，退回普通 DETACH，
+ *   此时只改系统表，并用 lock_timeout 限制排队时间，超时留到下次
+ *   （去掉默认分区见 migrations/drop_email_default_partition.sql）；
+ * - DROP TABLE。
+ * 中途失败时下次从未完成的一步继续：已冻结的分区不会重复结算，
+ * 上次中断的 CONCURRENTLY 分离用 FINALIZE 完成，已分离未删除的分区直接删除。
+ *
+ * 每个分片都有自己的 emails 分区，逐个分片维护，一个分片失败不影响其他分片。
+ */
+public class EmailPartitionMaintainer {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailPartitionMaintainer.class);
+
+    private static final long INTERVAL_NANOS = TimeUnit.DAYS.toNanos(1);
+
+    /**
+     * 有默认分区时普通 DETACH 等待 emails 上锁的最长时间
+     */
+    private static final String DETACH_LOCK_TIMEOUT = "5s";
+
+    private static final String EXPIRED_PARTITIONS_SQL = """
+            SELECT c.relname, i.inhdetachpending
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = 'emails'::regclass
+              AND c.relname ~ '^emails_y[0-9]{4}m[0-9]{2}$'
+              AND to_date(substr(c.relname, 9, 4) || substr(c.relname, 14, 2), 'YYYYMM')
+                  + INTERVAL '1 month' <= ?
+            ORDER BY c.relname
+            """;
+
+    /**
+     * 已结算并分离、还没有删除的分区（带冻结触发器且不再是 emails 的分区）
+     */
+    private static final String DETACHED_PARTITIONS_SQL = """
+            SELECT c.relname
+            FROM pg_class c
+            WHERE c.relkind = 'r'
+              AND NOT c.relispartition
+              AND c.relname ~ '^emails_y[0-9]{4}m[0-9]{2}$'
+              AND EXISTS (SELECT 1 FROM pg_trigger t
+                          WHERE t.tgrelid = c.oid AND t.tgname = 'freeze_expired_emails')
+            ORDER BY c.relname
+            """;
+
+    private static final String HAS_DEFAULT_PARTITION_SQL =
+            "SELECT partdefid <> 0 FROM pg_partitioned_table WHERE partrelid = 'emails'::regclass";
+
+    private final int monthsAhead;
+    private final int retentionMonths;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param monthsAhead 提前创建的分区月数
+     * @param retentionMonths 保留的完整月数（不含当前月），0 表示不删除
+     */
+    public EmailPartitionMaintainer(int monthsAhead, int retentionMonths) {
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform()
+                .name("email-partition-maintainer")
+                .daemon(true)
+                .start(this::loop);
+    }
+
+    private void loop() {
+        while (running) {
+            runOnce();
+            LockSupport.parkNanos(this, INTERVAL_NANOS);
+        }
+    }
+
+    /**
+     * 立即执行一次维护
+     */
+    public void runOnce() {
+        ShardRouter router = DatabaseConfig.getRouter();
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            maintain(shard, router.shard(shard));
+        }
+    }
+
+    private void maintain(int shard, DataSource dataSource) {
+        try {
+            int created = ensurePartitions(dataSource);
+            if (created > 0) {
+                log.info("分片 {} 已创建 {} 个邮件分区", shard, created);
+            }
+            if (retentionMonths > 0) {
+                List<String> dropped = dropExpiredPartitions(dataSource);
+                if (!dropped.isEmpty()) {
+                    log.info("分片 {} 已删除过期邮件分区: {}", shard, dropped);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("分片 {} 邮件分区维护失败: {}", shard, e.getMessage(), e);
+        }
+    }
+
+    private int ensurePartitions(DataSource dataSource) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT ensure_email_partitions(0, ?)")) {
+            stmt.setInt(1, monthsAhead);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private List<String> dropExpiredPartitions(DataSource dataSource) throws SQLException {
+        LocalDate cutoff = LocalDate.now(ZoneOffset.UTC)
+                .withDayOfMonth(1)
+                .minusMonths(retentionMonths);
+
+        // 各步骤都在自动提交下执行：DETACH CONCURRENTLY 不能在事务块中
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(true);
+            boolean concurrently = !hasDefaultPartition(conn);
+            for (Map.Entry<String, Boolean> expired : expiredPartitions(conn, Date.valueOf(cutoff)).entrySet()) {
+                String name = expired.getKey();
+                if (expired.getValue()) {
+                    execute(conn, "ALTER TABLE emails DETACH PARTITION " + quote(name) + " FINALIZE");
+                    continue;
+                }
+                settle(conn, name);
+                detach(conn, name, concurrently);
+            }
+
+            List<String> dropped = detachedPartitions(conn);
+            for (String name : dropped) {
+                execute(conn, "DROP TABLE " + quote(name));
+            }
+            return dropped;
+        }
+    }
+
+    private static boolean hasDefaultPartition(Connection conn) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(HAS_DEFAULT_PARTITION_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * 过期分区名及其是否处于未完成的 CONCURRENTLY 分离状态
+     */
+    private static Map<String, Boolean> expiredPartitions(Connection conn, Date cutoff) throws SQLException {
+        Map<String, Boolean> partitions = new LinkedHashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(EXPIRED_PARTITIONS_SQL)) {
+            stmt.setDate(1, cutoff);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    partitions.put(rs.getString(1), rs.getBoolean(2));
+                }
+            }
+        }
+        return partitions;
+    }
+
+    private static List<String> detachedPartitions(Connection conn) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(DETACHED_PARTITIONS_SQL);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                partitions.add(rs.getString(1));
+            }
+        }
+        return partitions;
+    }
+
+    /**
+     * 冻结并结算仍挂在 emails 上的分区，已结算过的跳过
+     */
+    private static void settle(Connection conn, String name) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT settle_email_partition(?)")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getBoolean(1)) {
+                    log.info("邮件分区 {} 已冻结并结算", name);
+                }
+            }
+        }
+    }
+
+    private static void detach(Connection conn, String name, boolean concurrently) throws SQLException {
+        if (concurrently) {
+            execute(conn, "ALTER TABLE emails DETACH PARTITION " + quote(name) + " CONCURRENTLY");
+            return;
+        }
+        execute(conn, "SET lock_timeout = '" + DETACH_LOCK_TIMEOUT + "'");
+        try {
+            execute(conn, "ALTER TABLE emails DETACH PARTITION " + quote(name));
+        } finally {
+            execute(conn, "RESET lock_timeout");
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    /**
+     * 分区名来自系统表且已按 emails_yYYYYmMM 过滤，加引号即可
+     */
+    private static String quote(String name) {
+        return '"' + name + '"';
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package com.yhm.smtp.db;
+
+import com.yhm.mail.core.metrics.LatencyHistogram;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.mail.core.shard.ShardRouter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 软删除邮件的后台清理
+ *
+ * POP3 DELE、IMAP EXPUNGE 和管理后台只把邮件标记为 is_deleted（用户用量在标记时已经释放），
+ * 本任务把软删除超过宽限期的邮件物理删除：
+ * 1. 按 deleted_at 顺序每次取最早的 batchSize 行，在一个短事务中先按 owner 顺序取这些邮箱的 advisory lock
+ *    再删除；墓碑、邮箱汇总和变更通知由 emails 上的触发器维护；
+ * 2. 每批之后至少暂停 batchPause，且不短于该批的执行时间，数据库变慢时清理自动放慢；
+ * 3. 每批之前检查主库的复制延迟和活跃查询数，超过阈值时暂停，恢复后再继续；
+ * 4. 所有分片的积压清理完后，等待 interval 开始下一轮。
+ *
+ * 物理删除留下的墓碑（email_tombstones）供增量同步的客户端删除本地副本，同样按批删除超过
+ * tombstoneRetentionDays 的部分，并在 email_tombstone_floors 中记录每个邮箱已清理的最大 modseq：
+ * 游标小于该值的客户端可能错过了删除，/api/mail/changes 要求它全量同步。
+ *
+ * 指标：smtp.purge.deleted / smtp.purge.bytes（已删除的邮件数和字节数）、
+ * smtp.purge.tombstones（已清理的墓碑数）、
+ * smtp.purge.batch（每批耗时）、smtp.purge.throttled（因复制延迟或负载暂停的次数）、
+ * smtp.purge.backlog（本轮剩余的待删除邮件数）。
+ */
+public class EmailPurger {
+
+    private static final Logger log = LoggerFactory.getLogger(EmailPurger.class);
+
+    // 复制延迟或负载超过阈值时，等待多久再检查
+    private static final long THROTTLE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    // 删除触发器（墓碑、邮箱汇总）按邮件取所在邮箱的 advisory lock，一批里的邮件按 deleted_at 排列、
+    // 跨多个邮箱，逐行加锁的顺序不确定，会与 IMAP/POP3 等同时持有多个邮箱锁的事务死锁。
+    // 先按 owner 排序取齐这一批涉及的邮箱锁（locked 作为 DELETE 条件中的 InitPlan，在删除第一行之前执行），
+    // 之后触发器再取同一把锁不会等待；取锁期间被恢复的邮件由 is_deleted 复核跳过
+    private static final String PURGE_BATCH_SQL = """
+            WITH batch AS MATERIALIZED (
+                SELECT id, received_at, owner FROM emails
+                WHERE is_deleted = true AND deleted_at < ?
+                ORDER BY deleted_at
+                LIMIT ?
+            ), locked AS MATERIALIZED (
+                SELECT count(pg_advisory_xact_lock(1229799760, hashtext(owner))) AS owners
+                FROM (SELECT DISTINCT owner FROM batch ORDER BY owner) o
+            ), purged AS (
+                DELETE FROM emails e USING batch b
+                WHERE e.id = b.id AND e.received_at = b.received_at AND e.is_deleted = true
+                  AND (SELECT owners FROM locked) IS NOT NULL
+                RETURNING e.size
+            )
+            SELECT COUNT(*), COALESCE(SUM(size), 0) FROM purged
+            """;
+
+    // 墓碑按 deleted_at 顺序删除，同一邮箱的墓碑 modseq 也按时间递增，先删掉的总是较小的 modseq。
+    // 水位行按 owner 排序写入，多个 SMTP 服务器同时清理时加锁顺序一致
+    private static final String PRUNE_TOMBSTONES_SQL = """
+            WITH batch AS (
+                SELECT owner, modseq FROM email_tombstones
+                WHERE deleted_at < ?
+                ORDER BY deleted_at
+                LIMIT ?
+            ), pruned AS (
+                DELETE FROM email_tombstones t USING batch b
+                WHERE t.owner = b.owner AND t.modseq = b.modseq
+                RETURNING t.owner, t.modseq
+            ), floors AS (
+                INSERT INTO email_tombstone_floors AS f (owner, modseq)
+                SELECT owner, MAX(modseq) FROM pruned GROUP BY owner ORDER BY owner
+                ON CONFLICT (owner) DO UPDATE SET modseq = GREATEST(f.modseq, EXCLUDED.modseq)
+                RETURNING 1
+            )
+            SELECT COUNT(*) FROM pruned
+            """;
+
+    private static final String BACKLOG_SQL =
+            "SELECT COUNT(*) FROM emails WHERE is_deleted = true AND deleted_at < ?";
+
+    // 备库的回放延迟（没有备库或备库空闲时为 0）和其他客户端的活跃查询数
+    private static final String LOAD_SQL = """
+            SELECT
+                (SELECT COALESCE(MAX(EXTRACT(EPOCH FROM replay_lag) * 1000), 0)::bigint
+                 FROM pg_stat_replication),
+                (SELECT COUNT(*) FROM pg_stat_activity
+                 WHERE state = 'active' AND backend_type = 'client backend' AND pid <> pg_backend_pid())
+            """;
+
+    private final int graceDays;
+    private final int tombstoneRetentionDays;
+    private final int batchSize;
+    private final long batchPauseNanos;
+    private final long intervalNanos;
+    private final long maxReplicationLagMillis;
+    private final int maxActiveQueries;
+
+    private final LongAdder deletedMessages;
+    private final LongAdder deletedBytes;
+    private final LongAdder prunedTombstones;
+    private final LongAdder throttled;
+    private final LatencyHistogram batchLatency;
+    private final AtomicLong backlog = new AtomicLong();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param graceDays 软删除后保留的天数
+     * @param tombstoneRetentionDays 墓碑保留的天数，0 表示不清理
+     * @param batchSize 每批删除的邮件数
+     * @param batchPauseMillis 两批之间的最短暂停
+     * @param intervalMillis 两轮清理之间的间隔
+     * @param maxReplicationLagMillis 备库回放延迟超过该值时暂停
+     * @param maxActiveQueries 其他客户端的活跃查询数超过该值时暂停
+     */
+    public EmailPurger(int graceDays, int tombstoneRetentionDays, int batchSize, long batchPauseMillis,
+                       long intervalMillis, long maxReplicationLagMillis, int maxActiveQueries) {
+        this.graceDays = graceDays;
+        this.tombstoneRetentionDays = tombstoneRetentionDays;
+        this.batchSize = batchSize;
+        this.batchPauseNanos = TimeUnit.MILLISECONDS.toNanos(batchPauseMillis);
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxReplicationLagMillis = maxReplicationLagMillis;
+        this.maxActiveQueries = maxActiveQueries;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        this.deletedMessages = metrics.counter("smtp.purge.deleted");
+        this.deletedBytes = metrics.counter("smtp.purge.bytes");
+        this.prunedTombstones = metrics.counter("smtp.purge.tombstones");
+        this.throttled = metrics.counter("smtp.purge.throttled");
+        this.batchLatency = metrics.histogram("smtp.purge.batch");
+        metrics.gauge("smtp.purge.backlog", backlog::get);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = Thread.ofPlatform()
+                .name("email-purger")
+                .daemon(true)
+                .start(this::loop);
+        log.info("软删除邮件清理已启动: 宽限期 {} 天, 墓碑保留 {} 天, 每批 {} 封",
+                graceDays, tombstoneRetentionDays, batchSize);
+    }
+
+    private void loop() {
+        while (running) {
+            runOnce();
+            LockSupport.parkNanos(this, intervalNanos);
+        }
+    }
+
+    /**
+     * 清理所有分片上超过宽限期的软删除邮件（停止后在当前批次结束时返回）
+     * @return 本轮删除的邮件数
+     */
+    private long runOnce() {
+        Instant cutoff = Instant.now().minus(graceDays, ChronoUnit.DAYS);
+        ShardRouter router = DatabaseConfig.getRouter();
+
+        long total = 0;
+        for (int shard = 0; shard < router.shardCount(); shard++) {
+            try {
+                total += countBacklog(router.shard(shard), cutoff);
+            } catch (SQLException e) {
+                log.warn("分片 {} 统计待清理邮件失败: {}", shard, e.getMessage());
+            }
+        }
+        backlog.set(total);
+
+        long purged = 0;
+        for (int shard = 0; shard < router.shardCount() && running; shard++) {
+            try {
+                purged += purgeShard(router.shard(shard), cutoff);
+            } catch (SQLException e) {
+                log.error("分片 {} 清理软删除邮件失败: {}", shard, e.getMessage(), e);
+            }
+        }
+        if (purged > 0) {
+            log.info("已清理 {} 封软删除邮件", purged);
+        }
+
+        if (tombstoneRetentionDays > 0) {
+            Instant tombstoneCutoff = Instant.now().minus(tombstoneRetentionDays, ChronoUnit.DAYS);
+            long pruned = 0;
+            for (int shard = 0; shard < router.shardCount() && running; shard++) {
+                try {
+                    pruned += pruneTombstones(router.shard(shard), tombstoneCutoff);
+                } catch (SQLException e) {
+                    log.error("分片 {} 清理墓碑失败: {}", shard, e.getMessage(), e);
+                }
+            }
+            if (pruned > 0) {
+                log.info("已清理 {} 条过期墓碑", pruned);
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * 分批删除 cutoff 之前的墓碑，节流方式与邮件清理相同
+     * @return 删除的墓碑数
+     */
+    private long pruneTombstones(DataSource dataSource, Instant cutoff) throws SQLException {
+        long pruned = 0;
+        while (running) {
+            if (!awaitCapacity(dataSource)) {
+                break;
+            }
+
+            long start = System.nanoTime();
+            int deleted;
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(PRUNE_TOMBSTONES_SQL)) {
+                stmt.setTimestamp(1, Timestamp.from(cutoff));
+                stmt.setInt(2, batchSize);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    rs.next();
+                    deleted = rs.getInt(1);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+
+            pruned += deleted;
+            prunedTombstones.add(deleted);
+            if (deleted < batchSize) {
+                break;
+            }
+            LockSupport.parkNanos(this, Math.max(batchPauseNanos, elapsed));
+        }
+        return pruned;
+    }
+
+    private long purgeShard(DataSource dataSource, Instant cutoff) throws SQLException {
+        long purged = 0;
+        while (running) {
+            if (!awaitCapacity(dataSource)) {
+                break;
+            }
+
+            long start = System.nanoTime();
+            int deleted = purgeBatch(dataSource, cutoff);
+            long elapsed = System.nanoTime() - start;
+            batchLatency.record(elapsed);
+
+            purged += deleted;
+            backlog.updateAndGet(value -> Math.max(value - deleted, 0));
+            if (deleted < batchSize) {
+                break;
+            }
+            LockSupport.parkNanos(this, Math.max(batchPauseNanos, elapsed));
+        }
+        return purged;
+    }
+
+    /**
+     * 删除一批邮件
+     * @return 删除的邮件数
+     */
+    private int purgeBatch(DataSource dataSource, Instant cutoff) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(PURGE_BATCH_SQL)) {
+            stmt.setTimestamp(1, Timestamp.from(cutoff));
+            stmt.setInt(2, batchSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                int deleted = rs.getInt(1);
+                deletedMessages.add(deleted);
+                deletedBytes.add(rs.getLong(2));
+                return deleted;
+            }
+        }
+    }
+
+    /**
+     * 等待复制延迟和活跃查询数回到阈值以内
+     * @return false 表示等待期间已停止
+     */
+    private boolean awaitCapacity(DataSource dataSource) throws SQLException {
+        while (running) {
+            long lagMillis;
+            long activeQueries;
+            try (Connection conn = dataSource.getConnection();
+                 Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(LOAD_SQL)) {
+                rs.next();
+                lagMillis = rs.getLong(1);
+                activeQueries = rs.getLong(2);
+            }
+            if (lagMillis <= maxReplicationLagMillis && activeQueries <= maxActiveQueries) {
+                return true;
+            }
+            throttled.increment();
+            log.debug("暂停清理: 复制延迟 {}ms, 活跃查询 {}", lagMillis, activeQueries);
+            LockSupport.parkNanos(this, THROTTLE_BACKOFF_NANOS);
+        }
+        return false;
+    }
+
+    private long countBacklog(DataSource dataSource, Instant cutoff) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(BACKLOG_SQL)) {
+            stmt.setTimestamp(1, Timestamp.from(cutoff));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+}
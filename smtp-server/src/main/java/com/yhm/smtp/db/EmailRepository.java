@@ -1,10 +1,16 @@
 package com.yhm.smtp.db;
 
+import com.yhm.mail.core.data.EmailMapper;
+import com.yhm.mail.core.data.NamedQuery;
 import com.yhm.mail.core.model.Email;
+import com.yhm.mail.core.util.MessageLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.sql.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -15,11 +21,53 @@ import java.util.UUID;
 /**
  * 邮件数据访问对象
  * 负责邮件的增删改查操作
+ *
+ * 邮件按所有者分片：按所有者的读写路由到邮箱所在分片，只有 ID 的操作在所有分片上执行；
+ * 用户和域名查询只访问目录库。
+ * 语句都是 {@link NamedQuery}，延迟和行数记录在 db.smtp.* 指标中。
  */
 public class EmailRepository {
     
     private static final Logger log = LoggerFactory.getLogger(EmailRepository.class);
     
+    private static final NamedQuery SAVE = NamedQuery.of("smtp.saveEmail", """
+            INSERT INTO emails (id, sender, recipients, subject, body, raw_content, size, received_at, is_read, is_deleted, owner,
+                                header_length, body_line_offsets)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (id, received_at) DO UPDATE SET
+                is_read = EXCLUDED.is_read,
+                is_deleted = EXCLUDED.is_deleted
+            RETURNING id
+            """);
+    
+    private static final NamedQuery FIND_BY_ID = NamedQuery.of("smtp.findEmailById",
+            "SELECT " + EmailMapper.ALL.columns() + " FROM emails WHERE id = ? AND is_deleted = false");
+    
+    private static final NamedQuery FIND_BY_OWNER = NamedQuery.of("smtp.findEmailsByOwner",
+            "SELECT " + EmailMapper.ALL.columns()
+                    + " FROM emails WHERE owner = ? AND is_deleted = false ORDER BY received_at DESC");
+    
+    private static final NamedQuery COUNT_UNREAD = NamedQuery.of("smtp.countUnread",
+            "SELECT unread_count FROM mailbox_summary WHERE owner = ?");
+    
+    private static final NamedQuery MARK_READ = NamedQuery.of("smtp.markRead",
+            "UPDATE emails SET is_read = true WHERE id = ?");
+    
+    private static final NamedQuery MARK_DELETED = NamedQuery.of("smtp.markDeleted",
+            "UPDATE emails SET is_deleted = true WHERE id = ?");
+    
+    private static final NamedQuery DELETE = NamedQuery.of("smtp.deleteEmail",
+            "DELETE FROM emails WHERE id = ?");
+    
+    private static final NamedQuery IS_LOCAL_DOMAIN = NamedQuery.of("smtp.isLocalDomain",
+            "SELECT 1 FROM mail_domains WHERE domain = ? AND is_local = true AND is_enabled = true");
+    
+    private static final NamedQuery PASSWORD_HASH = NamedQuery.of("smtp.passwordHash",
+            "SELECT password_hash FROM users WHERE email = ? AND is_enabled = true");
+    
+    private static final NamedQuery USER_EXISTS = NamedQuery.of("smtp.userExists",
+            "SELECT 1 FROM users WHERE email = ? AND is_enabled = true");
+    
     /**
      * 保存邮件
      *
@@ -27,41 +75,44 @@ public class EmailRepository {
      * @return 保存后的邮件（包含生成的ID）
      */
     public Email save(Email email) throws SQLException {
-        String sql = """
-            INSERT INTO emails (id, sender, recipients, subject, body, raw_content, size, received_at, is_read, is_deleted, owner)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-            ON CONFLICT (id) DO UPDATE SET
-                is_read = EXCLUDED.is_read,
-                is_deleted = EXCLUDED.is_deleted
-            RETURNING id
-            """;
+        // 邮箱第一次投递到非目录分片时，先在该分片上准备 users 行
+        DatabaseConfig.getRouter().ensureMailbox(email.getOwner());
         
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            UUID id = email.getId() != null ? email.getId() : UUID.randomUUID();
-            
-            stmt.setObject(1, id);
-            stmt.setString(2, email.getSender());
-            stmt.setArray(3, conn.createArrayOf("varchar", email.getRecipients().toArray()));
-            stmt.setString(4, email.getSubject());
-            stmt.setString(5, email.getBody());
-            stmt.setString(6, email.getRawContent());
-            stmt.setLong(7, email.getSize());
-            stmt.setTimestamp(8, Timestamp.from(email.getReceivedAt() != null ? email.getReceivedAt() : Instant.now()));
-            stmt.setBoolean(9, email.isRead());
-            stmt.setBoolean(10, email.isDeleted());
-            stmt.setString(11, email.getOwner());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    email.setId(rs.getObject(1, UUID.class));
+        UUID id = email.getId() != null ? email.getId() : UUID.randomUUID();
+        // received_at 是分区键，也是主键的一部分，必须在插入前确定
+        if (email.getReceivedAt() == null) {
+            email.setReceivedAt(Instant.now());
+        }
+        
+        try (Connection conn = DatabaseConfig.getWriteConnection(email.getOwner())) {
+            SAVE.first(conn, stmt -> {
+                stmt.setObject(1, id);
+                stmt.setString(2, email.getSender());
+                stmt.setArray(3, conn.createArrayOf("varchar", email.getRecipients().toArray()));
+                stmt.setString(4, email.getSubject());
+                stmt.setString(5, email.getBody());
+                stmt.setString(6, email.getRawContent());
+                stmt.setLong(7, email.getSize());
+                stmt.setTimestamp(8, Timestamp.from(email.getReceivedAt()));
+                stmt.setBoolean(9, email.isRead());
+                stmt.setBoolean(10, email.isDeleted());
+                stmt.setString(11, email.getOwner());
+                
+                // 头部长度与正文行偏移，供 POP3 TOP 按字节范围读取
+                MessageLayout layout = email.getLayout();
+                if (layout != null) {
+                    stmt.setInt(12, layout.headerLength());
+                    stmt.setArray(13, conn.createArrayOf("integer",
+                            Arrays.stream(layout.bodyLineOffsets()).boxed().toArray()));
+                } else {
+                    stmt.setNull(12, Types.INTEGER);
+                    stmt.setNull(13, Types.ARRAY);
                 }
-            }
-            
-            log.debug("邮件已保存: id={}, from={}, to={}", id, email.getSender(), email.getRecipients());
-            return email;
+            }, rs -> rs.getObject(1, UUID.class)).ifPresent(email::setId);
         }
+        
+        log.debug("邮件已保存: id={}, from={}, to={}", id, email.getSender(), email.getRecipients());
+        return email;
     }
     
     /**
@@ -86,6 +137,7 @@ public class EmailRepository {
                     .read(false)
                     .deleted(false)
                     .owner(recipient)
+                    .layout(email.getLayout())
                     .build();
             
             savedEmails.add(save(copy));
@@ -95,174 +147,95 @@ public class EmailRepository {
     }
     
     /**
-     * 根据ID查询邮件
+     * 根据ID查询邮件（在所有分片上查找）
      */
     public Optional<Email> findById(UUID id) throws SQLException {
-        String sql = "SELECT * FROM emails WHERE id = ? AND is_deleted = false";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.of(mapResultSetToEmail(rs));
-                }
+        List<Optional<Email>> found = DatabaseConfig.getRouter().fanOut((shard, dataSource) -> {
+            try (Connection conn = dataSource.getConnection()) {
+                return FIND_BY_ID.first(conn, NamedQuery.params(id), EmailMapper.ALL);
             }
-        }
+        });
         
-        return Optional.empty();
+        return found.stream().flatMap(Optional::stream).findFirst();
     }
     
     /**
      * 查询用户的所有邮件
      */
     public List<Email> findByOwner(String owner) throws SQLException {
-        String sql = "SELECT * FROM emails WHERE owner = ? AND is_deleted = false ORDER BY received_at DESC";
-        
-        List<Email> emails = new ArrayList<>();
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, owner);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    emails.add(mapResultSetToEmail(rs));
-                }
-            }
+        try (Connection conn = DatabaseConfig.getConnection(owner)) {
+            return FIND_BY_OWNER.list(conn, NamedQuery.params(owner), EmailMapper.ALL);
         }
-        
-        return emails;
     }
     
     /**
-     * 查询用户未读邮件数量
+     * 查询用户未读邮件数量（读取触发器维护的 mailbox_summary）
      */
     public int countUnreadByOwner(String owner) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM emails WHERE owner = ? AND is_read = false AND is_deleted = false";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, owner);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1);
-                }
-            }
+        try (Connection conn = DatabaseConfig.getConnection(owner)) {
+            return COUNT_UNREAD.first(conn, NamedQuery.params(owner), rs -> rs.getInt(1)).orElse(0);
         }
-        
-        return 0;
     }
     
     /**
      * 标记邮件为已读
      */
     public boolean markAsRead(UUID id) throws SQLException {
-        String sql = "UPDATE emails SET is_read = true WHERE id = ?";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            return stmt.executeUpdate() > 0;
-        }
+        return updateById(MARK_READ, id);
     }
     
     /**
      * 标记邮件为已删除
      */
     public boolean markAsDeleted(UUID id) throws SQLException {
-        String sql = "UPDATE emails SET is_deleted = true WHERE id = ?";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            return stmt.executeUpdate() > 0;
-        }
+        return updateById(MARK_DELETED, id);
     }
     
     /**
      * 物理删除邮件
      */
     public boolean delete(UUID id) throws SQLException {
-        String sql = "DELETE FROM emails WHERE id = ?";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setObject(1, id);
-            return stmt.executeUpdate() > 0;
-        }
+        return updateById(DELETE, id);
     }
     
     /**
      * 检查域名是否为本地域名
      */
     public boolean isLocalDomain(String domain) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM mail_domains WHERE domain = ? AND is_local = true AND is_enabled = true";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, domain.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            return IS_LOCAL_DOMAIN.first(conn, NamedQuery.params(domain.toLowerCase()), rs -> true).isPresent();
+        }
+    }
+    
+    /**
+     * 获取用户存储的密码（BCrypt 哈希，或旧数据中的明文）
+     * 用户不存在或已禁用时返回 null
+     */
+    public String findPasswordHash(String email) throws SQLException {
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            return PASSWORD_HASH.first(conn, NamedQuery.params(email.toLowerCase()), rs -> rs.getString(1))
+                    .orElse(null);
         }
-        
-        return false;
     }
     
     /**
      * 检查用户是否存在
      */
     public boolean userExists(String email) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM users WHERE email = ? AND is_enabled = true";
-        
-        try (Connection conn = DatabaseConfig.getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, email.toLowerCase());
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            return USER_EXISTS.first(conn, NamedQuery.params(email.toLowerCase()), rs -> true).isPresent();
         }
-        
-        return false;
     }
     
     /**
-     * 将 ResultSet 映射为 Email 对象
+     * 在所有分片上按 ID 执行更新，任一分片命中即返回 true
      */
-    private Email mapResultSetToEmail(ResultSet rs) throws SQLException {
-        Array recipientsArray = rs.getArray("recipients");
-        String[] recipientsArr = recipientsArray != null ? (String[]) recipientsArray.getArray() : new String[0];
-        
-        return Email.builder()
-                .id(rs.getObject("id", UUID.class))
-                .sender(rs.getString("sender"))
-                .recipients(Arrays.asList(recipientsArr))
-                .subject(rs.getString("subject"))
-                .body(rs.getString("body"))
-                .rawContent(rs.getString("raw_content"))
-                .size(rs.getLong("size"))
-                .receivedAt(rs.getTimestamp("received_at").toInstant())
-                .read(rs.getBoolean("is_read"))
-                .deleted(rs.getBoolean("is_deleted"))
-                .owner(rs.getString("owner"))
-                .build();
+    private boolean updateById(NamedQuery query, UUID id) throws SQLException {
+        List<Integer> updated = DatabaseConfig.getRouter().fanOut((shard, dataSource) -> {
+            try (Connection conn = dataSource.getConnection()) {
+                return query.update(conn, NamedQuery.params(id));
+            }
+        });
+        return updated.stream().mapToInt(Integer::intValue).sum() > 0;
     }
 }
-
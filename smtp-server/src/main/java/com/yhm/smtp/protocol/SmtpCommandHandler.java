@@ -1,13 +1,23 @@
 package com.yhm.smtp.protocol;
 
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.mail.core.data.Bulkhead;
+import com.yhm.mail.core.data.CommandScope;
+import com.yhm.mail.core.data.DatabaseBusyException;
 import com.yhm.mail.core.model.Email;
 import com.yhm.mail.core.util.EmailParser;
 import com.yhm.smtp.config.SmtpServerConfig;
+import com.yhm.smtp.db.DatabaseConfig;
+import com.yhm.smtp.db.DeliveryLogWriter;
+import com.yhm.smtp.db.DeliveryLogWriter.DeliveryLogRecord;
 import com.yhm.smtp.db.EmailRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Base64;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -30,10 +40,27 @@ public class SmtpCommandHandler {
 
     private final SmtpServerConfig config;
     private final EmailRepository emailRepository;
+    private final DeliveryLogWriter deliveryLogWriter;
+    private final CredentialVerifier credentialVerifier;
+    private final Bulkhead rcptLookup;
+    private final Bulkhead ingestWrite;
 
     public SmtpCommandHandler(SmtpServerConfig config) {
+        this(config, null, null);
+    }
+
+    public SmtpCommandHandler(SmtpServerConfig config, DeliveryLogWriter deliveryLogWriter) {
+        this(config, deliveryLogWriter, null);
+    }
+
+    public SmtpCommandHandler(SmtpServerConfig config, DeliveryLogWriter deliveryLogWriter,
+                              CredentialVerifier credentialVerifier) {
         this.config = config;
         this.emailRepository = new EmailRepository();
+        this.deliveryLogWriter = deliveryLogWriter;
+        this.credentialVerifier = credentialVerifier;
+        this.rcptLookup = DatabaseConfig.rcptLookup();
+        this.ingestWrite = DatabaseConfig.ingestWrite();
     }
 
     /**
@@ -47,7 +74,13 @@ public class SmtpCommandHandler {
         // 如果在 DATA 状态，处理邮件数据（包括空行）
         if (session.getState() == SmtpSession.State.DATA) {
             // 在 DATA 模式下，空行是邮件内容的一部分，不应被视为错误
-            return handleDataContent(line == null ? "" : line, session);
+            // 结束符触发的多次写入（每个收件人一份）复用同一个连接
+            return CommandScope.call(() -> handleDataContent(line == null ? "" : line, session));
+        }
+
+        // 334 质询之后的一行是认证数据
+        if (session.isAuthPending()) {
+            return handleAuthResponse(line == null ? "" : line, session);
         }
 
         // 在非 DATA 状态下，空行是语法错误
@@ -61,7 +94,8 @@ public class SmtpCommandHandler {
             case HELO -> handleHelo(line, session);
             case EHLO -> handleEhlo(line, session);
             case MAIL -> handleMailFrom(line, session);
-            case RCPT -> handleRcptTo(line, session);
+            // 域名和用户查询复用同一个连接
+            case RCPT -> CommandScope.call(() -> handleRcptTo(line, session));
             case DATA -> handleData(session);
             case RSET -> handleRset(session);
             case NOOP -> handleNoop();
@@ -69,7 +103,7 @@ public class SmtpCommandHandler {
             case VRFY -> handleVrfy(line, session);
             case HELP -> handleHelp();
             case EXPN -> SmtpResponse.commandNotImplemented();
-            case AUTH -> SmtpResponse.commandNotImplemented();
+            case AUTH -> handleAuth(line, session);
             case STARTTLS -> SmtpResponse.commandNotImplemented();
             case UNKNOWN -> SmtpResponse.syntaxError();
         };
@@ -109,6 +143,16 @@ public class SmtpCommandHandler {
         log.info("EHLO from {} ({})", parts[1].trim(), session.getRemoteAddress());
 
         // 返回支持的扩展
+        if (credentialVerifier != null) {
+            return SmtpResponse.ehloResponse(
+                    config.getDomain(),
+                    "SIZE " + config.getMaxMessageSize(),
+                    "8BITMIME",
+                    "PIPELINING",
+                    "ENHANCEDSTATUSCODES",
+                    "AUTH PLAIN",
+                    "HELP");
+        }
         return SmtpResponse.ehloResponse(
                 config.getDomain(),
                 "SIZE " + config.getMaxMessageSize(),
@@ -118,6 +162,111 @@ public class SmtpCommandHandler {
                 "HELP");
     }
 
+    /**
+     * 处理 AUTH 命令（RFC 4954，仅支持 PLAIN）
+     * AUTH PLAIN [initial-response]
+     */
+    private String handleAuth(String line, SmtpSession session) {
+        if (credentialVerifier == null) {
+            return SmtpResponse.commandNotImplemented();
+        }
+
+        // AUTH 只能在 EHLO 之后、邮件事务之外使用
+        if (session.getState() != SmtpSession.State.READY || !session.isExtendedMode()) {
+            return SmtpResponse.badSequence();
+        }
+
+        if (session.isAuthenticated()) {
+            return SmtpResponse.alreadyAuthenticated();
+        }
+
+        String[] parts = line.trim().split("\\s+", 3);
+        if (parts.length < 2) {
+            return SmtpResponse.parameterSyntaxError();
+        }
+
+        if (!parts[1].equalsIgnoreCase("PLAIN")) {
+            return SmtpResponse.authMechanismNotSupported();
+        }
+
+        if (parts.length == 3) {
+            return verifyPlain(parts[2], session);
+        }
+
+        session.setAuthPending(true);
+        return SmtpResponse.authContinue();
+    }
+
+    /**
+     * 处理 334 质询之后的认证数据
+     */
+    private String handleAuthResponse(String line, SmtpSession session) {
+        session.setAuthPending(false);
+
+        if (line.trim().equals("*")) {
+            return SmtpResponse.authInvalidData("Authentication cancelled");
+        }
+        return verifyPlain(line.trim(), session);
+    }
+
+    /**
+     * 校验 PLAIN 凭据：base64(authzid NUL authcid NUL passwd)
+     */
+    private String verifyPlain(String encoded, SmtpSession session) {
+        String[] fields;
+        try {
+            String decoded = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+            fields = decoded.split("\0", -1);
+        } catch (IllegalArgumentException e) {
+            return SmtpResponse.authInvalidData("Cannot decode response");
+        }
+
+        if (fields.length != 3 || fields[1].isEmpty()) {
+            return SmtpResponse.authInvalidData("Invalid PLAIN response");
+        }
+
+        String authzid = fields[0];
+        String username = fields[1];
+        String password = fields[2];
+
+        // 不支持代理授权
+        if (!authzid.isEmpty() && !authzid.equalsIgnoreCase(username)) {
+            return authRejected(session);
+        }
+
+        try {
+            String storedHash = emailRepository.findPasswordHash(username);
+            return switch (credentialVerifier.verify(username, password, storedHash)) {
+                case ACCEPTED -> {
+                    session.setAuthenticatedUser(username.toLowerCase());
+                    log.info("AUTH PLAIN 成功: {} ({})", username, session.getRemoteAddress());
+                    yield SmtpResponse.authSuccess();
+                }
+                case REJECTED -> {
+                    log.warn("AUTH PLAIN 失败: {} ({})", username, session.getRemoteAddress());
+                    yield authRejected(session);
+                }
+                case BUSY -> SmtpResponse.authTemporaryFailure();
+            };
+        } catch (SQLException e) {
+            log.error("认证时数据库错误: {}", e.getMessage());
+            return SmtpResponse.authTemporaryFailure();
+        }
+    }
+
+    /**
+     * 记录一次认证失败，达到上限时返回 421 并结束会话
+     */
+    private String authRejected(SmtpSession session) {
+        session.incrementAuthFailedAttempts();
+        if (session.getAuthFailedAttempts() >= config.getAuthFailedMaxAttempts()) {
+            log.warn("认证失败次数过多，断开连接: {}", session.getRemoteAddress());
+            session.setState(SmtpSession.State.QUIT);
+            return SmtpResponse.tooManyAuthFailures(config.getDomain());
+        }
+        return SmtpResponse.authFailed();
+    }
+
     /**
      * 处理 MAIL FROM 命令
      */
@@ -127,6 +276,10 @@ public class SmtpCommandHandler {
             return SmtpResponse.badSequence();
         }
 
+        if (config.isRequireAuth() && !session.isAuthenticated()) {
+            return SmtpResponse.authRequired();
+        }
+
         Matcher matcher = MAIL_FROM_PATTERN.matcher(line);
         if (!matcher.find()) {
             return SmtpResponse.parameterSyntaxError();
@@ -170,26 +323,22 @@ public class SmtpCommandHandler {
 
         // 检查收件人数量限制
         if (session.getRecipients().size() >= config.getMaxRecipients()) {
-            return SmtpResponse.transactionFailed("Too many recipients");
+            return recordFailed(session, List.of(recipient), SmtpResponse.transactionFailed("Too many recipients"));
         }
 
-        // 检查是否为本地域名
-        String domain = EmailParser.extractDomain(recipient);
+        // 检查本地域名和用户（数据库繁忙时返回 451，客户端稍后重试）
+        String rejection;
         try {
-            if (!emailRepository.isLocalDomain(domain)) {
-                // 不接受非本地域名的邮件（不做中继）
-                log.warn("拒绝非本地域名邮件: {} -> {}", session.getSender(), recipient);
-                return SmtpResponse.userNotLocal(recipient);
-            }
-
-            // 检查用户是否存在
-            if (!emailRepository.userExists(recipient)) {
-                log.warn("用户不存在: {}", recipient);
-                return SmtpResponse.userNotFound(recipient);
-            }
+            rejection = rcptLookup.call(() -> checkLocalRecipient(session, recipient));
+        } catch (DatabaseBusyException e) {
+            log.warn("RCPT 查询排队超时: {}", recipient);
+            return recordFailed(session, List.of(recipient), SmtpResponse.systemBusy());
         } catch (SQLException e) {
             log.error("数据库错误: {}", e.getMessage());
-            return SmtpResponse.localError();
+            return recordFailed(session, List.of(recipient), SmtpResponse.localError());
+        }
+        if (rejection != null) {
+            return recordFailed(session, List.of(recipient), rejection);
         }
 
         session.addRecipient(recipient);
@@ -200,6 +349,28 @@ public class SmtpCommandHandler {
         return SmtpResponse.ok("Recipient <" + recipient + "> OK");
     }
 
+    /**
+     * 检查收件人是否为本地用户
+     *
+     * @return 拒绝响应，可以接收时返回 null
+     */
+    private String checkLocalRecipient(SmtpSession session, String recipient) throws SQLException {
+        // 检查是否为本地域名
+        String domain = EmailParser.extractDomain(recipient);
+        if (!emailRepository.isLocalDomain(domain)) {
+            // 不接受非本地域名的邮件（不做中继）
+            log.warn("拒绝非本地域名邮件: {} -> {}", session.getSender(), recipient);
+            return SmtpResponse.userNotLocal(recipient);
+        }
+
+        // 检查用户是否存在
+        if (!emailRepository.userExists(recipient)) {
+            log.warn("用户不存在: {}", recipient);
+            return SmtpResponse.userNotFound(recipient);
+        }
+        return null;
+    }
+
     /**
      * 处理 DATA 命令
      */
@@ -238,8 +409,9 @@ public class SmtpCommandHandler {
 
         // 检查邮件大小
         if (session.getMailData().length() + content.length() > config.getMaxMessageSize()) {
+            String response = recordFailed(session, session.getRecipients(), SmtpResponse.storageExceeded());
             session.resetTransaction();
-            return SmtpResponse.storageExceeded();
+            return response;
         }
 
         session.appendMailData(content);
@@ -259,7 +431,10 @@ public class SmtpCommandHandler {
             Email email = EmailParser.parse(rawContent, session.getSender(), session.getRecipients());
 
             // 为每个收件人保存邮件
-            emailRepository.saveForRecipients(email);
+            List<Email> saved = ingestWrite.call(() -> emailRepository.saveForRecipients(email));
+
+            // 记录投递日志（异步批量写入，不阻塞响应）
+            recordDelivered(session, saved);
 
             log.info("邮件已保存: from={}, to={}, subject={}",
                     email.getSender(),
@@ -271,11 +446,78 @@ public class SmtpCommandHandler {
 
             return SmtpResponse.ok("Message accepted for delivery");
 
+        } catch (DatabaseBusyException e) {
+            log.warn("邮件写入排队超时: from={}, to={}", session.getSender(), session.getRecipients());
+            String response = recordFailed(session, session.getRecipients(), SmtpResponse.systemBusy());
+            session.resetTransaction();
+            return response;
         } catch (SQLException e) {
             log.error("保存邮件失败: {}", e.getMessage(), e);
+            String response = recordFailed(session, session.getRecipients(), SmtpResponse.localError());
             session.resetTransaction();
-            return SmtpResponse.localError();
+            return response;
+        }
+    }
+
+    /**
+     * 为每个已投递的邮件副本提交一条投递日志
+     */
+    private void recordDelivered(SmtpSession session, List<Email> saved) {
+        if (deliveryLogWriter == null) {
+            return;
+        }
+
+        String remoteIp = extractIp(session.getRemoteAddress());
+        for (Email copy : saved) {
+            deliveryLogWriter.record(DeliveryLogRecord.delivered(
+                    copy.getId(),
+                    copy.getOwner(),
+                    session.getClientHostname(),
+                    remoteIp,
+                    "250 Message accepted for delivery"));
+        }
+    }
+
+    /**
+     * 为每个未投递的收件人提交一条投递日志（bounced 或 deferred），返回发给客户端的响应
+     */
+    private String recordFailed(SmtpSession session, List<String> recipients, String response) {
+        if (deliveryLogWriter == null) {
+            return response;
+        }
+
+        String remoteIp = extractIp(session.getRemoteAddress());
+        for (String recipient : recipients) {
+            deliveryLogWriter.record(DeliveryLogRecord.failed(
+                    null,
+                    recipient,
+                    session.getClientHostname(),
+                    remoteIp,
+                    response));
+        }
+        return response;
+    }
+
+    /**
+     * 从 Socket 地址字符串（如 /127.0.0.1:54321）中提取 IP
+     */
+    private static String extractIp(String remoteAddress) {
+        if (remoteAddress == null) {
+            return null;
+        }
+        String addr = remoteAddress;
+        int slash = addr.lastIndexOf('/');
+        if (slash >= 0) {
+            addr = addr.substring(slash + 1);
+        }
+        int colon = addr.lastIndexOf(':');
+        if (colon > 0) {
+            addr = addr.substring(0, colon);
+        }
+        if (addr.startsWith("[") && addr.endsWith("]")) {
+            addr = addr.substring(1, addr.length() - 1);
         }
+        return addr;
     }
 
     /**
@@ -57,8 +57,22 @@ public final class SmtpResponse {
         return sb.toString();
     }
     
+    /**
+     * 235 - 认证成功
+     */
+    public static String authSuccess() {
+        return "235 2.7.0 Authentication successful";
+    }
+    
     // ==================== 3xx 中间响应 ====================
     
+    /**
+     * 334 - 认证质询（AUTH PLAIN 质询为空）
+     */
+    public static String authContinue() {
+        return "334 ";
+    }
+    
     /**
      * 354 - 开始邮件输入
      */
@@ -75,6 +89,13 @@ public final class SmtpResponse {
         return "421 " + domain + " Service not available, closing transmission channel";
     }
     
+    /**
+     * 421 - 认证失败次数过多，断开连接
+     */
+    public static String tooManyAuthFailures(String domain) {
+        return "421 4.7.0 " + domain + " Too many authentication failures, closing transmission channel";
+    }
+    
     /**
      * 450 - 请求的邮件操作未完成：邮箱不可用
      */
@@ -89,6 +110,13 @@ public final class SmtpResponse {
         return "451 Requested action aborted: local error in processing";
     }
     
+    /**
+     * 451 - 数据库繁忙，稍后重试
+     */
+    public static String systemBusy() {
+        return "451 4.3.2 System busy, try again later";
+    }
+    
     /**
      * 452 - 系统存储不足
      */
@@ -96,8 +124,50 @@ public final class SmtpResponse {
         return "452 Requested action not taken: insufficient system storage";
     }
     
+    /**
+     * 454 - 认证暂时失败
+     */
+    public static String authTemporaryFailure() {
+        return "454 4.7.0 Temporary authentication failure";
+    }
+    
     // ==================== 5xx 永久失败 ====================
     
+    /**
+     * 501 - 认证数据无法解码或已取消
+     */
+    public static String authInvalidData(String message) {
+        return "501 5.5.2 " + message;
+    }
+    
+    /**
+     * 503 - 已经认证
+     */
+    public static String alreadyAuthenticated() {
+        return "503 5.5.1 Already authenticated";
+    }
+    
+    /**
+     * 504 - 不支持的认证机制
+     */
+    public static String authMechanismNotSupported() {
+        return "504 5.5.4 Unrecognized authentication type";
+    }
+    
+    /**
+     * 530 - 需要认证
+     */
+    public static String authRequired() {
+        return "530 5.7.0 Authentication required";
+    }
+    
+    /**
+     * 535 - 认证失败
+     */
+    public static String authFailed() {
+        return "535 5.7.8 Authentication credentials invalid";
+    }
+    
     /**
      * 500 - 语法错误，命令无法识别
      */
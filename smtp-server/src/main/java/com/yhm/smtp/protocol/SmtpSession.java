@@ -52,6 +52,9 @@ public class SmtpSession {
     private final String remoteAddress;
     private final long connectionTime;
     private boolean extendedMode = false;
+    private String authenticatedUser;
+    private boolean authPending = false;
+    private int authFailedAttempts;
     
     public SmtpSession(String remoteAddress) {
         this.remoteAddress = remoteAddress;
@@ -76,6 +79,39 @@ public class SmtpSession {
         this.extendedMode = extendedMode;
     }
     
+    // ==================== 认证 ====================
+    
+    public String getAuthenticatedUser() {
+        return authenticatedUser;
+    }
+    
+    public void setAuthenticatedUser(String authenticatedUser) {
+        this.authenticatedUser = authenticatedUser;
+    }
+    
+    public boolean isAuthenticated() {
+        return authenticatedUser != null;
+    }
+    
+    /**
+     * 已发出 334 质询，下一行是客户端的认证数据
+     */
+    public boolean isAuthPending() {
+        return authPending;
+    }
+    
+    public void setAuthPending(boolean authPending) {
+        this.authPending = authPending;
+    }
+    
+    public int getAuthFailedAttempts() {
+        return authFailedAttempts;
+    }
+    
+    public void incrementAuthFailedAttempts() {
+        authFailedAttempts++;
+    }
+    
     // ==================== 客户端信息 ====================
     
     public String getClientHostname() {
@@ -173,6 +209,7 @@ public class SmtpSession {
                 ", recipients=" + recipients +
                 ", remoteAddress='" + remoteAddress + '\'' +
                 ", extendedMode=" + extendedMode +
+                ", authenticatedUser='" + authenticatedUser + '\'' +
                 '}';
     }
 }
@@ -1,6 +1,8 @@
 package com.yhm.smtp.server;
 
+import com.yhm.mail.core.auth.CredentialVerifier;
 import com.yhm.smtp.config.SmtpServerConfig;
+import com.yhm.smtp.db.DeliveryLogWriter;
 import com.yhm.smtp.protocol.SmtpCommandHandler;
 import com.yhm.smtp.protocol.SmtpResponse;
 import com.yhm.smtp.protocol.SmtpSession;
@@ -27,9 +29,18 @@ public class SmtpConnectionHandler implements Runnable {
     private final SmtpSession session;
     
     public SmtpConnectionHandler(Socket socket, SmtpServerConfig config) {
+        this(socket, config, null);
+    }
+    
+    public SmtpConnectionHandler(Socket socket, SmtpServerConfig config, DeliveryLogWriter deliveryLogWriter) {
+        this(socket, config, deliveryLogWriter, null);
+    }
+    
+    public SmtpConnectionHandler(Socket socket, SmtpServerConfig config, DeliveryLogWriter deliveryLogWriter,
+                                 CredentialVerifier credentialVerifier) {
         this.socket = socket;
         this.config = config;
-        this.commandHandler = new SmtpCommandHandler(config);
+        this.commandHandler = new SmtpCommandHandler(config, deliveryLogWriter, credentialVerifier);
         this.session = new SmtpSession(socket.getRemoteSocketAddress().toString());
     }
     
@@ -55,7 +66,7 @@ public class SmtpConnectionHandler implements Runnable {
                 // 主循环：读取并处理命令
                 String line;
                 while ((line = readLine(reader)) != null) {
-                    log.debug("收到: {}", line);
+                    log.debug("收到: {}", maskCredentials(line));
                     
                     // 处理命令
                     String response = commandHandler.handleCommand(line, session);
@@ -103,6 +114,20 @@ public class SmtpConnectionHandler implements Runnable {
         return line;
     }
     
+    /**
+     * 掩码认证数据（用于日志）
+     */
+    private String maskCredentials(String line) {
+        if (session.isAuthPending()) {
+            return "********";
+        }
+        if (line.regionMatches(true, 0, "AUTH ", 0, 5)) {
+            String[] parts = line.split("\\s+", 3);
+            return parts.length == 3 ? parts[0] + " " + parts[1] + " ********" : line;
+        }
+        return line;
+    }
+    
     /**
      * 发送响应
      * 确保以 CRLF 结束
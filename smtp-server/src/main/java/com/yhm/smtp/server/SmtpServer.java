@@ -1,8 +1,14 @@
 package com.yhm.smtp.server;
 
+import com.yhm.mail.core.auth.CredentialVerifier;
+import com.yhm.mail.core.data.SchemaInitializer;
+import com.yhm.mail.core.metrics.MetricsRegistry;
+import com.yhm.mail.core.metrics.MetricsReporter;
 import com.yhm.smtp.config.SmtpServerConfig;
 import com.yhm.smtp.db.DatabaseConfig;
-import com.yhm.smtp.db.DatabaseInitializer;
+import com.yhm.smtp.db.DeliveryLogWriter;
+import com.yhm.smtp.db.EmailPartitionMaintainer;
+import com.yhm.smtp.db.EmailPurger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,6 +16,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.file.Path;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -33,6 +40,11 @@ public class SmtpServer {
     
     private ServerSocket serverSocket;
     private ExecutorService virtualThreadExecutor;
+    private DeliveryLogWriter deliveryLogWriter;
+    private CredentialVerifier credentialVerifier;
+    private EmailPartitionMaintainer partitionMaintainer;
+    private EmailPurger purger;
+    private MetricsReporter metricsReporter;
     
     public SmtpServer(SmtpServerConfig config) {
         this.config = config;
@@ -51,7 +63,50 @@ public class SmtpServer {
         log.info("配置: {}", config);
         
         // 初始化数据库
-        DatabaseInitializer.initialize();
+        SchemaInitializer.initialize(DatabaseConfig.getRouter());
+        
+        // 启动投递日志批量写入器
+        deliveryLogWriter = new DeliveryLogWriter(
+                config.getDeliveryLogBatchSize(),
+                config.getDeliveryLogFlushInterval(),
+                config.getDeliveryLogBufferCapacity(),
+                Path.of(config.getDeliveryLogSpillFile()));
+        deliveryLogWriter.start();
+        
+        // 邮件分区维护（预建分区、按保留期删除过期分区）
+        partitionMaintainer = new EmailPartitionMaintainer(
+                config.getPartitionMonthsAhead(),
+                config.getRetentionMonths());
+        partitionMaintainer.start();
+        
+        // 软删除邮件的后台清理（按复制延迟和负载分批物理删除）
+        if (config.getPurgeInterval() > 0) {
+            purger = new EmailPurger(
+                    config.getPurgeGraceDays(),
+                    config.getTombstoneRetentionDays(),
+                    config.getPurgeBatchSize(),
+                    config.getPurgeBatchPause(),
+                    config.getPurgeInterval(),
+                    config.getPurgeMaxReplicationLag(),
+                    config.getPurgeMaxActiveQueries());
+            purger.start();
+        }
+        
+        // AUTH PLAIN 密码校验（BCrypt 线程池 + 成功结果缓存）
+        // 服务器没有 TLS，只有显式允许明文认证时才提供 AUTH
+        if (config.isAllowPlaintextAuth()) {
+            credentialVerifier = new CredentialVerifier(
+                    config.getAuthCacheTtl(),
+                    config.getAuthCacheMaxEntries(),
+                    config.getAuthHashThreads(),
+                    config.getAuthHashQueueCapacity());
+        } else if (config.isRequireAuth()) {
+            log.warn("smtp.requireAuth=true 但 smtp.allowPlaintextAuth=false，客户端无法认证，所有 MAIL FROM 都会被拒绝");
+        }
+        
+        // 定期输出运行指标
+        metricsReporter = new MetricsReporter(MetricsRegistry.global(), config.getMetricsReportInterval());
+        metricsReporter.start();
         
         // 创建虚拟线程执行器
         // Java 21+ 支持虚拟线程
@@ -98,7 +153,7 @@ public class SmtpServer {
                 // 使用虚拟线程处理连接
                 virtualThreadExecutor.submit(() -> {
                     try {
-                        new SmtpConnectionHandler(clientSocket, config).run();
+                        new SmtpConnectionHandler(clientSocket, config, deliveryLogWriter, credentialVerifier).run();
                     } finally {
                         activeConnections.decrementAndGet();
                     }
@@ -151,6 +206,27 @@ public class SmtpServer {
             }
         }
         
+        if (partitionMaintainer != null) {
+            partitionMaintainer.stop();
+        }
+        
+        if (purger != null) {
+            purger.stop();
+        }
+        
+        if (metricsReporter != null) {
+            metricsReporter.stop();
+        }
+        
+        // 写完剩余的投递日志（需在关闭连接池之前）
+        if (deliveryLogWriter != null) {
+            deliveryLogWriter.stop();
+        }
+        
+        if (credentialVerifier != null) {
+            credentialVerifier.close();
+        }
+        
         // 关闭数据库连接池
         DatabaseConfig.shutdown();
         
@@ -0,0 +1,184 @@
+package com.yhm.smtp;
+
+import com.yhm.smtp.db.DatabaseConfig;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * 邮件全文检索延迟基准测试
+ *
+ * 向 emails 写入指定数量的测试邮件（主题、正文由固定词表随机组成，分布在 1000 个测试邮箱中），
+ * 然后用管理后台的检索 SQL（search_vector + idx_emails_search）测量三类查询的延迟：
+ * 罕见词全局检索、常见词全局检索（取前 20 条需要对全部命中计算相关度）、按邮箱过滤的检索。
+ * 需要先用 schema.sql 初始化数据库（不分片），写入后执行 migrations/add_email_search_index.sql 建索引。
+ *
+ * 用法: EmailSearchBenchmark [写入邮件数=10000000] [每类查询次数=20]
+ * 写入邮件数为 0 时只测量；10M 测完后再写入 90000000 即可测量 100M。
+ */
+public class EmailSearchBenchmark {
+
+    private static final String DOMAIN = "localhost";
+    private static final int MAILBOXES = 1000;
+    private static final int SEED_BATCH = 1_000_000;
+    private static final int LIMIT = 20;
+
+    // 常见词按 1/50 的概率出现在每个位置，罕见词只出现在约十万分之一的邮件中
+    private static final String SEED_SQL = """
+            INSERT INTO emails (sender, recipients, subject, body, raw_content, size, received_at, owner)
+            SELECT 'sender' || (n % 5000) || '@bench.example', ARRAY[owner], subject, body,
+                   'Subject: ' || subject || E'\\r\\n\\r\\n' || body, length(body), now() - random() * interval '25 days', owner
+            FROM (
+                SELECT n,
+                       'bench' || (n % ?) || '@' || ? AS owner,
+                       words[1 + (random() * 49)::int] || ' ' || words[1 + (random() * 49)::int]
+                           || ' report ' || n AS subject,
+                       -- 子查询引用 n，每封邮件重新生成正文
+                       array_to_string(ARRAY(SELECT words[1 + (random() * 49)::int]
+                                             FROM generate_series(1, 60) AS g WHERE n > 0), ' ')
+                           || CASE WHEN n % 100000 = 7 THEN ' zanzibar' ELSE '' END AS body
+                FROM generate_series(1, ?) AS n,
+                     (SELECT ARRAY['invoice', 'meeting', 'travel', 'budget', 'project', 'release', 'server',
+                                   'database', 'customer', 'contract', 'holiday', 'schedule', 'quarter', 'review',
+                                   'design', 'network', 'security', 'payment', 'shipping', 'order', 'account',
+                                   'password', 'update', 'weekly', 'monthly', 'summary', 'feedback', 'support',
+                                   'ticket', 'incident', 'deploy', 'backup', 'storage', 'invite', 'agenda',
+                                   'minutes', 'draft', 'final', 'approval', 'request', 'renewal', 'license',
+                                   'training', 'webinar', 'newsletter', 'offer', 'discount', 'receipt',
+                                   'statement', 'notice'] AS words) AS w
+            ) AS m
+            """;
+
+    private static final String SEARCH_SQL = """
+            SELECT id, ts_rank_cd(search_vector, query) AS rank
+            FROM emails, to_tsquery('simple', ?) AS query
+            WHERE search_vector @@ query
+            ORDER BY rank DESC, received_at DESC, id DESC LIMIT ?
+            """;
+
+    private static final String OWNER_SEARCH_SQL = """
+            SELECT id, ts_rank_cd(search_vector, query) AS rank
+            FROM emails, to_tsquery('simple', ?) AS query
+            WHERE search_vector @@ query AND owner = ?
+            ORDER BY rank DESC, received_at DESC, id DESC LIMIT ?
+            """;
+
+    public static void main(String[] args) throws Exception {
+        long seedCount = args.length > 0 ? Long.parseLong(args[0]) : 10_000_000L;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("========== 邮件全文检索基准测试 ==========");
+
+        try (Connection conn = DatabaseConfig.getConnection()) {
+            if (seedCount > 0) {
+                seed(conn, seedCount);
+            }
+            System.out.printf("emails 估算行数: %d%n%n", estimatedRows(conn));
+
+            report("罕见词（全局）", measure(queries, i -> search(conn, "zanzibar:*", null)));
+            report("常见词（全局）", measure(queries, i -> search(conn, "invoice:* & meeting:*", null)));
+            report("常见词（单个邮箱）", measure(queries,
+                    i -> search(conn, "invoice:*", "bench" + (i % MAILBOXES) + "@" + DOMAIN)));
+        }
+
+        DatabaseConfig.shutdown();
+    }
+
+    /**
+     * 创建测试邮箱并分批写入邮件，写完后 ANALYZE
+     */
+    private static void seed(Connection conn, long count) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("""
+                INSERT INTO users (username, domain, email, password_hash)
+                SELECT 'bench' || n, ?, 'bench' || n || '@' || ?, 'x'
+                FROM generate_series(0, ? - 1) AS n
+                ON CONFLICT (email) DO NOTHING
+                """)) {
+            stmt.setString(1, DOMAIN);
+            stmt.setString(2, DOMAIN);
+            stmt.setInt(3, MAILBOXES);
+            stmt.executeUpdate();
+        }
+
+        long begin = System.nanoTime();
+        for (long written = 0; written < count; written += SEED_BATCH) {
+            int batch = (int) Math.min(SEED_BATCH, count - written);
+            try (PreparedStatement stmt = conn.prepareStatement(SEED_SQL)) {
+                stmt.setInt(1, MAILBOXES);
+                stmt.setString(2, DOMAIN);
+                stmt.setInt(3, batch);
+                stmt.executeUpdate();
+            }
+            System.out.printf("已写入 %d / %d 封%n", written + batch, count);
+        }
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ANALYZE emails");
+        }
+        System.out.printf("写入耗时 %d s%n", (System.nanoTime() - begin) / 1_000_000_000L);
+    }
+
+    private static long estimatedRows(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("""
+                     SELECT COALESCE(SUM(reltuples), 0)::bigint FROM pg_class
+                     WHERE oid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = 'emails'::regclass)
+                     """)) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * 执行一次检索
+     * @return 命中数量
+     */
+    private static int search(Connection conn, String query, String owner) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(owner != null ? OWNER_SEARCH_SQL : SEARCH_SQL)) {
+            int index = 1;
+            stmt.setString(index++, query);
+            if (owner != null) {
+                stmt.setString(index++, owner);
+            }
+            stmt.setInt(index, LIMIT);
+            int rows = 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                }
+            }
+            return rows;
+        }
+    }
+
+    @FunctionalInterface
+    private interface Query {
+        int run(int iteration) throws SQLException;
+    }
+
+    /**
+     * 先执行一次预热，再计时 queries 次
+     * @return 每次的耗时（毫秒）
+     */
+    private static double[] measure(int queries, Query query) throws SQLException {
+        query.run(0);
+        double[] millis = new double[queries];
+        for (int i = 0; i < queries; i++) {
+            long begin = System.nanoTime();
+            query.run(i + 1);
+            millis[i] = (System.nanoTime() - begin) / 1_000_000.0;
+        }
+        return millis;
+    }
+
+    private static void report(String name, double[] millis) {
+        double[] sorted = millis.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: p50 %.1f ms, p95 %.1f ms, 最大 %.1f ms%n", name,
+                sorted[sorted.length / 2],
+                sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * 0.95) - 1)],
+                sorted[sorted.length - 1]);
+    }
+}
@@ -2,7 +2,7 @@
 
 # 邮件系统启动脚本
 # 使用方法: ./start-servers.sh [component]
-# component: all, db, smtp, pop3, admin
+# component: all, db, smtp, pop3, imap, admin
 
 set -e
 
@@ -62,9 +62,20 @@ start_pop3() {
     echo -e "${GREEN}POP3服务器已启动${NC}"
 }
 
+# 启动IMAP服务器
+start_imap() {
+    echo -e "${YELLOW}启动IMAP服务器 (端口: 1430)...${NC}"
+    cd imap-server
+    MAVEN_OPTS="--enable-preview" mvn exec:java -Dexec.mainClass="com.yhm.imap.ImapServerMain" &
+    cd ..
+    echo -e "${GREEN}IMAP服务器已启动${NC}"
+}
+
 # 启动管理后台
 start_admin() {
     echo -e "${YELLOW}启动管理后台 (端口: 8000)...${NC}"
+    # 管理后台不是根项目的模块，先把它依赖的 mail-core 安装到本地仓库
+    mvn -q install -pl mail-core -am -DskipTests
     cd admin-web
     mvn spring-boot:run &
     cd ..
@@ -84,6 +95,7 @@ show_status() {
     echo -e "  - PostgreSQL: ${YELLOW}5432${NC}"
     echo -e "  - SMTP服务器: ${YELLOW}2525${NC}"
     echo -e "  - POP3服务器: ${YELLOW}1100${NC}"
+    echo -e "  - IMAP服务器: ${YELLOW}1430${NC}"
     echo -e "  - 管理后台:   ${YELLOW}8000${NC}"
     echo ""
     echo -e "管理后台地址: ${YELLOW}http://$SERVER_IP:8000${NC}"
@@ -110,6 +122,9 @@ main() {
         pop3)
             start_pop3
             ;;
+        imap)
+            start_imap
+            ;;
         admin)
             start_admin
             ;;
@@ -120,11 +135,13 @@ main() {
             sleep 2
             start_pop3
             sleep 2
+            start_imap
+            sleep 2
             start_admin
             show_status
             ;;
         *)
-            echo "用法: $0 [all|db|smtp|pop3|admin]"
+            echo "用法: $0 [all|db|smtp|pop3|imap|admin]"
             exit 1
             ;;
     esac